@@ -0,0 +1,157 @@
+// File generated by hadoop record compiler. Do not edit.
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.zookeeper.proto;
+
+import org.apache.jute.*;
+public class GetChildrenDataRequest implements Record {
+  private String path;
+  private int depth;
+  private String cursor;
+  private int maxBytes;
+  public GetChildrenDataRequest() {
+  }
+  public GetChildrenDataRequest(
+        String path,
+        int depth,
+        String cursor,
+        int maxBytes) {
+    this.path=path;
+    this.depth=depth;
+    this.cursor=cursor;
+    this.maxBytes=maxBytes;
+  }
+  public String getPath() {
+    return path;
+  }
+  public void setPath(String m_) {
+    path=m_;
+  }
+  public int getDepth() {
+    return depth;
+  }
+  public void setDepth(int m_) {
+    depth=m_;
+  }
+  public String getCursor() {
+    return cursor;
+  }
+  public void setCursor(String m_) {
+    cursor=m_;
+  }
+  public int getMaxBytes() {
+    return maxBytes;
+  }
+  public void setMaxBytes(int m_) {
+    maxBytes=m_;
+  }
+  public void serialize(OutputArchive a_, String tag) throws java.io.IOException {
+    a_.startRecord(this,tag);
+    a_.writeString(path,"path");
+    a_.writeInt(depth,"depth");
+    a_.writeString(cursor,"cursor");
+    a_.writeInt(maxBytes,"maxBytes");
+    a_.endRecord(this,tag);
+  }
+  public void deserialize(InputArchive a_, String tag) throws java.io.IOException {
+    a_.startRecord(tag);
+    path=a_.readString("path");
+    depth=a_.readInt("depth");
+    cursor=a_.readString("cursor");
+    maxBytes=a_.readInt("maxBytes");
+    a_.endRecord(tag);
+}
+  public String toString() {
+    try {
+      java.io.ByteArrayOutputStream s =
+        new java.io.ByteArrayOutputStream();
+      CsvOutputArchive a_ = 
+        new CsvOutputArchive(s);
+      a_.startRecord(this,"");
+    a_.writeString(path,"path");
+    a_.writeInt(depth,"depth");
+    a_.writeString(cursor,"cursor");
+    a_.writeInt(maxBytes,"maxBytes");
+      a_.endRecord(this,"");
+      return new String(s.toByteArray(), "UTF-8");
+    } catch (Throwable ex) {
+      ex.printStackTrace();
+    }
+    return "ERROR";
+  }
+  public void write(java.io.DataOutput out) throws java.io.IOException {
+    BinaryOutputArchive archive = new BinaryOutputArchive(out);
+    serialize(archive, "");
+  }
+  public void readFields(java.io.DataInput in) throws java.io.IOException {
+    BinaryInputArchive archive = new BinaryInputArchive(in);
+    deserialize(archive, "");
+  }
+  public int compareTo (Object peer_) throws ClassCastException {
+    if (!(peer_ instanceof GetChildrenDataRequest)) {
+      throw new ClassCastException("Comparing different types of records.");
+    }
+    GetChildrenDataRequest peer = (GetChildrenDataRequest) peer_;
+    int ret = 0;
+    ret = path.compareTo(peer.path);
+    if (ret != 0) return ret;
+    ret = (depth == peer.depth)? 0 :((depth<peer.depth)?-1:1);
+    if (ret != 0) return ret;
+    ret = cursor.compareTo(peer.cursor);
+    if (ret != 0) return ret;
+    ret = (maxBytes == peer.maxBytes)? 0 :((maxBytes<peer.maxBytes)?-1:1);
+    if (ret != 0) return ret;
+     return ret;
+  }
+  public boolean equals(Object peer_) {
+    if (!(peer_ instanceof GetChildrenDataRequest)) {
+      return false;
+    }
+    if (peer_ == this) {
+      return true;
+    }
+    GetChildrenDataRequest peer = (GetChildrenDataRequest) peer_;
+    boolean ret = false;
+    ret = path.equals(peer.path);
+    if (!ret) return ret;
+    ret = (depth==peer.depth);
+    if (!ret) return ret;
+    ret = cursor.equals(peer.cursor);
+    if (!ret) return ret;
+    ret = (maxBytes==peer.maxBytes);
+    if (!ret) return ret;
+     return ret;
+  }
+  public int hashCode() {
+    int result = 17;
+    int ret;
+    ret = path.hashCode();
+    result = 37*result + ret;
+    ret = (int)depth;
+    result = 37*result + ret;
+    ret = cursor.hashCode();
+    result = 37*result + ret;
+    ret = (int)maxBytes;
+    result = 37*result + ret;
+    return result;
+  }
+  public static String signature() {
+    return "LGetChildrenDataRequest(sisi)";
+  }
+}
@@ -0,0 +1,308 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.zookeeper.AsyncCallback.ACLCallback;
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.DataTree;
+
+/**
+ * Future based view of the asynchronous {@link ZooKeeper} API. Every call
+ * returns a {@link ZooKeeperFuture} that completes with the same result the
+ * synchronous call would return, or with the KeeperException it would throw.
+ * <p>
+ * The futures are completed on the client's event thread, which only has
+ * to record the result; listeners run on the executor passed to the
+ * constructor. Listeners registered before their future completes are
+ * handed to the executor in the order the server replied, so a single
+ * threaded executor preserves the per-session ordering guarantee for them
+ * while a pool trades it for parallelism. A listener registered after
+ * completion is handed to the executor when it is registered, and so is
+ * not ordered with the other replies.
+ *
+ * @since 3.6.0
+ */
+public class AsyncZooKeeper {
+    private final ZooKeeper zk;
+
+    private final Executor executor;
+
+    public AsyncZooKeeper(ZooKeeper zk, Executor executor) {
+        this.zk = zk;
+        this.executor = executor;
+    }
+
+    public ZooKeeper getZooKeeper() {
+        return zk;
+    }
+
+    /**
+     * @see ZooKeeper#create(String, byte[], List, CreateMode)
+     */
+    public ZooKeeperFuture<String> create(String path, byte data[],
+            List<ACL> acl, CreateMode createMode) {
+        final ZooKeeperFuture<String> f = newFuture();
+        zk.create(path, data, acl, createMode, new StringCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    String name) {
+                if (rc == Code.OK.intValue()) {
+                    f.set(name);
+                } else {
+                    f.setException(KeeperException.create(Code.get(rc), path));
+                }
+            }
+        }, null);
+        return f;
+    }
+
+    /**
+     * @see ZooKeeper#delete(String, int)
+     */
+    public ZooKeeperFuture<Void> delete(String path, int version) {
+        final ZooKeeperFuture<Void> f = newFuture();
+        zk.delete(path, version, voidCallback(f), null);
+        return f;
+    }
+
+    /**
+     * Completes with null if the node does not exist.
+     *
+     * @see ZooKeeper#exists(String, Watcher)
+     */
+    public ZooKeeperFuture<Stat> exists(String path, Watcher watcher) {
+        final ZooKeeperFuture<Stat> f = newFuture();
+        zk.exists(path, watcher, existsCallback(f), null);
+        return f;
+    }
+
+    /**
+     * @see ZooKeeper#exists(String, boolean)
+     */
+    public ZooKeeperFuture<Stat> exists(String path, boolean watch) {
+        final ZooKeeperFuture<Stat> f = newFuture();
+        zk.exists(path, watch, existsCallback(f), null);
+        return f;
+    }
+
+    /**
+     * The stat, if not null, is filled in before the future completes.
+     *
+     * @see ZooKeeper#getData(String, Watcher, Stat)
+     */
+    public ZooKeeperFuture<byte[]> getData(String path, Watcher watcher,
+            Stat stat) {
+        final ZooKeeperFuture<byte[]> f = newFuture();
+        zk.getData(path, watcher, dataCallback(f, stat), null);
+        return f;
+    }
+
+    /**
+     * @see ZooKeeper#getData(String, boolean, Stat)
+     */
+    public ZooKeeperFuture<byte[]> getData(String path, boolean watch,
+            Stat stat) {
+        final ZooKeeperFuture<byte[]> f = newFuture();
+        zk.getData(path, watch, dataCallback(f, stat), null);
+        return f;
+    }
+
+    /**
+     * @see ZooKeeper#setData(String, byte[], int)
+     */
+    public ZooKeeperFuture<Stat> setData(String path, byte data[],
+            int version) {
+        final ZooKeeperFuture<Stat> f = newFuture();
+        zk.setData(path, data, version, statCallback(f), null);
+        return f;
+    }
+
+    /**
+     * @see ZooKeeper#getACL(String, Stat)
+     */
+    public ZooKeeperFuture<List<ACL>> getACL(String path, final Stat stat) {
+        final ZooKeeperFuture<List<ACL>> f = newFuture();
+        zk.getACL(path, stat, new ACLCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    List<ACL> acl, Stat s) {
+                if (rc == Code.OK.intValue()) {
+                    if (stat != null) {
+                        DataTree.copyStat(s, stat);
+                    }
+                    f.set(acl);
+                } else {
+                    f.setException(KeeperException.create(Code.get(rc), path));
+                }
+            }
+        }, null);
+        return f;
+    }
+
+    /**
+     * @see ZooKeeper#setACL(String, List, int)
+     */
+    public ZooKeeperFuture<Stat> setACL(String path, List<ACL> acl,
+            int version) {
+        final ZooKeeperFuture<Stat> f = newFuture();
+        zk.setACL(path, acl, version, statCallback(f), null);
+        return f;
+    }
+
+    /**
+     * The stat, if not null, is filled in before the future completes.
+     *
+     * @see ZooKeeper#getChildren(String, Watcher, Stat)
+     */
+    public ZooKeeperFuture<List<String>> getChildren(String path,
+            Watcher watcher, Stat stat) {
+        final ZooKeeperFuture<List<String>> f = newFuture();
+        zk.getChildren(path, watcher, childrenCallback(f, stat), null);
+        return f;
+    }
+
+    /**
+     * @see ZooKeeper#getChildren(String, boolean, Stat)
+     */
+    public ZooKeeperFuture<List<String>> getChildren(String path,
+            boolean watch, Stat stat) {
+        final ZooKeeperFuture<List<String>> f = newFuture();
+        zk.getChildren(path, watch, childrenCallback(f, stat), null);
+        return f;
+    }
+
+    /**
+     * @see ZooKeeper#sync(String, VoidCallback, Object)
+     */
+    public ZooKeeperFuture<Void> sync(String path) {
+        final ZooKeeperFuture<Void> f = newFuture();
+        zk.sync(path, voidCallback(f), null);
+        return f;
+    }
+
+    /**
+     * On failure the future completes with a KeeperException whose
+     * {@link KeeperException#getResults()} holds the per-op results.
+     *
+     * @see ZooKeeper#multi(Iterable)
+     */
+    public ZooKeeperFuture<List<OpResult>> multi(Iterable<Op> ops) {
+        final ZooKeeperFuture<List<OpResult>> f = newFuture();
+        zk.multi(ops, new MultiCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    List<OpResult> opResults) {
+                if (rc == Code.OK.intValue()) {
+                    f.set(opResults);
+                } else {
+                    KeeperException e = KeeperException.create(Code.get(rc));
+                    e.setMultiResults(opResults);
+                    f.setException(e);
+                }
+            }
+        }, null);
+        return f;
+    }
+
+    private <T> ZooKeeperFuture<T> newFuture() {
+        return new ZooKeeperFuture<T>(executor);
+    }
+
+    private static VoidCallback voidCallback(final ZooKeeperFuture<Void> f) {
+        return new VoidCallback() {
+            public void processResult(int rc, String path, Object ctx) {
+                if (rc == Code.OK.intValue()) {
+                    f.set(null);
+                } else {
+                    f.setException(KeeperException.create(Code.get(rc), path));
+                }
+            }
+        };
+    }
+
+    private static StatCallback statCallback(final ZooKeeperFuture<Stat> f) {
+        return new StatCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    Stat stat) {
+                if (rc == Code.OK.intValue()) {
+                    f.set(stat);
+                } else {
+                    f.setException(KeeperException.create(Code.get(rc), path));
+                }
+            }
+        };
+    }
+
+    private static StatCallback existsCallback(final ZooKeeperFuture<Stat> f) {
+        return new StatCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    Stat stat) {
+                if (rc == Code.OK.intValue()) {
+                    f.set(stat);
+                } else if (rc == Code.NONODE.intValue()) {
+                    f.set(null);
+                } else {
+                    f.setException(KeeperException.create(Code.get(rc), path));
+                }
+            }
+        };
+    }
+
+    private static DataCallback dataCallback(final ZooKeeperFuture<byte[]> f,
+            final Stat stat) {
+        return new DataCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    byte data[], Stat s) {
+                if (rc == Code.OK.intValue()) {
+                    if (stat != null) {
+                        DataTree.copyStat(s, stat);
+                    }
+                    f.set(data);
+                } else {
+                    f.setException(KeeperException.create(Code.get(rc), path));
+                }
+            }
+        };
+    }
+
+    private static Children2Callback childrenCallback(
+            final ZooKeeperFuture<List<String>> f, final Stat stat) {
+        return new Children2Callback() {
+            public void processResult(int rc, String path, Object ctx,
+                    List<String> children, Stat s) {
+                if (rc == Code.OK.intValue()) {
+                    if (stat != null) {
+                        DataTree.copyStat(s, stat);
+                    }
+                    f.set(children);
+                } else {
+                    f.setException(KeeperException.create(Code.get(rc), path));
+                }
+            }
+        };
+    }
+}
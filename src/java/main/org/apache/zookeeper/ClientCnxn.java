@@ -126,8 +126,22 @@ static class AuthData {
         byte data[];
     }
 
+    /**
+     * Number of threads watch notifications are delivered on. With the
+     * default of 0 every watcher runs on the EventThread, interleaved with
+     * the async callbacks. Otherwise each watcher is pinned to one of the
+     * delivery threads, so it still sees its events (and therefore the
+     * events of every path it watches) in order, but a slow watcher only
+     * delays the watchers sharing its thread. Watch notifications are then
+     * no longer ordered with respect to async callbacks.
+     */
+    public static final String WATCH_DELIVERY_THREADS =
+        "zookeeper.client.watchDeliveryThreads";
+
     private final CopyOnWriteArraySet<AuthData> authInfo = new CopyOnWriteArraySet<AuthData>();
 
+    final WatchDeliveryStats watchDeliveryStats = new WatchDeliveryStats(this);
+
     /**
      * These are the packets that have been sent and are waiting for a response.
      */
@@ -233,7 +247,7 @@ public String toString() {
             .append(" recv:").append(sendThread.getClientCnxnSocket().getRecvCount())
             .append(" queuedpkts:").append(outgoingQueue.size())
             .append(" pendingresp:").append(pendingQueue.size())
-            .append(" queuedevents:").append(eventThread.waitingEvents.size());
+            .append(" queuedevents:").append(eventThread.getQueuedEventCount());
 
         return sb.toString();
     }
@@ -424,6 +438,7 @@ public void start() {
     private static class WatcherSetEventPair {
         private final Set<Watcher> watchers;
         private final WatchedEvent event;
+        private final long queuedTime = Time.currentElapsedTime();
 
         public WatcherSetEventPair(Set<Watcher> watchers, WatchedEvent event) {
             this.watchers = watchers;
@@ -455,9 +470,32 @@ class EventThread extends ZooKeeperThread {
        private volatile boolean wasKilled = false;
        private volatile boolean isRunning = false;
 
+        private final WatchDeliveryThread[] deliveryThreads;
+
         EventThread() {
             super(makeThreadName("-EventThread"));
             setDaemon(true);
+            int n = Integer.getInteger(WATCH_DELIVERY_THREADS, 0);
+            deliveryThreads = new WatchDeliveryThread[Math.max(0, n)];
+            for (int i = 0; i < deliveryThreads.length; i++) {
+                deliveryThreads[i] = new WatchDeliveryThread(i);
+            }
+        }
+
+        @Override
+        public synchronized void start() {
+            for (WatchDeliveryThread t : deliveryThreads) {
+                t.start();
+            }
+            super.start();
+        }
+
+        int getQueuedEventCount() {
+            int count = waitingEvents.size();
+            for (WatchDeliveryThread t : deliveryThreads) {
+                count += t.pending.size();
+            }
+            return count;
         }
 
         public void queueEvent(WatchedEvent event) {
@@ -526,6 +564,10 @@ public void run() {
               }
            } catch (InterruptedException e) {
               LOG.error("Event thread exiting due to interruption", e);
+           } finally {
+              for (WatchDeliveryThread t : deliveryThreads) {
+                  t.pending.add(eventOfDeath);
+              }
            }
 
             LOG.info("EventThread shut down for session: 0x{}",
@@ -538,10 +580,13 @@ private void processEvent(Object event) {
                   // each watcher will process the event
                   WatcherSetEventPair pair = (WatcherSetEventPair) event;
                   for (Watcher watcher : pair.watchers) {
-                      try {
-                          watcher.process(pair.event);
-                      } catch (Throwable t) {
-                          LOG.error("Error while calling watcher ", t);
+                      if (deliveryThreads.length == 0) {
+                          deliver(watcher, pair);
+                      } else {
+                          int i = (System.identityHashCode(watcher) & Integer.MAX_VALUE)
+                                  % deliveryThreads.length;
+                          deliveryThreads[i].pending.add(
+                                  new WatcherEventDelivery(watcher, pair));
                       }
                   }
                 } else if (event instanceof LocalCallback) {
@@ -688,6 +733,55 @@ private void processEvent(Object event) {
        }
     }
 
+    private void deliver(Watcher watcher, WatcherSetEventPair pair) {
+        try {
+            watcher.process(pair.event);
+        } catch (Throwable t) {
+            LOG.error("Error while calling watcher ", t);
+        }
+        watchDeliveryStats.record(Time.currentElapsedTime() - pair.queuedTime);
+    }
+
+    private static class WatcherEventDelivery {
+        private final Watcher watcher;
+        private final WatcherSetEventPair pair;
+
+        WatcherEventDelivery(Watcher watcher, WatcherSetEventPair pair) {
+            this.watcher = watcher;
+            this.pair = pair;
+        }
+    }
+
+    /**
+     * Runs the watchers the EventThread hands off when
+     * {@link #WATCH_DELIVERY_THREADS} is set.
+     */
+    class WatchDeliveryThread extends ZooKeeperThread {
+        private final LinkedBlockingQueue<Object> pending =
+            new LinkedBlockingQueue<Object>();
+
+        WatchDeliveryThread(int id) {
+            super(makeThreadName("-EventThread-watch-" + id));
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Object o = pending.take();
+                    if (o == eventOfDeath) {
+                        break;
+                    }
+                    WatcherEventDelivery d = (WatcherEventDelivery) o;
+                    deliver(d.watcher, d.pair);
+                }
+            } catch (InterruptedException e) {
+                LOG.error("Watch delivery thread exiting due to interruption", e);
+            }
+        }
+    }
+
     private void finishPacket(Packet p) {
         int err = p.replyHeader.getErr();
         if (p.watchRegistration != null) {
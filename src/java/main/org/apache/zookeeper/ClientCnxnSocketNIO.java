@@ -26,6 +26,7 @@
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -41,6 +42,17 @@ public class ClientCnxnSocketNIO extends ClientCnxnSocket {
     private static final Logger LOG = LoggerFactory
             .getLogger(ClientCnxnSocketNIO.class);
 
+    /**
+     * Maximum number of queued packets written to the socket with a single
+     * gathering write once the session is established. Set to 1 to write
+     * one packet per selector wakeup.
+     */
+    public static final String SEND_BATCH_SIZE =
+        "zookeeper.clientCnxnSocketNIO.sendBatchSize";
+
+    private final int sendBatchSize =
+        Math.max(1, Integer.getInteger(SEND_BATCH_SIZE, 64));
+
     private final Selector selector = Selector.open();
 
     private SelectionKey sockKey;
@@ -109,24 +121,19 @@ void doIO(List<Packet> pendingQueue, ClientCnxn cnxn)
 
             if (p != null) {
                 updateLastSend();
-                // If we already started writing p, p.bb will already exist
-                if (p.bb == null) {
-                    if ((p.requestHeader != null) &&
-                            (p.requestHeader.getType() != OpCode.ping) &&
-                            (p.requestHeader.getType() != OpCode.auth)) {
-                        p.requestHeader.setXid(cnxn.getXid());
-                    }
-                    p.createBB();
-                }
-                sock.write(p.bb);
-                if (!p.bb.hasRemaining()) {
-                    sentCount++;
-                    outgoingQueue.removeFirstOccurrence(p);
-                    if (p.requestHeader != null
-                            && p.requestHeader.getType() != OpCode.ping
-                            && p.requestHeader.getType() != OpCode.auth) {
-                        synchronized (pendingQueue) {
-                            pendingQueue.add(p);
+                if (initialized && sendBatchSize > 1
+                        && !sendThread.tunnelAuthInProgress()) {
+                    p = writeBatch(sock, pendingQueue, cnxn);
+                } else {
+                    prepareForSend(p, cnxn);
+                    sock.write(p.bb);
+                    if (!p.bb.hasRemaining()) {
+                        sentCount++;
+                        outgoingQueue.removeFirstOccurrence(p);
+                        if (needsResponse(p)) {
+                            synchronized (pendingQueue) {
+                                pendingQueue.add(p);
+                            }
                         }
                     }
                 }
@@ -156,6 +163,67 @@ void doIO(List<Packet> pendingQueue, ClientCnxn cnxn)
         }
     }
 
+    /**
+     * Serializes up to sendBatchSize packets from the head of the outgoing
+     * queue and hands them to the socket in a single gathering write. The
+     * packets that were written completely are moved to the pending queue
+     * under one lock acquisition, in xid order.
+     *
+     * @return the last packet that was part of the write
+     */
+    private Packet writeBatch(SocketChannel sock, List<Packet> pendingQueue,
+            ClientCnxn cnxn) throws IOException {
+        List<Packet> batch = new ArrayList<Packet>();
+        Iterator<Packet> iter = outgoingQueue.iterator();
+        while (iter.hasNext() && batch.size() < sendBatchSize) {
+            Packet p = iter.next();
+            prepareForSend(p, cnxn);
+            batch.add(p);
+        }
+        ByteBuffer[] bufs = new ByteBuffer[batch.size()];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = batch.get(i).bb;
+        }
+        sock.write(bufs);
+
+        List<Packet> sent = new ArrayList<Packet>(batch.size());
+        for (Packet p : batch) {
+            if (p.bb.hasRemaining()) {
+                break;
+            }
+            sentCount++;
+            outgoingQueue.removeFirstOccurrence(p);
+            if (needsResponse(p)) {
+                sent.add(p);
+            }
+        }
+        if (!sent.isEmpty()) {
+            synchronized (pendingQueue) {
+                pendingQueue.addAll(sent);
+            }
+        }
+        return batch.get(batch.size() - 1);
+    }
+
+    /**
+     * Assigns the xid and serializes the packet, unless that was already done
+     * by an earlier, partial write of the same packet.
+     */
+    private void prepareForSend(Packet p, ClientCnxn cnxn) {
+        if (p.bb == null) {
+            if (needsResponse(p)) {
+                p.requestHeader.setXid(cnxn.getXid());
+            }
+            p.createBB();
+        }
+    }
+
+    private static boolean needsResponse(Packet p) {
+        return p.requestHeader != null
+                && p.requestHeader.getType() != OpCode.ping
+                && p.requestHeader.getType() != OpCode.auth;
+    }
+
     private Packet findSendablePacket(LinkedBlockingDeque<Packet> outgoingQueue,
                                       boolean tunneledAuthInProgres) {
         if (outgoingQueue.isEmpty()) {
@@ -139,6 +139,8 @@ public static KeeperException create(Code code) {
                 return new EphemeralOnLocalSessionException();
             case NOWATCHER:
                 return new NoWatcherException();
+            case QUOTAEXCEEDED:
+                return new QuotaExceededException();
             case OK:
             default:
                 throw new IllegalArgumentException("Invalid exception code");
@@ -384,7 +386,9 @@ public static enum Code implements CodeDeprecated {
         /** Attempt to create ephemeral node on a local session */
         EPHEMERALONLOCALSESSION (EphemeralOnLocalSession),
         /** Attempts to remove a non-existing watcher */
-        NOWATCHER (-121);
+        NOWATCHER (-121),
+        /** The write would exceed a hard quota on the subtree */
+        QUOTAEXCEEDED (-125);
 
         private static final Map<Integer,Code> lookup
             = new HashMap<Integer,Code>();
@@ -469,6 +473,8 @@ static String getCodeMessage(Code code) {
                 return "Ephemeral node on local session";
             case NOWATCHER:
                 return "No such watcher";
+            case QUOTAEXCEEDED:
+                return "Quota exceeded";
             default:
                 return "Unknown error " + code;
         }
@@ -795,4 +801,17 @@ public NoWatcherException(String path) {
             super(Code.NOWATCHER, path);
         }
     }
+
+    /**
+     * @see Code#QUOTAEXCEEDED
+     */
+    public static class QuotaExceededException extends KeeperException {
+        public QuotaExceededException() {
+            super(Code.QUOTAEXCEEDED);
+        }
+
+        public QuotaExceededException(String path) {
+            super(Code.QUOTAEXCEEDED, path);
+        }
+    }
 }
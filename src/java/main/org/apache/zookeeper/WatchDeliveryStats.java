@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side statistics about watch notification delivery. Latency is
+ * measured from the moment an event is queued for delivery until the
+ * watcher's process method returns.
+ *
+ * @since 3.6.0
+ */
+public class WatchDeliveryStats {
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    private final ClientCnxn cnxn;
+
+    WatchDeliveryStats(ClientCnxn cnxn) {
+        this.cnxn = cnxn;
+    }
+
+    void record(long latency) {
+        delivered.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+
+    /**
+     * @return number of events and callbacks waiting to be processed,
+     * including watch notifications handed off to delivery threads
+     */
+    public int getQueuedEvents() {
+        return cnxn.eventThread.getQueuedEventCount();
+    }
+
+    /**
+     * @return number of watcher invocations completed
+     */
+    public long getDeliveredEvents() {
+        return delivered.get();
+    }
+
+    /**
+     * @return average delivery latency in milliseconds
+     */
+    public long getAvgLatency() {
+        long count = delivered.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    /**
+     * @return maximum delivery latency in milliseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    public void reset() {
+        delivered.set(0);
+        totalLatency.set(0);
+        maxLatency.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "queued:" + getQueuedEvents()
+            + " delivered:" + getDeliveredEvents()
+            + " latency avg/max:" + getAvgLatency() + "/" + getMaxLatency();
+    }
+}
@@ -51,6 +51,7 @@
 import org.apache.zookeeper.common.PathUtils;
 import org.apache.zookeeper.common.StringUtils;
 import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.ChildData;
 import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.proto.CheckWatchesRequest;
 import org.apache.zookeeper.proto.Create2Response;
@@ -62,6 +63,8 @@
 import org.apache.zookeeper.proto.GetACLResponse;
 import org.apache.zookeeper.proto.GetChildren2Request;
 import org.apache.zookeeper.proto.GetChildren2Response;
+import org.apache.zookeeper.proto.GetChildrenDataRequest;
+import org.apache.zookeeper.proto.GetChildrenDataResponse;
 import org.apache.zookeeper.proto.GetChildrenRequest;
 import org.apache.zookeeper.proto.GetChildrenResponse;
 import org.apache.zookeeper.proto.GetDataRequest;
@@ -1013,6 +1016,15 @@ public Testable getTestable() {
         return new ZooKeeperTestable(this, cnxn);
     }
 
+    /**
+     * Statistics about watch notification delivery for this client.
+     *
+     * @see ClientCnxn#WATCH_DELIVERY_THREADS
+     */
+    public WatchDeliveryStats getWatchDeliveryStats() {
+        return cnxn.watchDeliveryStats;
+    }
+
     /* Useful for testing watch handling behavior */
     protected ZKWatchManager defaultWatchManager() {
         return new ZKWatchManager();
@@ -2409,6 +2421,60 @@ public List<String> getChildren(String path, boolean watch, Stat stat)
                 stat);
     }
 
+    /**
+     * Return the data and stat of the nodes below the given path, down to
+     * the given depth, without a round trip per node. A depth of 1 returns
+     * the children of the node only.
+     * <p>
+     * Nodes are returned in pre-order with siblings sorted by name. The
+     * path of each returned node is relative to the given path. Nodes the
+     * client is not allowed to read are left out, together with their
+     * descendants. No watches are set.
+     * <p>
+     * The server returns large results in pages of bounded size, which this
+     * method fetches one after the other. The result is therefore not a
+     * consistent snapshot of the subtree if it changes during the read.
+     * <p>
+     * A KeeperException with error code KeeperException.NoNode will be thrown
+     * if no node with the given path exists.
+     *
+     * @since 3.6.0
+     *
+     * @param path the path of the root of the read
+     * @param depth number of levels below path to return
+     * @return the nodes below path
+     * @throws InterruptedException If the server transaction is interrupted.
+     * @throws KeeperException If the server signals an error with a non-zero
+     *  error code.
+     * @throws IllegalArgumentException if an invalid path is specified
+     */
+    public List<ChildData> getChildrenData(final String path, int depth)
+        throws KeeperException, InterruptedException
+    {
+        final String clientPath = path;
+        PathUtils.validatePath(clientPath);
+
+        final String serverPath = prependChroot(clientPath);
+
+        List<ChildData> result = new ArrayList<ChildData>();
+        String cursor = "";
+        do {
+            RequestHeader h = new RequestHeader();
+            h.setType(ZooDefs.OpCode.getChildrenData);
+            GetChildrenDataRequest request = new GetChildrenDataRequest(
+                    serverPath, depth, cursor, 0);
+            GetChildrenDataResponse response = new GetChildrenDataResponse();
+            ReplyHeader r = cnxn.submitRequest(h, request, response, null);
+            if (r.getErr() != 0) {
+                throw KeeperException.create(KeeperException.Code.get(r.getErr()),
+                        clientPath);
+            }
+            result.addAll(response.getChildren());
+            cursor = response.getCursor();
+        } while (!cursor.isEmpty());
+        return result;
+    }
+
     /**
      * The asynchronous version of getChildren.
      *
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pending result of an operation submitted through
+ * {@link AsyncZooKeeper}. The future is completed on the client's event
+ * thread, but listeners registered with {@link #addListener(Runnable)} run
+ * on the executor the {@link AsyncZooKeeper} was created with, so a slow
+ * listener does not hold up other completions or watch events.
+ * <p>
+ * Requests cannot be withdrawn once they are queued, so {@link #cancel}
+ * always returns false.
+ *
+ * @since 3.6.0
+ */
+public class ZooKeeperFuture<T> implements Future<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(ZooKeeperFuture.class);
+
+    private final Executor executor;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /** guarded by this; set to null once the future completes */
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    private volatile T value;
+
+    private volatile KeeperException exception;
+
+    ZooKeeperFuture(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Registers a listener to be run on the completion executor once the
+     * operation completes. If the operation has already completed the
+     * listener is handed to the executor right away.
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        dispatch(listener);
+    }
+
+    void set(T value) {
+        this.value = value;
+        complete();
+    }
+
+    void setException(KeeperException exception) {
+        this.exception = exception;
+        complete();
+    }
+
+    private void complete() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            toRun = listeners;
+            listeners = null;
+        }
+        done.countDown();
+        for (Runnable listener : toRun) {
+            dispatch(listener);
+        }
+    }
+
+    private void dispatch(Runnable listener) {
+        try {
+            executor.execute(listener);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Completion executor rejected listener " + listener, e);
+        }
+    }
+
+    /**
+     * Waits for the operation to complete and returns its result, throwing
+     * the same exceptions as the equivalent synchronous {@link ZooKeeper}
+     * call.
+     */
+    public T getResult() throws KeeperException, InterruptedException {
+        done.await();
+        if (exception != null) {
+            throw exception;
+        }
+        return value;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    private T report() throws ExecutionException {
+        if (exception != null) {
+            throw new ExecutionException(exception);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+}
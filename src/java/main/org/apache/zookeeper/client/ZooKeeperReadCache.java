@@ -0,0 +1,265 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.DataTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An opt-in, bounded cache in front of the read operations of a
+ * {@link ZooKeeper} handle. Each cached path holds a watch set by the
+ * cache itself; the entry is dropped when the watch fires, and the whole
+ * cache is cleared whenever the client loses its connection, since watch
+ * notifications may have been missed while disconnected.
+ * <p>
+ * The least recently used path is evicted once maxEntries paths are
+ * cached. The watch of an evicted path stays registered until it fires.
+ *
+ * @since 3.6.0
+ */
+public class ZooKeeperReadCache implements Watcher {
+    private static final Logger LOG = LoggerFactory.getLogger(ZooKeeperReadCache.class);
+
+    private static class NodeData {
+        final boolean exists;
+        final byte[] data;
+        final Stat stat;
+
+        NodeData(boolean exists, byte[] data, Stat stat) {
+            this.exists = exists;
+            this.data = data;
+            this.stat = stat;
+        }
+    }
+
+    private static class CacheEntry {
+        /** null if the data has not been read */
+        NodeData data;
+        /** null if the children have not been read */
+        List<String> children;
+    }
+
+    private final ZooKeeper zk;
+
+    private final LinkedHashMap<String, CacheEntry> entries;
+
+    /**
+     * Bumped by every invalidation. A value read from the server is only
+     * stored if no invalidation happened while the read was in flight,
+     * otherwise the notification could have been processed before the
+     * stale value was stored.
+     */
+    private long invalidations;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ZooKeeperReadCache(ZooKeeper zk, final int maxEntries) {
+        this.zk = zk;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @see ZooKeeper#getData(String, boolean, Stat)
+     */
+    public byte[] getData(String path, Stat stat)
+            throws KeeperException, InterruptedException {
+        NodeData e = getNodeData(path);
+        if (!e.exists) {
+            throw KeeperException.create(KeeperException.Code.NONODE, path);
+        }
+        if (stat != null) {
+            DataTree.copyStat(e.stat, stat);
+        }
+        return e.data == null ? null : e.data.clone();
+    }
+
+    /**
+     * @see ZooKeeper#exists(String, boolean)
+     */
+    public Stat exists(String path)
+            throws KeeperException, InterruptedException {
+        NodeData e = getNodeData(path);
+        if (!e.exists) {
+            return null;
+        }
+        Stat stat = new Stat();
+        DataTree.copyStat(e.stat, stat);
+        return stat;
+    }
+
+    /**
+     * @see ZooKeeper#getChildren(String, boolean)
+     */
+    public List<String> getChildren(String path)
+            throws KeeperException, InterruptedException {
+        long generation;
+        synchronized (this) {
+            CacheEntry e = entries.get(path);
+            if (e != null && e.children != null) {
+                hits++;
+                return e.children;
+            }
+            misses++;
+            generation = invalidations;
+        }
+        List<String> children = Collections.unmodifiableList(
+                new ArrayList<String>(zk.getChildren(path, this)));
+        synchronized (this) {
+            if (generation == invalidations) {
+                entryFor(path).children = children;
+            }
+        }
+        return children;
+    }
+
+    private NodeData getNodeData(String path)
+            throws KeeperException, InterruptedException {
+        long generation;
+        synchronized (this) {
+            CacheEntry e = entries.get(path);
+            if (e != null && e.data != null) {
+                hits++;
+                return e.data;
+            }
+            misses++;
+            generation = invalidations;
+        }
+        NodeData loaded;
+        while (true) {
+            try {
+                Stat stat = new Stat();
+                byte[] data = zk.getData(path, this, stat);
+                loaded = new NodeData(true, data, stat);
+                break;
+            } catch (KeeperException.NoNodeException nne) {
+                // leave a watch that fires once the node is created
+                if (zk.exists(path, this) == null) {
+                    loaded = new NodeData(false, null, null);
+                    break;
+                }
+            }
+        }
+        synchronized (this) {
+            if (generation == invalidations) {
+                entryFor(path).data = loaded;
+            }
+        }
+        return loaded;
+    }
+
+    private CacheEntry entryFor(String path) {
+        CacheEntry e = entries.get(path);
+        if (e == null) {
+            e = new CacheEntry();
+            entries.put(path, e);
+        }
+        return e;
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        synchronized (this) {
+            invalidations++;
+            if (event.getType() == Event.EventType.None) {
+                if (event.getState() != Event.KeeperState.SyncConnected
+                        && event.getState() != Event.KeeperState.ConnectedReadOnly) {
+                    entries.clear();
+                }
+                return;
+            }
+            CacheEntry e = entries.get(event.getPath());
+            if (e == null) {
+                return;
+            }
+            switch (event.getType()) {
+            case NodeChildrenChanged:
+                e.children = null;
+                break;
+            case NodeDataChanged:
+            case NodeCreated:
+                e.data = null;
+                break;
+            default:
+                entries.remove(event.getPath());
+                break;
+            }
+            if (e.data == null && e.children == null) {
+                entries.remove(event.getPath());
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Invalidated cache entry on " + event);
+        }
+    }
+
+    /**
+     * Drops every cached entry.
+     */
+    public synchronized void clear() {
+        invalidations++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size:" + entries.size() + " hits:" + hits + " misses:" + misses
+            + " evictions:" + evictions;
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.data.ACL;
+
+/**
+ * Remembers the outcome of {@link PrepRequestProcessor#checkACL} for the
+ * credentials of one connection. Only interned ACL lists are cached: they
+ * are immutable, and a setACL makes the node point to a different list, so
+ * a decision never goes stale through a change of the ACL. A change of the
+ * credentials clears the cache.
+ */
+final class AuthDecisionCache {
+    /** the cache is dropped once it holds this many ACL lists */
+    static final int MAX_ENTRIES = 1024;
+
+    /**
+     * Per ACL list, the permissions that were granted in the low 32 bits
+     * and the ones that were denied in the high 32 bits.
+     */
+    private final ConcurrentHashMap<List<ACL>, AtomicLong> decisions =
+        new ConcurrentHashMap<List<ACL>, AtomicLong>();
+
+    /** bumped by every clear, see {@link #put} */
+    private volatile long generation;
+
+    /**
+     * @return TRUE if perm was granted, FALSE if denied, or null if the
+     * decision is not cached
+     */
+    Boolean get(List<ACL> acl, int perm) {
+        AtomicLong d = decisions.get(acl);
+        if (d == null) {
+            return null;
+        }
+        long bits = d.get();
+        if ((bits & perm) == perm) {
+            return Boolean.TRUE;
+        }
+        if (((bits >>> 32) & perm) == perm) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Records a decision computed with the credentials as they were at
+     * the given generation. It is dropped if they changed meanwhile.
+     */
+    void put(List<ACL> acl, int perm, boolean granted, long generation) {
+        if (!(acl instanceof ReferenceCountedACLCache.InternedACLs)) {
+            return;
+        }
+        if (decisions.size() >= MAX_ENTRIES) {
+            decisions.clear();
+        }
+        AtomicLong d = decisions.get(acl);
+        if (d == null) {
+            AtomicLong newDecision = new AtomicLong();
+            d = decisions.putIfAbsent(acl, newDecision);
+            if (d == null) {
+                d = newDecision;
+            }
+        }
+        long mask = granted ? (perm & 0xffffffffL) : ((long) perm) << 32;
+        while (true) {
+            long bits = d.get();
+            if (d.compareAndSet(bits, bits | mask)) {
+                break;
+            }
+        }
+        if (generation != this.generation) {
+            decisions.clear();
+        }
+    }
+
+    synchronized void clear() {
+        generation++;
+        decisions.clear();
+    }
+
+    int size() {
+        return decisions.size();
+    }
+}
@@ -32,9 +32,12 @@
  * Manages cleanup of container ZNodes. This class is meant to only
  * be run from the leader. There's no harm in running from followers/observers
  * but that will be extra work that's not needed. Once started, it periodically
- * checks container nodes that have a cversion > 0 and have no children. A
- * delete is attempted on the node. The result of the delete is unimportant.
- * If the proposal fails or the container node is not empty there's no harm.
+ * checks container nodes that have a cversion > 0 and have no children. The
+ * DataTree keeps an index of such containers as nodes are created and
+ * deleted, so a check does not scan every container. A delete is attempted
+ * on the node. The result of the delete is unimportant. If the proposal
+ * fails or the container node is not empty there's no harm. Deletes are
+ * submitted in batches of up to maxBatchSize, paced to maxPerMinute.
  */
 public class ContainerManager {
     private static final Logger LOG = LoggerFactory.getLogger(ContainerManager.class);
@@ -42,6 +45,7 @@ public class ContainerManager {
     private final RequestProcessor requestProcessor;
     private final int checkIntervalMs;
     private final int maxPerMinute;
+    private final int maxBatchSize;
     private final Timer timer;
     private final AtomicReference<TimerTask> task = new AtomicReference<TimerTask>(null);
 
@@ -55,14 +59,31 @@ public class ContainerManager {
      */
     public ContainerManager(ZKDatabase zkDb, RequestProcessor requestProcessor,
                             int checkIntervalMs, int maxPerMinute) {
+        this(zkDb, requestProcessor, checkIntervalMs, maxPerMinute, 1);
+    }
+
+    /**
+     * @param zkDb the ZK database
+     * @param requestProcessor request processer - used to inject delete
+     *                         container requests
+     * @param checkIntervalMs how often to check containers in milliseconds
+     * @param maxPerMinute the max containers to delete per second - avoids
+     *                     herding of container deletions
+     * @param maxBatchSize the max delete requests submitted back to back
+     *                     before pausing to honor maxPerMinute
+     */
+    public ContainerManager(ZKDatabase zkDb, RequestProcessor requestProcessor,
+                            int checkIntervalMs, int maxPerMinute,
+                            int maxBatchSize) {
         this.zkDb = zkDb;
         this.requestProcessor = requestProcessor;
         this.checkIntervalMs = checkIntervalMs;
         this.maxPerMinute = maxPerMinute;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
         timer = new Timer("ContainerManagerTask", true);
 
-        LOG.info(String.format("Using checkIntervalMs=%d maxPerMinute=%d",
-                checkIntervalMs, maxPerMinute));
+        LOG.info(String.format("Using checkIntervalMs=%d maxPerMinute=%d maxBatchSize=%d",
+                checkIntervalMs, maxPerMinute, this.maxBatchSize));
     }
 
     /**
@@ -108,29 +129,45 @@ public void stop() {
     public void checkContainers()
             throws InterruptedException {
         long minIntervalMs = getMinIntervalMs();
-        for (String containerPath : getCandidates()) {
+        Iterator<String> candidates = getCandidates().iterator();
+        List<String> batch = new ArrayList<String>(maxBatchSize);
+        while (candidates.hasNext()) {
+            batch.clear();
+            while (candidates.hasNext() && batch.size() < maxBatchSize) {
+                batch.add(candidates.next());
+            }
             long startMs = Time.currentElapsedTime();
 
-            ByteBuffer path = ByteBuffer.wrap(containerPath.getBytes());
-            Request request = new Request(null, 0, 0,
-                    ZooDefs.OpCode.deleteContainer, path, null);
-            try {
-                LOG.info("Attempting to delete candidate container: %s",
-                        containerPath);
-                requestProcessor.processRequest(request);
-            } catch (Exception e) {
-                LOG.error(String.format("Could not delete container: %s" ,
-                        containerPath), e);
+            LOG.info("Attempting to delete {} candidate containers", batch.size());
+            for (String containerPath : batch) {
+                ByteBuffer path = ByteBuffer.wrap(containerPath.getBytes());
+                Request request = new Request(null, 0, 0,
+                        ZooDefs.OpCode.deleteContainer, path, null);
+                try {
+                    LOG.debug("Attempting to delete candidate container: {}",
+                            containerPath);
+                    requestProcessor.processRequest(request);
+                } catch (Exception e) {
+                    LOG.error(String.format("Could not delete container: %s" ,
+                            containerPath), e);
+                }
             }
 
             long elapsedMs = Time.currentElapsedTime() - startMs;
-            long waitMs = minIntervalMs - elapsedMs;
+            long waitMs = minIntervalMs * batch.size() - elapsedMs;
             if (waitMs > 0) {
                 Thread.sleep(waitMs);
             }
         }
     }
 
+    /**
+     * @return number of empty containers waiting to be deleted
+     */
+    public int getBacklogSize() {
+        return zkDb.getDataTree().getContainerCandidateCount();
+    }
+
     // VisibleForTesting
     protected long getMinIntervalMs() {
         return TimeUnit.MINUTES.toMillis(1) / maxPerMinute;
@@ -139,7 +176,7 @@ protected long getMinIntervalMs() {
     // VisibleForTesting
     protected Collection<String> getCandidates() {
         Set<String> candidates = new HashSet<String>();
-        for (String containerPath : zkDb.getDataTree().getContainers()) {
+        for (String containerPath : zkDb.getDataTree().getContainerCandidates()) {
             DataNode node = zkDb.getDataTree().getNode(containerPath);
             /*
                 cversion > 0: keep newly created containers from being deleted
@@ -148,7 +185,7 @@ protected Collection<String> getCandidates() {
                 would be immediately be deleted.
              */
             if ((node != null) && (node.stat.getCversion() > 0) &&
-                    (node.getChildren().size() == 0)) {
+                    (node.getChildren() == null || node.getChildren().size() == 0)) {
                 candidates.add(containerPath);
             }
         }
@@ -19,6 +19,7 @@
 package org.apache.zookeeper.server;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Collections;
@@ -34,12 +35,20 @@
  * <p>
  * A data node contains a reference to its parent, a byte array as its data, an
  * array of ACLs, a stat object, and a set of its children's paths.
- * 
+ * <p>
+ * The data is either kept in {@link #data} or, if the {@link PayloadStore}
+ * of the tree moved it off-heap, in {@link #offHeapData}.
  */
 public class DataNode implements Record {
-    /** the data for this datanode */
+    /** the data for this datanode, null if it is stored off-heap */
     byte data[];
 
+    /**
+     * the data for this datanode if it is stored off-heap, a read-only
+     * buffer that is never modified
+     */
+    ByteBuffer offHeapData;
+
     /**
      * the acl map long for this datanode. the datatree has the map
      */
@@ -133,8 +142,39 @@ public synchronized Set<String> getChildren() {
     }
 
     public synchronized long getApproximateDataSize() {
-        if(null==data) return 0;
-        return data.length;
+        return getDataLength();
+    }
+
+    /**
+     * @return the data of this node, copied to the heap if it is stored
+     * off-heap
+     */
+    synchronized byte[] getData() {
+        if (offHeapData == null) {
+            return data;
+        }
+        byte[] copy = new byte[offHeapData.limit()];
+        offHeapData.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * @return the data of this node without copying it: a read-only direct
+     * buffer if it is stored off-heap, otherwise a buffer backed by the data
+     * array, which must not be modified
+     */
+    synchronized ByteBuffer getDataBuffer() {
+        if (offHeapData != null) {
+            return offHeapData.duplicate();
+        }
+        return data == null ? null : ByteBuffer.wrap(data);
+    }
+
+    synchronized int getDataLength() {
+        if (offHeapData != null) {
+            return offHeapData.limit();
+        }
+        return data == null ? 0 : data.length;
     }
 
     synchronized public void copyStat(Stat to) {
@@ -146,7 +186,7 @@ synchronized public void copyStat(Stat to) {
         to.setPzxid(stat.getPzxid());
         to.setVersion(stat.getVersion());
         to.setEphemeralOwner(getClientEphemeralOwner(stat));
-        to.setDataLength(data == null ? 0 : data.length);
+        to.setDataLength(getDataLength());
         int numChildren = 0;
         if (this.children != null) {
             numChildren = children.size();
@@ -167,6 +207,7 @@ synchronized public void deserialize(InputArchive archive, String tag)
             throws IOException {
         archive.startRecord("node");
         data = archive.readBuffer("data");
+        offHeapData = null;
         acl = archive.readLong("acl");
         stat = new StatPersisted();
         stat.deserialize(archive, "statpersisted");
@@ -176,7 +217,7 @@ synchronized public void deserialize(InputArchive archive, String tag)
     synchronized public void serialize(OutputArchive archive, String tag)
             throws IOException {
         archive.startRecord(this, "node");
-        archive.writeBuffer(data, "data");
+        archive.writeBuffer(getData(), "data");
         archive.writeLong(acl, "acl");
         stat.serialize(archive, "statpersisted");
         archive.endRecord(this, "node");
@@ -18,7 +18,6 @@
 
 package org.apache.zookeeper.server;
 
-import org.apache.jute.Index;
 import org.apache.jute.InputArchive;
 import org.apache.jute.OutputArchive;
 import org.apache.jute.Record;
@@ -37,10 +36,10 @@
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooDefs.OpCode;
-import org.apache.zookeeper.common.PathTrie;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.data.StatPersisted;
+import org.apache.zookeeper.server.util.LongHashMap;
 import org.apache.zookeeper.txn.CheckVersionTxn;
 import org.apache.zookeeper.txn.CreateContainerTxn;
 import org.apache.zookeeper.txn.CreateTxn;
@@ -67,6 +66,7 @@
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class maintains the tree data structure. It doesn't have any networking
@@ -123,15 +123,20 @@ public class DataTree {
             .substring(procZookeeper.length() + 1);
     
     /**
-     * the path trie that keeps track fo the quota nodes in this datatree
+     * the quota roots of this datatree and their usage
      */
-    private final PathTrie pTrie = new PathTrie();
+    private final QuotaIndex quotas = new QuotaIndex();
 
     /**
-     * This hashtable lists the paths of the ephemeral nodes of a session.
+     * The paths of the ephemeral nodes of each session. A session with a
+     * single ephemeral, the common case, maps to an immutable singleton
+     * set, which is replaced by a HashSet once a second one is added.
+     * Guarded by itself, like {@link #ephemeralsCount}.
      */
-    private final Map<Long, HashSet<String>> ephemerals =
-        new ConcurrentHashMap<Long, HashSet<String>>();
+    private final LongHashMap<Set<String>> ephemerals =
+        new LongHashMap<Set<String>>();
+
+    private int ephemeralsCount;
 
     /**
      * This set contains the paths of all container nodes
@@ -140,90 +145,132 @@ public class DataTree {
             Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /**
-     * this is map from longs to acl's. It saves acl's being stored for each
-     * datanode.
+     * The containers that have had children and are now empty, i.e. the
+     * ones the ContainerManager should delete. Kept up to date by
+     * createNode and deleteNode so that finding them does not need a scan
+     * of all containers.
+     */
+    private final Set<String> containerCandidates =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * the interned acl lists of the datanodes, keyed by the long stored in
+     * each datanode.
+     */
+    private final ReferenceCountedACLCache aclCache = new ReferenceCountedACLCache();
+
+    /**
+     * decides which node data is kept off-heap
      */
-    private final Map<Long, List<ACL>> longKeyMap =
-        new HashMap<Long, List<ACL>>();
+    private final PayloadStore payloadStore = new PayloadStore();
 
     /**
-     * this a map from acls to long.
+     * The open read-only views of this tree. A node is handed to each of
+     * them before it is changed, see {@link DataTreeView}.
      */
-    private final Map<List<ACL>, Long> aclKeyMap =
-        new HashMap<List<ACL>, Long>();
+    private final List<DataTreeView> views = new CopyOnWriteArrayList<DataTreeView>();
 
     /**
-     * these are the number of acls that we have in the datatree
+     * Held while a txn is applied, so that a view is never opened in the
+     * middle of a txn.
      */
-    private long aclIndex = 0;
+    private final Object viewLock = new Object();
 
-    @SuppressWarnings("unchecked")
     public Set<String> getEphemerals(long sessionId) {
-        HashSet<String> retv = ephemerals.get(sessionId);
-        if (retv == null) {
-            return new HashSet<String>();
+        synchronized (ephemerals) {
+            Set<String> paths = ephemerals.get(sessionId);
+            return paths == null
+                ? new HashSet<String>() : new HashSet<String>(paths);
         }
-        HashSet<String> cloned = null;
-        synchronized (retv) {
-            cloned = (HashSet<String>) retv.clone();
+    }
+
+    private void addEphemeral(long sessionId, String path) {
+        synchronized (ephemerals) {
+            Set<String> paths = ephemerals.get(sessionId);
+            if (paths == null) {
+                ephemerals.put(sessionId, Collections.singleton(path));
+            } else {
+                if (!(paths instanceof HashSet)) {
+                    paths = new HashSet<String>(paths);
+                    ephemerals.put(sessionId, paths);
+                }
+                if (!paths.add(path)) {
+                    return;
+                }
+            }
+            ephemeralsCount++;
+        }
+    }
+
+    private void removeEphemeral(long sessionId, String path) {
+        synchronized (ephemerals) {
+            Set<String> paths = ephemerals.get(sessionId);
+            if (paths == null || !paths.contains(path)) {
+                return;
+            }
+            if (paths.size() == 1) {
+                ephemerals.remove(sessionId);
+            } else {
+                paths.remove(path);
+            }
+            ephemeralsCount--;
         }
-        return cloned;
     }
 
     public Set<String> getContainers() {
         return new HashSet<String>(containers);
     }
 
-    int getAclSize() {
-        return longKeyMap.size();
+    /**
+     * @return the empty containers that had children at some point
+     */
+    public Set<String> getContainerCandidates() {
+        return new HashSet<String>(containerCandidates);
     }
 
-    private long incrementIndex() {
-        return ++aclIndex;
+    public int getContainerCandidateCount() {
+        return containerCandidates.size();
+    }
+
+    int getAclSize() {
+        return aclCache.size();
     }
 
     /**
-     * converts the list of acls to a list of longs.
+     * converts the list of acls to a long, taking a reference on it that
+     * is released when the node using it is deleted or its acl changes.
      *
      * @param acls
-     * @return a list of longs that map to the acls
+     * @return a long that maps to the acls
      */
-    public synchronized Long convertAcls(List<ACL> acls) {
-        if (acls == null)
-            return -1L;
-        // get the value from the map
-        Long ret = aclKeyMap.get(acls);
-        // could not find the map
-        if (ret != null)
-            return ret;
-        long val = incrementIndex();
-        longKeyMap.put(val, acls);
-        aclKeyMap.put(acls, val);
-        return val;
+    public Long convertAcls(List<ACL> acls) {
+        return aclCache.convertAcls(acls);
     }
 
     /**
-     * converts a list of longs to a list of acls.
+     * converts a long to a list of acls.
      *
      * @param longVal
-     *            the list of longs
-     * @return a list of ACLs that map to longs
+     *            the long
+     * @return a list of ACLs that map to the long. It must not be modified.
      */
-    public synchronized List<ACL> convertLong(Long longVal) {
-        if (longVal == null)
-            return null;
-        if (longVal == -1L)
-            return Ids.OPEN_ACL_UNSAFE;
-        List<ACL> acls = longKeyMap.get(longVal);
-        if (acls == null) {
-            LOG.error("ERROR: ACL not available for long " + longVal);
-            throw new RuntimeException("Failed to fetch acls for " + longVal);
-        }
-        return acls;
+    public List<ACL> convertLong(Long longVal) {
+        return aclCache.convertLong(longVal);
     }
 
+    /**
+     * @return the sessions that own ephemeral nodes
+     */
     public Collection<Long> getSessions() {
-        return ephemerals.keySet();
+        long[] ids;
+        synchronized (ephemerals) {
+            ids = ephemerals.keys();
+        }
+        List<Long> sessions = new ArrayList<Long>(ids.length);
+        for (long id : ids) {
+            sessions.add(id);
+        }
+        return sessions;
     }
 
     public DataNode getNode(String path) {
@@ -239,11 +286,9 @@ public int getWatchCount() {
     }
 
     public int getEphemeralsCount() {
-        int result = 0;
-        for (HashSet<String> set : ephemerals.values()) {
-            result += set.size();
+        synchronized (ephemerals) {
+            return ephemeralsCount;
         }
-        return result;
     }
 
     /**
@@ -362,36 +407,17 @@ static public void copyStat(Stat from, Stat to) {
      *            the diff to be added to the count
      */
     public void updateCount(String lastPrefix, int diff) {
-        String statNode = Quotas.statPath(lastPrefix);
-        DataNode node = nodes.get(statNode);
-        StatsTrack updatedStat = null;
-        if (node == null) {
+        QuotaIndex.Quota quota = quotas.get(lastPrefix);
+        if (quota == null) {
             // should not happen
-            LOG.error("Missing count node for stat " + statNode);
+            LOG.error("Missing quota for " + lastPrefix);
             return;
         }
-        synchronized (node) {
-            updatedStat = new StatsTrack(new String(node.data));
-            updatedStat.setCount(updatedStat.getCount() + diff);
-            node.data = updatedStat.toString().getBytes();
-        }
-        // now check if the counts match the quota
-        String quotaNode = Quotas.quotaPath(lastPrefix);
-        node = nodes.get(quotaNode);
-        StatsTrack thisStats = null;
-        if (node == null) {
-            // should not happen
-            LOG.error("Missing count node for quota " + quotaNode);
-            return;
-        }
-        synchronized (node) {
-            thisStats = new StatsTrack(new String(node.data));
-        }
-        if (thisStats.getCount() > -1 && (thisStats.getCount() < updatedStat.getCount())) {
-            LOG
-            .warn("Quota exceeded: " + lastPrefix + " count="
-                    + updatedStat.getCount() + " limit="
-                    + thisStats.getCount());
+        long count = quota.addCount(diff);
+        long limit = quota.getCountLimit();
+        if (limit > -1 && limit < count) {
+            LOG.warn("Quota exceeded: " + lastPrefix + " count=" + count
+                    + " limit=" + limit);
         }
     }
 
@@ -402,45 +428,34 @@ public void updateCount(String lastPrefix, int diff) {
      *            the path of the node that is quotaed
      * @param diff
      *            the diff to added to number of bytes
-     * @throws IOException
-     *             if path is not found
      */
     public void updateBytes(String lastPrefix, long diff) {
-        String statNode = Quotas.statPath(lastPrefix);
-        DataNode node = nodes.get(statNode);
-        if (node == null) {
-            // should never be null but just to make
-            // findbugs happy
-            LOG.error("Missing stat node for bytes " + statNode);
-            return;
-        }
-        StatsTrack updatedStat = null;
-        synchronized (node) {
-            updatedStat = new StatsTrack(new String(node.data));
-            updatedStat.setBytes(updatedStat.getBytes() + diff);
-            node.data = updatedStat.toString().getBytes();
-        }
-        // now check if the bytes match the quota
-        String quotaNode = Quotas.quotaPath(lastPrefix);
-        node = nodes.get(quotaNode);
-        if (node == null) {
-            // should never be null but just to make
-            // findbugs happy
-            LOG.error("Missing quota node for bytes " + quotaNode);
+        QuotaIndex.Quota quota = quotas.get(lastPrefix);
+        if (quota == null) {
+            // should not happen
+            LOG.error("Missing quota for " + lastPrefix);
             return;
         }
-        StatsTrack thisStats = null;
-        synchronized (node) {
-            thisStats = new StatsTrack(new String(node.data));
-        }
-        if (thisStats.getBytes() > -1 && (thisStats.getBytes() < updatedStat.getBytes())) {
-            LOG
-            .warn("Quota exceeded: " + lastPrefix + " bytes="
-                    + updatedStat.getBytes() + " limit="
-                    + thisStats.getBytes());
+        long bytes = quota.addBytes(diff);
+        long limit = quota.getBytesLimit();
+        if (limit > -1 && limit < bytes) {
+            LOG.warn("Quota exceeded: " + lastPrefix + " bytes=" + bytes
+                    + " limit=" + limit);
         }
     }
 
+    /**
+     * Finds the quota governing writes under the given path.
+     *
+     * @param path
+     *            the path being written
+     * @return the quota with the longest root that is the path or one of
+     *         its ancestors, or null
+     */
+    public QuotaIndex.Quota findQuota(String path) {
+        return quotas.findMaxPrefix(path);
+    }
+
     /**
      * Add a new node to the DataTree.
      * @param path
@@ -510,6 +525,8 @@ public void createNode(final String path, byte data[], List<ACL> acl,
             if (children != null && children.contains(childName)) {
                 throw new KeeperException.NodeExistsException();
             }
+            preserveForViews(parentName, parent);
+            preserveForViews(path, null);
 
             if (parentCVersion == -1) {
                 parentCVersion = parent.stat.getCversion();
@@ -518,20 +535,17 @@ public void createNode(final String path, byte data[], List<ACL> acl,
             parent.stat.setCversion(parentCVersion);
             parent.stat.setPzxid(zxid);
             Long longval = convertAcls(acl);
-            DataNode child = new DataNode(data, longval, stat);
+            DataNode child = new DataNode(null, longval, stat);
+            setNodeData(child, data);
             parent.addChild(childName);
+            if (parent.stat.getEphemeralOwner() == CONTAINER_EPHEMERAL_OWNER) {
+                containerCandidates.remove(parentName);
+            }
             nodes.put(path, child);
             if (ephemeralOwner == CONTAINER_EPHEMERAL_OWNER) {
                 containers.add(path);
             } else if (ephemeralOwner != 0) {
-                HashSet<String> list = ephemerals.get(ephemeralOwner);
-                if (list == null) {
-                    list = new HashSet<String>();
-                    ephemerals.put(ephemeralOwner, list);
-                }
-                synchronized (list) {
-                    list.add(path);
-                }
+                addEphemeral(ephemeralOwner, path);
             }
             if (outputStat != null) {
             	child.copyStat(outputStat);
@@ -542,8 +556,8 @@ public void createNode(final String path, byte data[], List<ACL> acl,
             // now check if its the limit node
             if (Quotas.limitNode.equals(childName)) {
                 // this is the limit node
-                // get the parent and add it to the trie
-                pTrie.addPath(parentName.substring(quotaZookeeper.length()));
+                // get the parent and add it to the index
+                addQuota(parentName.substring(quotaZookeeper.length()), data);
             }
             if (Quotas.statNode.equals(childName)) {
                 updateQuotaForPath(parentName
@@ -580,30 +594,39 @@ public void deleteNode(String path, long zxid)
         if (node == null) {
             throw new KeeperException.NoNodeException();
         }
+        preserveForViews(path, node);
         nodes.remove(path);
+        synchronized (node) {
+            aclCache.removeUsage(node.acl);
+            if (node.offHeapData != null) {
+                payloadStore.release(node.offHeapData);
+            }
+        }
         DataNode parent = nodes.get(parentName);
         if (parent == null) {
             throw new KeeperException.NoNodeException();
         }
+        preserveForViews(parentName, parent);
         synchronized (parent) {
             parent.removeChild(childName);
             parent.stat.setPzxid(zxid);
+            if (parent.stat.getEphemeralOwner() == CONTAINER_EPHEMERAL_OWNER) {
+                Set<String> siblings = parent.getChildren();
+                if (siblings == null || siblings.isEmpty()) {
+                    containerCandidates.add(parentName);
+                }
+            }
             long eowner = node.stat.getEphemeralOwner();
             if (eowner == CONTAINER_EPHEMERAL_OWNER) {
                 containers.remove(path);
+                containerCandidates.remove(path);
             } else if (eowner != 0) {
-                HashSet<String> nodes = ephemerals.get(eowner);
-                if (nodes != null) {
-                    synchronized (nodes) {
-                        nodes.remove(path);
-                    }
-                }
+                removeEphemeral(eowner, path);
             }
         }
-        if (parentName.startsWith(procZookeeper) && Quotas.limitNode.equals(childName)) {
-            // delete the node in the trie.
-            // we need to update the trie as well
-            pTrie.deletePath(parentName.substring(quotaZookeeper.length()));
+        if (parentName.startsWith(quotaZookeeper) && Quotas.limitNode.equals(childName)) {
+            // the subtree is no longer quotaed
+            quotas.remove(parentName.substring(quotaZookeeper.length()));
         }
 
         // also check to update the quotas for this node
@@ -613,7 +636,7 @@ public void deleteNode(String path, long zxid)
             updateCount(lastPrefix, -1);
             int bytes = 0;
             synchronized (node) {
-                bytes = (node.data == null ? 0 : -(node.data.length));
+                bytes = -node.getDataLength();
             }
             updateBytes(lastPrefix, bytes);
         }
@@ -637,20 +660,24 @@ public Stat setData(String path, byte data[], int version, long zxid,
         if (n == null) {
             throw new KeeperException.NoNodeException();
         }
-        byte lastdata[] = null;
+        int lastLength;
+        preserveForViews(path, n);
         synchronized (n) {
-            lastdata = n.data;
-            n.data = data;
+            lastLength = n.getDataLength();
+            setNodeData(n, data);
             n.stat.setMtime(time);
             n.stat.setMzxid(zxid);
             n.stat.setVersion(version);
             n.copyStat(s);
         }
+        if (path.startsWith(quotaZookeeper)) {
+            quotaNodeWritten(path, data);
+        }
         // now update if the path is in a quota subtree.
         String lastPrefix = getMaxPrefixWithQuota(path);
         if(lastPrefix != null) {
           this.updateBytes(lastPrefix, (data == null ? 0 : data.length)
-              - (lastdata == null ? 0 : lastdata.length));
+              - lastLength);
         }
         dataWatches.triggerWatch(path, EventType.NodeDataChanged);
         return s;
@@ -666,31 +693,175 @@ public String getMaxPrefixWithQuota(String path) {
         // do nothing for the root.
         // we are not keeping a quota on the zookeeper
         // root node for now.
-        String lastPrefix = pTrie.findMaxPrefix(path);
+        QuotaIndex.Quota quota = quotas.findMaxPrefix(path);
+        return quota == null ? null : quota.getPath();
+    }
+
+    /**
+     * Registers the quota root whose limit node was created.
+     */
+    private void addQuota(String path, byte[] limits) {
+        QuotaIndex.Quota quota = quotas.add(path);
+        quota.setLimits(parseStats(limits));
+        // keep the usage of an existing stat node, like the trie used to
+        DataNode statNode = nodes.get(Quotas.statPath(path));
+        if (statNode != null) {
+            StatsTrack usage;
+            synchronized (statNode) {
+                usage = parseStats(statNode.getData());
+            }
+            quota.setUsage(Math.max(0, usage.getCount()),
+                    Math.max(0, usage.getBytes()));
+        }
+    }
 
-        if (rootZookeeper.equals(lastPrefix) || "".equals(lastPrefix)) {
-            return null;
+    /**
+     * Keeps the index in line with a client write to a limit or stat node.
+     */
+    private void quotaNodeWritten(String path, byte[] data) {
+        int lastSlash = path.lastIndexOf('/');
+        String childName = path.substring(lastSlash + 1);
+        String realPath = path.substring(quotaZookeeper.length(), lastSlash);
+        QuotaIndex.Quota quota = quotas.get(realPath);
+        if (quota == null) {
+            return;
         }
-        else {
-            return lastPrefix;
+        if (Quotas.limitNode.equals(childName)) {
+            quota.setLimits(parseStats(data));
+        } else if (Quotas.statNode.equals(childName)) {
+            StatsTrack usage = parseStats(data);
+            quota.setUsage(usage.getCount(), usage.getBytes());
         }
     }
 
+    private static StatsTrack parseStats(byte[] data) {
+        if (data == null) {
+            return new StatsTrack();
+        }
+        try {
+            return new StatsTrack(new String(data));
+        } catch (RuntimeException e) {
+            LOG.warn("Ignoring invalid quota data " + new String(data));
+            return new StatsTrack();
+        }
+    }
+
+    /**
+     * Copies the in memory usage of the given quota root into its
+     * zookeeper_stats node if it changed since the last flush.
+     */
+    private void flushQuota(QuotaIndex.Quota quota) {
+        if (!quota.clearDirty()) {
+            return;
+        }
+        String statPath = Quotas.statPath(quota.getPath());
+        DataNode node = nodes.get(statPath);
+        if (node != null) {
+            byte[] data = quota.toStatsTrack().toString().getBytes();
+            preserveForViews(statPath, node);
+            synchronized (node) {
+                setNodeData(node, data);
+            }
+        }
+    }
+
+    /**
+     * Brings the data of a zookeeper_stats node up to date before it is
+     * read. Does nothing for any other path.
+     */
+    void flushQuotaStat(String path) {
+        if (!path.startsWith(quotaZookeeper) || !path.endsWith(Quotas.statNode)) {
+            return;
+        }
+        int lastSlash = path.lastIndexOf('/');
+        QuotaIndex.Quota quota = quotas.get(
+                path.substring(quotaZookeeper.length(), lastSlash));
+        if (quota != null) {
+            flushQuota(quota);
+        }
+    }
+
+    /**
+     * @return the quota of the given root, or null if it has none
+     */
+    public QuotaIndex.Quota getQuota(String path) {
+        return quotas.get(path);
+    }
+
     public byte[] getData(String path, Stat stat, Watcher watcher)
             throws KeeperException.NoNodeException {
         DataNode n = nodes.get(path);
         if (n == null) {
             throw new KeeperException.NoNodeException();
         }
+        flushQuotaStat(path);
+        synchronized (n) {
+            n.copyStat(stat);
+            if (watcher != null) {
+                dataWatches.addWatch(path, watcher);
+            }
+            return n.getData();
+        }
+    }
+
+    /**
+     * Like {@link #getData(String, Stat, Watcher)}, but does not copy data
+     * stored off-heap back to the heap: such data is returned as a
+     * read-only direct buffer, data on the heap as a buffer backed by the
+     * array of the node.
+     *
+     * @return the data, null if the node has no data
+     */
+    public ByteBuffer getDataBuffer(String path, Stat stat, Watcher watcher)
+            throws KeeperException.NoNodeException {
+        DataNode n = nodes.get(path);
+        if (n == null) {
+            throw new KeeperException.NoNodeException();
+        }
+        flushQuotaStat(path);
         synchronized (n) {
             n.copyStat(stat);
             if (watcher != null) {
                 dataWatches.addWatch(path, watcher);
             }
-            return n.data;
+            return n.getDataBuffer();
         }
     }
 
+    /**
+     * Stores the data of a node, off-heap if the payload store decides so.
+     * The caller must hold the monitor of the node unless the node is not
+     * in the tree yet.
+     */
+    private void setNodeData(DataNode n, byte[] data) {
+        if (n.offHeapData != null) {
+            payloadStore.release(n.offHeapData);
+        }
+        n.offHeapData = payloadStore.store(data);
+        n.data = n.offHeapData == null ? data : null;
+    }
+
+    /**
+     * Moves the data of a node off-heap if it has not been modified for
+     * long enough. The caller must hold the monitor of the node.
+     */
+    private void moveOffHeapIfCold(DataNode n) {
+        if (n.data != null) {
+            ByteBuffer buf = payloadStore.storeIfCold(n.data, n.stat.getMtime());
+            if (buf != null) {
+                n.offHeapData = buf;
+                n.data = null;
+            }
+        }
+    }
+
+    /**
+     * @return the store that decides which node data is kept off-heap
+     */
+    public PayloadStore getPayloadStore() {
+        return payloadStore;
+    }
+
     public Stat statNode(String path, Watcher watcher)
             throws KeeperException.NoNodeException {
         Stat stat = new Stat();
@@ -739,14 +910,54 @@ public Stat setACL(String path, List<ACL> acl, int version)
         if (n == null) {
             throw new KeeperException.NoNodeException();
         }
+        preserveForViews(path, n);
         synchronized (n) {
+            aclCache.removeUsage(n.acl);
             n.stat.setAversion(version);
-            n.acl = convertAcls(acl);
+            n.acl = aclCache.convertAcls(acl);
             n.copyStat(stat);
             return stat;
         }
     }
 
+    /**
+     * Opens a read-only view of the tree as it is after the last applied
+     * txn. The view must be closed once it is no longer used.
+     */
+    public DataTreeView openView() {
+        synchronized (viewLock) {
+            // the quota stats of the view are those at its zxid, later
+            // flushes are preserved like any other change
+            for (QuotaIndex.Quota quota : quotas.getQuotas()) {
+                flushQuota(quota);
+            }
+            DataTreeView view = new DataTreeView(this, lastProcessedZxid);
+            views.add(view);
+            return view;
+        }
+    }
+
+    void closeView(DataTreeView view) {
+        views.remove(view);
+    }
+
+    public int getOpenViewCount() {
+        return views.size();
+    }
+
+    /**
+     * Hands the node at path to the open views before it is changed.
+     * node is null if the path is about to be created.
+     */
+    private void preserveForViews(String path, DataNode node) {
+        if (views.isEmpty()) {
+            return;
+        }
+        for (DataTreeView view : views) {
+            view.preserve(path, node);
+        }
+    }
+
     public List<ACL> getACL(String path, Stat stat)
             throws KeeperException.NoNodeException {
         DataNode n = nodes.get(path);
@@ -807,6 +1018,13 @@ public int hashCode() {
     public volatile long lastProcessedZxid = 0;
 
     public ProcessTxnResult processTxn(TxnHeader header, Record txn)
+    {
+        synchronized (viewLock) {
+            return applyTxn(header, txn);
+        }
+    }
+
+    private ProcessTxnResult applyTxn(TxnHeader header, Record txn)
     {
         ProcessTxnResult rc = new ProcessTxnResult();
 
@@ -889,7 +1107,7 @@ public ProcessTxnResult processTxn(TxnHeader header, Record txn)
                 case OpCode.multi:
                     MultiTxn multiTxn = (MultiTxn) txn ;
                     List<Txn> txns = multiTxn.getTxns();
-                    rc.multiResult = new ArrayList<ProcessTxnResult>();
+                    rc.multiResult = new ArrayList<ProcessTxnResult>(txns.size());
                     boolean failed = false;
                     for (Txn subtxn : txns) {
                         if (subtxn.getType() == OpCode.error) {
@@ -1018,13 +1236,17 @@ public ProcessTxnResult processTxn(TxnHeader header, Record txn)
     }
 
     void killSession(long session, long zxid) {
-        // the list is already removed from the ephemerals
-        // so we do not have to worry about synchronizing on
-        // the list. This is only called from FinalRequestProcessor
-        // so there is no need for synchronization. The list is not
-        // changed here. Only create and delete change the list which
-        // are again called from FinalRequestProcessor in sequence.
-        HashSet<String> list = ephemerals.remove(session);
+        // the paths are removed from the ephemerals first, so deleteNode
+        // does not find them there. This is only called from
+        // FinalRequestProcessor, like create and delete, which are the
+        // only other changes of the ephemerals of a session.
+        Set<String> list;
+        synchronized (ephemerals) {
+            list = ephemerals.remove(session);
+            if (list != null) {
+                ephemeralsCount -= list.size();
+            }
+        }
         if (list != null) {
             for (String path : list) {
                 try {
@@ -1072,7 +1294,7 @@ private void getCounts(String path, Counts counts) {
             if (childs != null) {
                 children = childs.toArray(new String[childs.size()]);
             }
-            len = (node.data == null ? 0 : node.data.length);
+            len = node.getDataLength();
         }
         // add itself
         counts.count += 1;
@@ -1097,6 +1319,10 @@ private void updateQuotaForPath(String path) {
         StatsTrack strack = new StatsTrack();
         strack.setBytes(c.bytes);
         strack.setCount(c.count);
+        QuotaIndex.Quota quota = quotas.get(path);
+        if (quota != null) {
+            quota.setUsage(c.count, c.bytes);
+        }
         String statPath = Quotas.quotaZookeeper + path + "/" + Quotas.statNode;
         DataNode node = getNode(statPath);
         // it should exist
@@ -1105,12 +1331,12 @@ private void updateQuotaForPath(String path) {
             return;
         }
         synchronized (node) {
-            node.data = strack.toString().getBytes();
+            setNodeData(node, strack.toString().getBytes());
         }
     }
 
     /**
-     * this method traverses the quota path and update the path trie and sets
+     * this method traverses the quota path and update the quota index and sets
      *
      * @param path
      */
@@ -1134,8 +1360,12 @@ private void traverseNode(String path) {
                 // the count and the bytes
                 String realPath = path.substring(Quotas.quotaZookeeper
                         .length(), path.indexOf(endString));
+                byte[] limits;
+                synchronized (node) {
+                    limits = node.getData();
+                }
+                quotas.add(realPath).setLimits(parseStats(limits));
                 updateQuotaForPath(realPath);
-                this.pTrie.addPath(realPath);
             }
             return;
         }
@@ -1145,7 +1375,7 @@ private void traverseNode(String path) {
     }
 
     /**
-     * this method sets up the path trie and sets up stats for quota nodes
+     * this method sets up the quota index and sets up stats for quota nodes
      */
     private void setupQuota() {
         String quotaPath = Quotas.quotaZookeeper;
@@ -1176,11 +1406,13 @@ void serializeNode(OutputArchive oa, StringBuilder path) throws IOException {
         String children[] = null;
         DataNode nodeCopy;
         synchronized (node) {
+            moveOffHeapIfCold(node);
             StatPersisted statCopy = new StatPersisted();
             copyStatPersisted(node.stat, statCopy);
             //we do not need to make a copy of node.data because the contents
             //are never changed
             nodeCopy = new DataNode(node.data, node.acl, statCopy);
+            nodeCopy.offHeapData = node.offHeapData;
             Set<String> childs = node.getChildren();
             if (childs != null) {
                 children = childs.toArray(new String[childs.size()]);
@@ -1202,62 +1434,37 @@ void serializeNode(OutputArchive oa, StringBuilder path) throws IOException {
         }
     }
 
-    private void deserializeList(Map<Long, List<ACL>> longKeyMap,
-            InputArchive ia) throws IOException {
-        int i = ia.readInt("map");
-        while (i > 0) {
-            Long val = ia.readLong("long");
-            if (aclIndex < val) {
-                aclIndex = val;
-            }
-            List<ACL> aclList = new ArrayList<ACL>();
-            Index j = ia.startVector("acls");
-            while (!j.done()) {
-                ACL acl = new ACL();
-                acl.deserialize(ia, "acl");
-                aclList.add(acl);
-                j.incr();
-            }
-            longKeyMap.put(val, aclList);
-            aclKeyMap.put(aclList, val);
-            i--;
-        }
-    }
-
-    private synchronized void serializeList(Map<Long, List<ACL>> longKeyMap,
-            OutputArchive oa) throws IOException {
-        oa.writeInt(longKeyMap.size(), "map");
-        Set<Map.Entry<Long, List<ACL>>> set = longKeyMap.entrySet();
-        for (Map.Entry<Long, List<ACL>> val : set) {
-            oa.writeLong(val.getKey(), "long");
-            List<ACL> aclList = val.getValue();
-            oa.startVector(aclList, "acls");
-            for (ACL acl : aclList) {
-                acl.serialize(oa, "acl");
-            }
-            oa.endVector(aclList, "acls");
-        }
-    }
-
     public void serialize(OutputArchive oa, String tag) throws IOException {
-        serializeList(longKeyMap, oa);
+        for (QuotaIndex.Quota quota : quotas.getQuotas()) {
+            flushQuota(quota);
+        }
+        aclCache.serialize(oa);
         serializeNode(oa, new StringBuilder(""));
         // / marks end of stream
         // we need to check if clear had been called in between the snapshot.
         if (root != null) {
             oa.writeString("/", "path");
         }
+        // only purged once the nodes are written: an id purged before
+        // would be assigned again by a concurrent create, to a node
+        // written with an id that is not in the acl map of the snapshot
+        aclCache.purgeUnused();
     }
 
     public void deserialize(InputArchive ia, String tag) throws IOException {
-        deserializeList(longKeyMap, ia);
+        aclCache.deserialize(ia);
         nodes.clear();
-        pTrie.clear();
+        quotas.clear();
         String path = ia.readString("path");
         while (!"/".equals(path)) {
             DataNode node = new DataNode();
             ia.readRecord(node, "node");
             nodes.put(path, node);
+            synchronized (node) {
+                aclCache.addUsage(node.acl);
+                setNodeData(node, node.data);
+                moveOffHeapIfCold(node);
+            }
             int lastSlash = path.lastIndexOf('/');
             if (lastSlash == -1) {
                 root = node;
@@ -1273,12 +1480,7 @@ public void deserialize(InputArchive ia, String tag) throws IOException {
                 if (eowner == CONTAINER_EPHEMERAL_OWNER) {
                     containers.add(path);
                 } else if (eowner != 0) {
-                    HashSet<String> list = ephemerals.get(eowner);
-                    if (list == null) {
-                        list = new HashSet<String>();
-                        ephemerals.put(eowner, list);
-                    }
-                    list.add(path);
+                    addEphemeral(eowner, path);
                 }
             }
             path = ia.readString("path");
@@ -1286,9 +1488,32 @@ public void deserialize(InputArchive ia, String tag) throws IOException {
         nodes.put("/", root);
         // we are done with deserializing the
         // the datatree
-        // update the quotas - create path trie
+        // update the quotas - create the quota index
         // and also update the stat nodes
         setupQuota();
+        setupContainerCandidates();
+        aclCache.purgeUnused();
+    }
+
+    /**
+     * Finds the empty containers of a freshly deserialized tree. From then
+     * on the candidates are maintained by createNode and deleteNode.
+     */
+    private void setupContainerCandidates() {
+        containerCandidates.clear();
+        for (String containerPath : containers) {
+            DataNode node = nodes.get(containerPath);
+            if (node == null) {
+                continue;
+            }
+            synchronized (node) {
+                Set<String> children = node.getChildren();
+                if (node.stat.getCversion() > 0
+                        && (children == null || children.isEmpty())) {
+                    containerCandidates.add(containerPath);
+                }
+            }
+        }
     }
 
     /**
@@ -1343,19 +1568,14 @@ public synchronized WatchesSummary getWatchesSummary() {
      * @param pwriter the output to write to
      */
     public void dumpEphemerals(PrintWriter pwriter) {
-        Set<Long> keys = ephemerals.keySet();
+        Map<Long, Set<String>> copy = getEphemerals();
         pwriter.println("Sessions with Ephemerals ("
-                + keys.size() + "):");
-        for (long k : keys) {
-            pwriter.print("0x" + Long.toHexString(k));
+                + copy.size() + "):");
+        for (Entry<Long, Set<String>> e : copy.entrySet()) {
+            pwriter.print("0x" + Long.toHexString(e.getKey()));
             pwriter.println(":");
-            HashSet<String> tmp = ephemerals.get(k);
-            if (tmp != null) {
-                synchronized (tmp) {
-                    for (String path : tmp) {
-                        pwriter.println("\t" + path);
-                    }
-                }
+            for (String path : e.getValue()) {
+                pwriter.println("\t" + path);
             }
         }
     }
@@ -1367,9 +1587,9 @@ public void dumpEphemerals(PrintWriter pwriter) {
      */
     public Map<Long, Set<String>> getEphemerals() {
         HashMap<Long, Set<String>> ephemeralsCopy = new HashMap<Long, Set<String>>();
-        for (Entry<Long, HashSet<String>> e : ephemerals.entrySet()) {
-            synchronized (e.getValue()) {
-                ephemeralsCopy.put(e.getKey(), new HashSet<String>(e.getValue()));
+        synchronized (ephemerals) {
+            for (long id : ephemerals.keys()) {
+                ephemeralsCopy.put(id, new HashSet<String>(ephemerals.get(id)));
             }
         }
         return ephemeralsCopy;
@@ -1444,6 +1664,7 @@ public void setCversionPzxid(String path, int newCversion, long zxid)
         if (node == null) {
             throw new KeeperException.NoNodeException(path);
         }
+        preserveForViews(path, node);
         synchronized (node) {
             if(newCversion == -1) {
                 newCversion = node.stat.getCversion() + 1;
@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-only view of a {@link DataTree} as it was after the txn with
+ * {@link #getZxid()} was applied.
+ * <p>
+ * The view does not copy the tree. Reads go to the live nodes, except for
+ * the nodes changed since the view was opened: before changing a node, the
+ * DataTree hands its prior state to every open view. A view thus costs
+ * memory proportional to the size of the nodes changed while it is open,
+ * and must be closed once it is no longer used. A view is closed for the
+ * reader once the prior states it keeps would take more than
+ * {@link #MAX_PRESERVED_BYTES}.
+ * <p>
+ * Views can be read from any thread. The only locks taken are the monitors
+ * of single DataNodes, held while a node is copied, so long scans do not
+ * hold up the request pipeline.
+ *
+ * @see DataTree#openView()
+ */
+public class DataTreeView implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(DataTreeView.class);
+
+    /**
+     * The approximate number of bytes of prior node states a view keeps,
+     * counting data, paths and child names, 64MB by default. A view that
+     * would have to keep more is closed, so that a view that is never
+     * closed does not hold on to memory forever.
+     */
+    public static final String MAX_PRESERVED_BYTES =
+        "zookeeper.dataTreeView.maxPreservedBytes";
+
+    /** rough size of a preserved state besides its data and names */
+    private static final int STATE_OVERHEAD = 64;
+
+    private static final class NodeState {
+        final byte[] data;
+        final Stat stat;
+        final List<ACL> acl;
+        final List<String> children;
+
+        NodeState(byte[] data, Stat stat, List<ACL> acl,
+                List<String> children) {
+            this.data = data;
+            this.stat = stat;
+            this.acl = acl;
+            this.children = children;
+        }
+    }
+
+    /** the state of a node that did not exist at the zxid of the view */
+    private static final NodeState ABSENT = new NodeState(null, null, null, null);
+
+    private final DataTree tree;
+
+    private final long zxid;
+
+    /** the state at zxid of the nodes changed since the view was opened */
+    private final ConcurrentHashMap<String, NodeState> preserved =
+        new ConcurrentHashMap<String, NodeState>();
+
+    private final AtomicLong preservedBytes = new AtomicLong();
+
+    private final long maxPreservedBytes;
+
+    private volatile boolean closed;
+    private volatile boolean overflowed;
+
+    DataTreeView(DataTree tree, long zxid) {
+        this.tree = tree;
+        this.zxid = zxid;
+        this.maxPreservedBytes = Long.getLong(MAX_PRESERVED_BYTES,
+                64L * 1024 * 1024);
+    }
+
+    /**
+     * @return the zxid of the last txn visible in this view
+     */
+    public long getZxid() {
+        return zxid;
+    }
+
+    /**
+     * Called by the DataTree before it changes, creates (node is null) or
+     * deletes the node at path. Only the first call for a path is kept,
+     * since it has the state at the zxid of the view. Closes the view
+     * once the preserved states exceed {@link #MAX_PRESERVED_BYTES}.
+     */
+    void preserve(String path, DataNode node) {
+        path = key(path);
+        if (!preserved.containsKey(path)) {
+            NodeState state = node == null ? ABSENT : capture(node);
+            long size = sizeOf(path, state);
+            if (preservedBytes.get() + size > maxPreservedBytes) {
+                LOG.warn("Closing " + this + ", the nodes changed since it"
+                        + " was opened take more than " + maxPreservedBytes
+                        + " bytes");
+                overflowed = true;
+                close();
+                return;
+            }
+            // quota stats are also flushed by readers, concurrently
+            // with the txns
+            if (preserved.putIfAbsent(path, state) == null) {
+                preservedBytes.addAndGet(size);
+            }
+        }
+    }
+
+    private static long sizeOf(String path, NodeState state) {
+        long size = STATE_OVERHEAD + path.length();
+        if (state.data != null) {
+            size += state.data.length;
+        }
+        if (state.children != null) {
+            for (String child : state.children) {
+                size += STATE_OVERHEAD / 2 + child.length();
+            }
+        }
+        return size;
+    }
+
+    /** the root is in the tree as both "" and "/" */
+    private static String key(String path) {
+        return path.length() == 0 ? "/" : path;
+    }
+
+    private NodeState capture(DataNode node) {
+        synchronized (node) {
+            Stat stat = new Stat();
+            node.copyStat(stat);
+            Set<String> children = node.getChildren();
+            List<String> childList = children == null
+                ? new ArrayList<String>(0) : new ArrayList<String>(children);
+            Collections.sort(childList);
+            // the data array of a node is replaced, never changed in place
+            return new NodeState(node.getData(), stat, tree.convertLong(node.acl),
+                    childList);
+        }
+    }
+
+    private NodeState getState(String path)
+            throws KeeperException.NoNodeException {
+        if (closed) {
+            throw new IllegalStateException("view at 0x"
+                    + Long.toHexString(zxid) + " is closed"
+                    + (overflowed ? ", too much data changed since it was"
+                            + " opened" : ""));
+        }
+        NodeState state = preserved.get(key(path));
+        if (state == null) {
+            DataNode node = tree.getNode(path);
+            NodeState live = node == null ? ABSENT : capture(node);
+            // the node may have changed while it was copied; if so its
+            // prior state was preserved first
+            state = preserved.get(key(path));
+            if (state == null) {
+                state = live;
+            }
+        }
+        if (state == ABSENT) {
+            throw new KeeperException.NoNodeException(path);
+        }
+        return state;
+    }
+
+    private static Stat copyStat(NodeState state) {
+        Stat stat = new Stat();
+        DataTree.copyStat(state.stat, stat);
+        return stat;
+    }
+
+    /**
+     * @return the stat of the node at path
+     */
+    public Stat statNode(String path) throws KeeperException.NoNodeException {
+        return copyStat(getState(path));
+    }
+
+    /**
+     * @param stat if not null, receives the stat of the node
+     * @return the data of the node at path, callers must not modify it
+     */
+    public byte[] getData(String path, Stat stat)
+            throws KeeperException.NoNodeException {
+        NodeState state = getState(path);
+        if (stat != null) {
+            DataTree.copyStat(state.stat, stat);
+        }
+        return state.data;
+    }
+
+    /**
+     * @return the sorted names of the children of the node at path
+     */
+    public List<String> getChildren(String path)
+            throws KeeperException.NoNodeException {
+        return Collections.unmodifiableList(getState(path).children);
+    }
+
+    public List<ACL> getACL(String path)
+            throws KeeperException.NoNodeException {
+        return new ArrayList<ACL>(getState(path).acl);
+    }
+
+    /**
+     * Releases the view. Further reads fail with an IllegalStateException.
+     * Callers must close views they no longer use, otherwise the view keeps
+     * the prior state of changed nodes until {@link #MAX_PRESERVED_BYTES}
+     * is reached.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            tree.closeView(this);
+            preserved.clear();
+            preservedBytes.set(0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DataTreeView[zxid=0x" + Long.toHexString(zxid) + ", preserved="
+            + preserved.size() + " nodes/" + preservedBytes.get() + " bytes"
+            + (closed ? ", closed]" : "]");
+    }
+}
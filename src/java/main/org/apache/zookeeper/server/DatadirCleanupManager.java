@@ -23,6 +23,9 @@
 import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+
+import org.apache.zookeeper.jmx.MBeanRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,7 +34,8 @@
  * logs by scheduling the auto purge task with the specified
  * 'autopurge.purgeInterval'. It keeps the most recent
  * 'autopurge.snapRetainCount' number of snapshots and corresponding transaction
- * logs.
+ * logs. The files are deleted by a {@link PurgeService}, which is kept across
+ * runs and registered with JMX while the task is scheduled.
  */
 public class DatadirCleanupManager {
 
@@ -50,12 +54,16 @@ public enum PurgeTaskStatus {
 
     private final File dataLogDir;
 
+    private final File[] txnLogMirrorDirs;
+
     private final int snapRetainCount;
 
     private final int purgeInterval;
 
     private Timer timer;
 
+    private PurgeService purgeService;
+
     /**
      * Constructor of DatadirCleanupManager. It takes the parameters to schedule
      * the purge task.
@@ -71,8 +79,29 @@ public enum PurgeTaskStatus {
      */
     public DatadirCleanupManager(File snapDir, File dataLogDir, int snapRetainCount,
             int purgeInterval) {
+        this(snapDir, dataLogDir, new File[0], snapRetainCount, purgeInterval);
+    }
+
+    /**
+     * Constructor of DatadirCleanupManager for a transaction log that is
+     * copied to mirror directories, which are purged as well.
+     *
+     * @param snapDir
+     *            snapshot directory
+     * @param dataLogDir
+     *            transaction log directory
+     * @param txnLogMirrorDirs
+     *            directories holding copies of the transaction logs
+     * @param snapRetainCount
+     *            number of snapshots to be retained after purge
+     * @param purgeInterval
+     *            purge interval in hours
+     */
+    public DatadirCleanupManager(File snapDir, File dataLogDir,
+            File[] txnLogMirrorDirs, int snapRetainCount, int purgeInterval) {
         this.snapDir = snapDir;
         this.dataLogDir = dataLogDir;
+        this.txnLogMirrorDirs = txnLogMirrorDirs;
         this.snapRetainCount = snapRetainCount;
         this.purgeInterval = purgeInterval;
         LOG.info("autopurge.snapRetainCount set to " + snapRetainCount);
@@ -89,7 +118,7 @@ public DatadirCleanupManager(File snapDir, File dataLogDir, int snapRetainCount,
      * <code>negative integer</code> will not schedule the purge task.
      * </p>
      * 
-     * @see PurgeTxnLog#purge(File, File, int)
+     * @see PurgeService
      */
     public void start() {
         if (PurgeTaskStatus.STARTED == purgeTaskStatus) {
@@ -102,8 +131,15 @@ public void start() {
             return;
         }
 
+        purgeService = new PurgeService(dataLogDir, snapDir, txnLogMirrorDirs,
+                snapRetainCount, Long.getLong(PurgeService.PURGE_BYTES_PER_SECOND, 0));
+        try {
+            MBeanRegistry.getInstance().register(purgeService, null);
+        } catch (JMException e) {
+            LOG.warn("Failed to register with JMX", e);
+        }
         timer = new Timer("PurgeTask", true);
-        TimerTask task = new PurgeTask(dataLogDir, snapDir, snapRetainCount);
+        TimerTask task = new PurgeTask(purgeService);
         timer.scheduleAtFixedRate(task, 0, TimeUnit.HOURS.toMillis(purgeInterval));
 
         purgeTaskStatus = PurgeTaskStatus.STARTED;
@@ -116,6 +152,8 @@ public void shutdown() {
         if (PurgeTaskStatus.STARTED == purgeTaskStatus) {
             LOG.info("Shutting down purge task.");
             timer.cancel();
+            purgeService.shutdown();
+            MBeanRegistry.getInstance().unregister(purgeService);
             purgeTaskStatus = PurgeTaskStatus.COMPLETED;
         } else {
             LOG.warn("Purge task not started. Ignoring shutdown!");
@@ -123,21 +161,17 @@ public void shutdown() {
     }
 
     static class PurgeTask extends TimerTask {
-        private File logsDir;
-        private File snapsDir;
-        private int snapRetainCount;
-
-        public PurgeTask(File dataDir, File snapDir, int count) {
-            logsDir = dataDir;
-            snapsDir = snapDir;
-            snapRetainCount = count;
+        private final PurgeService purgeService;
+
+        public PurgeTask(PurgeService purgeService) {
+            this.purgeService = purgeService;
         }
 
         @Override
         public void run() {
             LOG.info("Purge task started.");
             try {
-                PurgeTxnLog.purge(logsDir, snapsDir, snapRetainCount);
+                purgeService.purge();
             } catch (Exception e) {
                 LOG.error("Error occured while purging.", e);
             }
@@ -154,6 +188,16 @@ public PurgeTaskStatus getPurgeTaskStatus() {
         return purgeTaskStatus;
     }
 
+    /**
+     * Returns the service that purges the files, null if the purge task has
+     * not been started.
+     *
+     * @return the purge service
+     */
+    public PurgeService getPurgeService() {
+        return purgeService;
+    }
+
     /**
      * Returns the snapshot directory.
      * 
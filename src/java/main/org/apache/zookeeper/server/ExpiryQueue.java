@@ -19,12 +19,14 @@
 package org.apache.zookeeper.server;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.zookeeper.common.Time;
@@ -33,23 +35,43 @@
  * ExpiryQueue tracks elements in time sorted fixed duration buckets.
  * It's used by SessionTrackerImpl to expire sessions and NIOServerCnxnFactory
  * to expire connections.
+ * <p>
+ * The buckets form a hashed timer wheel: a fixed ring of sets indexed by
+ * expiration time modulo the ring size, so moving an element between
+ * buckets never allocates or looks up a bucket by its boxed time. An
+ * expiration time further away than the ring covers wraps around and
+ * shares a bucket with an earlier time; poll() only hands out the elements
+ * whose expiration time has actually been reached and leaves the others in
+ * place for a later turn of the wheel. Buckets are created on first use,
+ * so a queue whose elements only ever land in a few of them stays small.
+ * <p>
+ * The expiration time of each element is still kept in a map of boxed
+ * Longs, so every reschedule allocates one. The elements are arbitrary
+ * objects (sessions and connections) rather than primitive ids, so a
+ * primitive map would not save the element side of the entry anyway.
  */
 public class ExpiryQueue<E> {
-    private final ConcurrentHashMap<E, Long> elemMap =
-        new ConcurrentHashMap<E, Long>();
     /**
-     * The maximum number of buckets is equal to max timeout/expirationInterval,
-     * so the expirationInterval should not be too small compared to the
-     * max timeout that this expiry queue needs to maintain.
+     * Default number of buckets in the wheel. Together with the expiration
+     * interval this sets the horizon beyond which elements share buckets.
      */
-    private final ConcurrentHashMap<Long, Set<E>> expiryMap =
-        new ConcurrentHashMap<Long, Set<E>>();
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final ConcurrentHashMap<E, Long> elemMap =
+        new ConcurrentHashMap<E, Long>();
+
+    private final AtomicReferenceArray<Set<E>> wheel;
 
     private final AtomicLong nextExpirationTime = new AtomicLong();
     private final int expirationInterval;
 
     public ExpiryQueue(int expirationInterval) {
+        this(expirationInterval, DEFAULT_WHEEL_SIZE);
+    }
+
+    public ExpiryQueue(int expirationInterval, int wheelSize) {
         this.expirationInterval = expirationInterval;
+        this.wheel = new AtomicReferenceArray<Set<E>>(wheelSize);
         nextExpirationTime.set(roundToNextInterval(Time.currentElapsedTime()));
     }
 
@@ -57,21 +79,45 @@ private long roundToNextInterval(long time) {
         return (time / expirationInterval + 1) * expirationInterval;
     }
 
+    // VisibleForTesting
+    int slot(long expiryTime) {
+        // elapsed time can be negative, and so can the remainder
+        long n = wheel.length();
+        return (int) (((expiryTime / expirationInterval) % n + n) % n);
+    }
+
+    /**
+     * @return the bucket of the given expiration time, or null if no
+     *         element has been queued in it yet
+     */
+    private Set<E> bucket(long expiryTime) {
+        return wheel.get(slot(expiryTime));
+    }
+
+    private Set<E> bucketFor(long expiryTime) {
+        int slot = slot(expiryTime);
+        Set<E> bucket = wheel.get(slot);
+        if (bucket == null) {
+            bucket = Collections.newSetFromMap(
+                new ConcurrentHashMap<E, Boolean>());
+            if (!wheel.compareAndSet(slot, null, bucket)) {
+                bucket = wheel.get(slot);
+            }
+        }
+        return bucket;
+    }
+
     /**
      * Removes element from the queue.
      * @param elem  element to remove
      * @return      time at which the element was set to expire, or null if
-     *              it wasn't present
+     *              it wasn't present. Elements handed out by poll() are no
+     *              longer present.
      */
     public Long remove(E elem) {
         Long expiryTime = elemMap.remove(elem);
         if (expiryTime != null) {
-            Set<E> set = expiryMap.get(expiryTime);
-            if (set != null) {
-                set.remove(elem);
-                // We don't need to worry about removing empty sets,
-                // they'll eventually be removed when they expire.
-            }
+            bucketFor(expiryTime).remove(elem);
         }
         return expiryTime;
     }
@@ -87,35 +133,25 @@ public Long remove(E elem) {
     public Long update(E elem, int timeout) {
         Long prevExpiryTime = elemMap.get(elem);
         long now = Time.currentElapsedTime();
-        Long newExpiryTime = roundToNextInterval(now + timeout);
+        long newExpiryTime = roundToNextInterval(now + timeout);
 
-        if (newExpiryTime.equals(prevExpiryTime)) {
+        if (prevExpiryTime != null && prevExpiryTime == newExpiryTime) {
             // No change, so nothing to update
             return null;
         }
 
-        // First add the elem to the new expiry time bucket in expiryMap.
-        Set<E> set = expiryMap.get(newExpiryTime);
-        if (set == null) {
-            // Construct a ConcurrentHashSet using a ConcurrentHashMap
-            set = Collections.newSetFromMap(
-                new ConcurrentHashMap<E, Boolean>());
-            // Put the new set in the map, but only if another thread
-            // hasn't beaten us to it
-            Set<E> existingSet = expiryMap.putIfAbsent(newExpiryTime, set);
-            if (existingSet != null) {
-                set = existingSet;
-            }
-        }
-        set.add(elem);
+        // First add the elem to the new expiry time bucket, so that it is
+        // always in the bucket its elemMap entry points to.
+        Set<E> newBucket = bucketFor(newExpiryTime);
+        newBucket.add(elem);
 
         // Map the elem to the new expiry time. If a different previous
         // mapping was present, clean up the previous expiry bucket.
         prevExpiryTime = elemMap.put(elem, newExpiryTime);
-        if (prevExpiryTime != null && !newExpiryTime.equals(prevExpiryTime)) {
-            Set<E> prevSet = expiryMap.get(prevExpiryTime);
-            if (prevSet != null) {
-                prevSet.remove(elem);
+        if (prevExpiryTime != null && prevExpiryTime != newExpiryTime) {
+            Set<E> prevBucket = bucketFor(prevExpiryTime);
+            if (prevBucket != newBucket) {
+                prevBucket.remove(elem);
             }
         }
         return newExpiryTime;
@@ -131,9 +167,10 @@ public long getWaitTime() {
     }
 
     /**
-     * Remove the next expired set of elements from expireMap. This method needs
-     * to be called frequently enough by checking getWaitTime(), otherwise there
-     * will be a backlog of empty sets queued up in expiryMap.
+     * Remove the next expired set of elements from the wheel. This method
+     * needs to be called frequently enough by checking getWaitTime(),
+     * otherwise expirations are handed out late. Returned elements are no
+     * longer tracked; a later update() queues them again.
      *
      * @return next set of expired elements, or an empty set if none are
      *         ready
@@ -145,46 +182,87 @@ public Set<E> poll() {
             return Collections.emptySet();
         }
 
-        Set<E> set = null;
         long newExpirationTime = expirationTime + expirationInterval;
-        if (nextExpirationTime.compareAndSet(
+        if (!nextExpirationTime.compareAndSet(
               expirationTime, newExpirationTime)) {
-            set = expiryMap.remove(expirationTime);
+            return Collections.emptySet();
         }
-        if (set == null) {
+
+        Set<E> bucket = bucket(expirationTime);
+        if (bucket == null) {
             return Collections.emptySet();
         }
-        return set;
+        Set<E> expired = null;
+        Iterator<E> it = bucket.iterator();
+        while (it.hasNext()) {
+            E elem = it.next();
+            Long expiryTime = elemMap.get(elem);
+            if (expiryTime == null) {
+                // an update in flight, or removed and already gone
+                continue;
+            }
+            if (expiryTime > expirationTime) {
+                // a later turn of the wheel, or a stale copy left behind
+                // by a racing update
+                if (slot(expiryTime) != slot(expirationTime)) {
+                    it.remove();
+                }
+                continue;
+            }
+            it.remove();
+            if (!elemMap.remove(elem, expiryTime)) {
+                // updated concurrently, make sure it is queued at its new time
+                Long newExpiryTime = elemMap.get(elem);
+                if (newExpiryTime != null) {
+                    bucketFor(newExpiryTime).add(elem);
+                }
+                continue;
+            }
+            if (expired == null) {
+                expired = new HashSet<E>();
+            }
+            expired.add(elem);
+        }
+        if (expired == null) {
+            return Collections.emptySet();
+        }
+        return expired;
     }
 
     public void dump(PrintWriter pwriter) {
+        Map<Long, Set<E>> expiryMap = getExpiryMap();
         pwriter.print("Sets (");
         pwriter.print(expiryMap.size());
         pwriter.print(")/(");
         pwriter.print(elemMap.size());
         pwriter.println("):");
-        ArrayList<Long> keys = new ArrayList<Long>(expiryMap.keySet());
-        Collections.sort(keys);
-        for (long time : keys) {
-            Set<E> set = expiryMap.get(time);
-            if (set != null) {
-                pwriter.print(set.size());
-                pwriter.print(" expire at ");
-                pwriter.print(Time.elapsedTimeToDate(time));
-                pwriter.println(":");
-                for (E elem : set) {
-                    pwriter.print("\t");
-                    pwriter.println(elem.toString());
-                }
+        for (Map.Entry<Long, Set<E>> e : expiryMap.entrySet()) {
+            pwriter.print(e.getValue().size());
+            pwriter.print(" expire at ");
+            pwriter.print(Time.elapsedTimeToDate(e.getKey()));
+            pwriter.println(":");
+            for (E elem : e.getValue()) {
+                pwriter.print("\t");
+                pwriter.println(elem.toString());
             }
         }
     }
 
     /**
-     * Returns an unmodifiable view of the expiration time -> elements mapping.
+     * Returns a snapshot of the expiration time -> elements mapping, sorted
+     * by expiration time. This walks every element and is meant for
+     * monitoring and tests only.
      */
     public Map<Long, Set<E>> getExpiryMap() {
+        Map<Long, Set<E>> expiryMap = new TreeMap<Long, Set<E>>();
+        for (Map.Entry<E, Long> e : elemMap.entrySet()) {
+            Set<E> set = expiryMap.get(e.getValue());
+            if (set == null) {
+                set = new HashSet<E>();
+                expiryMap.put(e.getValue(), set);
+            }
+            set.add(e.getKey());
+        }
         return Collections.unmodifiableMap(expiryMap);
     }
 }
-
@@ -34,6 +34,8 @@
 import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.common.Time;
 import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.ChildData;
+import org.apache.zookeeper.data.Id;
 import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.proto.CheckWatchesRequest;
 import org.apache.zookeeper.proto.Create2Response;
@@ -44,6 +46,8 @@
 import org.apache.zookeeper.proto.GetACLResponse;
 import org.apache.zookeeper.proto.GetChildren2Request;
 import org.apache.zookeeper.proto.GetChildren2Response;
+import org.apache.zookeeper.proto.GetChildrenDataRequest;
+import org.apache.zookeeper.proto.GetChildrenDataResponse;
 import org.apache.zookeeper.proto.GetChildrenRequest;
 import org.apache.zookeeper.proto.GetChildrenResponse;
 import org.apache.zookeeper.proto.GetDataRequest;
@@ -59,14 +63,16 @@
 import org.apache.zookeeper.server.ZooKeeperServer.ChangeRecord;
 import org.apache.zookeeper.server.quorum.QuorumZooKeeperServer;
 import org.apache.zookeeper.txn.ErrorTxn;
-import org.apache.zookeeper.txn.TxnHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 /**
  * This Request processor actually applies any transaction associated with a
@@ -86,6 +92,22 @@ public FinalRequestProcessor(ZooKeeperServer zks) {
         this.zks = zks;
     }
 
+    /**
+     * Upper bound on the size of a single getChildrenData response. A
+     * client asking for more, or not asking for a limit at all, gets pages
+     * of this size.
+     */
+    public static final String BULK_READ_MAX_BYTES = "zookeeper.bulkReadMaxBytes";
+
+    private static final int bulkReadMaxBytes =
+        Integer.getInteger(BULK_READ_MAX_BYTES, 1024 * 1024);
+
+    /**
+     * Rough per node overhead of a ChildData record on the wire: the
+     * serialized Stat plus the length prefixes.
+     */
+    private static final int CHILD_DATA_OVERHEAD = 80;
+
     public void processRequest(Request request) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Processing request:: " + request);
@@ -98,34 +120,33 @@ public void processRequest(Request request) {
         if (LOG.isTraceEnabled()) {
             ZooTrace.logRequest(LOG, traceMask, 'E', request, "");
         }
-        ProcessTxnResult rc = null;
-        synchronized (zks.outstandingChanges) {
-            // Need to process local session requests
-            rc = zks.processTxn(request);
-
-            // request.hdr is set for write requests, which are the only ones
-            // that add to outstandingChanges.
-            if (request.getHdr() != null) {
-                TxnHeader hdr = request.getHdr();
-                Record txn = request.getTxn();
-                long zxid = hdr.getZxid();
-                while (!zks.outstandingChanges.isEmpty()
-                       && zks.outstandingChanges.get(0).zxid <= zxid) {
-                    ChangeRecord cr = zks.outstandingChanges.remove(0);
-                    if (cr.zxid < zxid) {
-                        LOG.warn("Zxid outstanding " + cr.zxid
-                                 + " is less than current " + zxid);
-                    }
-                    if (zks.outstandingChangesForPath.get(cr.path) == cr) {
-                        zks.outstandingChangesForPath.remove(cr.path);
-                    }
+        // Need to process local session requests
+        ProcessTxnResult rc = zks.processTxn(request);
+
+        // request.hdr is set for write requests, which are the only ones
+        // that add to outstandingChanges. The change records are dropped
+        // only after the txn is applied, so PrepRequestProcessor finds a
+        // path either in outstandingChangesForPath or up to date in the
+        // data tree.
+        if (request.getHdr() != null) {
+            long zxid = request.getHdr().getZxid();
+            ChangeRecord cr;
+            while ((cr = zks.outstandingChanges.peekFirst()) != null
+                   && cr.zxid <= zxid) {
+                zks.outstandingChanges.pollFirst();
+                cr.applied = true;
+                if (cr.zxid < zxid) {
+                    LOG.warn("Zxid outstanding " + cr.zxid
+                             + " is less than current " + zxid);
                 }
+                zks.outstandingChangesForPath.remove(cr.path, cr);
+                cr.releaseQuota();
             }
+        }
 
-            // do not add non quorum packets to the queue.
-            if (request.isQuorum()) {
-                zks.getZKDatabase().addCommittedProposal(request);
-            }
+        // do not add non quorum packets to the queue.
+        if (request.isQuorum()) {
+            zks.getZKDatabase().addCommittedProposal(request);
         }
 
         // ZOOKEEPER-558:
@@ -321,13 +342,18 @@ public void processRequest(Request request) {
                 synchronized(n) {
                     aclL = n.acl;
                 }
-                PrepRequestProcessor.checkACL(zks, zks.getZKDatabase().convertLong(aclL),
+                PrepRequestProcessor.checkACL(zks, cnxn, zks.getZKDatabase().convertLong(aclL),
                         ZooDefs.Perms.READ,
                         request.authInfo);
                 Stat stat = new Stat();
-                byte b[] = zks.getZKDatabase().getData(getDataRequest.getPath(), stat,
+                ByteBuffer b = zks.getZKDatabase().getDataBuffer(getDataRequest.getPath(), stat,
                         getDataRequest.getWatch() ? cnxn : null);
-                rsp = new GetDataResponse(b, stat);
+                if (b == null || b.hasArray()) {
+                    rsp = new GetDataResponse(b == null ? null : b.array(), stat);
+                } else {
+                    // written to the client without copying it to the heap
+                    rsp = new OffHeapDataResponse(b, stat);
+                }
                 break;
             }
             case OpCode.setWatches: {
@@ -368,7 +394,7 @@ public void processRequest(Request request) {
                     aclG = n.acl;
 
                 }
-                PrepRequestProcessor.checkACL(zks, zks.getZKDatabase().convertLong(aclG),
+                PrepRequestProcessor.checkACL(zks, cnxn, zks.getZKDatabase().convertLong(aclG),
                         ZooDefs.Perms.READ,
                         request.authInfo);
                 List<String> children = zks.getZKDatabase().getChildren(
@@ -391,7 +417,7 @@ public void processRequest(Request request) {
                 synchronized(n) {
                     aclG = n.acl;
                 }
-                PrepRequestProcessor.checkACL(zks, zks.getZKDatabase().convertLong(aclG),
+                PrepRequestProcessor.checkACL(zks, cnxn, zks.getZKDatabase().convertLong(aclG),
                         ZooDefs.Perms.READ,
                         request.authInfo);
                 List<String> children = zks.getZKDatabase().getChildren(
@@ -400,6 +426,28 @@ public void processRequest(Request request) {
                 rsp = new GetChildren2Response(children, stat);
                 break;
             }
+            case OpCode.getChildrenData: {
+                lastOp = "GETC";
+                GetChildrenDataRequest getChildrenDataRequest =
+                    new GetChildrenDataRequest();
+                ByteBufferInputStream.byteBuffer2Record(request.request,
+                        getChildrenDataRequest);
+                DataNode n = zks.getZKDatabase().getNode(
+                        getChildrenDataRequest.getPath());
+                if (n == null) {
+                    throw new KeeperException.NoNodeException();
+                }
+                Long aclG;
+                synchronized(n) {
+                    aclG = n.acl;
+                }
+                PrepRequestProcessor.checkACL(zks, cnxn, zks.getZKDatabase().convertLong(aclG),
+                        ZooDefs.Perms.READ,
+                        request.authInfo);
+                rsp = readChildrenData(getChildrenDataRequest, cnxn,
+                        request.authInfo);
+                break;
+            }
             case OpCode.checkWatches: {
                 lastOp = "CHKW";
                 CheckWatchesRequest checkWatches = new CheckWatchesRequest();
@@ -476,6 +524,126 @@ public void processRequest(Request request) {
         }
     }
 
+    /**
+     * State of a single getChildrenData request while walking the tree.
+     */
+    private static class ChildrenDataRead {
+        final List<ChildData> result = new ArrayList<ChildData>();
+        final ServerCnxn cnxn;
+        final List<Id> authInfo;
+        final int depth;
+        int remainingBytes;
+
+        ChildrenDataRead(ServerCnxn cnxn, List<Id> authInfo, int depth,
+                int maxBytes) {
+            this.cnxn = cnxn;
+            this.authInfo = authInfo;
+            this.depth = depth;
+            this.remainingBytes = maxBytes;
+        }
+    }
+
+    /**
+     * Returns the nodes below the requested path, up to the requested
+     * depth, in pre-order with children sorted by name. The response is
+     * cut once its estimated size exceeds the byte budget; the returned
+     * cursor names the last node included, so the next request can resume
+     * right after it. Nodes the client may not read are left out together
+     * with their subtrees. Pages are not a consistent snapshot: each page
+     * reflects the tree at the time it was read.
+     */
+    private GetChildrenDataResponse readChildrenData(
+            GetChildrenDataRequest req, ServerCnxn cnxn, List<Id> authInfo) {
+        int budget = bulkReadMaxBytes;
+        if (req.getMaxBytes() > 0 && req.getMaxBytes() < budget) {
+            budget = req.getMaxBytes();
+        }
+        String cursor = req.getCursor();
+        String[] cursorPath = (cursor == null || cursor.isEmpty())
+                ? null : cursor.split("/");
+        ChildrenDataRead read = new ChildrenDataRead(cnxn, authInfo,
+                Math.max(1, req.getDepth()), budget);
+        String next = "";
+        if (!collectChildrenData(read, req.getPath(), "", 1, cursorPath)) {
+            next = read.result.get(read.result.size() - 1).getPath();
+        }
+        return new GetChildrenDataResponse(read.result, next);
+    }
+
+    /**
+     * @return false if the byte budget ran out before the subtree was done
+     */
+    private boolean collectChildrenData(ChildrenDataRead read, String path,
+            String relPath, int level, String[] cursorPath) {
+        DataNode parent = zks.getZKDatabase().getNode(path);
+        if (parent == null) {
+            // deleted while we were reading
+            return true;
+        }
+        List<String> names;
+        synchronized (parent) {
+            Set<String> childs = parent.getChildren();
+            names = childs == null ? new ArrayList<String>(0)
+                    : new ArrayList<String>(childs);
+        }
+        Collections.sort(names);
+        for (String name : names) {
+            boolean emit = true;
+            String[] subCursor = null;
+            if (cursorPath != null) {
+                int cmp = name.compareTo(cursorPath[level - 1]);
+                if (cmp < 0) {
+                    continue;
+                } else if (cmp == 0) {
+                    // the cursor node or one of its ancestors, returned
+                    // by an earlier page
+                    emit = false;
+                    if (cursorPath.length > level) {
+                        subCursor = cursorPath;
+                    }
+                } else {
+                    cursorPath = null;
+                }
+            }
+            String childPath = path.equals("/") ? "/" + name : path + "/" + name;
+            String childRelPath = relPath.isEmpty() ? name : relPath + "/" + name;
+            DataNode child = zks.getZKDatabase().getNode(childPath);
+            if (child == null) {
+                continue;
+            }
+            zks.getZKDatabase().getDataTree().flushQuotaStat(childPath);
+            byte[] data;
+            Stat stat = new Stat();
+            Long acl;
+            synchronized (child) {
+                data = child.getData();
+                child.copyStat(stat);
+                acl = child.acl;
+            }
+            try {
+                PrepRequestProcessor.checkACL(zks, read.cnxn,
+                        zks.getZKDatabase().convertLong(acl),
+                        ZooDefs.Perms.READ, read.authInfo);
+            } catch (KeeperException.NoAuthException e) {
+                continue;
+            }
+            if (emit) {
+                int size = childRelPath.length() + CHILD_DATA_OVERHEAD
+                        + (data == null ? 0 : data.length);
+                if (!read.result.isEmpty() && size > read.remainingBytes) {
+                    return false;
+                }
+                read.remainingBytes -= size;
+                read.result.add(new ChildData(childRelPath, data, stat));
+            }
+            if (level < read.depth && !collectChildrenData(read, childPath,
+                    childRelPath, level + 1, subCursor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean closeSession(ServerCnxnFactory serverCnxnFactory, long sessionId) {
         if (serverCnxnFactory == null) {
             return false;
@@ -18,20 +18,26 @@
 
 package org.apache.zookeeper.server;
 
+import java.io.BufferedWriter;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.util.Date;
-import java.util.zip.Adler32;
 import java.util.zip.Checksum;
 
 import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.Record;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.server.persistence.ChecksumAlgorithm;
 import org.apache.zookeeper.server.persistence.FileHeader;
 import org.apache.zookeeper.server.persistence.FileTxnLog;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.persistence.Util;
 import org.apache.zookeeper.server.util.SerializeUtils;
 import org.apache.zookeeper.txn.TxnHeader;
 
@@ -39,11 +45,18 @@ public class LogFormatter {
     private static final Logger LOG = LoggerFactory.getLogger(LogFormatter.class);
 
     /**
-     * @param args
+     * USAGE: LogFormatter log_file
+     *        LogFormatter -analyze log_file|log_dir [top_n [prefix_depth [interval_seconds]]]
      */
     public static void main(String[] args) throws Exception {
+        if (args.length >= 2 && args.length <= 5 && args[0].equals("-analyze")) {
+            analyze(args);
+            return;
+        }
         if (args.length != 1) {
             System.err.println("USAGE: LogFormatter log_file");
+            System.err.println("       LogFormatter -analyze log_file|log_dir"
+                    + " [top_n [prefix_depth [interval_seconds]]]");
             System.exit(2);
         }
         FileInputStream fis = new FileInputStream(args[0]);
@@ -55,9 +68,13 @@ public static void main(String[] args) throws Exception {
             System.err.println("Invalid magic number for " + args[0]);
             System.exit(2);
         }
+        ChecksumAlgorithm checksum = ChecksumAlgorithm.ADLER32;
+        if (fhdr.getVersion() >= FileTxnLog.CHECKSUM_VERSION) {
+            checksum = ChecksumAlgorithm.fromId(logStream.readInt("checksum"));
+        }
         System.out.println("ZooKeeper Transactional Log File with dbid "
                 + fhdr.getDbid() + " txnlog format version "
-                + fhdr.getVersion());
+                + fhdr.getVersion() + " checksum " + checksum.getName());
 
         int count = 0;
         while (true) {
@@ -77,7 +94,7 @@ public static void main(String[] args) throws Exception {
                 System.out.println("EOF reached after " + count + " txns.");
                 return;
             }
-            Checksum crc = new Adler32();
+            Checksum crc = checksum.create();
             crc.update(bytes, 0, bytes.length);
             if (crcValue != crc.getValue()) {
                 throw new IOException("CRC doesn't match " + crcValue +
@@ -101,4 +118,27 @@ public static void main(String[] args) throws Exception {
             count++;
         }
     }
+
+    /**
+     * Writes a report in JSON of the logs of a directory, or of a log file
+     * and the logs after it, see {@link TxnLogAnalyzer}.
+     */
+    private static void analyze(String[] args) throws IOException {
+        File log = new File(args[1]);
+        File logDir = log;
+        long zxid = 0;
+        if (!log.isDirectory()) {
+            logDir = log.getAbsoluteFile().getParentFile();
+            zxid = Util.getZxidFromName(log.getName(), "log");
+        }
+        int topN = args.length > 2 ? Integer.parseInt(args[2])
+                : SnapshotFormatter.DEFAULT_TOP_N;
+        int prefixDepth = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        long intervalMs = args.length > 4 ? Long.parseLong(args[4]) * 1000 : 60000;
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        new TxnLogAnalyzer(topN, prefixDepth, intervalMs,
+                FileTxnSnapLog.getReplayThreads()).analyze(logDir, zxid, out);
+        out.write(System.getProperty("line.separator"));
+        out.flush();
+    }
 }
@@ -19,7 +19,6 @@
 package org.apache.zookeeper.server;
 
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
@@ -37,7 +36,6 @@
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.jute.BinaryInputArchive;
-import org.apache.jute.BinaryOutputArchive;
 import org.apache.jute.Record;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -159,7 +157,9 @@ public void sendBuffer(ByteBuffer bb) {
             LOG.trace("Add a buffer to outgoingBuffers, sk " + sk
                       + " is valid: " + sk.isValid());
         }
-        outgoingBuffers.add(bb);
+        synchronized (outgoingBuffers) {
+            outgoingBuffers.add(bb);
+        }
         requestInterestOpsUpdate();
     }
 
@@ -241,7 +241,10 @@ void handleWrite(SelectionKey k) throws IOException, CloseRequestException {
                 if (bb.remaining() > 0) {
                     break;
                 }
-                packetSent();
+                // read-only buffers continue the packet of the previous one
+                if (!bb.isReadOnly()) {
+                    packetSent();
+                }
                 outgoingBuffers.remove();
             }
          } else {
@@ -294,7 +297,9 @@ void handleWrite(SelectionKey k) throws IOException, CloseRequestException {
                     bb.position(bb.position() + sent);
                     break;
                 }
-                packetSent();
+                if (!bb.isReadOnly()) {
+                    packetSent();
+                }
                 /* We've sent the whole buffer, so drop the buffer */
                 sent -= bb.remaining();
                 outgoingBuffers.remove();
@@ -767,15 +772,23 @@ public void commandRun() {
             print("packets_received", stats.getPacketsReceived());
             print("packets_sent", stats.getPacketsSent());
             print("num_alive_connections", stats.getNumAliveClientConnections());
+            print("acl_cache_hits", stats.getAclCacheHits());
+            print("acl_cache_misses", stats.getAclCacheMisses());
 
             print("outstanding_requests", stats.getOutstandingRequests());
+            print("throttled_requests", zkServer.getThrottledRequests());
+            print("throttle_queue_size", zkServer.getThrottleQueueSize());
 
             print("server_state", stats.getServerState());
             print("znode_count", zkdb.getNodeCount());
 
             print("watch_count", zkdb.getDataTree().getWatchCount());
             print("ephemerals_count", zkdb.getDataTree().getEphemeralsCount());
+            print("container_candidates", zkdb.getDataTree().getContainerCandidateCount());
+            print("txn_replay_rate", zkdb.getTxnLogReplayRate());
             print("approximate_data_size", zkdb.getDataTree().approximateDataSize());
+            print("offheap_data_count", zkdb.getDataTree().getPayloadStore().getOffHeapCount());
+            print("offheap_data_bytes", zkdb.getDataTree().getPayloadStore().getOffHeapBytes());
 
             OSMXBean osMbean = new OSMXBean();
             if (osMbean != null && osMbean.getUnix() == true) {
@@ -1058,8 +1071,6 @@ public static void closeSock(SocketChannel sock) {
         }
     }
 
-    private final static byte fourBytes[] = new byte[4];
-
     /*
      * (non-Javadoc)
      *
@@ -1069,28 +1080,19 @@ public static void closeSock(SocketChannel sock) {
     @Override
     public void sendResponse(ReplyHeader h, Record r, String tag) {
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            // Make space for length
-            BinaryOutputArchive bos = BinaryOutputArchive.getArchive(baos);
-            try {
-                baos.write(fourBytes);
-                bos.writeRecord(h, "header");
-                if (r != null) {
-                    bos.writeRecord(r, tag);
+            ByteBuffer[] bufs = serializeResponse(h, r, tag);
+            // the buffers of a packet must not be interleaved with others
+            synchronized (outgoingBuffers) {
+                for (ByteBuffer bb : bufs) {
+                    outgoingBuffers.add(bb);
                 }
-                baos.close();
-            } catch (IOException e) {
-                LOG.error("Error serializing response");
             }
-            byte b[] = baos.toByteArray();
-            ByteBuffer bb = ByteBuffer.wrap(b);
-            bb.putInt(b.length - 4).rewind();
-            sendBuffer(bb);
+            requestInterestOpsUpdate();
             if (h.getXid() > 0) {
                 // check throttling
                 if (outstandingRequests.decrementAndGet() < 1 ||
                     zkServer.getInProcess() < outstandingLimit) {
-                    enableRecv();
+                    zkServer.resumeRecv(this);
                 }
             }
          } catch(Exception e) {
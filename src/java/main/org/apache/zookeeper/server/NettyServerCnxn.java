@@ -21,7 +21,6 @@
 import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
 
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
@@ -37,7 +36,6 @@
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.jute.BinaryInputArchive;
-import org.apache.jute.BinaryOutputArchive;
 import org.apache.jute.Record;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -152,7 +150,6 @@ public void process(WatchedEvent event) {
         }
     }
 
-    private static final byte[] fourBytes = new byte[4];
     static class ResumeMessageEvent implements MessageEvent {
         Channel channel;
         ResumeMessageEvent(Channel channel) {
@@ -174,27 +171,13 @@ public void sendResponse(ReplyHeader h, Record r, String tag)
         if (!channel.isOpen()) {
             return;
         }
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        // Make space for length
-        BinaryOutputArchive bos = BinaryOutputArchive.getArchive(baos);
-        try {
-            baos.write(fourBytes);
-            bos.writeRecord(h, "header");
-            if (r != null) {
-                bos.writeRecord(r, tag);
-            }
-            baos.close();
-        } catch (IOException e) {
-            LOG.error("Error serializing response");
-        }
-        byte b[] = baos.toByteArray();
-        ByteBuffer bb = ByteBuffer.wrap(b);
-        bb.putInt(b.length - 4).rewind();
-        sendBuffer(bb);
+        // the off-heap data of a response is written without copying
+        channel.write(wrappedBuffer(serializeResponse(h, r, tag)));
+        packetSent();
         if (h.getXid() > 0) {
             // zks cannot be null otherwise we would not have gotten here!
             if (!zkServer.shouldThrottle(outstandingCount.decrementAndGet())) {
-                enableRecv();
+                zkServer.resumeRecv(this);
             }
         }
     }
@@ -565,15 +548,23 @@ public void commandRun() {
             print("packets_received", stats.getPacketsReceived());
             print("packets_sent", stats.getPacketsSent());
             print("num_alive_connections", stats.getNumAliveClientConnections());
+            print("acl_cache_hits", stats.getAclCacheHits());
+            print("acl_cache_misses", stats.getAclCacheMisses());
 
             print("outstanding_requests", stats.getOutstandingRequests());
+            print("throttled_requests", zkServer.getThrottledRequests());
+            print("throttle_queue_size", zkServer.getThrottleQueueSize());
 
             print("server_state", stats.getServerState());
             print("znode_count", zkdb.getNodeCount());
 
             print("watch_count", zkdb.getDataTree().getWatchCount());
             print("ephemerals_count", zkdb.getDataTree().getEphemeralsCount());
+            print("container_candidates", zkdb.getDataTree().getContainerCandidateCount());
+            print("txn_replay_rate", zkdb.getTxnLogReplayRate());
             print("approximate_data_size", zkdb.getDataTree().approximateDataSize());
+            print("offheap_data_count", zkdb.getDataTree().getPayloadStore().getOffHeapCount());
+            print("offheap_data_bytes", zkdb.getDataTree().getPayloadStore().getOffHeapBytes());
 
             OSMXBean osMbean = new OSMXBean();
             if (osMbean != null && osMbean.getUnix() == true) {
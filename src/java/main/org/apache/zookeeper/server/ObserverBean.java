@@ -42,4 +42,15 @@ public String getQuorumAddress() {
         return observer.getSocket().toString();
     }
 
+    public long getSessionTouchCount() {
+        return observer.getSessionTouchCount();
+    }
+
+    public long getSessionTouchBytes() {
+        return observer.getSessionTouchBytes();
+    }
+
+    public long getSessionTouchBytesSaved() {
+        return observer.getSessionTouchBytesSaved();
+    }
 }
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.jute.InputArchive;
+import org.apache.jute.OutputArchive;
+import org.apache.jute.Record;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.proto.GetDataResponse;
+
+/**
+ * A {@link GetDataResponse} whose data is a read-only buffer that refers
+ * to the data of a node stored off-heap. The connections write the buffer
+ * to the client as is, see {@link ServerCnxn#serializeResponse}; it is only
+ * copied when serialized through an archive. The wire format is that of
+ * GetDataResponse, and a deserialized response holds its data on the heap.
+ */
+class OffHeapDataResponse implements Record {
+    private ByteBuffer data;
+    private Stat stat;
+
+    OffHeapDataResponse() {
+        this(ByteBuffer.allocate(0), new Stat());
+    }
+
+    OffHeapDataResponse(ByteBuffer data, Stat stat) {
+        this.data = data;
+        this.stat = stat;
+    }
+
+    ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    Stat getStat() {
+        return stat;
+    }
+
+    @Override
+    public void serialize(OutputArchive archive, String tag)
+            throws IOException {
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        new GetDataResponse(copy, stat).serialize(archive, tag);
+    }
+
+    @Override
+    public void deserialize(InputArchive archive, String tag)
+            throws IOException {
+        GetDataResponse rsp = new GetDataResponse();
+        rsp.deserialize(archive, tag);
+        byte[] b = rsp.getData();
+        data = ByteBuffer.wrap(b == null ? new byte[0] : b).asReadOnlyBuffer();
+        stat = rsp.getStat();
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.common.Time;
+
+/**
+ * Decides which znode payloads are kept off the Java heap and copies them
+ * into direct buffers. A payload is moved off-heap when it is written if it
+ * is at least {@link #OFF_HEAP_THRESHOLD} bytes, and when the tree is
+ * serialized or loaded if it has not been modified for
+ * {@link #OFF_HEAP_COLD_MINUTES}.
+ * <p>
+ * Off-heap buffers are never modified once stored, a setData replaces the
+ * whole buffer, so they can be handed to the network layer without copying
+ * them back to the heap. Their native memory is released by the garbage
+ * collector once no node or pending response refers to them, and is
+ * bounded by -XX:MaxDirectMemorySize.
+ * <p>
+ * Subclasses can keep payloads somewhere else, e.g. in a memory-mapped
+ * file, by overriding {@link #allocate(int)}.
+ */
+public class PayloadStore {
+    /**
+     * Payloads of at least this many bytes are stored off-heap, 0 (the
+     * default) keeps every payload on the heap.
+     */
+    public static final String OFF_HEAP_THRESHOLD = "zookeeper.offHeapDataThreshold";
+
+    /**
+     * Payloads not modified for this many minutes are moved off-heap when
+     * the tree is serialized or loaded, 0 (the default) to disable.
+     */
+    public static final String OFF_HEAP_COLD_MINUTES = "zookeeper.offHeapColdDataMinutes";
+
+    /**
+     * Smallest cold payload that is moved off-heap. The direct buffer that
+     * refers to a payload costs about as much heap as a small byte[].
+     */
+    static final int MIN_COLD_SIZE = 256;
+
+    private final int threshold;
+    private final long coldMillis;
+
+    private final AtomicLong offHeapCount = new AtomicLong();
+    private final AtomicLong offHeapBytes = new AtomicLong();
+
+    public PayloadStore() {
+        this(Integer.getInteger(OFF_HEAP_THRESHOLD, 0),
+                TimeUnit.MINUTES.toMillis(Long.getLong(OFF_HEAP_COLD_MINUTES, 0)));
+    }
+
+    /**
+     * @param threshold minimum size of a payload stored off-heap when it
+     * is written, 0 to disable
+     * @param coldMillis age of the last modification after which a payload
+     * is moved off-heap, 0 to disable
+     */
+    public PayloadStore(int threshold, long coldMillis) {
+        this.threshold = threshold;
+        this.coldMillis = coldMillis;
+    }
+
+    /**
+     * @return a read-only off-heap copy of the data if it should be stored
+     * off-heap when written, null to keep it on the heap
+     */
+    ByteBuffer store(byte[] data) {
+        if (threshold <= 0 || data == null || data.length < threshold) {
+            return null;
+        }
+        return copy(data);
+    }
+
+    /**
+     * @return a read-only off-heap copy of the data if it has not been
+     * modified since mtime for long enough, null to keep it on the heap
+     */
+    ByteBuffer storeIfCold(byte[] data, long mtime) {
+        if (coldMillis <= 0 || data == null || data.length < MIN_COLD_SIZE
+                || Time.currentWallTime() - mtime < coldMillis) {
+            return null;
+        }
+        return copy(data);
+    }
+
+    private ByteBuffer copy(byte[] data) {
+        ByteBuffer buf = allocate(data.length);
+        buf.put(data);
+        buf.flip();
+        offHeapCount.incrementAndGet();
+        offHeapBytes.addAndGet(data.length);
+        return buf.asReadOnlyBuffer();
+    }
+
+    /**
+     * Allocates the buffer a payload of the given size is copied to.
+     */
+    protected ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Accounts for a payload that no node refers to anymore.
+     */
+    void release(ByteBuffer buf) {
+        offHeapCount.decrementAndGet();
+        offHeapBytes.addAndGet(-buf.limit());
+    }
+
+    /**
+     * @return the number of payloads stored off-heap
+     */
+    public long getOffHeapCount() {
+        return offHeapCount.get();
+    }
+
+    /**
+     * @return the total size in bytes of the payloads stored off-heap
+     */
+    public long getOffHeapBytes() {
+        return offHeapBytes.get();
+    }
+}
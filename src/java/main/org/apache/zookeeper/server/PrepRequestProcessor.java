@@ -73,7 +73,6 @@
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
@@ -99,6 +98,13 @@ public class PrepRequestProcessor extends ZooKeeperCriticalThread implements
         }
     }
 
+    /**
+     * When set, a create or setData that would take a quota root over its
+     * count or bytes limit fails with QUOTAEXCEEDED instead of only being
+     * logged.
+     */
+    public static final String ENFORCE_QUOTA = "zookeeper.enforceQuota";
+
     /**
      * this is only for testing purposes.
      * should never be useed otherwise
@@ -111,12 +117,18 @@ public class PrepRequestProcessor extends ZooKeeperCriticalThread implements
 
     ZooKeeperServer zks;
 
+    private final boolean enforceQuota;
+
     public PrepRequestProcessor(ZooKeeperServer zks,
             RequestProcessor nextProcessor) {
         super("ProcessThread(sid:" + zks.getServerId() + " cport:"
                 + zks.getClientPort() + "):", zks.getZooKeeperServerListener());
         this.nextProcessor = nextProcessor;
         this.zks = zks;
+        this.enforceQuota = Boolean.getBoolean(ENFORCE_QUOTA);
+        if (enforceQuota) {
+            LOG.info(ENFORCE_QUOTA + " is set, quota limits will be enforced");
+        }
     }
 
     /**
@@ -155,22 +167,24 @@ public void run() {
     }
 
     private ChangeRecord getRecordForPath(String path) throws KeeperException.NoNodeException {
-        ChangeRecord lastChange = null;
-        synchronized (zks.outstandingChanges) {
-            lastChange = zks.outstandingChangesForPath.get(path);
-            if (lastChange == null) {
-                DataNode n = zks.getZKDatabase().getNode(path);
-                if (n != null) {
-                    Long acl;
-                    Set<String> children;
-                    synchronized(n) {
-                        acl = n.acl;
-                        children = n.getChildren();
-                    }
-                    lastChange = new ChangeRecord(-1, path, n.stat,
-                        children != null ? children.size() : 0,
-                            zks.getZKDatabase().convertLong(acl));
+        // FinalRequestProcessor applies a txn before it drops the change
+        // record, so if there is no record the node in the tree is current
+        ChangeRecord lastChange = zks.outstandingChangesForPath.get(path);
+        if (lastChange == null) {
+            DataNode n = zks.getZKDatabase().getNode(path);
+            if (n != null) {
+                Long acl;
+                Set<String> children;
+                int dataLength;
+                synchronized(n) {
+                    acl = n.acl;
+                    children = n.getChildren();
+                    dataLength = n.getDataLength();
                 }
+                lastChange = new ChangeRecord(-1, path, n.stat,
+                    children != null ? children.size() : 0,
+                        zks.getZKDatabase().convertLong(acl));
+                lastChange.dataLength = dataLength;
             }
         }
         if (lastChange == null || lastChange.stat == null) {
@@ -180,16 +194,33 @@ private ChangeRecord getRecordForPath(String path) throws KeeperException.NoNode
     }
 
     private ChangeRecord getOutstandingChange(String path) {
-        synchronized (zks.outstandingChanges) {
-            return zks.outstandingChangesForPath.get(path);
-        }
+        return zks.outstandingChangesForPath.get(path);
     }
 
     private void addChangeRecord(ChangeRecord c) {
-        synchronized (zks.outstandingChanges) {
-            zks.outstandingChanges.add(c);
-            zks.outstandingChangesForPath.put(c.path, c);
+        if (zks.outstandingChangesForPath.get(c.path) == c) {
+            // changed in place by a later op of the same multi, see
+            // recordForUpdate
+            return;
+        }
+        zks.outstandingChanges.addLast(c);
+        zks.outstandingChangesForPath.put(c.path, c);
+    }
+
+    /**
+     * Returns a copy of the record that a txn with the given zxid can
+     * change. The ops of a multi share one zxid, so when an earlier op of
+     * the same multi already made the latest record of the path, that
+     * record is changed in place. A multi creating many children of one
+     * parent thus keeps a single parent record instead of one per op. If
+     * the multi fails, all records with its zxid are rolled back anyway.
+     */
+    private ChangeRecord recordForUpdate(ChangeRecord record, long zxid) {
+        if (record.zxid == zxid
+                && zks.outstandingChangesForPath.get(record.path) == record) {
+            return record;
         }
+        return record.duplicate(zxid);
     }
 
     /**
@@ -247,38 +278,45 @@ private Map<String, ChangeRecord> getPendingChanges(MultiTransactionRecord multi
      * @param pendingChangeRecords
      */
     void rollbackPendingChanges(long zxid, Map<String, ChangeRecord>pendingChangeRecords) {
-        synchronized (zks.outstandingChanges) {
-            // Grab a list iterator starting at the END of the list so we can iterate in reverse
-            ListIterator<ChangeRecord> iter = zks.outstandingChanges.listIterator(zks.outstandingChanges.size());
-            while (iter.hasPrevious()) {
-                ChangeRecord c = iter.previous();
-                if (c.zxid == zxid) {
-                    iter.remove();
-                    // Remove all outstanding changes for paths of this multi.
-                    // Previous records will be added back later.
-                    zks.outstandingChangesForPath.remove(c.path);
-                } else {
-                    break;
-                }
+        // Iterate from the END of the queue, the records of the failed multi
+        // are the latest ones and have not been handed on yet
+        Iterator<ChangeRecord> iter = zks.outstandingChanges.descendingIterator();
+        while (iter.hasNext()) {
+            ChangeRecord c = iter.next();
+            if (c.zxid == zxid) {
+                iter.remove();
+                // Remove all outstanding changes for paths of this multi.
+                // Previous records will be added back later.
+                zks.outstandingChangesForPath.remove(c.path);
+                c.releaseQuota();
+            } else {
+                break;
             }
+        }
 
-            // we don't need to roll back any records because there is nothing left.
-            if (zks.outstandingChanges.isEmpty()) {
-                return;
-            }
+        // we don't need to roll back any records because there is nothing left.
+        ChangeRecord first = zks.outstandingChanges.peekFirst();
+        if (first == null) {
+            return;
+        }
 
-            long firstZxid = zks.outstandingChanges.get(0).zxid;
+        long firstZxid = first.zxid;
 
-            for (ChangeRecord c : pendingChangeRecords.values()) {
-                // Don't apply any prior change records less than firstZxid.
-                // Note that previous outstanding requests might have been removed
-                // once they are completed.
-                if (c.zxid < firstZxid) {
-                    continue;
-                }
+        for (ChangeRecord c : pendingChangeRecords.values()) {
+            // Don't apply any prior change records less than firstZxid.
+            // Note that previous outstanding requests might have been removed
+            // once they are completed.
+            if (c.zxid < firstZxid) {
+                continue;
+            }
 
-                // add previously existing records back.
-                zks.outstandingChangesForPath.put(c.path, c);
+            // add previously existing records back.
+            zks.outstandingChangesForPath.put(c.path, c);
+            // FinalRequestProcessor may have completed the record meanwhile,
+            // don't leave a stale entry behind. It marks the record applied
+            // before it drops the entry, so one of the two removes it.
+            if (c.applied) {
+                zks.outstandingChangesForPath.remove(c.path, c);
             }
         }
     }
@@ -293,6 +331,21 @@ void rollbackPendingChanges(long zxid, Map<String, ChangeRecord>pendingChangeRec
      */
     static void checkACL(ZooKeeperServer zks, List<ACL> acl, int perm,
             List<Id> ids) throws KeeperException.NoAuthException {
+        checkACL(zks, null, acl, perm, ids);
+    }
+
+    /**
+     * Grant or deny authorization to an operation on a node as a function of:
+     *
+     * @param zks: used to count the decision cache hits, may be null.
+     * @param cnxn: the connection the credentials belong to, if any. The
+     *              decision is cached for it.
+     * @param acl:  set of ACLs for the node
+     * @param perm: the permission that the client is requesting
+     * @param ids:  the credentials supplied by the client
+     */
+    static void checkACL(ZooKeeperServer zks, ServerCnxn cnxn, List<ACL> acl,
+            int perm, List<Id> ids) throws KeeperException.NoAuthException {
         if (skipACL) {
             return;
         }
@@ -304,31 +357,64 @@ static void checkACL(ZooKeeperServer zks, List<ACL> acl, int perm,
         if (acl == null || acl.size() == 0) {
             return;
         }
+        AuthDecisionCache decisions = null;
+        if (cnxn != null && acl instanceof ReferenceCountedACLCache.InternedACLs) {
+            decisions = cnxn.getAclDecisions();
+        }
+        boolean granted;
+        if (decisions == null) {
+            granted = isGranted(acl, perm, ids);
+        } else {
+            Boolean cached = decisions.get(acl, perm);
+            if (zks != null) {
+                zks.serverStats().incrementAclCacheLookups(cached != null);
+            }
+            if (cached != null) {
+                granted = cached;
+            } else {
+                long generation = decisions.getGeneration();
+                granted = isGranted(acl, perm, ids);
+                decisions.put(acl, perm, granted, generation);
+            }
+        }
+        if (!granted) {
+            throw new KeeperException.NoAuthException();
+        }
+    }
+
+    private static boolean isGranted(List<ACL> acl, int perm, List<Id> ids) {
         for (Id authId : ids) {
             if (authId.getScheme().equals("super")) {
-                return;
+                return true;
             }
         }
-        for (ACL a : acl) {
+        // interned lists carry the outcome of the scheme lookups
+        ReferenceCountedACLCache.InternedACLs interned =
+            acl instanceof ReferenceCountedACLCache.InternedACLs
+                ? (ReferenceCountedACLCache.InternedACLs) acl : null;
+        for (int i = 0; i < acl.size(); i++) {
+            ACL a = acl.get(i);
             Id id = a.getId();
             if ((a.getPerms() & perm) != 0) {
-                if (id.getScheme().equals("world")
-                        && id.getId().equals("anyone")) {
-                    return;
+                boolean worldAnyone = interned != null ? interned.isWorldAnyone(i)
+                        : id.getScheme().equals("world")
+                            && id.getId().equals("anyone");
+                if (worldAnyone) {
+                    return true;
                 }
-                AuthenticationProvider ap = ProviderRegistry.getProvider(id
-                        .getScheme());
+                AuthenticationProvider ap = interned != null ? interned.getProvider(i)
+                        : ProviderRegistry.getProvider(id.getScheme());
                 if (ap != null) {
                     for (Id authId : ids) {
                         if (authId.getScheme().equals(id.getScheme())
                                 && ap.matches(authId.getId(), id.getId())) {
-                            return;
+                            return true;
                         }
                     }
                 }
             }
         }
-        throw new KeeperException.NoAuthException();
+        return false;
     }
 
     /**
@@ -379,7 +465,7 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                 List<ACL> listACL = fixupACL(path, request.authInfo, createRequest.getAcl());
                 ChangeRecord parentRecord = getRecordForPath(parentPath);
 
-                checkACL(zks, parentRecord.acl, ZooDefs.Perms.CREATE, request.authInfo);
+                checkACL(zks, request.cnxn, parentRecord.acl, ZooDefs.Perms.CREATE, request.authInfo);
                 int parentCVersion = parentRecord.stat.getCversion();
                 if (createMode.isSequential()) {
                     path = path + String.format(Locale.ENGLISH, "%010d", parentCVersion);
@@ -397,6 +483,9 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                 if (ephemeralParent) {
                     throw new KeeperException.NoChildrenForEphemeralsException(path);
                 }
+                byte[] data = createRequest.getData();
+                int dataLength = data == null ? 0 : data.length;
+                QuotaIndex.Quota pendingQuota = checkQuota(path, 1, dataLength);
                 int newCversion = parentRecord.stat.getCversion()+1;
                 if (type == OpCode.createContainer) {
                     request.setTxn(new CreateContainerTxn(path, createRequest.getData(), listACL, newCversion));
@@ -408,11 +497,16 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                 if (createMode.isEphemeral()) {
                     s.setEphemeralOwner(request.sessionId);
                 }
-                parentRecord = parentRecord.duplicate(request.getHdr().getZxid());
+                parentRecord = recordForUpdate(parentRecord, request.getHdr().getZxid());
                 parentRecord.childCount++;
                 parentRecord.stat.setCversion(newCversion);
                 addChangeRecord(parentRecord);
-                addChangeRecord(new ChangeRecord(request.getHdr().getZxid(), path, s, 0, listACL));
+                ChangeRecord nodeRecord = new ChangeRecord(request.getHdr().getZxid(), path, s, 0, listACL);
+                nodeRecord.dataLength = dataLength;
+                if (pendingQuota != null) {
+                    nodeRecord.chargeQuota(pendingQuota, 1, dataLength);
+                }
+                addChangeRecord(nodeRecord);
                 break;
             }
             case OpCode.deleteContainer: {
@@ -427,7 +521,7 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                     throw new KeeperException.BadVersionException(path);
                 }
                 request.setTxn(new DeleteTxn(path));
-                parentRecord = parentRecord.duplicate(request.getHdr().getZxid());
+                parentRecord = recordForUpdate(parentRecord, request.getHdr().getZxid());
                 parentRecord.childCount--;
                 addChangeRecord(parentRecord);
                 addChangeRecord(new ChangeRecord(request.getHdr().getZxid(), path, null, -1, null));
@@ -442,13 +536,13 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                 String parentPath = getParentPathAndValidate(path);
                 ChangeRecord parentRecord = getRecordForPath(parentPath);
                 ChangeRecord nodeRecord = getRecordForPath(path);
-                checkACL(zks, parentRecord.acl, ZooDefs.Perms.DELETE, request.authInfo);
+                checkACL(zks, request.cnxn, parentRecord.acl, ZooDefs.Perms.DELETE, request.authInfo);
                 checkAndIncVersion(nodeRecord.stat.getVersion(), deleteRequest.getVersion(), path);
                 if (nodeRecord.childCount > 0) {
                     throw new KeeperException.NotEmptyException(path);
                 }
                 request.setTxn(new DeleteTxn(path));
-                parentRecord = parentRecord.duplicate(request.getHdr().getZxid());
+                parentRecord = recordForUpdate(parentRecord, request.getHdr().getZxid());
                 parentRecord.childCount--;
                 addChangeRecord(parentRecord);
                 addChangeRecord(new ChangeRecord(request.getHdr().getZxid(), path, null, -1, null));
@@ -461,11 +555,19 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                 path = setDataRequest.getPath();
                 validatePath(path, request.sessionId);
                 nodeRecord = getRecordForPath(path);
-                checkACL(zks, nodeRecord.acl, ZooDefs.Perms.WRITE, request.authInfo);
+                checkACL(zks, request.cnxn, nodeRecord.acl, ZooDefs.Perms.WRITE, request.authInfo);
                 int newVersion = checkAndIncVersion(nodeRecord.stat.getVersion(), setDataRequest.getVersion(), path);
-                request.setTxn(new SetDataTxn(path, setDataRequest.getData(), newVersion));
-                nodeRecord = nodeRecord.duplicate(request.getHdr().getZxid());
+                byte[] data = setDataRequest.getData();
+                int dataLength = data == null ? 0 : data.length;
+                long bytesDiff = dataLength - nodeRecord.dataLength;
+                QuotaIndex.Quota pendingQuota = checkQuota(path, 0, bytesDiff);
+                request.setTxn(new SetDataTxn(path, data, newVersion));
+                nodeRecord = recordForUpdate(nodeRecord, request.getHdr().getZxid());
                 nodeRecord.stat.setVersion(newVersion);
+                nodeRecord.dataLength = dataLength;
+                if (pendingQuota != null) {
+                    nodeRecord.chargeQuota(pendingQuota, 0, bytesDiff);
+                }
                 addChangeRecord(nodeRecord);
                 break;
             case OpCode.reconfig:
@@ -578,9 +680,9 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                 }
                 
                 nodeRecord = getRecordForPath(ZooDefs.CONFIG_NODE);               
-                checkACL(zks, nodeRecord.acl, ZooDefs.Perms.WRITE, request.authInfo);                  
+                checkACL(zks, request.cnxn, nodeRecord.acl, ZooDefs.Perms.WRITE, request.authInfo);                  
                 request.setTxn(new SetDataTxn(ZooDefs.CONFIG_NODE, request.qv.toString().getBytes(), -1));    
-                nodeRecord = nodeRecord.duplicate(request.getHdr().getZxid());
+                nodeRecord = recordForUpdate(nodeRecord, request.getHdr().getZxid());
                 nodeRecord.stat.setVersion(-1);                
                 addChangeRecord(nodeRecord);
                 break;                         
@@ -593,10 +695,10 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                 validatePath(path, request.sessionId);
                 List<ACL> listACL = fixupACL(path, request.authInfo, setAclRequest.getAcl());
                 nodeRecord = getRecordForPath(path);
-                checkACL(zks, nodeRecord.acl, ZooDefs.Perms.ADMIN, request.authInfo);
+                checkACL(zks, request.cnxn, nodeRecord.acl, ZooDefs.Perms.ADMIN, request.authInfo);
                 newVersion = checkAndIncVersion(nodeRecord.stat.getAversion(), setAclRequest.getVersion(), path);
                 request.setTxn(new SetACLTxn(path, listACL, newVersion));
-                nodeRecord = nodeRecord.duplicate(request.getHdr().getZxid());
+                nodeRecord = recordForUpdate(nodeRecord, request.getHdr().getZxid());
                 nodeRecord.stat.setAversion(newVersion);
                 addChangeRecord(nodeRecord);
                 break;
@@ -619,23 +721,26 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                 // queues up this operation without being the session owner.
                 // this request is the last of the session so it should be ok
                 //zks.sessionTracker.checkSession(request.sessionId, request.getOwner());
+                // Copy the outstanding changes before reading the tree: a
+                // change completed in between is then seen in the tree, and
+                // replaying the copy over the tree gives the latest state.
+                List<ChangeRecord> pending =
+                    new ArrayList<ChangeRecord>(zks.outstandingChanges);
                 Set<String> es = zks.getZKDatabase()
                         .getEphemerals(request.sessionId);
-                synchronized (zks.outstandingChanges) {
-                    for (ChangeRecord c : zks.outstandingChanges) {
-                        if (c.stat == null) {
-                            // Doing a delete
-                            es.remove(c.path);
-                        } else if (c.stat.getEphemeralOwner() == request.sessionId) {
-                            es.add(c.path);
-                        }
+                for (ChangeRecord c : pending) {
+                    if (c.stat == null) {
+                        // Doing a delete
+                        es.remove(c.path);
+                    } else if (c.stat.getEphemeralOwner() == request.sessionId) {
+                        es.add(c.path);
                     }
-                    for (String path2Delete : es) {
-                        addChangeRecord(new ChangeRecord(request.getHdr().getZxid(), path2Delete, null, 0, null));
-                    }
-
-                    zks.sessionTracker.setSessionClosing(request.sessionId);
                 }
+                for (String path2Delete : es) {
+                    addChangeRecord(new ChangeRecord(request.getHdr().getZxid(), path2Delete, null, 0, null));
+                }
+
+                zks.sessionTracker.setSessionClosing(request.sessionId);
 
                 LOG.info("Processed session termination for sessionid: 0x"
                         + Long.toHexString(request.sessionId));
@@ -648,7 +753,7 @@ protected void pRequest2Txn(int type, long zxid, Request request,
                 path = checkVersionRequest.getPath();
                 validatePath(path, request.sessionId);
                 nodeRecord = getRecordForPath(path);
-                checkACL(zks, nodeRecord.acl, ZooDefs.Perms.READ, request.authInfo);
+                checkACL(zks, request.cnxn, nodeRecord.acl, ZooDefs.Perms.READ, request.authInfo);
                 request.setTxn(new CheckVersionTxn(path, checkAndIncVersion(nodeRecord.stat.getVersion(),
                         checkVersionRequest.getVersion(), path)));
                 break;
@@ -678,6 +783,43 @@ private String getParentPathAndValidate(String path)
         return path.substring(0, lastSlash);
     }
 
+    /**
+     * Fails the request if hard quotas are enforced and the write would
+     * take the nearest quota root over one of its limits. The usage added
+     * by outstanding changes, including earlier ops of the same multi,
+     * counts against the limits too. Outstanding deletes are only credited
+     * once they are applied.
+     *
+     * @param countDiff the number of nodes the request adds
+     * @param bytesDiff the number of bytes the request adds
+     * @return the pending usage of the quota root, which the change record
+     *         of the request is to be charged against, or null if quotas
+     *         are not enforced or the path is not under a quota root
+     */
+    private QuotaIndex.Quota checkQuota(String path, int countDiff,
+            long bytesDiff) throws KeeperException.QuotaExceededException {
+        if (!enforceQuota) {
+            return null;
+        }
+        QuotaIndex.Quota quota =
+            zks.getZKDatabase().getDataTree().findQuota(path);
+        if (quota == null) {
+            return null;
+        }
+        String quotaRoot = quota.getPath();
+        QuotaIndex.Quota pending = zks.pendingQuotaUsage.add(quotaRoot);
+        long count = countDiff > 0 ? pending.getCount() + countDiff : countDiff;
+        long bytes = bytesDiff > 0 ? pending.getBytes() + bytesDiff : bytesDiff;
+        if (quota.wouldExceed(count, bytes)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Rejecting write to " + path
+                        + " exceeding the quota on " + quotaRoot);
+            }
+            throw new KeeperException.QuotaExceededException(path);
+        }
+        return pending;
+    }
+
     private static int checkAndIncVersion(int currentVersion, int expectedVersion, String path)
             throws KeeperException.BadVersionException {
         if (expectedVersion != -1 && expectedVersion != currentVersion) {
@@ -737,7 +879,10 @@ protected void pRequest(Request request) throws RequestProcessorException {
                             Time.currentWallTime(), OpCode.multi));
                     throw e;
                 }
-                List<Txn> txns = new ArrayList<Txn>();
+                List<Txn> txns = new ArrayList<Txn>(multiRequest.size());
+                // one buffer serializes all the sub txns
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                BinaryOutputArchive boa = BinaryOutputArchive.getArchive(baos);
                 //Each op in a multi-op must have the same zxid!
                 long zxid = zks.getNextZxid();
                 KeeperException ke = null;
@@ -785,12 +930,10 @@ protected void pRequest(Request request) throws RequestProcessorException {
                     //FIXME: I don't want to have to serialize it here and then
                     //       immediately deserialize in next processor. But I'm
                     //       not sure how else to get the txn stored into our list.
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    BinaryOutputArchive boa = BinaryOutputArchive.getArchive(baos);
+                    baos.reset();
                     txn.serialize(boa, "request") ;
-                    ByteBuffer bb = ByteBuffer.wrap(baos.toByteArray());
 
-                    txns.add(new Txn(type, bb.array()));
+                    txns.add(new Txn(type, baos.toByteArray()));
                 }
 
                 request.setHdr(new TxnHeader(request.sessionId, request.cxid, zxid,
@@ -815,6 +958,7 @@ protected void pRequest(Request request) throws RequestProcessorException {
             case OpCode.getACL:
             case OpCode.getChildren:
             case OpCode.getChildren2:
+            case OpCode.getChildrenData:
             case OpCode.ping:
             case OpCode.setWatches:
             case OpCode.checkWatches:
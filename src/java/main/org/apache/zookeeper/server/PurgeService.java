@@ -0,0 +1,374 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.common.Time;
+import org.apache.zookeeper.jmx.ZKMBeanInfo;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.persistence.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Purges old snapshots and transaction logs, keeping the most recent
+ * snapRetainCount snapshots and the logs needed to replay them, like
+ * {@link PurgeTxnLog#purge(File, File, int)}.
+ * <p>
+ * Unlike PurgeTxnLog the service is long lived: it keeps a catalog of the
+ * snapshot and log files it has seen, ordered by the zxid in their names,
+ * so a purge only has to look for names it does not know yet instead of
+ * sorting and stat'ing whole directories. Expired files are deleted oldest
+ * first and, if {@link #PURGE_BYTES_PER_SECOND} is set, paced so that the
+ * freed bytes do not exceed that budget, which keeps a large backlog of
+ * logs from being unlinked in one burst.
+ */
+public class PurgeService implements PurgeServiceMXBean, ZKMBeanInfo {
+    private static final Logger LOG = LoggerFactory.getLogger(PurgeService.class);
+
+    /**
+     * Maximum number of bytes of expired files deleted per second, 0 (the
+     * default) for no limit.
+     */
+    public static final String PURGE_BYTES_PER_SECOND =
+        "zookeeper.autopurge.bytesPerSecond";
+
+    private static final String PREFIX_SNAPSHOT = "snapshot";
+    private static final String PREFIX_LOG = "log";
+
+    static class CatalogEntry {
+        final File file;
+        final long zxid;
+        long size;
+
+        CatalogEntry(File file, long zxid) {
+            this.file = file;
+            this.zxid = zxid;
+            this.size = file.length();
+        }
+    }
+
+    /**
+     * The files of one directory that share a name prefix, keyed by the
+     * zxid in their name. A log file holds the txns from its own zxid up to
+     * the zxid of the next log file.
+     */
+    static class Catalog {
+        final File dir;
+        final String prefix;
+        final TreeMap<Long, CatalogEntry> entries =
+            new TreeMap<Long, CatalogEntry>();
+
+        Catalog(File dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        /**
+         * Picks up files created or removed since the last refresh. Only
+         * new files and the two newest ones, which may still be growing,
+         * are stat'ed.
+         */
+        void refresh() {
+            String[] names = dir.list();
+            if (names == null) {
+                LOG.warn("Unable to list " + dir);
+                return;
+            }
+            Set<Long> seen = new HashSet<Long>(names.length * 2);
+            for (String name : names) {
+                if (!name.startsWith(prefix + ".")) {
+                    continue;
+                }
+                long zxid = Util.getZxidFromName(name, prefix);
+                if (zxid == -1) {
+                    continue;
+                }
+                seen.add(zxid);
+                if (!entries.containsKey(zxid)) {
+                    entries.put(zxid, new CatalogEntry(new File(dir, name), zxid));
+                }
+            }
+            entries.keySet().retainAll(seen);
+            Iterator<CatalogEntry> newest = entries.descendingMap().values().iterator();
+            for (int i = 0; i < 2 && newest.hasNext(); i++) {
+                CatalogEntry e = newest.next();
+                e.size = e.file.length();
+            }
+        }
+
+        /**
+         * @return the zxids of the n newest files, newest first
+         */
+        List<Long> newest(int n) {
+            List<Long> zxids = new ArrayList<Long>(n);
+            for (Long zxid : entries.descendingKeySet()) {
+                if (zxids.size() == n) {
+                    break;
+                }
+                zxids.add(zxid);
+            }
+            return zxids;
+        }
+
+        /**
+         * @return the files named with a zxid below the given one, oldest
+         * first
+         */
+        List<CatalogEntry> olderThan(long zxid) {
+            return new ArrayList<CatalogEntry>(entries.headMap(zxid).values());
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for (CatalogEntry e : entries.values()) {
+                bytes += e.size;
+            }
+            return bytes;
+        }
+    }
+
+    private final File dataLogDir;
+    private final File snapDir;
+    private final File[] txnLogMirrorDirs;
+    private final int snapRetainCount;
+    private final long bytesPerSecond;
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private FileTxnSnapLog txnLog;
+    private Catalog snaps;
+    /** the txn log directory followed by its mirrors */
+    private List<Catalog> logs;
+
+    private volatile int retainedSnapshotCount;
+    private volatile long retainedSnapshotBytes;
+    private volatile int retainedLogCount;
+    private volatile long retainedLogBytes;
+    private volatile long oldestRetainedZxid = -1;
+    private volatile long purgedFileCount;
+    private volatile long purgedBytes;
+    private volatile long lastPurgeDuration;
+
+    /**
+     * @param dataLogDir transaction log directory
+     * @param snapDir snapshot directory
+     * @param snapRetainCount number of snapshots to be retained after purge
+     * @param bytesPerSecond maximum number of bytes deleted per second, 0
+     * for no limit
+     */
+    public PurgeService(File dataLogDir, File snapDir, int snapRetainCount,
+            long bytesPerSecond) {
+        this(dataLogDir, snapDir, new File[0], snapRetainCount, bytesPerSecond);
+    }
+
+    /**
+     * @param dataLogDir transaction log directory
+     * @param snapDir snapshot directory
+     * @param txnLogMirrorDirs directories holding copies of the transaction
+     * logs, purged like dataLogDir
+     * @param snapRetainCount number of snapshots to be retained after purge
+     * @param bytesPerSecond maximum number of bytes deleted per second, 0
+     * for no limit
+     */
+    public PurgeService(File dataLogDir, File snapDir, File[] txnLogMirrorDirs,
+            int snapRetainCount, long bytesPerSecond) {
+        if (snapRetainCount < 3) {
+            throw new IllegalArgumentException("count should be greater than 3");
+        }
+        this.dataLogDir = dataLogDir;
+        this.snapDir = snapDir;
+        this.txnLogMirrorDirs = txnLogMirrorDirs;
+        this.snapRetainCount = snapRetainCount;
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * Runs one purge cycle. Returns early, leaving the remaining expired
+     * files for the next cycle, if the service is shut down meanwhile.
+     */
+    public synchronized void purge() throws IOException {
+        if (stopped.getCount() == 0) {
+            return;
+        }
+        long start = Time.currentElapsedTime();
+        if (txnLog == null) {
+            txnLog = new FileTxnSnapLog(dataLogDir, snapDir, txnLogMirrorDirs,
+                    "all");
+            snaps = new Catalog(txnLog.getSnapDir(), PREFIX_SNAPSHOT);
+            logs = new ArrayList<Catalog>();
+            logs.add(new Catalog(txnLog.getDataDir(), PREFIX_LOG));
+            for (File mirrorDir : txnLog.getMirrorDirs()) {
+                logs.add(new Catalog(mirrorDir, PREFIX_LOG));
+            }
+        }
+        snaps.refresh();
+        for (Catalog c : logs) {
+            c.refresh();
+        }
+
+        List<Long> recent = snaps.newest(snapRetainCount);
+        if (!recent.isEmpty()) {
+            long leastZxidToBeRetain = recent.get(recent.size() - 1);
+            oldestRetainedZxid = leastZxidToBeRetain;
+            List<Catalog> catalogs = new ArrayList<Catalog>(logs);
+            catalogs.add(snaps);
+            long deleted = 0;
+            for (Catalog c : catalogs) {
+                for (CatalogEntry e : c.olderThan(leastZxidToBeRetain)) {
+                    if (!delete(c, e)) {
+                        continue;
+                    }
+                    deleted += e.size;
+                    if (!pace(start, deleted)) {
+                        updateRetained(start);
+                        return;
+                    }
+                }
+            }
+        }
+        updateRetained(start);
+    }
+
+    private boolean delete(Catalog c, CatalogEntry e) {
+        LOG.info("Removing file: " + e.file);
+        if (!e.file.delete() && e.file.exists()) {
+            LOG.warn("Failed to remove " + e.file);
+            return false;
+        }
+        c.entries.remove(e.zxid);
+        purgedFileCount++;
+        purgedBytes += e.size;
+        return true;
+    }
+
+    /**
+     * Waits until deleting the given number of bytes since start fits the
+     * budget.
+     *
+     * @return false if the service was shut down while waiting
+     */
+    private boolean pace(long start, long deleted) {
+        if (bytesPerSecond == 0) {
+            return stopped.getCount() > 0;
+        }
+        long due = start + deleted * 1000 / bytesPerSecond;
+        long wait = due - Time.currentElapsedTime();
+        try {
+            return !stopped.await(Math.max(0, wait), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void updateRetained(long start) {
+        retainedSnapshotCount = snaps.size();
+        retainedSnapshotBytes = snaps.bytes();
+        int count = 0;
+        long bytes = 0;
+        for (Catalog c : logs) {
+            count += c.size();
+            bytes += c.bytes();
+        }
+        retainedLogCount = count;
+        retainedLogBytes = bytes;
+        lastPurgeDuration = Time.currentElapsedTime() - start;
+        LOG.info("Purge retained " + retainedSnapshotCount + " snapshots ("
+                + retainedSnapshotBytes + " bytes) and " + retainedLogCount
+                + " log files (" + retainedLogBytes + " bytes) in "
+                + lastPurgeDuration + " ms");
+    }
+
+    /**
+     * Stops the service, interrupting a purge that is waiting for its
+     * deletion budget.
+     */
+    public void shutdown() {
+        stopped.countDown();
+        synchronized (this) {
+            if (txnLog != null) {
+                try {
+                    txnLog.close();
+                } catch (IOException e) {
+                    LOG.warn("Error closing " + dataLogDir, e);
+                }
+                txnLog = null;
+            }
+        }
+    }
+
+    public String getName() {
+        return "PurgeService";
+    }
+
+    public boolean isHidden() {
+        return false;
+    }
+
+    public int getRetainedSnapshotCount() {
+        return retainedSnapshotCount;
+    }
+
+    public long getRetainedSnapshotBytes() {
+        return retainedSnapshotBytes;
+    }
+
+    public int getRetainedLogCount() {
+        return retainedLogCount;
+    }
+
+    public long getRetainedLogBytes() {
+        return retainedLogBytes;
+    }
+
+    public String getOldestRetainedZxid() {
+        return "0x" + Long.toHexString(oldestRetainedZxid);
+    }
+
+    public long getPurgedFileCount() {
+        return purgedFileCount;
+    }
+
+    public long getPurgedBytes() {
+        return purgedBytes;
+    }
+
+    public long getLastPurgeDuration() {
+        return lastPurgeDuration;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
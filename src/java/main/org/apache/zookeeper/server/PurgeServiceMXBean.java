@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+/**
+ * Background purge MBean.
+ */
+public interface PurgeServiceMXBean {
+    /**
+     * @return number of snapshots kept by the last purge.
+     */
+    public int getRetainedSnapshotCount();
+    /**
+     * @return total size in bytes of the snapshots kept by the last purge.
+     */
+    public long getRetainedSnapshotBytes();
+    /**
+     * @return number of txn log files, including mirrors, kept by the last
+     * purge.
+     */
+    public int getRetainedLogCount();
+    /**
+     * @return total size in bytes of the txn log files, including mirrors,
+     * kept by the last purge.
+     */
+    public long getRetainedLogBytes();
+    /**
+     * @return the zxid of the oldest snapshot that is retained.
+     */
+    public String getOldestRetainedZxid();
+    /**
+     * @return number of files deleted since the service was created.
+     */
+    public long getPurgedFileCount();
+    /**
+     * @return number of bytes deleted since the service was created.
+     */
+    public long getPurgedBytes();
+    /**
+     * @return duration of the last purge in milliseconds.
+     */
+    public long getLastPurgeDuration();
+    /**
+     * @return the deletion budget in bytes per second, 0 if unlimited.
+     */
+    public long getBytesPerSecond();
+}
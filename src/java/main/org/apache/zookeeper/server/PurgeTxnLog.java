@@ -98,6 +98,10 @@ public boolean accept(File f){
         // add all non-excluded log files
         List<File> files = new ArrayList<File>(Arrays.asList(txnLog
                 .getDataDir().listFiles(new MyFileFilter(PREFIX_LOG))));
+        for (File mirrorDir : txnLog.getMirrorDirs()) {
+            files.addAll(Arrays.asList(mirrorDir.listFiles(
+                    new MyFileFilter(PREFIX_LOG))));
+        }
         // add all non-excluded snapshot files to the deletion list
         files.addAll(Arrays.asList(txnLog.getSnapDir().listFiles(
                 new MyFileFilter(PREFIX_SNAPSHOT))));
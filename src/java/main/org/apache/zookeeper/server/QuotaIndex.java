@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.StatsTrack;
+
+/**
+ * In memory index of the quota roots of a {@link DataTree}. Every quota
+ * root keeps its usage in atomic counters, which are updated in place as
+ * nodes are created, deleted and written. The usage is copied back into the
+ * zookeeper_stats node only when that node is read or the tree is
+ * serialized, so the StatsTrack string is no longer parsed and rebuilt on
+ * every write under a quota.
+ */
+public class QuotaIndex {
+    /**
+     * The usage and limits of a single quota root. A limit of -1 means
+     * that the dimension is not limited.
+     */
+    public static class Quota {
+        private final String path;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        private volatile long countLimit = -1;
+        private volatile long bytesLimit = -1;
+
+        Quota(String path) {
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getCountLimit() {
+            return countLimit;
+        }
+
+        public long getBytesLimit() {
+            return bytesLimit;
+        }
+
+        long addCount(long diff) {
+            long c = count.addAndGet(diff);
+            dirty.set(true);
+            return c;
+        }
+
+        long addBytes(long diff) {
+            long b = bytes.addAndGet(diff);
+            dirty.set(true);
+            return b;
+        }
+
+        void setLimits(StatsTrack limits) {
+            countLimit = limits.getCount();
+            bytesLimit = limits.getBytes();
+        }
+
+        void setUsage(long count, long bytes) {
+            this.count.set(count);
+            this.bytes.set(bytes);
+            dirty.set(false);
+        }
+
+        /**
+         * @return true if adding the given number of nodes and bytes
+         * would take the usage of this quota root over one of its limits
+         */
+        public boolean wouldExceed(long countDiff, long bytesDiff) {
+            long cl = countLimit;
+            long bl = bytesLimit;
+            return (countDiff > 0 && cl > -1 && count.get() + countDiff > cl)
+                || (bytesDiff > 0 && bl > -1 && bytes.get() + bytesDiff > bl);
+        }
+
+        /**
+         * Clears the dirty flag. An update racing with the caller sets the
+         * flag again, so the next flush picks it up.
+         *
+         * @return true if the usage changed since the last flush
+         */
+        boolean clearDirty() {
+            return dirty.compareAndSet(true, false);
+        }
+
+        /**
+         * @return the usage in the format stored in the zookeeper_stats node
+         */
+        public StatsTrack toStatsTrack() {
+            StatsTrack st = new StatsTrack();
+            st.setCount((int) count.get());
+            st.setBytes(bytes.get());
+            return st;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Quota> quotas =
+        new ConcurrentHashMap<String, Quota>();
+
+    /**
+     * Returns the quota of the given root, creating it if needed.
+     */
+    public Quota add(String path) {
+        Quota q = quotas.get(path);
+        if (q == null) {
+            Quota newQuota = new Quota(path);
+            q = quotas.putIfAbsent(path, newQuota);
+            if (q == null) {
+                q = newQuota;
+            }
+        }
+        return q;
+    }
+
+    public Quota get(String path) {
+        return quotas.get(path);
+    }
+
+    public Quota remove(String path) {
+        return quotas.remove(path);
+    }
+
+    public void clear() {
+        quotas.clear();
+    }
+
+    public int size() {
+        return quotas.size();
+    }
+
+    public Collection<Quota> getQuotas() {
+        return quotas.values();
+    }
+
+    /**
+     * Finds the quota with the longest root that is the path itself or one
+     * of its ancestors. The root node cannot carry a quota.
+     *
+     * @return the quota or null if the path is not under any quota root
+     */
+    public Quota findMaxPrefix(String path) {
+        if (quotas.isEmpty()) {
+            return null;
+        }
+        String prefix = path;
+        while (prefix.length() > 1) {
+            Quota q = quotas.get(prefix);
+            if (q != null) {
+                return q;
+            }
+            prefix = prefix.substring(0, prefix.lastIndexOf('/'));
+        }
+        return null;
+    }
+}
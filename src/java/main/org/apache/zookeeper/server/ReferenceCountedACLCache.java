@@ -0,0 +1,334 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jute.Index;
+import org.apache.jute.InputArchive;
+import org.apache.jute.OutputArchive;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.server.auth.AuthenticationProvider;
+import org.apache.zookeeper.server.auth.ProviderRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Interns the ACL lists of a {@link DataTree}. Each distinct list is stored
+ * once under a long id, which is what the data nodes keep. The table counts
+ * how many nodes use each id, and ids that are no longer used are dropped
+ * by {@link #purgeUnused()} when a snapshot is taken.
+ * <p>
+ * Lookups in either direction do not lock. Only assigning a new id and
+ * purging take the lock of the cache.
+ */
+public class ReferenceCountedACLCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ReferenceCountedACLCache.class);
+
+    /** the id of nodes without an ACL, read as {@link Ids#OPEN_ACL_UNSAFE} */
+    static final long OPEN_UNSAFE_ACL_ID = -1L;
+
+    /**
+     * An immutable, interned ACL list. The auth provider of every entry is
+     * resolved once when the list is interned so that checking permissions
+     * against it does not look up schemes again.
+     */
+    static final class InternedACLs extends AbstractList<ACL>
+            implements RandomAccess {
+        private final ACL[] acls;
+        private final boolean[] worldAnyone;
+        private final AuthenticationProvider[] providers;
+        private final int hashCode;
+
+        InternedACLs(ACL[] acls) {
+            this.acls = acls;
+            this.hashCode = super.hashCode();
+            worldAnyone = new boolean[acls.length];
+            providers = new AuthenticationProvider[acls.length];
+            for (int i = 0; i < acls.length; i++) {
+                Id id = acls[i].getId();
+                worldAnyone[i] = "world".equals(id.getScheme())
+                        && "anyone".equals(id.getId());
+                if (!worldAnyone[i]) {
+                    providers[i] = ProviderRegistry.getProvider(id.getScheme());
+                }
+            }
+        }
+
+        @Override
+        public ACL get(int index) {
+            return acls[index];
+        }
+
+        @Override
+        public int size() {
+            return acls.length;
+        }
+
+        @Override
+        public int hashCode() {
+            // the list is immutable, and used as a key on every lookup
+            return hashCode;
+        }
+
+        boolean isWorldAnyone(int index) {
+            return worldAnyone[index];
+        }
+
+        AuthenticationProvider getProvider(int index) {
+            return providers[index];
+        }
+    }
+
+    private final Map<Long, InternedACLs> longKeyMap =
+        new ConcurrentHashMap<Long, InternedACLs>();
+
+    private final Map<List<ACL>, Long> aclKeyMap =
+        new ConcurrentHashMap<List<ACL>, Long>();
+
+    /**
+     * Number of nodes using each id. A count of zero marks an id that can
+     * be purged, a negative count one that is being purged.
+     */
+    private final Map<Long, AtomicLong> referenceCounter =
+        new ConcurrentHashMap<Long, AtomicLong>();
+
+    /** shares the Id instances between the interned lists, guarded by this */
+    private final Map<Id, Id> ids = new HashMap<Id, Id>();
+
+    /** guarded by this */
+    private long aclIndex = 0;
+
+    /**
+     * Interns the ACL list and takes a reference on its id, which the
+     * caller releases with {@link #removeUsage(Long)}.
+     *
+     * @return the id of the list
+     */
+    public Long convertAcls(List<ACL> acls) {
+        if (acls == null) {
+            return OPEN_UNSAFE_ACL_ID;
+        }
+        Long id = aclKeyMap.get(acls);
+        if (id != null && tryRetain(referenceCounter.get(id))) {
+            return id;
+        }
+        synchronized (this) {
+            id = aclKeyMap.get(acls);
+            if (id == null) {
+                id = ++aclIndex;
+                put(id, intern(acls));
+            }
+            // purging happens under this lock too, so the id is live
+            referenceCounter.get(id).incrementAndGet();
+            return id;
+        }
+    }
+
+    /**
+     * @return the ACL list of the id, which must not be modified
+     */
+    public List<ACL> convertLong(Long longVal) {
+        if (longVal == null) {
+            return null;
+        }
+        if (longVal == OPEN_UNSAFE_ACL_ID) {
+            return Ids.OPEN_ACL_UNSAFE;
+        }
+        List<ACL> acls = longKeyMap.get(longVal);
+        if (acls == null) {
+            LOG.error("ERROR: ACL not available for long " + longVal);
+            throw new RuntimeException("Failed to fetch acls for " + longVal);
+        }
+        return acls;
+    }
+
+    /**
+     * Takes a reference on an id read back from a snapshot.
+     */
+    public void addUsage(Long acl) {
+        if (acl == null || acl == OPEN_UNSAFE_ACL_ID) {
+            return;
+        }
+        AtomicLong count = referenceCounter.get(acl);
+        if (count == null) {
+            LOG.info("Ignoring acl " + acl + " as it does not exist in the cache");
+            return;
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Releases a reference taken by {@link #convertAcls(List)} or
+     * {@link #addUsage(Long)}.
+     */
+    public void removeUsage(Long acl) {
+        if (acl == null || acl == OPEN_UNSAFE_ACL_ID) {
+            return;
+        }
+        AtomicLong count = referenceCounter.get(acl);
+        if (count == null) {
+            LOG.info("Ignoring acl " + acl + " as it does not exist in the cache");
+            return;
+        }
+        if (count.decrementAndGet() < 0) {
+            LOG.warn("Reference count of acl " + acl + " dropped below zero");
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the ids that no node uses anymore.
+     *
+     * @return the number of ids dropped
+     */
+    public synchronized int purgeUnused() {
+        int purged = 0;
+        Iterator<Map.Entry<Long, AtomicLong>> it =
+            referenceCounter.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, AtomicLong> entry = it.next();
+            // a concurrent tryRetain fails once the count is negative
+            if (entry.getValue().compareAndSet(0, -1)) {
+                Long id = entry.getKey();
+                aclKeyMap.remove(longKeyMap.remove(id));
+                it.remove();
+                purged++;
+            }
+        }
+        if (purged > 0) {
+            ids.clear();
+            for (InternedACLs acls : longKeyMap.values()) {
+                for (ACL acl : acls) {
+                    ids.put(acl.getId(), acl.getId());
+                }
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Purged " + purged + " unused acls");
+            }
+        }
+        return purged;
+    }
+
+    public int size() {
+        return longKeyMap.size();
+    }
+
+    /**
+     * @return the number of nodes using the id
+     */
+    long getReferenceCount(Long acl) {
+        AtomicLong count = referenceCounter.get(acl);
+        return count == null ? 0 : count.get();
+    }
+
+    public synchronized void clear() {
+        longKeyMap.clear();
+        aclKeyMap.clear();
+        referenceCounter.clear();
+        ids.clear();
+        aclIndex = 0;
+    }
+
+    public synchronized void serialize(OutputArchive oa) throws IOException {
+        oa.writeInt(longKeyMap.size(), "map");
+        for (Map.Entry<Long, InternedACLs> val : longKeyMap.entrySet()) {
+            oa.writeLong(val.getKey(), "long");
+            List<ACL> aclList = val.getValue();
+            oa.startVector(aclList, "acls");
+            for (ACL acl : aclList) {
+                acl.serialize(oa, "acl");
+            }
+            oa.endVector(aclList, "acls");
+        }
+    }
+
+    /**
+     * Reads the table written by {@link #serialize(OutputArchive)}. The
+     * ids start out unused; the nodes read afterwards add their usage.
+     */
+    public synchronized void deserialize(InputArchive ia) throws IOException {
+        clear();
+        int i = ia.readInt("map");
+        while (i > 0) {
+            Long val = ia.readLong("long");
+            if (aclIndex < val) {
+                aclIndex = val;
+            }
+            List<ACL> aclList = new ArrayList<ACL>();
+            Index j = ia.startVector("acls");
+            while (!j.done()) {
+                ACL acl = new ACL();
+                acl.deserialize(ia, "acl");
+                aclList.add(acl);
+                j.incr();
+            }
+            put(val, intern(aclList));
+            i--;
+        }
+    }
+
+    private void put(Long id, InternedACLs acls) {
+        referenceCounter.put(id, new AtomicLong());
+        longKeyMap.put(id, acls);
+        aclKeyMap.put(acls, id);
+    }
+
+    private InternedACLs intern(List<ACL> acls) {
+        ACL[] copy = new ACL[acls.size()];
+        int i = 0;
+        for (ACL acl : acls) {
+            Id id = ids.get(acl.getId());
+            if (id == null) {
+                id = new Id(acl.getId().getScheme(), acl.getId().getId());
+                ids.put(id, id);
+            }
+            copy[i++] = new ACL(acl.getPerms(), id);
+        }
+        return new InternedACLs(copy);
+    }
+
+    private static boolean tryRetain(AtomicLong count) {
+        if (count == null) {
+            return false;
+        }
+        while (true) {
+            long c = count.get();
+            if (c <= 0) {
+                // unused ids are only revived under the lock, where they
+                // cannot be purged concurrently
+                return false;
+            }
+            if (count.compareAndSet(c, c + 1)) {
+                return true;
+            }
+        }
+    }
+}
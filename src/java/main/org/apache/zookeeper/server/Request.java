@@ -145,6 +145,7 @@ static boolean isValid(int type) {
         case OpCode.getACL:
         case OpCode.getChildren:
         case OpCode.getChildren2:
+        case OpCode.getChildrenData:
         case OpCode.getData:
         case OpCode.multi:
         case OpCode.ping:
@@ -167,6 +168,7 @@ public boolean isQuorum() {
         case OpCode.getACL:
         case OpCode.getChildren:
         case OpCode.getChildren2:
+        case OpCode.getChildrenData:
         case OpCode.getData:
             return false;
         case OpCode.create:
@@ -225,6 +227,8 @@ static String op2String(int op) {
             return "getChildren";
         case OpCode.getChildren2:
             return "getChildren2";
+        case OpCode.getChildrenData:
+            return "getChildrenData";
         case OpCode.ping:
             return "ping";
         case OpCode.createSession:
@@ -0,0 +1,448 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.data.Id;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control in front of the first request processor.
+ * <p>
+ * Client requests are charged against token buckets kept per session, per
+ * client IP address and per authenticated identity, with separate budgets
+ * for reads and writes. A request that finds all of its buckets non-empty
+ * is passed on right away. Otherwise it is queued behind the other
+ * throttled requests of its session, and the session's connection stops
+ * reading until the queue drains. The throttler thread serves the queued
+ * sessions round robin, one request per session per round, so a session
+ * issuing a storm of requests cannot starve the others.
+ * <p>
+ * Pings and session requests are never charged, but they still wait behind
+ * the throttled requests of their session, which keeps the requests of a
+ * session in order. A session is touched when a request of it is queued,
+ * so waiting for its budget does not make it expire.
+ * <p>
+ * While a session has queued requests its connection stays read disabled,
+ * also when responses would otherwise lift the outstanding request limit,
+ * see {@link #resumeRecv(ServerCnxn)}. A connection whose session queue
+ * still reaches {@link #MAX_QUEUED_PER_SESSION} requests is closed.
+ * <p>
+ * Every rate is in requests per second and defaults to 0, which means
+ * unlimited. With all rates unlimited the throttler is disabled and
+ * requests take the same path as before.
+ */
+public class RequestThrottler extends ZooKeeperCriticalThread {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestThrottler.class);
+
+    public static final String SESSION_READ_RATE = "zookeeper.throttle.sessionReadRate";
+    public static final String SESSION_WRITE_RATE = "zookeeper.throttle.sessionWriteRate";
+    public static final String IP_READ_RATE = "zookeeper.throttle.ipReadRate";
+    public static final String IP_WRITE_RATE = "zookeeper.throttle.ipWriteRate";
+    public static final String AUTH_READ_RATE = "zookeeper.throttle.authReadRate";
+    public static final String AUTH_WRITE_RATE = "zookeeper.throttle.authWriteRate";
+    public static final String MAX_QUEUED_PER_SESSION =
+        "zookeeper.throttle.maxQueuedPerSession";
+
+    /** Buckets left untouched for this long are full and get dropped */
+    private static final long IDLE_BUCKET_NANOS = 60 * 1000000000L;
+
+    private static class TokenBucket {
+        final double rate;
+        final double capacity;
+        double tokens;
+        long lastRefill;
+
+        TokenBucket(int rate, long now) {
+            this.rate = rate / 1e9;
+            this.capacity = Math.max(rate, 1);
+            this.tokens = capacity;
+            this.lastRefill = now;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate);
+            lastRefill = now;
+        }
+
+        /** nanoseconds until a token is available */
+        long waitNanos() {
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / rate);
+        }
+    }
+
+    /**
+     * The token buckets of one key, created on demand for the classes of
+     * requests that are limited.
+     */
+    private static class Limit {
+        final int readRate;
+        final int writeRate;
+        final Map<Object, TokenBucket[]> buckets =
+            new HashMap<Object, TokenBucket[]>();
+
+        Limit(int readRate, int writeRate) {
+            this.readRate = readRate;
+            this.writeRate = writeRate;
+        }
+
+        boolean isEnabled() {
+            return readRate > 0 || writeRate > 0;
+        }
+
+        TokenBucket get(Object key, boolean write, long now) {
+            int rate = write ? writeRate : readRate;
+            if (rate <= 0 || key == null) {
+                return null;
+            }
+            TokenBucket[] pair = buckets.get(key);
+            if (pair == null) {
+                pair = new TokenBucket[2];
+                buckets.put(key, pair);
+            }
+            int i = write ? 1 : 0;
+            if (pair[i] == null) {
+                pair[i] = new TokenBucket(rate, now);
+            } else {
+                pair[i].refill(now);
+            }
+            return pair[i];
+        }
+
+        void purgeIdle(long now) {
+            Iterator<TokenBucket[]> it = buckets.values().iterator();
+            while (it.hasNext()) {
+                TokenBucket[] pair = it.next();
+                if (isIdle(pair[0], now) && isIdle(pair[1], now)) {
+                    it.remove();
+                }
+            }
+        }
+
+        private static boolean isIdle(TokenBucket b, long now) {
+            return b == null || now - b.lastRefill > IDLE_BUCKET_NANOS;
+        }
+    }
+
+    private final ZooKeeperServer zks;
+    private final Limit sessionLimit;
+    private final Limit ipLimit;
+    private final Limit authLimit;
+    private final int maxQueuedPerSession;
+
+    /** throttled requests, per session */
+    private final Map<Long, ArrayDeque<Request>> queues =
+        new HashMap<Long, ArrayDeque<Request>>();
+    /** sessions with throttled requests, in service order */
+    private final ArrayDeque<Long> ring = new ArrayDeque<Long>();
+
+    private int queuedRequests;
+    private long throttledRequests;
+    private volatile boolean running = true;
+
+    public RequestThrottler(ZooKeeperServer zks) {
+        super("RequestThrottler", zks.getZooKeeperServerListener());
+        this.zks = zks;
+        this.sessionLimit = new Limit(Integer.getInteger(SESSION_READ_RATE, 0),
+                Integer.getInteger(SESSION_WRITE_RATE, 0));
+        this.ipLimit = new Limit(Integer.getInteger(IP_READ_RATE, 0),
+                Integer.getInteger(IP_WRITE_RATE, 0));
+        this.authLimit = new Limit(Integer.getInteger(AUTH_READ_RATE, 0),
+                Integer.getInteger(AUTH_WRITE_RATE, 0));
+        this.maxQueuedPerSession = Integer.getInteger(MAX_QUEUED_PER_SESSION,
+                1000);
+    }
+
+    /**
+     * @return true if any rate limit is configured
+     */
+    public boolean isEnabled() {
+        return sessionLimit.isEnabled() || ipLimit.isEnabled()
+            || authLimit.isEnabled();
+    }
+
+    /**
+     * Admits a client request, or queues it if the session, address or
+     * identity it belongs to has used up its budget.
+     *
+     * @return true if the request may be processed now, false if it was
+     *         queued and will be handed to the server later
+     */
+    public boolean admit(Request si) {
+        if (si.cnxn == null) {
+            return true;
+        }
+        synchronized (this) {
+            ArrayDeque<Request> queue = queues.get(si.sessionId);
+            if (queue == null) {
+                if (isExempt(si.type) || acquire(si, System.nanoTime()) == 0) {
+                    return true;
+                }
+                queue = new ArrayDeque<Request>();
+                queues.put(si.sessionId, queue);
+                ring.add(si.sessionId);
+                notifyAll();
+            } else if (queue.size() >= maxQueuedPerSession) {
+                LOG.warn("Closing connection of session 0x"
+                        + Long.toHexString(si.sessionId) + " with "
+                        + queue.size() + " throttled requests");
+                queues.remove(si.sessionId);
+                ring.remove(si.sessionId);
+                queuedRequests -= queue.size();
+                si.cnxn.sendBuffer(ServerCnxnFactory.closeConn);
+                return false;
+            }
+            try {
+                // the session is otherwise only touched when the request
+                // is handed on
+                zks.touch(si.cnxn);
+            } catch (ZooKeeperServer.MissingSessionException e) {
+                // dropped when it is handed on
+            }
+            queue.add(si);
+            queuedRequests++;
+            throttledRequests++;
+            // under the lock, so that the throttler cannot drain the queue
+            // and resume reading before this
+            si.cnxn.disableRecv();
+        }
+        return false;
+    }
+
+    /**
+     * Resumes reading from a connection that the outstanding request limit
+     * let go of, unless requests of its session are still queued here.
+     */
+    public synchronized void resumeRecv(ServerCnxn cnxn) {
+        if (!queues.containsKey(cnxn.getSessionId())) {
+            cnxn.enableRecv();
+        }
+    }
+
+    private static boolean isExempt(int type) {
+        switch (type) {
+        case OpCode.ping:
+        case OpCode.createSession:
+        case OpCode.closeSession:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Takes a token from every bucket the request is charged against, but
+     * only if all of them have one.
+     *
+     * @return 0 if the tokens were taken, otherwise the nanoseconds until
+     *         the emptiest bucket has a token again
+     */
+    private long acquire(Request si, long now) {
+        boolean write = si.isQuorum();
+        TokenBucket s = sessionLimit.get(si.sessionId, write, now);
+        TokenBucket i = ipLimit.get(ipOf(si), write, now);
+        TokenBucket a = authLimit.get(identityOf(si), write, now);
+        long wait = 0;
+        for (TokenBucket b : new TokenBucket[] { s, i, a }) {
+            if (b != null) {
+                wait = Math.max(wait, b.waitNanos());
+            }
+        }
+        if (wait > 0) {
+            return wait;
+        }
+        for (TokenBucket b : new TokenBucket[] { s, i, a }) {
+            if (b != null) {
+                b.tokens -= 1;
+            }
+        }
+        return 0;
+    }
+
+    private String ipOf(Request si) {
+        if (!ipLimit.isEnabled()) {
+            return null;
+        }
+        InetSocketAddress addr = si.cnxn.getRemoteSocketAddress();
+        if (addr == null || addr.getAddress() == null) {
+            return null;
+        }
+        return addr.getAddress().getHostAddress();
+    }
+
+    private String identityOf(Request si) {
+        if (!authLimit.isEnabled() || si.authInfo == null) {
+            return null;
+        }
+        for (Id id : si.authInfo) {
+            // the address is already covered by the ip limit
+            if (!"ip".equals(id.getScheme())) {
+                return id.getScheme() + ":" + id.getId();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void run() {
+        long lastPurge = System.nanoTime();
+        List<Request> ready = new ArrayList<Request>();
+        List<ArrayDeque<Request>> served = new ArrayList<ArrayDeque<Request>>();
+        try {
+            while (running) {
+                synchronized (this) {
+                    long now = System.nanoTime();
+                    if (now - lastPurge > IDLE_BUCKET_NANOS) {
+                        purgeIdle(now);
+                        lastPurge = now;
+                    }
+                    if (ring.isEmpty()) {
+                        wait(1000);
+                        continue;
+                    }
+                    long wait = Math.min(serveRound(ready, served), 1000000000L);
+                    if (wait > 0) {
+                        long millis = wait / 1000000;
+                        wait(millis, (int) (wait - millis * 1000000));
+                        continue;
+                    }
+                }
+                for (Request si : ready) {
+                    zks.submitRequestNow(si);
+                }
+                synchronized (this) {
+                    finishRound(ready, served);
+                }
+                ready.clear();
+                served.clear();
+            }
+        } catch (InterruptedException e) {
+            LOG.info("RequestThrottler interrupted", e);
+        } catch (Exception e) {
+            handleException(getName(), e);
+        }
+        synchronized (this) {
+            queues.clear();
+            ring.clear();
+            queuedRequests = 0;
+        }
+        LOG.info("RequestThrottler exited loop!");
+    }
+
+    /**
+     * Gives every queued session one chance to pass its oldest request.
+     * The requests that pass are collected in ready, and their queues in
+     * served, to be handed on without holding the lock. The queues stay in
+     * place until {@link #finishRound(List, List)}, so that a request
+     * admitted meanwhile by {@link #admit(Request)} waits behind them.
+     *
+     * @return 0 if a request may be passed on, otherwise the nanoseconds
+     *         until the next request may pass
+     */
+    private long serveRound(List<Request> ready,
+            List<ArrayDeque<Request>> served) {
+        long now = System.nanoTime();
+        long minWait = Long.MAX_VALUE;
+        boolean progress = false;
+        for (int n = ring.size(); n > 0; n--) {
+            Long sessionId = ring.poll();
+            ArrayDeque<Request> queue = queues.get(sessionId);
+            Request si = queue.peek();
+            long wait = isExempt(si.type) ? 0 : acquire(si, now);
+            if (wait > 0) {
+                minWait = Math.min(minWait, wait);
+                ring.add(sessionId);
+                continue;
+            }
+            progress = true;
+            queue.poll();
+            queuedRequests--;
+            ready.add(si);
+            served.add(queue);
+        }
+        return progress ? 0 : minWait;
+    }
+
+    /**
+     * Puts the sessions served by the last round back in service, or
+     * resumes reading from their connections if their queues are empty.
+     */
+    private void finishRound(List<Request> ready,
+            List<ArrayDeque<Request>> served) {
+        for (int i = 0; i < ready.size(); i++) {
+            Request si = ready.get(i);
+            ArrayDeque<Request> queue = served.get(i);
+            if (queues.get(si.sessionId) != queue) {
+                // dropped when its connection was closed
+                continue;
+            }
+            if (queue.isEmpty()) {
+                queues.remove(si.sessionId);
+                // the connection may also be held by the server wide limit
+                // on outstanding requests, which lifts it on its own
+                if (!zks.shouldThrottle(si.cnxn.getOutstandingRequests())) {
+                    si.cnxn.enableRecv();
+                }
+            } else {
+                ring.add(si.sessionId);
+            }
+        }
+    }
+
+    private void purgeIdle(long now) {
+        sessionLimit.purgeIdle(now);
+        ipLimit.purgeIdle(now);
+        authLimit.purgeIdle(now);
+    }
+
+    public void shutdown() {
+        LOG.info("Shutting down");
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return number of requests waiting for their budget
+     */
+    public synchronized int getQueuedRequests() {
+        return queuedRequests;
+    }
+
+    /**
+     * @return total number of requests that had to wait for their budget
+     */
+    public synchronized long getThrottledRequests() {
+        return throttledRequests;
+    }
+
+    public synchronized void resetStatistics() {
+        throttledRequests = 0;
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.apache.zookeeper.server;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -33,24 +34,33 @@
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.jute.BinaryOutputArchive;
 import org.apache.jute.Record;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.Id;
 import org.apache.zookeeper.proto.ReplyHeader;
 import org.apache.zookeeper.proto.RequestHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Interface to a Server connection - represents a connection from a client
  * to the server.
  */
 public abstract class ServerCnxn implements Stats, Watcher {
+    private static final Logger LOG = LoggerFactory.getLogger(ServerCnxn.class);
+
+    private static final byte fourBytes[] = new byte[4];
+
     // This is just an arbitrary object to represent requests issued by
     // (aka owned by) this class
     final public static Object me = new Object();
     
     protected ArrayList<Id> authInfo = new ArrayList<Id>();
 
+    private final AuthDecisionCache aclDecisions = new AuthDecisionCache();
+
     /**
      * If the client is of old version, we don't send r-o mode info to it.
      * The reason is that if we would, old C client doesn't read it, which
@@ -65,6 +75,48 @@ public abstract class ServerCnxn implements Stats, Watcher {
     public abstract void sendResponse(ReplyHeader h, Record r, String tag)
         throws IOException;
 
+    /**
+     * Serializes a response into the buffers that are written to the
+     * client, the first one starting with the length of the packet. The
+     * data of an {@link OffHeapDataResponse} is not copied: it is returned
+     * as a read-only buffer of its own, followed by a read-only buffer
+     * holding the stat. Only the first buffer of a packet is writable.
+     */
+    protected ByteBuffer[] serializeResponse(ReplyHeader h, Record r,
+            String tag) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // Make space for length
+        BinaryOutputArchive bos = BinaryOutputArchive.getArchive(baos);
+        ByteBuffer data = null;
+        ByteArrayOutputStream suffix = new ByteArrayOutputStream();
+        try {
+            baos.write(fourBytes);
+            bos.writeRecord(h, "header");
+            if (r instanceof OffHeapDataResponse) {
+                OffHeapDataResponse rsp = (OffHeapDataResponse) r;
+                BinaryOutputArchive.getArchive(suffix).writeRecord(
+                        rsp.getStat(), "stat");
+                data = rsp.getData();
+                // same layout as GetDataResponse: length, data, stat
+                bos.writeInt(data.remaining(), "len");
+            } else if (r != null) {
+                bos.writeRecord(r, tag);
+            }
+            baos.close();
+        } catch (IOException e) {
+            LOG.error("Error serializing response");
+        }
+        byte b[] = baos.toByteArray();
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        if (data == null) {
+            bb.putInt(b.length - 4).rewind();
+            return new ByteBuffer[] { bb };
+        }
+        bb.putInt(b.length - 4 + data.remaining() + suffix.size()).rewind();
+        return new ByteBuffer[] { bb, data,
+                ByteBuffer.wrap(suffix.toByteArray()).asReadOnlyBuffer() };
+    }
+
     /* notify the client the session is closing and close/cleanup socket */
     abstract void sendCloseSession();
 
@@ -82,11 +134,21 @@ public List<Id> getAuthInfo() {
     public void addAuthInfo(Id id) {
         if (authInfo.contains(id) == false) {
             authInfo.add(id);
+            aclDecisions.clear();
         }
     }
 
     public boolean removeAuthInfo(Id id) {
-        return authInfo.remove(id);
+        // clear after the removal, so a check racing with it cannot cache
+        // a decision made with the removed id
+        boolean removed = authInfo.remove(id);
+        aclDecisions.clear();
+        return removed;
+    }
+
+    /** the ACL checks already made for the auth info of this cnxn */
+    AuthDecisionCache getAclDecisions() {
+        return aclDecisions;
     }
 
     abstract void sendBuffer(ByteBuffer closeConn);
@@ -22,6 +22,7 @@
 import java.net.InetSocketAddress;
 import java.util.Arrays;
 
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
 import org.apache.zookeeper.server.quorum.QuorumPeerConfig;
 import org.apache.zookeeper.server.quorum.QuorumPeerConfig.ConfigException;
 
@@ -40,6 +41,10 @@ public class ServerConfig {
     protected InetSocketAddress secureClientPortAddress;
     protected File dataDir;
     protected File dataLogDir;
+    protected File[] txnLogMirrorDirs = FileTxnSnapLog.parseMirrorDirs(
+            System.getProperty(FileTxnSnapLog.TXN_LOG_MIRROR_DIRS, ""));
+    protected String txnLogSyncPolicy =
+            System.getProperty(FileTxnSnapLog.TXN_LOG_SYNC_POLICY, "all");
     protected int tickTime = ZooKeeperServer.DEFAULT_TICK_TIME;
     protected int maxClientCnxns;
     /** defaults to -1 if not set explicitly */
@@ -94,6 +99,8 @@ public void readFrom(QuorumPeerConfig config) {
         secureClientPortAddress = config.getSecureClientPortAddress();
         dataDir = config.getDataDir();
         dataLogDir = config.getDataLogDir();
+        txnLogMirrorDirs = config.getTxnLogMirrorDirs();
+        txnLogSyncPolicy = config.getTxnLogSyncPolicy();
         tickTime = config.getTickTime();
         maxClientCnxns = config.getMaxClientCnxns();
         minSessionTimeout = config.getMinSessionTimeout();
@@ -108,6 +115,8 @@ public InetSocketAddress getSecureClientPortAddress() {
     }
     public File getDataDir() { return dataDir; }
     public File getDataLogDir() { return dataLogDir; }
+    public File[] getTxnLogMirrorDirs() { return txnLogMirrorDirs; }
+    public String getTxnLogSyncPolicy() { return txnLogSyncPolicy; }
     public int getTickTime() { return tickTime; }
     public int getMaxClientCnxns() { return maxClientCnxns; }
     /** minimum session timeout in milliseconds, -1 if unset */
@@ -20,6 +20,8 @@
 
 
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.zookeeper.common.Time;
 
 /**
@@ -32,6 +34,8 @@ public class ServerStats {
     private long minLatency = Long.MAX_VALUE;
     private long totalLatency = 0;
     private long count = 0;
+    private final AtomicLong aclCacheHits = new AtomicLong();
+    private final AtomicLong aclCacheMisses = new AtomicLong();
 
     private final Provider provider;
 
@@ -78,6 +82,16 @@ synchronized public long getPacketsSent() {
         return packetsSent;
     }
 
+    /** The number of ACL checks answered from a connection's cache */
+    public long getAclCacheHits() {
+        return aclCacheHits.get();
+    }
+
+    /** The number of cacheable ACL checks that had to be evaluated */
+    public long getAclCacheMisses() {
+        return aclCacheMisses.get();
+    }
+
     public String getServerState() {
         return provider.getState();
     }
@@ -138,9 +152,21 @@ synchronized public void resetRequestCounters(){
         packetsReceived = 0;
         packetsSent = 0;
     }
+    public void incrementAclCacheLookups(boolean hit) {
+        if (hit) {
+            aclCacheHits.incrementAndGet();
+        } else {
+            aclCacheMisses.incrementAndGet();
+        }
+    }
+    public void resetAclCacheCounters() {
+        aclCacheHits.set(0);
+        aclCacheMisses.set(0);
+    }
     synchronized public void reset() {
         resetLatency();
         resetRequestCounters();
+        resetAclCacheCounters();
     }
 
 }
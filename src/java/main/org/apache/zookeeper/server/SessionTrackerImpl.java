@@ -54,6 +54,15 @@ public class SessionTrackerImpl extends ZooKeeperCriticalThread implements
     private final ConcurrentMap<Long, Integer> sessionsWithTimeout;
     private final AtomicLong nextSessionId = new AtomicLong();
 
+    /**
+     * Number of lock stripes guarding per session state. Operations on
+     * different sessions only contend when they hash to the same stripe,
+     * instead of all serializing on the tracker itself.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    private final Object[] sessionLocks = new Object[LOCK_STRIPES];
+
     public static class SessionImpl implements Session {
         SessionImpl(long sessionId, int timeout) {
             this.sessionId = sessionId;
@@ -98,6 +107,9 @@ public SessionTrackerImpl(SessionExpirer expirer,
         this.sessionExpiryQueue = new ExpiryQueue<SessionImpl>(tickTime);
         this.sessionsWithTimeout = sessionsWithTimeout;
         this.nextSessionId.set(initializeNextSession(serverId));
+        for (int i = 0; i < sessionLocks.length; i++) {
+            sessionLocks[i] = new Object();
+        }
         for (Entry<Long, Integer> e : sessionsWithTimeout.entrySet()) {
             addSession(e.getKey(), e.getValue());
         }
@@ -105,6 +117,12 @@ public SessionTrackerImpl(SessionExpirer expirer,
 
     volatile boolean running = true;
 
+    private Object lockFor(long sessionId) {
+        int h = (int) (sessionId ^ (sessionId >>> 32));
+        h ^= (h >>> 16);
+        return sessionLocks[(h & Integer.MAX_VALUE) % sessionLocks.length];
+    }
+
     public void dumpSessions(PrintWriter pwriter) {
         pwriter.print("Session ");
         sessionExpiryQueue.dump(pwriter);
@@ -158,21 +176,23 @@ public void run() {
         LOG.info("SessionTrackerImpl exited loop!");
     }
 
-    synchronized public boolean touchSession(long sessionId, int timeout) {
-        SessionImpl s = sessionsById.get(sessionId);
+    public boolean touchSession(long sessionId, int timeout) {
+        synchronized (lockFor(sessionId)) {
+            SessionImpl s = sessionsById.get(sessionId);
 
-        if (s == null) {
-            logTraceTouchInvalidSession(sessionId, timeout);
-            return false;
-        }
+            if (s == null) {
+                logTraceTouchInvalidSession(sessionId, timeout);
+                return false;
+            }
 
-        if (s.isClosing()) {
-            logTraceTouchClosingSession(sessionId, timeout);
-            return false;
-        }
+            if (s.isClosing()) {
+                logTraceTouchClosingSession(sessionId, timeout);
+                return false;
+            }
 
-        updateSessionExpiry(s, timeout);
-        return true;
+            updateSessionExpiry(s, timeout);
+            return true;
+        }
     }
 
     private void updateSessionExpiry(SessionImpl s, int timeout) {
@@ -203,28 +223,32 @@ public int getSessionTimeout(long sessionId) {
         return sessionsWithTimeout.get(sessionId);
     }
 
-    synchronized public void setSessionClosing(long sessionId) {
-        if (LOG.isTraceEnabled()) {
-            LOG.trace("Session closing: 0x" + Long.toHexString(sessionId));
-        }
-        SessionImpl s = sessionsById.get(sessionId);
-        if (s == null) {
-            return;
+    public void setSessionClosing(long sessionId) {
+        synchronized (lockFor(sessionId)) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Session closing: 0x" + Long.toHexString(sessionId));
+            }
+            SessionImpl s = sessionsById.get(sessionId);
+            if (s == null) {
+                return;
+            }
+            s.isClosing = true;
         }
-        s.isClosing = true;
     }
 
-    synchronized public void removeSession(long sessionId) {
-        LOG.debug("Removing session 0x" + Long.toHexString(sessionId));
-        SessionImpl s = sessionsById.remove(sessionId);
-        sessionsWithTimeout.remove(sessionId);
-        if (LOG.isTraceEnabled()) {
-            ZooTrace.logTraceMessage(LOG, ZooTrace.SESSION_TRACE_MASK,
-                    "SessionTrackerImpl --- Removing session 0x"
-                    + Long.toHexString(sessionId));
-        }
-        if (s != null) {
-            sessionExpiryQueue.remove(s);
+    public void removeSession(long sessionId) {
+        synchronized (lockFor(sessionId)) {
+            LOG.debug("Removing session 0x" + Long.toHexString(sessionId));
+            SessionImpl s = sessionsById.remove(sessionId);
+            sessionsWithTimeout.remove(sessionId);
+            if (LOG.isTraceEnabled()) {
+                ZooTrace.logTraceMessage(LOG, ZooTrace.SESSION_TRACE_MASK,
+                        "SessionTrackerImpl --- Removing session 0x"
+                        + Long.toHexString(sessionId));
+            }
+            if (s != null) {
+                sessionExpiryQueue.remove(s);
+            }
         }
     }
 
@@ -248,70 +272,76 @@ public boolean addGlobalSession(long id, int sessionTimeout) {
         return addSession(id, sessionTimeout);
     }
 
-    public synchronized boolean addSession(long id, int sessionTimeout) {
-        sessionsWithTimeout.put(id, sessionTimeout);
+    public boolean addSession(long id, int sessionTimeout) {
+        synchronized (lockFor(id)) {
+            sessionsWithTimeout.put(id, sessionTimeout);
 
-        boolean added = false;
+            boolean added = false;
 
-        SessionImpl session = sessionsById.get(id);
-        if (session == null){
-            session = new SessionImpl(id, sessionTimeout);
-        }
+            SessionImpl session = sessionsById.get(id);
+            if (session == null){
+                session = new SessionImpl(id, sessionTimeout);
+            }
 
-        // findbugs2.0.3 complains about get after put.
-        // long term strategy would be use computeIfAbsent after JDK 1.8
-        SessionImpl existedSession = sessionsById.putIfAbsent(id, session);
+            // findbugs2.0.3 complains about get after put.
+            // long term strategy would be use computeIfAbsent after JDK 1.8
+            SessionImpl existedSession = sessionsById.putIfAbsent(id, session);
 
-        if (existedSession != null) {
-            session = existedSession;
-        } else {
-            added = true;
-            LOG.debug("Adding session 0x" + Long.toHexString(id));
-        }
+            if (existedSession != null) {
+                session = existedSession;
+            } else {
+                added = true;
+                LOG.debug("Adding session 0x" + Long.toHexString(id));
+            }
 
-        if (LOG.isTraceEnabled()) {
-            String actionStr = added ? "Adding" : "Existing";
-            ZooTrace.logTraceMessage(LOG, ZooTrace.SESSION_TRACE_MASK,
-                    "SessionTrackerImpl --- " + actionStr + " session 0x"
-                    + Long.toHexString(id) + " " + sessionTimeout);
-        }
+            if (LOG.isTraceEnabled()) {
+                String actionStr = added ? "Adding" : "Existing";
+                ZooTrace.logTraceMessage(LOG, ZooTrace.SESSION_TRACE_MASK,
+                        "SessionTrackerImpl --- " + actionStr + " session 0x"
+                        + Long.toHexString(id) + " " + sessionTimeout);
+            }
 
-        updateSessionExpiry(session, sessionTimeout);
-        return added;
+            updateSessionExpiry(session, sessionTimeout);
+            return added;
+        }
     }
 
     public boolean isTrackingSession(long sessionId) {
         return sessionsById.containsKey(sessionId);
     }
 
-    public synchronized void checkSession(long sessionId, Object owner)
+    public void checkSession(long sessionId, Object owner)
             throws KeeperException.SessionExpiredException,
             KeeperException.SessionMovedException,
             KeeperException.UnknownSessionException {
-        LOG.debug("Checking session 0x" + Long.toHexString(sessionId));
-        SessionImpl session = sessionsById.get(sessionId);
+        synchronized (lockFor(sessionId)) {
+            LOG.debug("Checking session 0x" + Long.toHexString(sessionId));
+            SessionImpl session = sessionsById.get(sessionId);
 
-        if (session == null) {
-            throw new KeeperException.UnknownSessionException();
-        }
+            if (session == null) {
+                throw new KeeperException.UnknownSessionException();
+            }
 
-        if (session.isClosing()) {
-            throw new KeeperException.SessionExpiredException();
-        }
+            if (session.isClosing()) {
+                throw new KeeperException.SessionExpiredException();
+            }
 
-        if (session.owner == null) {
-            session.owner = owner;
-        } else if (session.owner != owner) {
-            throw new KeeperException.SessionMovedException();
+            if (session.owner == null) {
+                session.owner = owner;
+            } else if (session.owner != owner) {
+                throw new KeeperException.SessionMovedException();
+            }
         }
     }
 
-    synchronized public void setOwner(long id, Object owner) throws SessionExpiredException {
-        SessionImpl session = sessionsById.get(id);
-        if (session == null || session.isClosing()) {
-            throw new KeeperException.SessionExpiredException();
+    public void setOwner(long id, Object owner) throws SessionExpiredException {
+        synchronized (lockFor(id)) {
+            SessionImpl session = sessionsById.get(id);
+            if (session == null || session.isClosing()) {
+                throw new KeeperException.SessionExpiredException();
+            }
+            session.owner = owner;
         }
-        session.owner = owner;
     }
 
     public void checkGlobalSession(long sessionId, Object owner)
@@ -0,0 +1,308 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.persistence.FileSnap;
+import org.apache.zookeeper.server.persistence.Util;
+import org.apache.zookeeper.server.util.LongHashMap;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Streams a snapshot once and reports, as JSON, the largest subtrees by
+ * bytes of data and by number of nodes, the ephemerals per session and the
+ * number of nodes per ACL. Only the path of the current node and its
+ * ancestors, the top subtrees, the sessions and the distinct ACLs are kept
+ * in memory, not the data tree.
+ */
+public class SnapshotAnalyzer implements FileSnap.SnapshotVisitor {
+    /** a subtree that is still being read, or one of the largest ones */
+    private static final class Subtree {
+        final String path;
+        long bytes;
+        long nodes = 1;
+
+        Subtree(String path, long bytes) {
+            this.path = path;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Comparator<Subtree> BY_BYTES = new Comparator<Subtree>() {
+        @Override
+        public int compare(Subtree a, Subtree b) {
+            return a.bytes < b.bytes ? -1 : (a.bytes == b.bytes ? 0 : 1);
+        }
+    };
+
+    private static final Comparator<Subtree> BY_NODES = new Comparator<Subtree>() {
+        @Override
+        public int compare(Subtree a, Subtree b) {
+            return a.nodes < b.nodes ? -1 : (a.nodes == b.nodes ? 0 : 1);
+        }
+    };
+
+    private final int topN;
+
+    /** the node being read and its ancestors, the root first */
+    private final List<Subtree> ancestors = new ArrayList<Subtree>();
+    /** the largest subtrees, the smallest of them at the head */
+    private final PriorityQueue<Subtree> largestByBytes;
+    private final PriorityQueue<Subtree> largestByNodes;
+
+    private long nodes;
+    private long dataBytes;
+    private long containers;
+    private long ephemerals;
+    private final LongHashMap<Integer> sessionTimeouts = new LongHashMap<Integer>();
+    private final LongHashMap<long[]> ephemeralsBySession = new LongHashMap<long[]>();
+    private final Map<Long, List<ACL>> acls = new HashMap<Long, List<ACL>>();
+    private final Map<Long, long[]> nodesByAcl = new HashMap<Long, long[]>();
+
+    /**
+     * @param topN the number of entries of each list in the report
+     */
+    public SnapshotAnalyzer(int topN) {
+        this.topN = topN;
+        this.largestByBytes = new PriorityQueue<Subtree>(topN + 1, BY_BYTES);
+        this.largestByNodes = new PriorityQueue<Subtree>(topN + 1, BY_NODES);
+    }
+
+    /**
+     * Reads the snapshot file and writes the report to out.
+     */
+    public void analyze(File snap, Writer out) throws IOException {
+        new FileSnap(null).visit(snap, this);
+        while (!ancestors.isEmpty()) {
+            finish(ancestors.remove(ancestors.size() - 1));
+        }
+        JsonGenerator json = new JsonFactory().createJsonGenerator(out);
+        json.useDefaultPrettyPrinter();
+        write(json, snap);
+        json.flush();
+    }
+
+    @Override
+    public void visitSession(long id, int timeout) {
+        sessionTimeouts.put(id, timeout);
+    }
+
+    @Override
+    public void visitAcl(long id, List<ACL> aclList) {
+        acls.put(id, aclList);
+    }
+
+    @Override
+    public void visitNode(String path, DataNode node) {
+        while (!ancestors.isEmpty()
+                && !isAncestor(ancestors.get(ancestors.size() - 1).path, path)) {
+            finish(ancestors.remove(ancestors.size() - 1));
+        }
+        int length = node.getDataLength();
+        ancestors.add(new Subtree(path, length));
+        nodes++;
+        dataBytes += length;
+
+        long owner = node.stat.getEphemeralOwner();
+        if (owner == DataTree.CONTAINER_EPHEMERAL_OWNER) {
+            containers++;
+        } else if (owner != 0) {
+            ephemerals++;
+            long[] count = ephemeralsBySession.get(owner);
+            if (count == null) {
+                count = new long[1];
+                ephemeralsBySession.put(owner, count);
+            }
+            count[0]++;
+        }
+        long[] count = nodesByAcl.get(node.acl);
+        if (count == null) {
+            count = new long[1];
+            nodesByAcl.put(node.acl, count);
+        }
+        count[0]++;
+    }
+
+    /**
+     * @return if the node at path is in the subtree at ancestor, the root
+     * being the empty string
+     */
+    private static boolean isAncestor(String ancestor, String path) {
+        return ancestor.isEmpty()
+            || (path.length() > ancestor.length()
+                    && path.charAt(ancestor.length()) == '/'
+                    && path.startsWith(ancestor));
+    }
+
+    /**
+     * Adds a subtree that has been read completely to its parent and to
+     * the largest subtrees.
+     */
+    private void finish(Subtree subtree) {
+        if (ancestors.isEmpty()) {
+            // the root, reported as the totals
+            return;
+        }
+        Subtree parent = ancestors.get(ancestors.size() - 1);
+        parent.bytes += subtree.bytes;
+        parent.nodes += subtree.nodes;
+        offer(largestByBytes, subtree);
+        offer(largestByNodes, subtree);
+    }
+
+    private void offer(PriorityQueue<Subtree> largest, Subtree subtree) {
+        largest.add(subtree);
+        if (largest.size() > topN) {
+            largest.poll();
+        }
+    }
+
+    private void write(JsonGenerator json, File snap) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("snapshot", snap.toString());
+        json.writeStringField("zxid", "0x" + Long.toHexString(
+                Util.getZxidFromName(snap.getName(), "snapshot")));
+        json.writeNumberField("nodes", nodes);
+        json.writeNumberField("dataBytes", dataBytes);
+        json.writeNumberField("containers", containers);
+        writeSubtrees(json, "largestSubtreesByBytes", largestByBytes);
+        writeSubtrees(json, "largestSubtreesByNodes", largestByNodes);
+
+        json.writeNumberField("sessions", sessionTimeouts.size());
+        json.writeNumberField("ephemerals", ephemerals);
+        json.writeNumberField("sessionsWithEphemerals", ephemeralsBySession.size());
+        final List<Long> owners = new ArrayList<Long>();
+        for (long owner : ephemeralsBySession.keys()) {
+            owners.add(owner);
+        }
+        Collections.sort(owners, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                long countA = ephemeralsBySession.get(a)[0];
+                long countB = ephemeralsBySession.get(b)[0];
+                return countA > countB ? -1 : (countA == countB ? 0 : 1);
+            }
+        });
+        json.writeArrayFieldStart("ephemeralsBySession");
+        for (Long owner : owners.subList(0, Math.min(topN, owners.size()))) {
+            json.writeStartObject();
+            json.writeStringField("session", "0x" + Long.toHexString(owner));
+            Integer timeout = sessionTimeouts.get(owner);
+            if (timeout != null) {
+                json.writeNumberField("timeout", timeout);
+            }
+            json.writeNumberField("ephemerals", ephemeralsBySession.get(owner)[0]);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+
+        // nodes without an ACL are read as OPEN_ACL_UNSAFE, which may
+        // also have an id of its own
+        Map<String, long[]> nodesByAclString = new HashMap<String, long[]>();
+        for (Map.Entry<Long, long[]> e : nodesByAcl.entrySet()) {
+            List<ACL> aclList = acls.get(e.getKey());
+            String acl = aclToString(aclList == null
+                    ? ZooDefs.Ids.OPEN_ACL_UNSAFE : aclList);
+            long[] count = nodesByAclString.get(acl);
+            if (count == null) {
+                nodesByAclString.put(acl, e.getValue());
+            } else {
+                count[0] += e.getValue()[0];
+            }
+        }
+        json.writeNumberField("acls", nodesByAclString.size());
+        List<Map.Entry<String, long[]>> aclUsage =
+            new ArrayList<Map.Entry<String, long[]>>(nodesByAclString.entrySet());
+        Collections.sort(aclUsage, new Comparator<Map.Entry<String, long[]>>() {
+            @Override
+            public int compare(Map.Entry<String, long[]> a,
+                    Map.Entry<String, long[]> b) {
+                long countA = a.getValue()[0];
+                long countB = b.getValue()[0];
+                return countA > countB ? -1 : (countA == countB ? 0 : 1);
+            }
+        });
+        json.writeArrayFieldStart("nodesByAcl");
+        for (Map.Entry<String, long[]> e : aclUsage.subList(0,
+                Math.min(topN, aclUsage.size()))) {
+            json.writeStartObject();
+            json.writeStringField("acl", e.getKey());
+            json.writeNumberField("nodes", e.getValue()[0]);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private static void writeSubtrees(JsonGenerator json, String name,
+            PriorityQueue<Subtree> largest) throws IOException {
+        List<Subtree> subtrees = new ArrayList<Subtree>(largest);
+        Collections.sort(subtrees, Collections.reverseOrder(largest.comparator()));
+        json.writeArrayFieldStart(name);
+        for (Subtree subtree : subtrees) {
+            json.writeStartObject();
+            json.writeStringField("path", subtree.path);
+            json.writeNumberField("bytes", subtree.bytes);
+            json.writeNumberField("nodes", subtree.nodes);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    private static String aclToString(List<ACL> aclList) {
+        StringBuilder sb = new StringBuilder();
+        for (ACL acl : aclList) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(acl.getId().getScheme()).append(':')
+                .append(acl.getId().getId()).append(':');
+            int perms = acl.getPerms();
+            if ((perms & ZooDefs.Perms.CREATE) != 0) {
+                sb.append('c');
+            }
+            if ((perms & ZooDefs.Perms.DELETE) != 0) {
+                sb.append('d');
+            }
+            if ((perms & ZooDefs.Perms.READ) != 0) {
+                sb.append('r');
+            }
+            if ((perms & ZooDefs.Perms.WRITE) != 0) {
+                sb.append('w');
+            }
+            if ((perms & ZooDefs.Perms.ADMIN) != 0) {
+                sb.append('a');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -18,33 +18,43 @@
 
 package org.apache.zookeeper.server;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.Adler32;
-import java.util.zip.CheckedInputStream;
 
-import org.apache.jute.BinaryInputArchive;
-import org.apache.jute.InputArchive;
 import org.apache.zookeeper.data.StatPersisted;
 import org.apache.zookeeper.server.persistence.FileSnap;
 
 /**
- * Dump a snapshot file to stdout.
+ * Dump a snapshot file to stdout, or a report of it in JSON, see
+ * {@link SnapshotAnalyzer}.
  */
 public class SnapshotFormatter {
+    /** the default number of entries of each list of a report */
+    static final int DEFAULT_TOP_N = 20;
 
     /**
      * USAGE: SnapshotFormatter snapshot_file
+     *        SnapshotFormatter -analyze snapshot_file [top_n]
      */
     public static void main(String[] args) throws Exception {
+        if (args.length >= 2 && args.length <= 3 && args[0].equals("-analyze")) {
+            int topN = args.length == 3 ? Integer.parseInt(args[2]) : DEFAULT_TOP_N;
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+            new SnapshotAnalyzer(topN).analyze(new File(args[1]), out);
+            out.write(System.getProperty("line.separator"));
+            out.flush();
+            return;
+        }
         if (args.length != 1) {
             System.err.println("USAGE: SnapshotFormatter snapshot_file");
+            System.err.println("       SnapshotFormatter -analyze snapshot_file [top_n]");
             System.exit(2);
         }
 
@@ -52,17 +62,12 @@ public static void main(String[] args) throws Exception {
     }
     
     public void run(String snapshotFileName) throws IOException {
-        InputStream is = new CheckedInputStream(
-                new BufferedInputStream(new FileInputStream(snapshotFileName)),
-                new Adler32());
-        InputArchive ia = BinaryInputArchive.getArchive(is);
-        
         FileSnap fileSnap = new FileSnap(null);
 
         DataTree dataTree = new DataTree();
         Map<Long, Integer> sessions = new HashMap<Long, Integer>();
         
-        fileSnap.deserialize(dataTree, sessions, ia);
+        fileSnap.deserialize(dataTree, sessions, new File(snapshotFileName));
 
         printDetails(dataTree, sessions);
     }
@@ -87,8 +92,8 @@ private void printZnode(DataTree dataTree, String name) {
         synchronized(n) { // keep findbugs happy
             System.out.println(name);
             printStat(n.stat);
-            if (n.data != null) {
-                System.out.println("  dataLength = " + n.data.length);
+            if (n.getDataBuffer() != null) {
+                System.out.println("  dataLength = " + n.getDataLength());
             } else {
                 System.out.println("  no data");
             }
@@ -59,6 +59,8 @@ public static String op2String(int op) {
             return "getChildren";
         case OpCode.getChildren2:
             return "getChildren2";
+        case OpCode.getChildrenData:
+            return "getChildrenData";
         case OpCode.ping:
             return "ping";
         case OpCode.createSession:
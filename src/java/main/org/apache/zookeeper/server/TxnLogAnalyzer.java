@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.jute.Record;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.server.persistence.FileTxnLog;
+import org.apache.zookeeper.server.persistence.TxnLog.TxnIterator;
+import org.apache.zookeeper.server.util.TopKCounter;
+import org.apache.zookeeper.txn.CreateContainerTxn;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.DeleteTxn;
+import org.apache.zookeeper.txn.MultiTxn;
+import org.apache.zookeeper.txn.SetACLTxn;
+import org.apache.zookeeper.txn.SetDataTxn;
+import org.apache.zookeeper.txn.Txn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams txn logs once and reports, as JSON, the writes per path prefix
+ * in each interval of time, the paths and prefixes written most often
+ * over all and the number of txns of each type. The txns are decoded by
+ * the threads of {@link FileTxnLog#read(long, int)}. The paths are
+ * counted with a {@link TopKCounter} each, so the memory used does not
+ * depend on the number of paths; the intervals are written as soon as
+ * they end.
+ */
+public class TxnLogAnalyzer {
+    private static final Logger LOG = LoggerFactory.getLogger(TxnLogAnalyzer.class);
+
+    /** the number of keys counted per report entry */
+    private static final int CAPACITY_FACTOR = 10;
+
+    private final int topN;
+    private final int prefixDepth;
+    private final long intervalMs;
+    private final int threads;
+
+    private final TopKCounter<String> paths;
+    private final TopKCounter<String> prefixes;
+    private final Map<String, long[]> txnsByType = new TreeMap<String, long[]>();
+    private long txns;
+    private long firstZxid = -1;
+    private long lastZxid = -1;
+
+    /** the interval being counted */
+    private long intervalStart = -1;
+    private long intervalTxns;
+    private TopKCounter<String> intervalPrefixes;
+
+    /**
+     * @param topN the number of entries of each list in the report
+     * @param prefixDepth the number of path components of the prefixes
+     * @param intervalMs the length of the intervals
+     * @param threads the number of decoder threads
+     */
+    public TxnLogAnalyzer(int topN, int prefixDepth, long intervalMs,
+            int threads) {
+        this.topN = topN;
+        this.prefixDepth = prefixDepth;
+        this.intervalMs = intervalMs;
+        this.threads = threads;
+        this.paths = new TopKCounter<String>(topN * CAPACITY_FACTOR);
+        this.prefixes = new TopKCounter<String>(topN * CAPACITY_FACTOR);
+    }
+
+    /**
+     * Reads the txn logs in logDir from the one holding zxid on, and writes
+     * the report to out.
+     */
+    public void analyze(File logDir, long zxid, Writer out) throws IOException {
+        JsonGenerator json = new JsonFactory().createJsonGenerator(out);
+        json.useDefaultPrettyPrinter();
+        json.writeStartObject();
+        json.writeStringField("logDir", logDir.toString());
+        json.writeNumberField("intervalSeconds", intervalMs / 1000);
+        json.writeNumberField("prefixDepth", prefixDepth);
+        json.writeArrayFieldStart("intervals");
+        TxnIterator itr = new FileTxnLog(logDir).read(zxid, threads);
+        try {
+            TxnHeader hdr = itr.getHeader();
+            while (hdr != null) {
+                add(json, hdr, itr.getTxn());
+                try {
+                    if (!itr.next()) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Stopping at txn log entry after 0x"
+                            + Long.toHexString(hdr.getZxid()) + ": " + e);
+                    break;
+                }
+                hdr = itr.getHeader();
+            }
+        } finally {
+            itr.close();
+        }
+        writeInterval(json);
+        json.writeEndArray();
+
+        json.writeNumberField("txns", txns);
+        json.writeNumberField("writes", paths.getTotal());
+        json.writeStringField("firstZxid", "0x" + Long.toHexString(firstZxid));
+        json.writeStringField("lastZxid", "0x" + Long.toHexString(lastZxid));
+        json.writeObjectFieldStart("txnsByType");
+        for (Map.Entry<String, long[]> e : txnsByType.entrySet()) {
+            json.writeNumberField(e.getKey(), e.getValue()[0]);
+        }
+        json.writeEndObject();
+        writeTop(json, "hotPrefixes", "prefix", prefixes);
+        writeTop(json, "hotPaths", "path", paths);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    private void add(JsonGenerator json, TxnHeader hdr, Record txn)
+            throws IOException {
+        if (firstZxid == -1) {
+            firstZxid = hdr.getZxid();
+        }
+        lastZxid = hdr.getZxid();
+        txns++;
+        String type = TraceFormatter.op2String(hdr.getType());
+        long[] count = txnsByType.get(type);
+        if (count == null) {
+            count = new long[1];
+            txnsByType.put(type, count);
+        }
+        count[0]++;
+
+        // the clocks of successive leaders may differ a bit, a txn
+        // before the current interval is counted in it
+        long start = hdr.getTime() - hdr.getTime() % intervalMs;
+        if (start > intervalStart) {
+            writeInterval(json);
+            intervalStart = start;
+            intervalTxns = 0;
+            intervalPrefixes = new TopKCounter<String>(topN * CAPACITY_FACTOR);
+        }
+        intervalTxns++;
+        for (String path : writtenPaths(hdr.getType(), txn)) {
+            String prefix = prefix(path);
+            paths.add(path, 1);
+            prefixes.add(prefix, 1);
+            intervalPrefixes.add(prefix, 1);
+        }
+    }
+
+    private void writeInterval(JsonGenerator json) throws IOException {
+        if (intervalStart == -1) {
+            return;
+        }
+        json.writeStartObject();
+        json.writeNumberField("start", intervalStart);
+        json.writeNumberField("txns", intervalTxns);
+        json.writeNumberField("writes", intervalPrefixes.getTotal());
+        json.writeArrayFieldStart("prefixes");
+        for (TopKCounter.Entry<String> e : intervalPrefixes.top(topN)) {
+            json.writeStartObject();
+            json.writeStringField("prefix", e.getKey());
+            json.writeNumberField("writes", e.getCount());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private void writeTop(JsonGenerator json, String name,
+            String keyName, TopKCounter<String> counter) throws IOException {
+        json.writeArrayFieldStart(name);
+        for (TopKCounter.Entry<String> e : counter.top(topN)) {
+            json.writeStartObject();
+            json.writeStringField(keyName, e.getKey());
+            json.writeNumberField("writes", e.getCount());
+            json.writeNumberField("error", e.getError());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    /**
+     * @return the first prefixDepth components of the path
+     */
+    String prefix(String path) {
+        int end = 0;
+        for (int i = 0; i < prefixDepth; i++) {
+            end = path.indexOf('/', end + 1);
+            if (end == -1) {
+                return path;
+            }
+        }
+        return path.substring(0, end);
+    }
+
+    /**
+     * @return the paths of the nodes a txn creates, deletes or updates
+     */
+    static List<String> writtenPaths(int type, Record txn) throws IOException {
+        List<String> written = new ArrayList<String>(1);
+        if (type == OpCode.multi) {
+            for (Txn sub : ((MultiTxn) txn).getTxns()) {
+                if (sub.getType() == OpCode.error) {
+                    // a failed multi writes nothing
+                    return written;
+                }
+            }
+            for (Txn sub : ((MultiTxn) txn).getTxns()) {
+                Record subTxn;
+                switch (sub.getType()) {
+                case OpCode.create:
+                    subTxn = new CreateTxn();
+                    break;
+                case OpCode.createContainer:
+                    subTxn = new CreateContainerTxn();
+                    break;
+                case OpCode.delete:
+                case OpCode.deleteContainer:
+                    subTxn = new DeleteTxn();
+                    break;
+                case OpCode.setData:
+                    subTxn = new SetDataTxn();
+                    break;
+                default:
+                    continue;
+                }
+                ByteBufferInputStream.byteBuffer2Record(
+                        ByteBuffer.wrap(sub.getData()), subTxn);
+                written.addAll(writtenPaths(sub.getType(), subTxn));
+            }
+            return written;
+        }
+        switch (type) {
+        case OpCode.create:
+        case OpCode.create2:
+            written.add(((CreateTxn) txn).getPath());
+            break;
+        case OpCode.createContainer:
+            written.add(((CreateContainerTxn) txn).getPath());
+            break;
+        case OpCode.delete:
+        case OpCode.deleteContainer:
+            written.add(((DeleteTxn) txn).getPath());
+            break;
+        case OpCode.setData:
+        case OpCode.reconfig:
+            written.add(((SetDataTxn) txn).getPath());
+            break;
+        case OpCode.setACL:
+            written.add(((SetACLTxn) txn).getPath());
+            break;
+        default:
+            break;
+        }
+        return written;
+    }
+}
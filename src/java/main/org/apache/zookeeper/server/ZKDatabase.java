@@ -21,6 +21,7 @@
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -421,6 +422,23 @@ public DataNode getNode(String path) {
       return dataTree.getNode(path);
     }
 
+    /**
+     * the rate of the last replay of the transaction logs
+     * @return the transactions applied per second, 0 if none were replayed
+     */
+    public long getTxnLogReplayRate() {
+        return snapLog == null ? 0 : snapLog.getLastReplayRate();
+    }
+
+    /**
+     * open a read-only view of the datatree at the last processed zxid
+     * @return the view, which has to be closed after use
+     * @see DataTree#openView()
+     */
+    public DataTreeView openView() {
+        return dataTree.openView();
+    }
+
     /**
      * convert from long to the acl entry
      * @param aclL the long for which to get the acl
@@ -443,6 +461,15 @@ public byte[] getData(String path, Stat stat, Watcher watcher)
         return dataTree.getData(path, stat, watcher);
     }
 
+    /**
+     * get data and stat for a path without copying the data
+     * @see DataTree#getDataBuffer(String, Stat, Watcher)
+     */
+    public ByteBuffer getDataBuffer(String path, Stat stat, Watcher watcher)
+    throws KeeperException.NoNodeException {
+        return dataTree.getDataBuffer(path, stat, watcher);
+    }
+
     /**
      * set watches on the datatree
      * @param relativeZxid the relative zxid that client has seen
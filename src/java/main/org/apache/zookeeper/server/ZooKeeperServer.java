@@ -26,11 +26,12 @@
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.Set;
@@ -100,6 +101,7 @@ public class ZooKeeperServer implements SessionExpirer, ServerStats.Provider {
     private final AtomicLong hzxid = new AtomicLong(0);
     public final static Exception ok = new Exception("No prob");
     protected RequestProcessor firstProcessor;
+    private volatile RequestThrottler requestThrottler;
     protected volatile State state = State.INITIAL;
 
     enum State {
@@ -113,10 +115,27 @@ enum State {
     static final private long superSecret = 0XB3415C00L;
 
     private final AtomicInteger requestsInProcess = new AtomicInteger(0);
-    final List<ChangeRecord> outstandingChanges = new ArrayList<ChangeRecord>();
-    // this data structure must be accessed under the outstandingChanges lock
-    final HashMap<String, ChangeRecord> outstandingChangesForPath =
-        new HashMap<String, ChangeRecord>();
+    /**
+     * Change records of the transactions between PrepRequestProcessor and
+     * FinalRequestProcessor, in zxid order. Only the prep thread appends
+     * (and rolls back failed multis at the tail); only the final processor
+     * removes from the head, after the transaction has been applied to the
+     * data tree, so neither side needs a lock.
+     */
+    final ConcurrentLinkedDeque<ChangeRecord> outstandingChanges =
+        new ConcurrentLinkedDeque<ChangeRecord>();
+    /**
+     * The latest outstanding change record of each path. A path without
+     * an entry has all its changes applied to the data tree.
+     */
+    final ConcurrentHashMap<String, ChangeRecord> outstandingChangesForPath =
+        new ConcurrentHashMap<String, ChangeRecord>();
+    /**
+     * The usage that outstanding change records add to each quota root,
+     * on top of the usage committed to the data tree. Only maintained
+     * while quotas are enforced.
+     */
+    final QuotaIndex pendingQuotaUsage = new QuotaIndex();
 
     protected ServerCnxnFactory serverCnxnFactory;
     protected ServerCnxnFactory secureServerCnxnFactory;
@@ -410,6 +429,7 @@ public synchronized void startup() {
         }
         startSessionTracker();
         setupRequestProcessors();
+        startRequestThrottler();
 
         registerJMX();
 
@@ -426,6 +446,52 @@ protected void setupRequestProcessors() {
         ((PrepRequestProcessor)firstProcessor).start();
     }
 
+    protected void startRequestThrottler() {
+        RequestThrottler throttler = new RequestThrottler(this);
+        if (throttler.isEnabled()) {
+            throttler.start();
+            requestThrottler = throttler;
+        }
+    }
+
+    /**
+     * @return the admission control stage, or null if no rate limits are
+     *         configured
+     */
+    public RequestThrottler getRequestThrottler() {
+        return requestThrottler;
+    }
+
+    /**
+     * Resumes reading from a connection once the limit on outstanding
+     * requests lets go of it, unless the request throttler still holds
+     * requests of its session.
+     */
+    void resumeRecv(ServerCnxn cnxn) {
+        RequestThrottler throttler = requestThrottler;
+        if (throttler == null) {
+            cnxn.enableRecv();
+        } else {
+            throttler.resumeRecv(cnxn);
+        }
+    }
+
+    /**
+     * @return number of requests that had to wait for their rate limit
+     */
+    public long getThrottledRequests() {
+        RequestThrottler throttler = requestThrottler;
+        return throttler == null ? 0 : throttler.getThrottledRequests();
+    }
+
+    /**
+     * @return number of requests currently waiting for their rate limit
+     */
+    public int getThrottleQueueSize() {
+        RequestThrottler throttler = requestThrottler;
+        return throttler == null ? 0 : throttler.getQueuedRequests();
+    }
+
     public ZooKeeperServerListener getZooKeeperServerListener() {
         return listener;
     }
@@ -472,6 +538,9 @@ public synchronized void shutdown() {
         if (sessionTracker != null) {
             sessionTracker.shutdown();
         }
+        if (requestThrottler != null) {
+            requestThrottler.shutdown();
+        }
         if (firstProcessor != null) {
             firstProcessor.shutdown();
         }
@@ -538,13 +607,51 @@ static class ChangeRecord {
 
         List<ACL> acl; /* Make sure to create a new object when changing */
 
+        int dataLength;
+
+        /* Set by FinalRequestProcessor once the change is applied */
+        volatile boolean applied;
+
+        /* The pending quota usage this change adds, released once it is
+         * applied or rolled back */
+        QuotaIndex.Quota pendingQuota;
+        long pendingCount;
+        long pendingBytes;
+
+        void chargeQuota(QuotaIndex.Quota quota, long count, long bytes) {
+            quota.addCount(count);
+            quota.addBytes(bytes);
+            pendingQuota = quota;
+            pendingCount += count;
+            pendingBytes += bytes;
+        }
+
+        void releaseQuota() {
+            if (pendingQuota != null) {
+                pendingQuota.addCount(-pendingCount);
+                pendingQuota.addBytes(-pendingBytes);
+                pendingQuota = null;
+                pendingCount = 0;
+                pendingBytes = 0;
+            }
+        }
+
         ChangeRecord duplicate(long zxid) {
             StatPersisted stat = new StatPersisted();
             if (this.stat != null) {
                 DataTree.copyStatPersisted(this.stat, stat);
             }
-            return new ChangeRecord(zxid, path, stat, childCount,
-                    acl == null ? new ArrayList<ACL>() : new ArrayList<ACL>(acl));
+            List<ACL> aclCopy;
+            if (acl instanceof ReferenceCountedACLCache.InternedACLs) {
+                // interned lists are immutable, no need to copy them
+                aclCopy = acl;
+            } else {
+                aclCopy = acl == null ? new ArrayList<ACL>() : new ArrayList<ACL>(acl);
+            }
+            ChangeRecord copy =
+                new ChangeRecord(zxid, path, stat, childCount, aclCopy);
+            copy.dataLength = dataLength;
+            return copy;
         }
     }
 
@@ -701,6 +808,17 @@ public void submitRequest(Request si) {
                 }
             }
         }
+        if (requestThrottler != null && !requestThrottler.admit(si)) {
+            // queued, the throttler submits it once its budget allows
+            return;
+        }
+        submitRequestNow(si);
+    }
+
+    /**
+     * Hands a request to the first processor, bypassing admission control.
+     */
+    void submitRequestNow(Request si) {
         try {
             touch(si.cnxn);
             boolean validpacket = Request.isValid(si.type);
@@ -144,4 +144,12 @@ public void resetStatistics() {
     public long getNumAliveConnections() {
         return zks.getNumAliveConnections();
     }
+
+    public long getThrottledRequests() {
+        return zks.getThrottledRequests();
+    }
+
+    public int getThrottleQueueSize() {
+        return zks.getThrottleQueueSize();
+    }
 }
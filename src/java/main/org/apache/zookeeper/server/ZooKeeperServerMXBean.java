@@ -107,4 +107,12 @@ public interface ZooKeeperServerMXBean {
      * @return number of alive client connections
      */
     public long getNumAliveConnections();
+    /**
+     * @return number of requests that had to wait for their rate limit
+     */
+    public long getThrottledRequests();
+    /**
+     * @return number of requests currently waiting for their rate limit
+     */
+    public int getThrottleQueueSize();
 }
@@ -117,7 +117,8 @@ public void runFromConfig(ServerConfig config) throws IOException, AdminServerEx
             // so rather than spawning another thread, we will just call
             // run() in this thread.
             // create a file logger url from the command line args
-            txnLog = new FileTxnSnapLog(config.dataLogDir, config.dataDir);
+            txnLog = new FileTxnSnapLog(config.dataLogDir, config.dataDir,
+                    config.txnLogMirrorDirs, config.txnLogSyncPolicy);
             ZooKeeperServer zkServer = new ZooKeeperServer( txnLog,
                     config.tickTime, config.minSessionTimeout, config.maxSessionTimeout, null);
 
@@ -142,7 +143,8 @@ public void runFromConfig(ServerConfig config) throws IOException, AdminServerEx
 
             containerManager = new ContainerManager(zkServer.getZKDatabase(), zkServer.firstProcessor,
                     Integer.getInteger("znode.container.checkIntervalMs", (int) TimeUnit.MINUTES.toMillis(1)),
-                    Integer.getInteger("znode.container.maxPerMinute", 10000)
+                    Integer.getInteger("znode.container.maxPerMinute", 10000),
+                    Integer.getInteger("znode.container.maxBatchSize", 100)
             );
             containerManager.start();
 
@@ -17,7 +17,11 @@
 
 package org.apache.zookeeper.server.admin;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,6 +41,7 @@ public class CommandResponse {
     private final String command;
     private final String error;
     private final Map<String, Object> data;
+    private final List<Closeable> resources = new ArrayList<Closeable>(0);
 
     /**
      * Creates a new response with no error string.
@@ -109,4 +114,35 @@ public Map<String, Object> toMap() {
         m.putAll(data);
         return m;
     }
+
+    /**
+     * Adds a resource that has to stay open until this response has been
+     * written, e.g. because a value of the response is computed lazily.
+     *
+     * @param resource resource released by {@link #close()}
+     */
+    public void addResource(Closeable resource) {
+        resources.add(resource);
+    }
+
+    /**
+     * Releases the resources added with {@link #addResource(Closeable)}.
+     * Called once the response has been written.
+     *
+     * @throws IOException if releasing a resource failed
+     */
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Closeable resource : resources) {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        resources.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
 }
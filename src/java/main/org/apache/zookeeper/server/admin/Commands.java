@@ -18,17 +18,28 @@
 
 package org.apache.zookeeper.server.admin;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.zookeeper.Environment;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.Environment.Entry;
+import org.apache.zookeeper.Quotas;
 import org.apache.zookeeper.Version;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.DataTreeView;
 import org.apache.zookeeper.server.ServerStats;
 import org.apache.zookeeper.server.ZKDatabase;
 import org.apache.zookeeper.server.ZooKeeperServer;
@@ -50,6 +61,12 @@
 public class Commands {
     static final Logger LOG = LoggerFactory.getLogger(Commands.class);
 
+    /**
+     * Set to "true" to register the {@link ExportCommand}. The AdminServer
+     * does not authenticate its clients, so it is off by default.
+     */
+    public static final String ADMIN_EXPORT_ENABLED = "zookeeper.admin.enableExport";
+
     /** Maps command names to Command instances */
     private static Map<String, Command> commands = new HashMap<String, Command>();
     private static Set<String> primaryNames = new HashSet<String>();
@@ -113,6 +130,9 @@ public static Command getCommand(String cmdName) {
         registerCommand(new ConsCommand());
         registerCommand(new DumpCommand());
         registerCommand(new EnvCommand());
+        if (Boolean.getBoolean(ADMIN_EXPORT_ENABLED)) {
+            registerCommand(new ExportCommand());
+        }
         registerCommand(new GetTraceMaskCommand());
         registerCommand(new IsroCommand());
         registerCommand(new MonitorCommand());
@@ -219,6 +239,131 @@ public CommandResponse run(ZooKeeperServer zkServer, Map<String, String> kwargs)
         }
     }
 
+    /**
+     * The znodes of a subtree as of a single zxid. The nodes are read from a
+     * {@link DataTreeView} while the response is written, so writes racing
+     * with the export are not seen and the request pipeline is not held up.
+     * Takes an optional "path" argument, the root of the subtree (default
+     * "/"). Returned map contains:
+     *   - "zxid": Long
+     *             zxid of the last txn visible in the export
+     *   - "nodes": Iterable<Map<String, Object>>
+     *              the nodes in depth-first order, each with a "path", its
+     *              "stat" and its "data" (base64 encoded in JSON)
+     * <p>
+     * Clients of the AdminServer are not authenticated, so the command is
+     * only registered if {@link #ADMIN_EXPORT_ENABLED} is set, and the data
+     * and children of a node are only exported if its ACL grants READ to
+     * world:anyone. The /zookeeper subtree is not exported.
+     * @see ZKDatabase#openView()
+     */
+    public static class ExportCommand extends CommandBase {
+        public ExportCommand() {
+            super(Arrays.asList("export", "exp"));
+        }
+
+        @Override
+        public CommandResponse run(ZooKeeperServer zkServer, Map<String, String> kwargs) {
+            CommandResponse response = initializeResponse();
+            String path = "/";
+            if (kwargs != null && kwargs.containsKey("path")) {
+                path = kwargs.get("path");
+            }
+            if (path.equals(Quotas.procZookeeper)
+                    || path.startsWith(Quotas.procZookeeper + "/")) {
+                response.put("error", Quotas.procZookeeper + " is not exported");
+                return response;
+            }
+            DataTreeView view = zkServer.getZKDatabase().openView();
+            try {
+                view.statNode(path);
+            } catch (KeeperException.NoNodeException e) {
+                view.close();
+                response.put("error", "No node " + path);
+                return response;
+            }
+            response.put("zxid", view.getZxid());
+            response.put("nodes", new SubtreeNodes(view, path));
+            response.addResource(view);
+            return response;
+        }
+    }
+
+    /**
+     * Walks a subtree of a view lazily, so that an export does not have to
+     * hold all of its nodes in memory.
+     */
+    private static class SubtreeNodes implements Iterable<Map<String, Object>> {
+        private final DataTreeView view;
+        private final String root;
+
+        SubtreeNodes(DataTreeView view, String root) {
+            this.view = view;
+            this.root = root;
+        }
+
+        @Override
+        public Iterator<Map<String, Object>> iterator() {
+            final Deque<String> pending = new ArrayDeque<String>();
+            pending.push(root);
+            return new Iterator<Map<String, Object>>() {
+                @Override
+                public boolean hasNext() {
+                    return !pending.isEmpty();
+                }
+
+                @Override
+                public Map<String, Object> next() {
+                    if (pending.isEmpty()) {
+                        throw new NoSuchElementException();
+                    }
+                    String path = pending.pop();
+                    Map<String, Object> node = new LinkedHashMap<String, Object>();
+                    try {
+                        node.put("path", path);
+                        if (!isWorldReadable(view.getACL(path))) {
+                            // like getData, stat needs no permission
+                            node.put("stat", view.statNode(path));
+                            node.put("redacted", true);
+                            return node;
+                        }
+                        Stat stat = new Stat();
+                        byte[] data = view.getData(path, stat);
+                        List<String> children = view.getChildren(path);
+                        String prefix = path.equals("/") ? path : path + "/";
+                        for (int i = children.size() - 1; i >= 0; i--) {
+                            String child = prefix + children.get(i);
+                            if (!child.equals(Quotas.procZookeeper)) {
+                                pending.push(child);
+                            }
+                        }
+                        node.put("stat", stat);
+                        node.put("data", data);
+                    } catch (KeeperException.NoNodeException e) {
+                        // cannot happen, a view does not change
+                        throw new IllegalStateException(e);
+                    }
+                    return node;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    private static boolean isWorldReadable(List<ACL> acls) {
+        for (ACL acl : acls) {
+            if ((acl.getPerms() & ZooDefs.Perms.READ) != 0
+                    && acl.getId().equals(ZooDefs.Ids.ANYONE_ID_UNSAFE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * The current trace mask. Returned map contains:
      *   - "tracemask": Long
@@ -263,13 +408,24 @@ public CommandResponse run(ZooKeeperServer zkServer, Map<String, String> kwargs)
      *   - "packets_received": Long
      *   - "packets_sents": Long
      *   - "num_alive_connections": Integer
+     *   - "acl_cache_hits": Long
+     *   - "acl_cache_misses": Long
      *   - "outstanding_requests": Long
      *                             number of unprocessed requests
+     *   - "throttled_requests": Long
+     *   - "throttle_queue_size": Integer
      *   - "server_state": "leader", "follower", or "standalone"
      *   - "znode_count": Integer
      *   - "watch_count": Integer
      *   - "ephemerals_count": Integer
+     *   - "container_candidates": Integer
+     *                             number of empty containers awaiting deletion
+     *   - "txn_replay_rate": Long
+     *                        txns per second of the last txn log replay
      *   - "approximate_data_size": Long
+     *   - "offheap_data_count": Long
+     *                           number of znode payloads stored off-heap
+     *   - "offheap_data_bytes": Long
      *   - "open_file_descriptor_count": Long (unix only)
      *   - "max_file_descritpor_count": Long (unix only)
      *   - "followers": Integer (leader only)
@@ -297,15 +453,23 @@ public CommandResponse run(ZooKeeperServer zkServer, Map<String, String> kwargs)
             response.put("packets_received", stats.getPacketsReceived());
             response.put("packets_sent", stats.getPacketsSent());
             response.put("num_alive_connections", stats.getNumAliveClientConnections());
+            response.put("acl_cache_hits", stats.getAclCacheHits());
+            response.put("acl_cache_misses", stats.getAclCacheMisses());
 
             response.put("outstanding_requests", stats.getOutstandingRequests());
+            response.put("throttled_requests", zkServer.getThrottledRequests());
+            response.put("throttle_queue_size", zkServer.getThrottleQueueSize());
 
             response.put("server_state", stats.getServerState());
             response.put("znode_count", zkdb.getNodeCount());
 
             response.put("watch_count", zkdb.getDataTree().getWatchCount());
             response.put("ephemerals_count", zkdb.getDataTree().getEphemeralsCount());
+            response.put("container_candidates", zkdb.getDataTree().getContainerCandidateCount());
+            response.put("txn_replay_rate", zkdb.getTxnLogReplayRate());
             response.put("approximate_data_size", zkdb.getDataTree().approximateDataSize());
+            response.put("offheap_data_count", zkdb.getDataTree().getPayloadStore().getOffHeapCount());
+            response.put("offheap_data_bytes", zkdb.getDataTree().getPayloadStore().getOffHeapBytes());
 
             OSMXBean osMbean = new OSMXBean();
             response.put("open_file_descriptor_count", osMbean.getOpenFileDescriptorCount());
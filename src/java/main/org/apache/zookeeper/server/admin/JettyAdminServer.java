@@ -156,7 +156,11 @@ protected void doGet(HttpServletRequest request, HttpServletResponse response) t
             CommandOutputter outputter = new JsonOutputter();
             response.setStatus(HttpServletResponse.SC_OK);
             response.setContentType(outputter.getContentType());
-            outputter.output(cmdResponse, response.getWriter());
+            try {
+                outputter.output(cmdResponse, response.getWriter());
+            } finally {
+                cmdResponse.close();
+            }
         }
     }
 
@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.persistence;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.Checksum;
+
+/**
+ * Collects a snapshot in large direct buffers that a dedicated thread writes
+ * to the file, so that serializing the next part of the tree overlaps with
+ * writing the previous one. If framed, every buffer is written as a chunk
+ * preceded by its length and checksum, and close() writes an empty chunk to
+ * mark the end, see {@link ChunkedInputStream}.
+ */
+class AsyncChunkOutputStream extends OutputStream {
+    /** length and checksum in front of every chunk */
+    static final int FRAME_HEADER = 12;
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int BUFFERS = 2;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    /** handed to the producer instead of a free buffer once the writer died */
+    private static final ByteBuffer DEAD = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final boolean framed;
+    private final ChecksumAlgorithm checksum;
+    private final BlockingQueue<ByteBuffer> free = new LinkedBlockingQueue<ByteBuffer>();
+    private final BlockingQueue<ByteBuffer> full = new LinkedBlockingQueue<ByteBuffer>();
+    private final Thread writer;
+
+    private volatile IOException failure;
+    /** only accessed by the writer thread until it has been joined */
+    private long chunkCount;
+    private ByteBuffer current;
+    private boolean closed;
+
+    /**
+     * @param channel the file to write to, at its current position
+     * @param chunkSize size of a buffer, rounded up to a multiple of the page
+     * size
+     * @param framed whether to frame the buffers as checksummed chunks
+     * @param checksum the checksum algorithm of the chunks
+     * @param name name of the file, used to name the writer thread
+     */
+    AsyncChunkOutputStream(FileChannel channel, int chunkSize, boolean framed,
+            ChecksumAlgorithm checksum, String name) {
+        this.channel = channel;
+        this.framed = framed;
+        this.checksum = checksum;
+        int capacity = (Math.max(chunkSize, 1) + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(ByteBuffer.allocateDirect(capacity + headerSize()));
+        }
+        current = free.poll();
+        current.position(headerSize());
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeChunks();
+            }
+        }, "SnapshotWriter:" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private int headerSize() {
+        return framed ? FRAME_HEADER : 0;
+    }
+
+    private void writeChunks() {
+        Checksum crc = checksum.create();
+        try {
+            while (true) {
+                ByteBuffer buf = full.take();
+                if (buf == END) {
+                    break;
+                }
+                if (failure == null) {
+                    try {
+                        if (framed) {
+                            ByteBuffer data = buf.duplicate();
+                            data.position(FRAME_HEADER);
+                            crc.reset();
+                            ChecksumAlgorithm.update(crc, data);
+                            buf.putInt(0, buf.limit() - FRAME_HEADER);
+                            buf.putLong(4, crc.getValue());
+                            chunkCount++;
+                        }
+                        write(buf);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                free.add(buf);
+            }
+            if (framed && failure == null) {
+                write(ByteBuffer.allocate(FRAME_HEADER));
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Snapshot writer interrupted");
+        } catch (Throwable t) {
+            failure = new IOException("Snapshot writer failed", t);
+        } finally {
+            if (failure != null) {
+                // the buffers in the full queue will not come back
+                free.add(DEAD);
+            }
+        }
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private void handOff() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        current.flip();
+        full.add(current);
+        try {
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted writing snapshot");
+        }
+        if (current == DEAD) {
+            throw failure;
+        }
+        current.clear();
+        current.position(headerSize());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!current.hasRemaining()) {
+            handOff();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!current.hasRemaining()) {
+                handOff();
+            }
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the buffered data, waits for the writer thread to finish and
+     * rethrows the first error it ran into.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (current.position() > headerSize()) {
+            current.flip();
+            full.add(current);
+        }
+        full.add(END);
+        join();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stops the writer thread without writing the remaining data. Does
+     * nothing if the stream has already been closed.
+     */
+    void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (failure == null) {
+            failure = new IOException("Snapshot write aborted");
+        }
+        full.add(END);
+        try {
+            join();
+        } catch (InterruptedIOException e) {
+            // the writer skips the remaining buffers and exits on its own
+        }
+    }
+
+    private void join() throws InterruptedIOException {
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted writing snapshot");
+        }
+    }
+
+    /**
+     * @return the number of chunks written, only valid after close()
+     */
+    long getChunkCount() {
+        return chunkCount;
+    }
+}
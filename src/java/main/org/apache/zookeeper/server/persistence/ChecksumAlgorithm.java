@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * The checksum algorithms that txn logs and snapshots can be written with.
+ * The id of the algorithm is recorded in the header of files written in the
+ * versioned formats; files in the original formats always use Adler32.
+ * <p>
+ * CRC32 is computed with the CLMUL/PMULL intrinsic on modern JVMs. CRC32C
+ * is only available on JVMs that ship java.util.zip.CRC32C (Java 9 and
+ * later).
+ */
+public enum ChecksumAlgorithm {
+    ADLER32(0, "adler32"),
+    CRC32(1, "crc32"),
+    CRC32C(2, "crc32c");
+
+    /**
+     * Algorithm used for new txn logs and snapshots: adler32 (the default),
+     * crc32 or crc32c.
+     */
+    public static final String CHECKSUM_ALGORITHM = "zookeeper.checksumAlgorithm";
+
+    private static final Class<?> CRC32C_CLASS = loadCrc32c();
+
+    private static final int SCRATCH_SIZE = 8192;
+
+    private final int id;
+    private final String name;
+
+    private ChecksumAlgorithm(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    private static Class<?> loadCrc32c() {
+        try {
+            return Class.forName("java.util.zip.CRC32C");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether the algorithm can be used on this JVM
+     */
+    public boolean isAvailable() {
+        return this != CRC32C || CRC32C_CLASS != null;
+    }
+
+    /**
+     * @return a new instance of the algorithm
+     */
+    public Checksum create() {
+        switch (this) {
+        case CRC32:
+            return new CRC32();
+        case CRC32C:
+            try {
+                return (Checksum) CRC32C_CLASS.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("CRC32C is not available", e);
+            }
+        default:
+            return new Adler32();
+        }
+    }
+
+    /**
+     * Updates the checksum with the remaining bytes of the buffer. Heap
+     * buffers are read in place; direct buffers are copied through a small
+     * scratch array, as Checksum only takes arrays before Java 8.
+     */
+    static void update(Checksum checksum, ByteBuffer buf) {
+        if (buf.hasArray()) {
+            checksum.update(buf.array(), buf.arrayOffset() + buf.position(),
+                    buf.remaining());
+            buf.position(buf.limit());
+        } else {
+            byte[] scratch = new byte[Math.min(buf.remaining(), SCRATCH_SIZE)];
+            while (buf.hasRemaining()) {
+                int len = Math.min(buf.remaining(), scratch.length);
+                buf.get(scratch, 0, len);
+                checksum.update(scratch, 0, len);
+            }
+        }
+    }
+
+    /**
+     * @param id the id recorded in a file header
+     * @return the algorithm with the given id
+     * @throws IOException if the id is unknown or the algorithm is not
+     * available on this JVM
+     */
+    public static ChecksumAlgorithm fromId(int id) throws IOException {
+        for (ChecksumAlgorithm a : values()) {
+            if (a.id == id) {
+                if (!a.isAvailable()) {
+                    throw new IOException(a.name + " checksums are not supported by this JVM");
+                }
+                return a;
+            }
+        }
+        throw new IOException("Unknown checksum algorithm " + id);
+    }
+
+    /**
+     * @return the algorithm configured by {@link #CHECKSUM_ALGORITHM}
+     * @throws IllegalArgumentException if the configured algorithm is
+     * unknown or not available on this JVM
+     */
+    public static ChecksumAlgorithm configured() {
+        String value = System.getProperty(CHECKSUM_ALGORITHM, ADLER32.name);
+        for (ChecksumAlgorithm a : values()) {
+            if (a.name.equalsIgnoreCase(value.trim())) {
+                if (!a.isAvailable()) {
+                    throw new IllegalArgumentException(a.name
+                            + " checksums are not supported by this JVM");
+                }
+                return a;
+            }
+        }
+        throw new IllegalArgumentException("Invalid " + CHECKSUM_ALGORITHM
+                + " " + value);
+    }
+}
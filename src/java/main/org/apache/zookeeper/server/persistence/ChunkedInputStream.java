@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.persistence;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Reads the chunks written by a framed {@link AsyncChunkOutputStream},
+ * verifying the checksum of each chunk before any of its bytes are
+ * returned, so a torn or corrupted snapshot is detected at the damaged
+ * chunk instead of after the whole file has been read.
+ */
+class ChunkedInputStream extends InputStream {
+    private final DataInputStream in;
+    private final String name;
+    private final Checksum crc;
+
+    private byte[] chunk = new byte[0];
+    private int pos;
+    private int limit;
+    private long chunkCount;
+    private boolean eof;
+
+    /**
+     * @param in the stream positioned at the first chunk
+     * @param checksum the checksum algorithm of the chunks
+     * @param name the name of the file, used in error messages
+     */
+    ChunkedInputStream(InputStream in, ChecksumAlgorithm checksum, String name) {
+        this.in = new DataInputStream(in);
+        this.crc = checksum.create();
+        this.name = name;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int len = in.readInt();
+        long checksum = in.readLong();
+        if (len == 0) {
+            eof = true;
+            return false;
+        }
+        if (len < 0) {
+            throw new IOException("Invalid length " + len + " of chunk "
+                    + chunkCount + " in " + name);
+        }
+        if (chunk.length < len) {
+            chunk = new byte[len];
+        }
+        in.readFully(chunk, 0, len);
+        crc.reset();
+        crc.update(chunk, 0, len);
+        if (crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch in chunk " + chunkCount
+                    + " of " + name);
+        }
+        chunkCount++;
+        pos = 0;
+        limit = len;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == limit && !nextChunk()) {
+            return -1;
+        }
+        return chunk[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == limit && !nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Consumes the end marker, failing if any data is left before it.
+     */
+    void finish() throws IOException {
+        if (pos < limit || nextChunk()) {
+            throw new IOException("Unexpected data at the end of " + name);
+        }
+    }
+
+    /**
+     * @return the number of chunks read so far
+     */
+    long getChunkCount() {
+        return chunkCount;
+    }
+}
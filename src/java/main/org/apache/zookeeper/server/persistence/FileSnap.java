@@ -24,7 +24,6 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -39,6 +38,8 @@
 import org.apache.jute.OutputArchive;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.DataNode;
 import org.apache.zookeeper.server.DataTree;
 import org.apache.zookeeper.server.util.SerializeUtils;
 
@@ -49,15 +50,33 @@
  * and provides access to the snapshots.
  */
 public class FileSnap implements SnapShot {
+    /**
+     * Size in bytes of the independently checksummed chunks a snapshot is
+     * written in. 0, the default, writes the snapshot in the unchunked
+     * format, which older servers can read.
+     */
+    public static final String SNAPSHOT_CHUNK_SIZE = "zookeeper.snapshotChunkSize";
+    /** buffer size of the writer of unchunked snapshots */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
     File snapDir;
+    private final int chunkSize;
+    private final ChecksumAlgorithm checksumAlgorithm;
     private volatile boolean close = false;
     private static final int VERSION=2;
+    /**
+     * version of snapshots whose header is followed by the id of their
+     * checksum algorithm and their chunk size, 0 if they are not chunked
+     */
+    private static final int EXTENDED_VERSION=3;
     private static final long dbId=-1;
     private static final Logger LOG = LoggerFactory.getLogger(FileSnap.class);
     public final static int SNAP_MAGIC
         = ByteBuffer.wrap("ZKSN".getBytes()).getInt();
     public FileSnap(File snapDir) {
         this.snapDir = snapDir;
+        this.chunkSize = Integer.getInteger(SNAPSHOT_CHUNK_SIZE, 0);
+        this.checksumAlgorithm = ChecksumAlgorithm.configured();
     }
 
     /**
@@ -77,29 +96,14 @@ public long deserialize(DataTree dt, Map<Long, Integer> sessions)
         boolean foundValid = false;
         for (int i = 0; i < snapList.size(); i++) {
             snap = snapList.get(i);
-            InputStream snapIS = null;
-            CheckedInputStream crcIn = null;
             try {
                 LOG.info("Reading snapshot " + snap);
-                snapIS = new BufferedInputStream(new FileInputStream(snap));
-                crcIn = new CheckedInputStream(snapIS, new Adler32());
-                InputArchive ia = BinaryInputArchive.getArchive(crcIn);
-                deserialize(dt,sessions, ia);
-                long checkSum = crcIn.getChecksum().getValue();
-                long val = ia.readLong("val");
-                if (val != checkSum) {
-                    throw new IOException("CRC corruption in snapshot :  " + snap);
-                }
+                deserialize(dt, sessions, snap);
                 foundValid = true;
                 break;
             } catch(IOException e) {
                 LOG.warn("problem reading snap file " + snap, e);
-            } finally {
-                if (snapIS != null) 
-                    snapIS.close();
-                if (crcIn != null) 
-                    crcIn.close();
-            } 
+            }
         }
         if (!foundValid) {
             throw new IOException("Not able to find valid snapshots in " + snapDir);
@@ -117,6 +121,113 @@ public long deserialize(DataTree dt, Map<Long, Integer> sessions)
      */
     public void deserialize(DataTree dt, Map<Long, Integer> sessions,
             InputArchive ia) throws IOException {
+        FileHeader header = readHeader(ia);
+        if (header.getVersion() >= EXTENDED_VERSION) {
+            throw new IOException("version " + header.getVersion()
+                    + " snapshots can only be read with "
+                    + "deserialize(DataTree, Map, File)");
+        }
+        SerializeUtils.deserializeSnapshot(dt,ia,sessions);
+    }
+
+    /**
+     * deserialize a data tree from a snapshot file in either format,
+     * verifying its checksums
+     * @param dt the datatree to be serialized into
+     * @param sessions the sessions to be filled up
+     * @param snap the snapshot file
+     * @throws IOException if the file is corrupt or can not be read
+     */
+    public void deserialize(final DataTree dt,
+            final Map<Long, Integer> sessions, File snap) throws IOException {
+        read(snap, new SnapshotReader() {
+            @Override
+            public void read(InputArchive ia) throws IOException {
+                SerializeUtils.deserializeSnapshot(dt, ia, sessions);
+            }
+        });
+    }
+
+    /**
+     * Receives the contents of a snapshot file as it is read by
+     * {@link FileSnap#visit(File, SnapshotVisitor)}: first the sessions,
+     * then the ACLs, then the nodes in depth first pre-order, starting
+     * with the root, whose path is the empty string.
+     */
+    public interface SnapshotVisitor {
+        void visitSession(long id, int timeout) throws IOException;
+
+        void visitAcl(long id, List<ACL> acls) throws IOException;
+
+        void visitNode(String path, DataNode node) throws IOException;
+    }
+
+    /**
+     * Reads a snapshot file in either format, verifying its checksums,
+     * without building a data tree, so that only one node at a time is in
+     * memory.
+     * @param snap the snapshot file
+     * @param visitor the visitor of the contents of the snapshot
+     * @throws IOException if the file is corrupt or can not be read
+     */
+    public void visit(File snap, final SnapshotVisitor visitor)
+            throws IOException {
+        read(snap, new SnapshotReader() {
+            @Override
+            public void read(InputArchive ia) throws IOException {
+                SerializeUtils.visitSnapshot(ia, visitor);
+            }
+        });
+    }
+
+    private interface SnapshotReader {
+        void read(InputArchive ia) throws IOException;
+    }
+
+    private void read(File snap, SnapshotReader reader) throws IOException {
+        InputStream snapIS = new BufferedInputStream(new FileInputStream(snap));
+        try {
+            CheckedInputStream crcIn = new CheckedInputStream(snapIS, new Adler32());
+            InputArchive ia = BinaryInputArchive.getArchive(crcIn);
+            FileHeader header = readHeader(ia);
+            if (header.getVersion() >= EXTENDED_VERSION) {
+                ChecksumAlgorithm checksum =
+                    ChecksumAlgorithm.fromId(ia.readInt("checksum"));
+                if (ia.readInt("chunkSize") > 0) {
+                    // the chunks carry their own checksums, the trailer
+                    // holds the number of chunks
+                    ChunkedInputStream chunkIn = new ChunkedInputStream(
+                            snapIS, checksum, snap.toString());
+                    reader.read(BinaryInputArchive.getArchive(chunkIn));
+                    chunkIn.finish();
+                    long val = ia.readLong("val");
+                    if (val != chunkIn.getChunkCount()) {
+                        throw new IOException("Missing chunks in snapshot : " + snap);
+                    }
+                } else {
+                    crcIn = new CheckedInputStream(snapIS, checksum.create());
+                    ia = BinaryInputArchive.getArchive(crcIn);
+                    reader.read(ia);
+                    long checkSum = crcIn.getChecksum().getValue();
+                    long val = ia.readLong("val");
+                    if (val != checkSum) {
+                        throw new IOException("CRC corruption in snapshot :  " + snap);
+                    }
+                }
+            } else {
+                reader.read(ia);
+                long checkSum = crcIn.getChecksum().getValue();
+                long val = ia.readLong("val");
+                if (val != checkSum) {
+                    throw new IOException("CRC corruption in snapshot :  " + snap);
+                }
+            }
+        } finally {
+            snapIS.close();
+        }
+    }
+
+    private FileHeader readHeader(InputArchive ia) throws IOException {
         FileHeader header = new FileHeader();
         header.deserialize(ia, "fileheader");
         if (header.getMagic() != SNAP_MAGIC) {
@@ -124,7 +235,7 @@ public void deserialize(DataTree dt, Map<Long, Integer> sessions,
                     + header.getMagic() + 
                     " !=  " + FileSnap.SNAP_MAGIC);
         }
-        SerializeUtils.deserializeSnapshot(dt,ia,sessions);
+        return header;
     }
 
     /**
@@ -222,19 +333,80 @@ protected void serialize(DataTree dt,Map<Long, Integer> sessions,
     public synchronized void serialize(DataTree dt, Map<Long, Integer> sessions, File snapShot)
             throws IOException {
         if (!close) {
-            OutputStream sessOS = new BufferedOutputStream(new FileOutputStream(snapShot));
-            CheckedOutputStream crcOut = new CheckedOutputStream(sessOS, new Adler32());
-            //CheckedOutputStream cout = new CheckedOutputStream()
-            OutputArchive oa = BinaryOutputArchive.getArchive(crcOut);
-            FileHeader header = new FileHeader(SNAP_MAGIC, VERSION, dbId);
-            serialize(dt,sessions,oa, header);
-            long val = crcOut.getChecksum().getValue();
-            oa.writeLong(val, "val");
-            oa.writeString("/", "path");
-            sessOS.flush();
-            crcOut.close();
-            sessOS.close();
+            FileOutputStream fos = new FileOutputStream(snapShot);
+            try {
+                if (chunkSize > 0
+                        || checksumAlgorithm != ChecksumAlgorithm.ADLER32) {
+                    serializeExtended(dt, sessions, fos, snapShot);
+                } else {
+                    AsyncChunkOutputStream sessOS = new AsyncChunkOutputStream(
+                            fos.getChannel(), BUFFER_SIZE, false,
+                            checksumAlgorithm, snapShot.getName());
+                    try {
+                        CheckedOutputStream crcOut =
+                            new CheckedOutputStream(sessOS, new Adler32());
+                        OutputArchive oa = BinaryOutputArchive.getArchive(crcOut);
+                        FileHeader header = new FileHeader(SNAP_MAGIC, VERSION, dbId);
+                        serialize(dt,sessions,oa, header);
+                        long val = crcOut.getChecksum().getValue();
+                        oa.writeLong(val, "val");
+                        oa.writeString("/", "path");
+                        sessOS.close();
+                    } finally {
+                        sessOS.abort();
+                    }
+                }
+            } finally {
+                fos.close();
+            }
+        }
+    }
+
+    /**
+     * serialize the datatree and sessions in the extended format, recording
+     * the checksum algorithm and chunk size in the header. A chunked body
+     * is a sequence of checksummed chunks followed by a trailer holding the
+     * number of chunks, written around the chunks so that it still ends in
+     * "/" as checked by {@link Util#isValidSnapshot(File)}. An unchunked
+     * body is followed by its checksum, as in the original format.
+     */
+    private void serializeExtended(DataTree dt, Map<Long, Integer> sessions,
+            FileOutputStream fos, File snapShot) throws IOException {
+        FileHeader header = new FileHeader(SNAP_MAGIC, EXTENDED_VERSION, dbId);
+        BufferedOutputStream headerOS = new BufferedOutputStream(fos);
+        OutputArchive headerOA = BinaryOutputArchive.getArchive(headerOS);
+        header.serialize(headerOA, "fileheader");
+        headerOA.writeInt(checksumAlgorithm.getId(), "checksum");
+        headerOA.writeInt(chunkSize, "chunkSize");
+        headerOS.flush();
+        boolean chunked = chunkSize > 0;
+        AsyncChunkOutputStream chunkOS = new AsyncChunkOutputStream(
+                fos.getChannel(), chunked ? chunkSize : BUFFER_SIZE, chunked,
+                checksumAlgorithm, snapShot.getName());
+        try {
+            if (chunked) {
+                SerializeUtils.serializeSnapshot(dt,
+                        BinaryOutputArchive.getArchive(chunkOS), sessions);
+            } else {
+                CheckedOutputStream crcOut =
+                    new CheckedOutputStream(chunkOS, checksumAlgorithm.create());
+                OutputArchive oa = BinaryOutputArchive.getArchive(crcOut);
+                SerializeUtils.serializeSnapshot(dt, oa, sessions);
+                oa.writeLong(crcOut.getChecksum().getValue(), "val");
+                oa.writeString("/", "path");
+            }
+            chunkOS.close();
+        } finally {
+            chunkOS.abort();
+        }
+        if (!chunked) {
+            return;
         }
+        BufferedOutputStream trailerOS = new BufferedOutputStream(fos);
+        OutputArchive oa = BinaryOutputArchive.getArchive(trailerOS);
+        oa.writeLong(chunkOS.getChunkCount(), "val");
+        oa.writeString("/", "path");
+        trailerOS.flush();
     }
 
     /**
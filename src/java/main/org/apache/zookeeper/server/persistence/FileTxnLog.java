@@ -26,13 +26,19 @@
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.Adler32;
 import java.util.zip.Checksum;
 
 import org.apache.jute.BinaryInputArchive;
@@ -53,7 +59,7 @@
  * The format of a Transactional log is as follows:
  * <blockquote><pre>
  * LogFile:
- *     FileHeader TxnList ZeroPad
+ *     FileHeader [ChecksumId] TxnList ZeroPad
  * 
  * FileHeader: {
  *     magic 4bytes (ZKLG)
@@ -61,13 +67,17 @@
  *     dbid 8bytes
  *   }
  * 
+ * ChecksumId:
+ *     id 4bytes of the {@link ChecksumAlgorithm}, only present in version 3.
+ *     Version 2 logs use Adler32.
+ * 
  * TxnList:
  *     Txn || Txn TxnList
  *     
  * Txn:
  *     checksum Txnlen TxnHeader Record 0x42
  * 
- * checksum: 8bytes Adler32 is currently used
+ * checksum: 8bytes
  *   calculated across payload -- Txnlen, TxnHeader, Record and 0x42
  * 
  * Txnlen:
@@ -98,6 +108,12 @@ public class FileTxnLog implements TxnLog {
 
     public final static int VERSION = 2;
 
+    /**
+     * version of logs whose header is followed by the id of their checksum
+     * algorithm, written unless the algorithm is Adler32
+     */
+    public final static int CHECKSUM_VERSION = 3;
+
     /** Maximum time we allow for elapsed fsync before WARNing */
     private final static long fsyncWarningThresholdMS;
 
@@ -123,18 +139,93 @@ public class FileTxnLog implements TxnLog {
     File logDir;
     private final boolean forceSync = !System.getProperty("zookeeper.forceSync", "yes").equals("no");;
     long dbId;
+    private final ChecksumAlgorithm checksumAlgorithm;
     private LinkedList<FileOutputStream> streamsToFlush =
         new LinkedList<FileOutputStream>();
     long currentSize;
     File logFileWrite = null;
 
+    /**
+     * A copy of the log in another directory, written along with the log
+     * itself.
+     */
+    private static class Mirror {
+        final File dir;
+        BufferedOutputStream logStream;
+        OutputArchive oa;
+        FileOutputStream fos;
+        long currentSize;
+        final LinkedList<FileOutputStream> streamsToFlush =
+            new LinkedList<FileOutputStream>();
+
+        Mirror(File dir) {
+            this.dir = dir;
+        }
+
+        void open(String name, FileHeader fhdr, ChecksumAlgorithm checksum)
+                throws IOException {
+            fos = new FileOutputStream(new File(dir, name));
+            logStream = new BufferedOutputStream(fos);
+            oa = BinaryOutputArchive.getArchive(logStream);
+            writeHeader(oa, fhdr, checksum);
+            logStream.flush();
+            currentSize = fos.getChannel().position();
+            streamsToFlush.add(fos);
+        }
+    }
+
+    private final Mirror[] mirrors;
+
+    /**
+     * the number of directories, out of logDir and the mirrors, that have
+     * to be fsynced before commit returns
+     */
+    private final int syncCount;
+
+    /**
+     * one thread per directory fsyncing it, only used with mirrors
+     */
+    private final DirSyncer[] syncers;
+
     /**
      * constructor for FileTxnLog. Take the directory
      * where the txnlogs are stored
      * @param logDir the directory where the txnlogs are stored
      */
     public FileTxnLog(File logDir) {
+        this(logDir, new File[0], 1);
+    }
+
+    /**
+     * constructor for a FileTxnLog that writes a copy of the txnlogs to
+     * each of the mirror directories. The directories are fsynced in
+     * parallel, and commit returns once syncCount of them are synced.
+     * @param logDir the directory where the txnlogs are stored
+     * @param mirrorDirs the directories holding copies of the txnlogs
+     * @param syncCount the number of directories, out of logDir and the
+     *        mirrors, that have to be synced for a commit
+     */
+    public FileTxnLog(File logDir, File[] mirrorDirs, int syncCount) {
         this.logDir = logDir;
+        this.mirrors = new Mirror[mirrorDirs.length];
+        for (int i = 0; i < mirrorDirs.length; i++) {
+            mirrors[i] = new Mirror(mirrorDirs[i]);
+        }
+        if (syncCount < 1 || syncCount > mirrorDirs.length + 1) {
+            throw new IllegalArgumentException("Cannot wait for " + syncCount
+                    + " of " + (mirrorDirs.length + 1) + " txn log directories");
+        }
+        this.syncCount = syncCount;
+        this.checksumAlgorithm = ChecksumAlgorithm.configured();
+        if (mirrors.length == 0) {
+            syncers = null;
+        } else {
+            syncers = new DirSyncer[mirrors.length + 1];
+            syncers[0] = new DirSyncer(logDir);
+            for (int i = 0; i < mirrors.length; i++) {
+                syncers[i + 1] = new DirSyncer(mirrorDirs[i]);
+            }
+        }
     }
 
     /**
@@ -151,9 +242,20 @@ public static void setPreallocSize(long size) {
      * @return the checksum used for this txnlog
      */
     protected Checksum makeChecksumAlgorithm(){
-        return new Adler32();
+        return checksumAlgorithm.create();
     }
 
+    /**
+     * writes the header of a new log file, followed by the id of the
+     * checksum algorithm for logs of {@link #CHECKSUM_VERSION}
+     */
+    static void writeHeader(OutputArchive oa, FileHeader fhdr,
+            ChecksumAlgorithm checksum) throws IOException {
+        fhdr.serialize(oa, "fileheader");
+        if (fhdr.getVersion() >= CHECKSUM_VERSION) {
+            oa.writeInt(checksum.getId(), "checksum");
+        }
+    }
 
     /**
      * rollover the current log file to a new one.
@@ -165,6 +267,13 @@ public synchronized void rollLog() throws IOException {
             this.logStream = null;
             oa = null;
         }
+        for (Mirror m : mirrors) {
+            if (m.logStream != null) {
+                m.logStream.flush();
+                m.logStream = null;
+                m.oa = null;
+            }
+        }
     }
 
     /**
@@ -172,12 +281,34 @@ public synchronized void rollLog() throws IOException {
      * @throws IOException
      */
     public synchronized void close() throws IOException {
+        if (syncers != null) {
+            for (DirSyncer syncer : syncers) {
+                syncer.executor.shutdown();
+            }
+            try {
+                for (DirSyncer syncer : syncers) {
+                    syncer.executor.awaitTermination(Long.MAX_VALUE,
+                            TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted closing " + logDir);
+            }
+        }
         if (logStream != null) {
             logStream.close();
         }
         for (FileOutputStream log : streamsToFlush) {
             log.close();
         }
+        for (Mirror m : mirrors) {
+            if (m.logStream != null) {
+                m.logStream.close();
+            }
+            for (FileOutputStream log : m.streamsToFlush) {
+                log.close();
+            }
+        }
     }
     
     /**
@@ -206,14 +337,22 @@ public synchronized boolean append(TxnHeader hdr, Record txn)
                fos = new FileOutputStream(logFileWrite);
                logStream=new BufferedOutputStream(fos);
                oa = BinaryOutputArchive.getArchive(logStream);
-               FileHeader fhdr = new FileHeader(TXNLOG_MAGIC,VERSION, dbId);
-               fhdr.serialize(oa, "fileheader");
+               FileHeader fhdr = new FileHeader(TXNLOG_MAGIC,
+                       checksumAlgorithm == ChecksumAlgorithm.ADLER32
+                           ? VERSION : CHECKSUM_VERSION, dbId);
+               writeHeader(oa, fhdr, checksumAlgorithm);
                // Make sure that the magic number is written before padding.
                logStream.flush();
                currentSize = fos.getChannel().position();
                streamsToFlush.add(fos);
+               for (Mirror m : mirrors) {
+                   m.open(logFileWrite.getName(), fhdr, checksumAlgorithm);
+               }
             }
             padFile(fos);
+            for (Mirror m : mirrors) {
+                m.currentSize = Util.padLogFile(m.fos, m.currentSize, preAllocSize);
+            }
             byte[] buf = Util.marshallTxnEntry(hdr, txn);
             if (buf == null || buf.length == 0) {
                 throw new IOException("Faulty serialization for header " +
@@ -223,6 +362,10 @@ public synchronized boolean append(TxnHeader hdr, Record txn)
             crc.update(buf, 0, buf.length);
             oa.writeLong(crc.getValue(), "txnEntryCRC");
             Util.writeTxnBytes(oa, buf);
+            for (Mirror m : mirrors) {
+                m.oa.writeLong(crc.getValue(), "txnEntryCRC");
+                Util.writeTxnBytes(m.oa, buf);
+            }
             
             return true;
         }
@@ -322,6 +465,10 @@ public synchronized void commit() throws IOException {
         if (logStream != null) {
             logStream.flush();
         }
+        if (mirrors.length > 0) {
+            commitMirrored();
+            return;
+        }
         for (FileOutputStream log : streamsToFlush) {
             log.flush();
             if (forceSync) {
@@ -345,6 +492,211 @@ public synchronized void commit() throws IOException {
         }
     }
 
+    /**
+     * Counts the directories synced by one commit.
+     */
+    private static class SyncRound {
+        private final int directories;
+        private final int needed;
+        private int synced;
+        private int failed;
+        private IOException failure;
+
+        SyncRound(int directories, int needed) {
+            this.directories = directories;
+            this.needed = needed;
+        }
+
+        synchronized void done(IOException e) {
+            if (e == null) {
+                synced++;
+            } else {
+                failed++;
+                failure = e;
+            }
+            notifyAll();
+        }
+
+        synchronized void await() throws IOException {
+            while (synced < needed) {
+                if (failed > directories - needed) {
+                    throw new IOException("fsync failed for " + failed + " of "
+                            + directories + " txn log directories", failure);
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for fsync");
+                }
+            }
+        }
+    }
+
+    /**
+     * commit with mirrors: every directory is fsynced by its own thread,
+     * and this returns as soon as syncCount of them are synced. The
+     * directories that are not synced yet keep syncing in the background.
+     */
+    private void commitMirrored() throws IOException {
+        for (Mirror m : mirrors) {
+            if (m.logStream != null) {
+                m.logStream.flush();
+            }
+        }
+        if (!forceSync) {
+            while (streamsToFlush.size() > 1) {
+                streamsToFlush.removeFirst().close();
+            }
+            for (Mirror m : mirrors) {
+                while (m.streamsToFlush.size() > 1) {
+                    m.streamsToFlush.removeFirst().close();
+                }
+            }
+            return;
+        }
+        SyncRound round = new SyncRound(mirrors.length + 1, syncCount);
+        syncers[0].schedule(streamsToFlush, round);
+        for (int i = 0; i < mirrors.length; i++) {
+            syncers[i + 1].schedule(mirrors[i].streamsToFlush, round);
+        }
+        round.await();
+    }
+
+    /**
+     * Fsyncs one directory on a thread of its own. Commits that arrive
+     * while a sync is waiting to start join it, so at most one sync per
+     * directory is queued behind the running one, however far a slow
+     * device falls behind.
+     */
+    private static class DirSyncer implements Runnable {
+        final File dir;
+        final ExecutorService executor;
+
+        // guarded by this
+        private boolean queued;
+        private final LinkedHashSet<FileOutputStream> toSync =
+                new LinkedHashSet<FileOutputStream>();
+        private final List<FileOutputStream> toClose =
+                new ArrayList<FileOutputStream>();
+        private final List<SyncRound> rounds = new ArrayList<SyncRound>();
+
+        DirSyncer(final File dir) {
+            this.dir = dir;
+            this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TxnLogSync:" + dir);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        /**
+         * Syncs all the streams of the directory for the round. All but the
+         * last stream are done with and are closed once synced.
+         */
+        synchronized void schedule(LinkedList<FileOutputStream> streams,
+                SyncRound round) {
+            toSync.addAll(streams);
+            while (streams.size() > 1) {
+                toClose.add(streams.removeFirst());
+            }
+            rounds.add(round);
+            if (!queued) {
+                queued = true;
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<FileOutputStream> syncing;
+            List<FileOutputStream> closing;
+            List<SyncRound> waiting;
+            synchronized (this) {
+                queued = false;
+                syncing = new ArrayList<FileOutputStream>(toSync);
+                closing = new ArrayList<FileOutputStream>(toClose);
+                waiting = new ArrayList<SyncRound>(rounds);
+                toSync.clear();
+                toClose.clear();
+                rounds.clear();
+            }
+            IOException failure = null;
+            try {
+                long startSyncNS = System.nanoTime();
+                for (FileOutputStream log : syncing) {
+                    log.getChannel().force(false);
+                }
+                long syncElapsedMS = TimeUnit.NANOSECONDS.toMillis(
+                        System.nanoTime() - startSyncNS);
+                if (syncElapsedMS > fsyncWarningThresholdMS) {
+                    LOG.warn("fsync-ing the write ahead log in " + dir
+                            + " took " + syncElapsedMS + "ms");
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to fsync the write ahead log in " + dir, e);
+                failure = e;
+            }
+            for (FileOutputStream log : closing) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    LOG.warn("Failed to close a log file in " + dir, e);
+                }
+            }
+            for (SyncRound round : waiting) {
+                round.done(failure);
+            }
+        }
+    }
+
+    /**
+     * Brings the copies of the txnlogs in logDir and the mirror directories
+     * up to date with the most complete of them, i.e. the one with the
+     * highest logged zxid. A copy can fall behind if the server stopped
+     * before that directory was synced.
+     * @param logDir the directory where the txnlogs are stored
+     * @param mirrorDirs the directories holding copies of the txnlogs
+     * @throws IOException
+     */
+    public static void repairMirrors(File logDir, File[] mirrorDirs)
+            throws IOException {
+        if (mirrorDirs.length == 0) {
+            return;
+        }
+        File[] dirs = new File[mirrorDirs.length + 1];
+        dirs[0] = logDir;
+        System.arraycopy(mirrorDirs, 0, dirs, 1, mirrorDirs.length);
+        long[] lastZxids = new long[dirs.length];
+        int best = 0;
+        for (int i = 0; i < dirs.length; i++) {
+            lastZxids[i] = new FileTxnLog(dirs[i]).getLastLoggedZxid();
+            if (lastZxids[i] > lastZxids[best]) {
+                best = i;
+            }
+        }
+        for (int i = 0; i < dirs.length; i++) {
+            if (lastZxids[i] == lastZxids[best]) {
+                continue;
+            }
+            LOG.warn("Txn log in {} ends at 0x{}, copying the logs after it from {}",
+                    new Object[] { dirs[i], Long.toHexString(lastZxids[i]),
+                            dirs[best] });
+            for (File f : getLogFiles(dirs[i].listFiles(), lastZxids[i])) {
+                if (!new File(dirs[best], f.getName()).exists() && !f.delete()) {
+                    throw new IOException("Unable to delete " + f);
+                }
+            }
+            for (File f : getLogFiles(dirs[best].listFiles(), lastZxids[i])) {
+                Files.copy(f.toPath(), new File(dirs[i], f.getName()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
     /**
      * start reading all the transactions from the given zxid
      * @param zxid the zxid to start reading transactions from
@@ -368,6 +720,23 @@ public TxnIterator read(long zxid, boolean fastForward) throws IOException {
         return new FileTxnIterator(logDir, zxid, fastForward);
     }
 
+    /**
+     * start reading all the transactions from the given zxid, reading
+     * ahead on a thread of its own and decoding them on a pool of threads
+     *
+     * @param zxid the zxid to start reading transactions from
+     * @param threads the number of decoder threads, with 1 the txns are
+     *        read and decoded by the calling thread
+     * @return returns an iterator to iterate through the transaction logs
+     */
+    public TxnIterator read(long zxid, int threads) throws IOException {
+        FileTxnIterator itr = new FileTxnIterator(logDir, zxid);
+        if (threads > 1) {
+            return new ParallelTxnIterator(itr, threads);
+        }
+        return itr;
+    }
+
     /**
      * truncate the current transaction logs
      * @param zxid the zxid to truncate the logs to
@@ -523,6 +892,8 @@ public static class FileTxnIterator implements TxnLog.TxnIterator {
         File logFile;
         InputArchive ia;
         static final String CRC_ERROR="CRC check failed";
+        /** the checksum algorithm of the current log file */
+        ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.ADLER32;
        
         PositionInputStream inputStream=null;
         //stored files is the list of files greater than
@@ -627,6 +998,12 @@ protected void inStreamCreated(InputArchive ia, InputStream is)
                         + header.getMagic()
                         + " != " + FileTxnLog.TXNLOG_MAGIC);
             }
+            if (header.getVersion() >= CHECKSUM_VERSION) {
+                checksumAlgorithm = ChecksumAlgorithm.fromId(
+                        ia.readInt("checksum"));
+            } else {
+                checksumAlgorithm = ChecksumAlgorithm.ADLER32;
+            }
         }
 
         /**
@@ -651,7 +1028,7 @@ protected InputArchive createInputArchive(File logFile) throws IOException {
          * @return the checksum algorithm
          */
         protected Checksum makeChecksumAlgorithm(){
-            return new Adler32();
+            return checksumAlgorithm.create();
         }
 
         /**
@@ -660,9 +1037,32 @@ protected Checksum makeChecksumAlgorithm(){
          * false if not.
          */
         public boolean next() throws IOException {
-            if (ia == null) {
+            byte[] bytes = nextTxnBytes();
+            if (bytes == null) {
                 return false;
             }
+            try {
+                hdr = new TxnHeader();
+                record = SerializeUtils.deserializeTxn(bytes, hdr);
+            } catch (IOException e) {
+                inputStream.close();
+                throw e;
+            }
+            return true;
+        }
+
+        /**
+         * reads the next transaction and validates its CRC without
+         * decoding it, moving on to the next log file at the end of one.
+         * The header and transaction of the iterator are not updated.
+         * @return the serialized transaction or null if there are no more
+         * transactions
+         * @throws IOException
+         */
+        byte[] nextTxnBytes() throws IOException {
+            if (ia == null) {
+                return null;
+            }
             try {
                 long crcValue = ia.readLong("crcvalue");
                 byte[] bytes = Util.readTxnBytes(ia);
@@ -676,8 +1076,7 @@ public boolean next() throws IOException {
                 crc.update(bytes, 0, bytes.length);
                 if (crcValue != crc.getValue())
                     throw new IOException(CRC_ERROR);
-                hdr = new TxnHeader();
-                record = SerializeUtils.deserializeTxn(bytes, hdr);
+                return bytes;
             } catch (EOFException e) {
                 LOG.debug("EOF excepton " + e);
                 inputStream.close();
@@ -687,15 +1086,14 @@ public boolean next() throws IOException {
                 // this means that the file has ended
                 // we should go to the next file
                 if (!goToNextLog()) {
-                    return false;
+                    return null;
                 }
-                // if we went to the next log file, we should call next() again
-                return next();
+                // if we went to the next log file, we should read again
+                return nextTxnBytes();
             } catch (IOException e) {
                 inputStream.close();
                 throw e;
             }
-            return true;
         }
 
         /**
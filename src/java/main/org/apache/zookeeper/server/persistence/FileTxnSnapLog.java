@@ -28,6 +28,7 @@
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.common.Time;
 import org.apache.zookeeper.server.DataTree;
 import org.apache.zookeeper.server.DataTree.ProcessTxnResult;
 import org.apache.zookeeper.server.Request;
@@ -63,6 +64,37 @@ public class FileTxnSnapLog {
 
     public static final String ZOOKEEPER_DATADIR_AUTOCREATE_DEFAULT = "true";
 
+    /**
+     * The number of threads decoding txns while {@link #restore} replays
+     * the txn logs. With 1, the logs are read and decoded by the thread
+     * applying the txns. Defaults to one less than the number of
+     * processors, at most 4.
+     */
+    public static final String TXN_LOG_REPLAY_THREADS =
+            "zookeeper.txnLogReplayThreads";
+
+    private volatile long lastReplayRate;
+
+    /**
+     * Comma separated directories that each hold a copy of the txn logs
+     * besides the data log dir, ideally on devices of their own. The
+     * directories are fsynced in parallel. Read by the server
+     * configuration; tools opening the logs get no mirrors.
+     */
+    public static final String TXN_LOG_MIRROR_DIRS =
+            "zookeeper.txnLogMirrorDirs";
+
+    /**
+     * The number of txn log directories, counting the data log dir and the
+     * mirrors, that a commit waits to be fsynced: "all", the default, or a
+     * number. Read by the server configuration.
+     */
+    public static final String TXN_LOG_SYNC_POLICY =
+            "zookeeper.txnLogSyncPolicy";
+
+    private final File[] mirrorDirs;
+    private final int syncCount;
+
     /**
      * This listener helps
      * the external apis calling
@@ -81,6 +113,21 @@ public interface PlayBackListener {
      * @param snapDir the snapshot directory
      */
     public FileTxnSnapLog(File dataDir, File snapDir) throws IOException {
+        this(dataDir, snapDir, new File[0], "all");
+    }
+
+    /**
+     * the constructor for a txn log that is copied to mirror directories.
+     * @param dataDir the trasaction directory
+     * @param snapDir the snapshot directory
+     * @param mirrorDirs the directories holding copies of the txn logs,
+     *        see {@link #TXN_LOG_MIRROR_DIRS}
+     * @param syncPolicy the number of txn log directories a commit waits
+     *        to be fsynced, see {@link #TXN_LOG_SYNC_POLICY}
+     * @throws IllegalArgumentException if the sync policy is invalid
+     */
+    public FileTxnSnapLog(File dataDir, File snapDir, File[] mirrorDirs,
+            String syncPolicy) throws IOException {
         LOG.debug("Opening datadir:{} snapDir:{}", dataDir, snapDir);
 
         this.dataDir = new File(dataDir, version + VERSION);
@@ -122,10 +169,72 @@ public FileTxnSnapLog(File dataDir, File snapDir) throws IOException {
                         + this.snapDir);
             }
         }
-        txnLog = new FileTxnLog(this.dataDir);
+        this.mirrorDirs = createMirrorDirs(mirrorDirs, enableAutocreate);
+        syncCount = parseSyncPolicy(syncPolicy, this.mirrorDirs.length + 1);
+        txnLog = new FileTxnLog(this.dataDir, this.mirrorDirs, syncCount);
         snapLog = new FileSnap(this.snapDir);
     }
 
+    /**
+     * @param value comma separated directories, as configured by
+     *        {@link #TXN_LOG_MIRROR_DIRS}
+     * @return the directories, empty if there are none
+     */
+    public static File[] parseMirrorDirs(String value) {
+        value = value.trim();
+        if (value.length() == 0) {
+            return new File[0];
+        }
+        String[] names = value.split(",");
+        File[] dirs = new File[names.length];
+        for (int i = 0; i < names.length; i++) {
+            dirs[i] = new File(names[i].trim());
+        }
+        return dirs;
+    }
+
+    private static File[] createMirrorDirs(File[] mirrorDirs,
+            boolean enableAutocreate) throws DatadirException {
+        File[] dirs = new File[mirrorDirs.length];
+        for (int i = 0; i < mirrorDirs.length; i++) {
+            dirs[i] = new File(mirrorDirs[i], version + VERSION);
+            if (!dirs[i].exists()) {
+                if (!enableAutocreate) {
+                    throw new DatadirException("Missing txn log mirror directory "
+                            + dirs[i]
+                            + ", automatic data directory creation is disabled ("
+                            + ZOOKEEPER_DATADIR_AUTOCREATE
+                            + " is false). Please create this directory manually.");
+                }
+                if (!dirs[i].mkdirs()) {
+                    throw new DatadirException("Unable to create txn log mirror directory "
+                            + dirs[i]);
+                }
+            }
+        }
+        return dirs;
+    }
+
+    private static int parseSyncPolicy(String value, int directories) {
+        value = value.trim();
+        if (value.equals("all")) {
+            return directories;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(TXN_LOG_SYNC_POLICY
+                    + " must be \"all\" or a number, not " + value);
+        }
+        if (count < 1 || count > directories) {
+            throw new IllegalArgumentException(TXN_LOG_SYNC_POLICY + " is "
+                    + count + ", but there are " + directories
+                    + " txn log directories");
+        }
+        return count;
+    }
+
     /**
      * get the datadir used by this filetxn
      * snap log
@@ -144,6 +253,14 @@ public File getSnapDir() {
         return this.snapDir;
     }
 
+    /**
+     * get the directories holding copies of the txn logs
+     * @return the txn log mirror dirs, empty if there are none
+     */
+    public File[] getMirrorDirs() {
+        return mirrorDirs.clone();
+    }
+
     /**
      * this function restores the server
      * database after reading from the
@@ -158,10 +275,14 @@ public File getSnapDir() {
     public long restore(DataTree dt, Map<Long, Integer> sessions,
             PlayBackListener listener) throws IOException {
         snapLog.deserialize(dt, sessions);
+        FileTxnLog.repairMirrors(dataDir, mirrorDirs);
         FileTxnLog txnLog = new FileTxnLog(dataDir);
-        TxnIterator itr = txnLog.read(dt.lastProcessedZxid+1);
+        int threads = getReplayThreads();
+        TxnIterator itr = txnLog.read(dt.lastProcessedZxid+1, threads);
         long highestZxid = dt.lastProcessedZxid;
         TxnHeader hdr;
+        long start = Time.currentElapsedTime();
+        long count = 0;
         try {
             while (true) {
                 // iterator points to
@@ -185,6 +306,7 @@ public long restore(DataTree dt, Map<Long, Integer> sessions,
                          hdr.getType() + " error: " + e.getMessage(), e);
                 }
                 listener.onTxnLoaded(hdr, itr.getTxn());
+                count++;
                 if (!itr.next())
                     break;
             }
@@ -192,10 +314,34 @@ public long restore(DataTree dt, Map<Long, Integer> sessions,
             if (itr != null) {
                 itr.close();
             }
+            if (count > 0) {
+                long elapsed = Math.max(1, Time.currentElapsedTime() - start);
+                lastReplayRate = count * 1000 / elapsed;
+                LOG.info("Replayed {} txns in {} ms ({} txns/s, {} decoder threads)",
+                        new Object[] { count, elapsed, lastReplayRate, threads });
+            }
         }
         return highestZxid;
     }
 
+    /**
+     * @return the number of threads decoding txns while the txn logs are
+     * replayed, see {@link #TXN_LOG_REPLAY_THREADS}
+     */
+    public static int getReplayThreads() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Integer.getInteger(TXN_LOG_REPLAY_THREADS,
+                Math.min(4, processors - 1));
+    }
+
+    /**
+     * @return the txns applied per second by the last {@link #restore}
+     * that replayed any txns, 0 if there was none
+     */
+    public long getLastReplayRate() {
+        return lastReplayRate;
+    }
+
     /**
      * Get TxnIterator for iterating through txnlog starting at a given zxid
      *
@@ -316,12 +462,17 @@ public boolean truncateLog(long zxid) throws IOException {
         FileTxnLog truncLog = new FileTxnLog(dataDir);
         boolean truncated = truncLog.truncate(zxid);
         truncLog.close();
+        for (File mirrorDir : mirrorDirs) {
+            truncLog = new FileTxnLog(mirrorDir);
+            truncated &= truncLog.truncate(zxid);
+            truncLog.close();
+        }
 
         // re-open the txnLog and snapLog
         // I'd rather just close/reopen this object itself, however that 
         // would have a big impact outside ZKDatabase as there are other
         // objects holding a reference to this object.
-        txnLog = new FileTxnLog(dataDir);
+        txnLog = new FileTxnLog(dataDir, mirrorDirs, syncCount);
         snapLog = new FileSnap(snapDir);
 
         return truncated;
@@ -0,0 +1,355 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jute.Record;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog.PlayBackListener;
+import org.apache.zookeeper.server.persistence.TxnLog.TxnIterator;
+import org.apache.zookeeper.server.util.ZxidUtils;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental backup of the snapshots and txn logs of a server.
+ * <p>
+ * A backup directory has the layout of a data directory: a version-2
+ * directory holding snapshot.&lt;zxid&gt; and log.&lt;zxid&gt; files in the
+ * usual formats. The first {@link #backup()} copies the most recent
+ * snapshot of the server as the base. Each backup then appends the txns
+ * logged since the previous one as a new, unpadded log segment. Files
+ * are written under a temporary name and renamed once complete, so the
+ * backup is consistent at any time.
+ * <p>
+ * {@link #compact()} folds the segments into a new snapshot, so that a
+ * restore has fewer txns to replay. Older snapshots and segments are kept,
+ * so the data can be restored as of any backed up zxid; use
+ * {@link org.apache.zookeeper.server.PurgeTxnLog} on the backup directory
+ * to drop them. {@link #restore(File, long, File)} copies the newest
+ * snapshot at or before a zxid, and the txns up to it, to the data
+ * directory of a server, which replays them when it starts.
+ * <p>
+ * Backup and restore stream files and txns; only compaction loads the
+ * data tree. Txns are backed up as soon as the server logs them. If the
+ * server later truncates its log, e.g. to drop a proposal that was never
+ * committed, the next backup fails and a new backup has to be started.
+ */
+public class IncrementalBackup {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalBackup.class);
+
+    private final File snapDir;
+    private final File logDir;
+    private final File backupRoot;
+    private final File backupDir;
+
+    /**
+     * @param dataDir the snapshot directory of the server
+     * @param dataLogDir the txn log directory of the server
+     * @param backupRoot the directory of the backup
+     */
+    public IncrementalBackup(File dataDir, File dataLogDir, File backupRoot)
+            throws IOException {
+        this.snapDir = versionDir(dataDir);
+        this.logDir = versionDir(dataLogDir);
+        this.backupRoot = backupRoot;
+        this.backupDir = versionDir(backupRoot);
+        if (!backupDir.isDirectory() && !backupDir.mkdirs()) {
+            throw new IOException("Unable to create backup directory "
+                    + backupDir);
+        }
+    }
+
+    private static File versionDir(File dir) {
+        return new File(dir, FileTxnSnapLog.version + FileTxnSnapLog.VERSION);
+    }
+
+    /**
+     * @return the zxid of the newest snapshot in the directory, -1 if
+     * there is none
+     */
+    private static long lastSnapshotZxid(File dir) throws IOException {
+        File snap = new FileSnap(dir).findMostRecentSnapshot();
+        return snap == null ? -1 : Util.getZxidFromName(snap.getName(), "snapshot");
+    }
+
+    /**
+     * @return the zxid of the last txn in the backup, -1 if the backup is
+     * empty
+     */
+    public synchronized long getLastZxid() throws IOException {
+        return Math.max(lastSnapshotZxid(backupDir),
+                new FileTxnLog(backupDir).getLastLoggedZxid());
+    }
+
+    /**
+     * Copies the txns logged by the server since the previous backup to a
+     * new segment, after copying a base snapshot if the backup is empty.
+     *
+     * @return the number of txns backed up
+     */
+    public synchronized long backup() throws IOException {
+        long lastZxid = getLastZxid();
+        boolean hasLogs = new FileTxnLog(backupDir).getLastLoggedZxid() >= 0;
+        if (lastZxid < 0) {
+            File base = new FileSnap(snapDir).findMostRecentSnapshot();
+            if (base == null) {
+                throw new IOException("No snapshot to back up in " + snapDir);
+            }
+            copy(base, backupDir);
+            lastZxid = Util.getZxidFromName(base.getName(), "snapshot");
+            LOG.info("Backed up base snapshot {}", base);
+        }
+        checkContinuity(lastZxid, hasLogs);
+
+        LogSegmentWriter segment = new LogSegmentWriter(backupDir);
+        TxnIterator itr = new FileTxnLog(logDir).read(lastZxid);
+        long count = 0;
+        try {
+            TxnHeader hdr = itr.getHeader();
+            if (hasLogs && (hdr == null || hdr.getZxid() != lastZxid)) {
+                throw new IOException("The txn log in " + logDir
+                        + " no longer contains 0x" + Long.toHexString(lastZxid)
+                        + ", the last backed up txn. It was truncated or"
+                        + " purged; start a new backup.");
+            }
+            while (hdr != null) {
+                if (hdr.getZxid() > lastZxid) {
+                    segment.append(hdr, itr.getTxn());
+                    count++;
+                }
+                try {
+                    if (!itr.next()) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    // most likely a txn the server is still writing, the
+                    // next backup starts over from the last complete one
+                    LOG.warn("Stopping at txn log entry after 0x"
+                            + Long.toHexString(hdr.getZxid()) + ": " + e);
+                    break;
+                }
+                hdr = itr.getHeader();
+            }
+            File file = segment.finish();
+            if (file != null) {
+                LOG.info("Backed up {} txns to {}", count, file);
+            }
+        } finally {
+            segment.abort();
+            itr.close();
+        }
+        return count;
+    }
+
+    /**
+     * Makes sure that the server still has the log of the txns following
+     * a base snapshot.
+     */
+    private void checkContinuity(long lastZxid, boolean hasLogs)
+            throws IOException {
+        if (hasLogs) {
+            // checked against the last backed up txn instead
+            return;
+        }
+        List<File> logs = Util.sortDataDir(
+                FileTxnLog.getLogFiles(logDir.listFiles(), 0), "log", true);
+        if (logs.isEmpty()) {
+            return;
+        }
+        long first = Util.getZxidFromName(logs.get(0).getName(), "log");
+        long next = lastZxid + 1;
+        boolean newEpoch = ZxidUtils.getEpochFromZxid(first)
+                > ZxidUtils.getEpochFromZxid(lastZxid)
+            && ZxidUtils.getCounterFromZxid(first) <= 1;
+        if (first > next && !newEpoch) {
+            throw new IOException("The txn logs in " + logDir
+                    + " start at 0x" + Long.toHexString(first)
+                    + ", txns after 0x" + Long.toHexString(lastZxid)
+                    + " are missing");
+        }
+    }
+
+    /**
+     * Folds the txns backed up since the newest snapshot of the backup into
+     * a new snapshot.
+     *
+     * @return the zxid of the new snapshot, -1 if there were no new txns
+     */
+    public synchronized long compact() throws IOException {
+        long snapZxid = lastSnapshotZxid(backupDir);
+        FileTxnSnapLog snapLog = new FileTxnSnapLog(backupRoot, backupRoot);
+        try {
+            DataTree dt = new DataTree();
+            ConcurrentHashMap<Long, Integer> sessions =
+                new ConcurrentHashMap<Long, Integer>();
+            long zxid = snapLog.restore(dt, sessions, new PlayBackListener() {
+                @Override
+                public void onTxnLoaded(TxnHeader hdr, Record rec) {
+                }
+            });
+            if (zxid <= snapZxid) {
+                return -1;
+            }
+            // written like the segments, so that a partial snapshot is
+            // never mistaken for the newest one
+            File snap = new File(backupDir, Util.makeSnapshotName(zxid));
+            File tmp = new File(backupDir, LogSegmentWriter.TMP_PREFIX + snap.getName());
+            new FileSnap(backupDir).serialize(dt, sessions, tmp);
+            Files.move(tmp.toPath(), snap.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Compacted backup {} up to 0x{}", backupRoot,
+                    Long.toHexString(zxid));
+            return zxid;
+        } finally {
+            snapLog.close();
+        }
+    }
+
+    /**
+     * Restores a backup as of a zxid into the data directory of a server.
+     * The newest snapshot at or before the zxid is copied, followed by a
+     * txn log holding the backed up txns up to the zxid.
+     *
+     * @param backupRoot the directory of the backup
+     * @param zxid the last txn to restore
+     * @param dataDir the data directory of the server, which must not
+     * hold snapshots or txn logs
+     * @return the zxid of the last restored txn, which is less than the
+     * given one if the backup ends before it
+     */
+    public static long restore(File backupRoot, long zxid, File dataDir)
+            throws IOException {
+        File backupDir = versionDir(backupRoot);
+        File targetDir = versionDir(dataDir);
+        if (!targetDir.isDirectory() && !targetDir.mkdirs()) {
+            throw new IOException("Unable to create " + targetDir);
+        }
+        for (File f : targetDir.listFiles()) {
+            if (Util.getZxidFromName(f.getName(), "snapshot") >= 0
+                    || Util.getZxidFromName(f.getName(), "log") >= 0) {
+                throw new IOException(targetDir + " already holds snapshots"
+                        + " or txn logs");
+            }
+        }
+        File base = null;
+        for (File f : Util.sortDataDir(backupDir.listFiles(), "snapshot", false)) {
+            long snapZxid = Util.getZxidFromName(f.getName(), "snapshot");
+            if (snapZxid >= 0 && snapZxid <= zxid && Util.isValidSnapshot(f)) {
+                base = f;
+                break;
+            }
+        }
+        if (base == null) {
+            throw new IOException("No snapshot at or before 0x"
+                    + Long.toHexString(zxid) + " in " + backupDir);
+        }
+        copy(base, targetDir);
+        long lastZxid = Util.getZxidFromName(base.getName(), "snapshot");
+
+        LogSegmentWriter log = new LogSegmentWriter(targetDir);
+        TxnIterator itr = new FileTxnLog(backupDir).read(lastZxid + 1);
+        try {
+            for (TxnHeader hdr = itr.getHeader();
+                    hdr != null && hdr.getZxid() <= zxid;
+                    hdr = itr.next() ? itr.getHeader() : null) {
+                if (hdr.getZxid() > lastZxid) {
+                    log.append(hdr, itr.getTxn());
+                    lastZxid = hdr.getZxid();
+                }
+            }
+            log.finish();
+        } finally {
+            log.abort();
+            itr.close();
+        }
+        LOG.info("Restored {} as of 0x{} into {}", new Object[] {
+                backupRoot, Long.toHexString(lastZxid), targetDir });
+        return lastZxid;
+    }
+
+    /**
+     * Copies a file into a directory, under a temporary name until it is
+     * complete.
+     */
+    private static void copy(File file, File dir) throws IOException {
+        File target = new File(dir, file.getName());
+        File tmp = new File(dir, LogSegmentWriter.TMP_PREFIX + file.getName());
+        Files.copy(file.toPath(), tmp.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void printUsage() {
+        System.out.println("IncrementalBackup backup dataDir dataLogDir backupDir"
+                + " [interval [compactInterval]]");
+        System.out.println("IncrementalBackup compact backupDir");
+        System.out.println("IncrementalBackup restore backupDir zxid dataDir");
+        System.out.println("\tinterval -- seconds between backups, one backup"
+                + " if omitted");
+        System.out.println("\tcompactInterval -- seconds between compactions,"
+                + " defaults to 3600");
+        System.out.println("\tzxid -- the last txn to restore, e.g. 0x100000012");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("compact")) {
+            new IncrementalBackup(new File(args[1]), new File(args[1]),
+                    new File(args[1])).compact();
+        } else if (args.length == 4 && args[0].equals("restore")) {
+            restore(new File(args[1]), Long.decode(args[2]), new File(args[3]));
+        } else if (args.length >= 4 && args.length <= 6
+                && args[0].equals("backup")) {
+            IncrementalBackup backup = new IncrementalBackup(new File(args[1]),
+                    new File(args[2]), new File(args[3]));
+            if (args.length == 4) {
+                backup.backup();
+                return;
+            }
+            long interval = TimeUnit.SECONDS.toMillis(Long.parseLong(args[4]));
+            long compactInterval = TimeUnit.SECONDS.toMillis(
+                    args.length == 6 ? Long.parseLong(args[5]) : 3600);
+            long lastCompaction = System.currentTimeMillis();
+            while (true) {
+                try {
+                    backup.backup();
+                    if (System.currentTimeMillis() - lastCompaction >= compactInterval) {
+                        backup.compact();
+                        lastCompaction = System.currentTimeMillis();
+                    }
+                } catch (IOException e) {
+                    LOG.error("Backup failed", e);
+                }
+                Thread.sleep(interval);
+            }
+        } else {
+            printUsage();
+        }
+    }
+}
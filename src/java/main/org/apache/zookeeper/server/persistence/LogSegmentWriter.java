@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Checksum;
+
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.jute.OutputArchive;
+import org.apache.jute.Record;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes txns to a new log file in the format of {@link FileTxnLog},
+ * without preallocation. The file is only renamed to its final name
+ * by {@link #finish()}.
+ */
+class LogSegmentWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(LogSegmentWriter.class);
+
+    /** prefix of files that are still being written */
+    static final String TMP_PREFIX = "tmp.";
+
+    private final File dir;
+    private final ChecksumAlgorithm checksum =
+        ChecksumAlgorithm.configured();
+    private File tmp;
+    private FileOutputStream fos;
+    private BufferedOutputStream out;
+    private OutputArchive oa;
+
+    LogSegmentWriter(File dir) {
+        this.dir = dir;
+    }
+
+    void append(TxnHeader hdr, Record txn) throws IOException {
+        if (oa == null) {
+            tmp = new File(dir, TMP_PREFIX
+                    + Util.makeLogName(hdr.getZxid()));
+            fos = new FileOutputStream(tmp);
+            out = new BufferedOutputStream(fos);
+            oa = BinaryOutputArchive.getArchive(out);
+            FileTxnLog.writeHeader(oa, new FileHeader(
+                    FileTxnLog.TXNLOG_MAGIC,
+                    checksum == ChecksumAlgorithm.ADLER32
+                        ? FileTxnLog.VERSION : FileTxnLog.CHECKSUM_VERSION,
+                    0), checksum);
+        }
+        byte[] buf = Util.marshallTxnEntry(hdr, txn);
+        Checksum crc = checksum.create();
+        crc.update(buf, 0, buf.length);
+        oa.writeLong(crc.getValue(), "txnEntryCRC");
+        Util.writeTxnBytes(oa, buf);
+    }
+
+    /**
+     * @return the complete log file, null if no txn was appended
+     */
+    File finish() throws IOException {
+        if (oa == null) {
+            return null;
+        }
+        out.flush();
+        fos.getFD().sync();
+        out.close();
+        File file = new File(dir, tmp.getName().substring(TMP_PREFIX.length()));
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        oa = null;
+        tmp = null;
+        return file;
+    }
+
+    /**
+     * Drops the file if it was not finished.
+     */
+    void abort() {
+        if (tmp == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing " + tmp, e);
+        }
+        if (!tmp.delete()) {
+            LOG.warn("Unable to delete " + tmp);
+        }
+        tmp = null;
+    }
+}
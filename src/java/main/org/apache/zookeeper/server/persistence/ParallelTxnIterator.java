@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.persistence;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jute.Record;
+import org.apache.zookeeper.server.persistence.FileTxnLog.FileTxnIterator;
+import org.apache.zookeeper.server.persistence.TxnLog.TxnIterator;
+import org.apache.zookeeper.server.util.SerializeUtils;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A txn iterator that reads the txn logs ahead on a thread of its own and
+ * decodes the txns on a pool of threads, while still returning them in log
+ * order to the single thread applying them. The reader thread does the I/O
+ * and the CRC checks, in batches of {@link #BATCH_SIZE} txns; each batch is
+ * decoded by one of the decoder threads.
+ * <p>
+ * An I/O or CRC error is thrown by the call to {@link #next()} that would
+ * have returned the failed txn, as with the wrapped iterator. Any other
+ * failure of the reader thread is thrown there as an IOException too.
+ */
+class ParallelTxnIterator implements TxnIterator {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelTxnIterator.class);
+
+    static final int BATCH_SIZE = 256;
+
+    private static final class Batch {
+        final TxnHeader[] headers;
+        final Record[] txns;
+
+        Batch(int size) {
+            headers = new TxnHeader[size];
+            txns = new Record[size];
+        }
+    }
+
+    private final FileTxnIterator source;
+    private final ExecutorService decoders;
+    /** batches in log order, a null batch marks the end of the logs */
+    private final BlockingQueue<Future<Batch>> batches;
+    private final Thread reader;
+
+    private Batch current;
+    private int position;
+    private boolean done;
+
+    private TxnHeader hdr;
+    private Record record;
+
+    /**
+     * @param source iterator positioned on the first txn to return; it is
+     *        read by another thread from now on and closed by this iterator
+     * @param threads number of decoder threads
+     */
+    ParallelTxnIterator(FileTxnIterator source, int threads) {
+        this.source = source;
+        this.hdr = source.getHeader();
+        this.record = source.getTxn();
+        this.batches = new ArrayBlockingQueue<Future<Batch>>(threads * 4);
+        if (hdr == null) {
+            done = true;
+            decoders = null;
+            reader = null;
+            return;
+        }
+        final AtomicInteger threadNum = new AtomicInteger();
+        decoders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "TxnLogDecoder-" + threadNum.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reader = new Thread("TxnLogReader") {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readAhead() {
+        try {
+            while (true) {
+                final byte[][] raw = new byte[BATCH_SIZE][];
+                int count = 0;
+                IOException failure = null;
+                try {
+                    byte[] bytes;
+                    while (count < BATCH_SIZE
+                            && (bytes = source.nextTxnBytes()) != null) {
+                        raw[count++] = bytes;
+                    }
+                } catch (IOException e) {
+                    // the txns read so far still have to be applied
+                    failure = e;
+                } catch (Throwable t) {
+                    // e.g. a truncated log, next() must not wait forever
+                    failure = new IOException("Failed to read txn logs", t);
+                }
+                if (count > 0) {
+                    final int size = count;
+                    batches.put(decoders.submit(new Callable<Batch>() {
+                        @Override
+                        public Batch call() throws IOException {
+                            return decode(raw, size);
+                        }
+                    }));
+                }
+                if (failure != null) {
+                    batches.put(failed(failure));
+                    return;
+                }
+                if (count < BATCH_SIZE) {
+                    batches.put(completed(null));
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    private static Batch decode(byte[][] raw, int size) throws IOException {
+        Batch batch = new Batch(size);
+        for (int i = 0; i < size; i++) {
+            batch.headers[i] = new TxnHeader();
+            batch.txns[i] = SerializeUtils.deserializeTxn(raw[i], batch.headers[i]);
+        }
+        return batch;
+    }
+
+    private static Future<Batch> completed(final Batch batch) {
+        FutureTask<Batch> f = new FutureTask<Batch>(new Callable<Batch>() {
+            @Override
+            public Batch call() {
+                return batch;
+            }
+        });
+        f.run();
+        return f;
+    }
+
+    private static Future<Batch> failed(final IOException e) {
+        FutureTask<Batch> f = new FutureTask<Batch>(new Callable<Batch>() {
+            @Override
+            public Batch call() throws IOException {
+                throw e;
+            }
+        });
+        f.run();
+        return f;
+    }
+
+    @Override
+    public TxnHeader getHeader() {
+        return hdr;
+    }
+
+    @Override
+    public Record getTxn() {
+        return record;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (done) {
+            return false;
+        }
+        while (current == null || position == current.headers.length) {
+            Batch batch;
+            try {
+                batch = batches.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading txn logs");
+            } catch (ExecutionException e) {
+                done = true;
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to decode txn", e.getCause());
+            }
+            if (batch == null) {
+                done = true;
+                hdr = null;
+                record = null;
+                return false;
+            }
+            current = batch;
+            position = 0;
+        }
+        hdr = current.headers[position];
+        record = current.txns[position];
+        // let the batch be collected once it has been returned
+        current.headers[position] = null;
+        current.txns[position] = null;
+        position++;
+        return true;
+    }
+
+    @Override
+    public long getStorageSize() throws IOException {
+        return source.getStorageSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.interrupt();
+            decoders.shutdownNow();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted waiting for the txn log reader to stop");
+                Thread.currentThread().interrupt();
+            }
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,521 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jute.Record;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.server.ByteBufferInputStream;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.persistence.TxnLog.TxnIterator;
+import org.apache.zookeeper.txn.CreateContainerTxn;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.DeleteTxn;
+import org.apache.zookeeper.txn.MultiTxn;
+import org.apache.zookeeper.txn.SetACLTxn;
+import org.apache.zookeeper.txn.SetDataTxn;
+import org.apache.zookeeper.txn.Txn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rewrites the snapshots and txn logs of a server into a snapshot at a
+ * given zxid followed by a single log holding the later txns, without the
+ * txns whose effect is superseded by a later txn:
+ * <ul>
+ * <li>a setData or setACL followed by another one, or a delete, of the
+ * same node</li>
+ * <li>a create and delete of a node nothing else happened to, once a later
+ * create under the same parent sets its cversion and pzxid again</li>
+ * <li>a createSession and closeSession of a session without other txns</li>
+ * <li>failed txns</li>
+ * </ul>
+ * The state of the tree after the last txn is unchanged, so the result is
+ * loaded by {@link FileTxnSnapLog#restore} like any data directory, but the
+ * dropped zxids can no longer be restored to. The txns under /zookeeper and
+ * the ops of a multi are always kept.
+ * <p>
+ * The source directories are only read, so they may belong to a running
+ * server; a txn the server is still writing ends the input. The log is read
+ * twice, once to find the superseded txns and once to copy the others,
+ * which keeps only paths and zxids in memory. Loading the snapshot needs
+ * the whole data tree.
+ */
+public class TxnLogCompactor {
+    private static final Logger LOG = LoggerFactory.getLogger(TxnLogCompactor.class);
+
+    private final File snapDir;
+    private final File logDir;
+
+    private long inputTxns;
+    private long outputTxns;
+    private long inputBytes;
+    private long outputBytes;
+
+    /**
+     * @param dataDir the snapshot directory of the server
+     * @param dataLogDir the txn log directory of the server
+     */
+    public TxnLogCompactor(File dataDir, File dataLogDir) {
+        this.snapDir = new File(dataDir, FileTxnSnapLog.version + FileTxnSnapLog.VERSION);
+        this.logDir = new File(dataLogDir, FileTxnSnapLog.version + FileTxnSnapLog.VERSION);
+    }
+
+    /**
+     * Writes the snapshot at the zxid and the compacted log of the txns
+     * after it to the version-2 directory of outputDir.
+     *
+     * @param zxid the zxid of the snapshot, the last logged zxid to fold
+     * all the txns into the snapshot
+     * @param outputDir the data directory to write to, which must not hold
+     * snapshots or txn logs
+     * @return the zxid of the last txn in the output
+     */
+    public long compact(long zxid, File outputDir) throws IOException {
+        File targetDir = new File(outputDir, FileTxnSnapLog.version + FileTxnSnapLog.VERSION);
+        if (!targetDir.isDirectory() && !targetDir.mkdirs()) {
+            throw new IOException("Unable to create " + targetDir);
+        }
+        for (File f : targetDir.listFiles()) {
+            if (Util.getZxidFromName(f.getName(), "snapshot") >= 0
+                    || Util.getZxidFromName(f.getName(), "log") >= 0) {
+                throw new IOException(targetDir + " already holds snapshots"
+                        + " or txn logs");
+            }
+        }
+        inputTxns = 0;
+        outputTxns = 0;
+
+        File base = null;
+        for (File f : Util.sortDataDir(snapDir.listFiles(), "snapshot", false)) {
+            long snapZxid = Util.getZxidFromName(f.getName(), "snapshot");
+            if (snapZxid >= 0 && snapZxid <= zxid && Util.isValidSnapshot(f)) {
+                base = f;
+                break;
+            }
+        }
+        if (base == null) {
+            throw new IOException("No snapshot at or before 0x"
+                    + Long.toHexString(zxid) + " in " + snapDir);
+        }
+        inputBytes = base.length();
+
+        Planner planner = new Planner();
+        long lastZxid = snapshot(base, zxid, targetDir, planner);
+        long snapZxid = lastZxid;
+
+        LogSegmentWriter log = new LogSegmentWriter(targetDir);
+        TxnIterator itr = new FileTxnLog(logDir).read(snapZxid + 1);
+        try {
+            // stop at the last planned txn, before the entry after it
+            // that may be torn
+            TxnHeader hdr = itr.getHeader();
+            while (hdr != null && hdr.getZxid() <= planner.lastZxid) {
+                if (hdr.getZxid() > snapZxid
+                        && !planner.dropped.contains(hdr.getZxid())) {
+                    log.append(hdr, itr.getTxn());
+                    lastZxid = hdr.getZxid();
+                    outputTxns++;
+                }
+                if (hdr.getZxid() == planner.lastZxid || !itr.next()) {
+                    break;
+                }
+                hdr = itr.getHeader();
+            }
+            File file = log.finish();
+            outputBytes += file == null ? 0 : file.length();
+        } finally {
+            log.abort();
+            itr.close();
+        }
+        LOG.info("Compacted {} txns into {} after a snapshot at 0x{},"
+                + " {} bytes into {} bytes", new Object[] { inputTxns,
+                        outputTxns, Long.toHexString(snapZxid), inputBytes,
+                        outputBytes });
+        return lastZxid;
+    }
+
+    /**
+     * Writes the snapshot at the zxid, and plans the compaction of the
+     * txns after it.
+     *
+     * @return the zxid of the snapshot
+     */
+    private long snapshot(File base, long zxid, File targetDir,
+            Planner planner) throws IOException {
+        DataTree dt = new DataTree();
+        Map<Long, Integer> sessions = new HashMap<Long, Integer>();
+        FileSnap snap = new FileSnap(snapDir);
+        snap.deserialize(dt, sessions, base);
+        dt.lastProcessedZxid = Util.getZxidFromName(base.getName(), "snapshot");
+        FileTxnSnapLog replayer = new FileTxnSnapLog(logDir.getParentFile(),
+                snapDir.getParentFile());
+        long snapZxid = dt.lastProcessedZxid;
+        TxnIterator itr = new FileTxnLog(logDir).read(snapZxid + 1);
+        try {
+            TxnHeader hdr = itr.getHeader();
+            while (hdr != null) {
+                if (hdr.getZxid() > dt.lastProcessedZxid) {
+                    inputTxns++;
+                    inputBytes += entrySize(hdr, itr.getTxn());
+                    if (hdr.getZxid() <= zxid) {
+                        try {
+                            replayer.processTransaction(hdr, dt, sessions,
+                                    itr.getTxn());
+                        } catch (KeeperException.NoNodeException e) {
+                            throw new IOException("Failed to process txn 0x"
+                                    + Long.toHexString(hdr.getZxid()), e);
+                        }
+                        snapZxid = hdr.getZxid();
+                    } else {
+                        planner.plan(hdr, itr.getTxn());
+                    }
+                }
+                try {
+                    if (!itr.next()) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    // most likely a txn the server is still writing
+                    LOG.warn("Stopping at txn log entry after 0x"
+                            + Long.toHexString(hdr.getZxid()) + ": " + e);
+                    break;
+                }
+                hdr = itr.getHeader();
+            }
+        } finally {
+            itr.close();
+            replayer.close();
+        }
+        planner.finish();
+
+        File file = new File(targetDir, Util.makeSnapshotName(snapZxid));
+        File tmp = new File(targetDir, LogSegmentWriter.TMP_PREFIX + file.getName());
+        snap.serialize(dt, sessions, tmp);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        outputBytes = file.length();
+        return snapZxid;
+    }
+
+    /**
+     * @return the size of a txn in a log: its checksum, length, the
+     * serialized txn and the end of record marker
+     */
+    private static long entrySize(TxnHeader hdr, Record txn)
+            throws IOException {
+        return 8 + 4 + Util.marshallTxnEntry(hdr, txn).length + 1;
+    }
+
+    public long getInputTxns() {
+        return inputTxns;
+    }
+
+    public long getOutputTxns() {
+        return outputTxns;
+    }
+
+    /**
+     * @return the size of the snapshot and of the txns that were read,
+     * without the preallocated space of the logs
+     */
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    /**
+     * @return the size of the snapshot and txn log that were written
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * Finds the txns to drop in a single pass over the log. The zxid of a
+     * txn that can be dropped once a later txn is seen is remembered per
+     * path until then.
+     */
+    static class Planner {
+        final Set<Long> dropped = new HashSet<Long>();
+        long lastZxid = -1;
+
+        /** the last setData of a node, dropped if superseded */
+        private final Map<String, Long> lastSetData = new HashMap<String, Long>();
+        private final Map<String, Long> lastSetAcl = new HashMap<String, Long>();
+        /** nodes created in the log that nothing else happened to yet */
+        private final Map<String, Long> created = new HashMap<String, Long>();
+        /** create and delete pairs waiting for a later create under a parent */
+        private final Map<String, List<long[]>> pendingPairs =
+            new HashMap<String, List<long[]>>();
+        /** owners of the ephemerals created in the log */
+        private final Map<String, Long> ephemeralOwners = new HashMap<String, Long>();
+        private final Map<Long, Set<String>> ephemerals = new HashMap<Long, Set<String>>();
+        /** sessions created in the log without other txns yet */
+        private final Map<Long, Long> idleSessions = new HashMap<Long, Long>();
+
+        void plan(TxnHeader hdr, Record txn) throws IOException {
+            long zxid = hdr.getZxid();
+            lastZxid = zxid;
+            if (hdr.getType() != OpCode.createSession
+                    && hdr.getType() != OpCode.closeSession) {
+                idleSessions.remove(hdr.getClientId());
+            }
+            switch (hdr.getType()) {
+            case OpCode.create:
+            case OpCode.create2:
+                CreateTxn create = (CreateTxn) txn;
+                onCreate(create.getPath(), create.getParentCVersion(),
+                        create.getEphemeral() ? hdr.getClientId() : 0, zxid,
+                        true);
+                break;
+            case OpCode.createContainer:
+                CreateContainerTxn container = (CreateContainerTxn) txn;
+                onCreate(container.getPath(), container.getParentCVersion(),
+                        0, zxid, true);
+                break;
+            case OpCode.delete:
+            case OpCode.deleteContainer:
+                onDelete(((DeleteTxn) txn).getPath(), zxid, true);
+                break;
+            case OpCode.setData:
+                onSetData(((SetDataTxn) txn).getPath(), zxid, true);
+                break;
+            case OpCode.setACL:
+                onSetAcl(((SetACLTxn) txn).getPath(), zxid, true);
+                break;
+            case OpCode.createSession:
+                idleSessions.put(hdr.getClientId(), zxid);
+                break;
+            case OpCode.closeSession:
+                Long opened = idleSessions.remove(hdr.getClientId());
+                if (opened != null) {
+                    dropped.add(opened);
+                    dropped.add(zxid);
+                }
+                Set<String> paths = ephemerals.remove(hdr.getClientId());
+                if (paths != null) {
+                    for (String path : new ArrayList<String>(paths)) {
+                        onDelete(path, zxid, false);
+                    }
+                }
+                break;
+            case OpCode.error:
+                dropped.add(zxid);
+                break;
+            case OpCode.multi:
+                planMulti(hdr, (MultiTxn) txn);
+                break;
+            default:
+                break;
+            }
+        }
+
+        private void planMulti(TxnHeader hdr, MultiTxn multi)
+                throws IOException {
+            for (Txn sub : multi.getTxns()) {
+                if (sub.getType() == OpCode.error) {
+                    // a failed multi has no effect
+                    dropped.add(hdr.getZxid());
+                    return;
+                }
+            }
+            for (Txn sub : multi.getTxns()) {
+                ByteBuffer bb = ByteBuffer.wrap(sub.getData());
+                switch (sub.getType()) {
+                case OpCode.create:
+                    CreateTxn create = new CreateTxn();
+                    ByteBufferInputStream.byteBuffer2Record(bb, create);
+                    onCreate(create.getPath(), create.getParentCVersion(),
+                            create.getEphemeral() ? hdr.getClientId() : 0,
+                            hdr.getZxid(), false);
+                    break;
+                case OpCode.createContainer:
+                    CreateContainerTxn container = new CreateContainerTxn();
+                    ByteBufferInputStream.byteBuffer2Record(bb, container);
+                    onCreate(container.getPath(),
+                            container.getParentCVersion(), 0, hdr.getZxid(),
+                            false);
+                    break;
+                case OpCode.delete:
+                case OpCode.deleteContainer:
+                    DeleteTxn delete = new DeleteTxn();
+                    ByteBufferInputStream.byteBuffer2Record(bb, delete);
+                    onDelete(delete.getPath(), hdr.getZxid(), false);
+                    break;
+                case OpCode.setData:
+                    SetDataTxn setData = new SetDataTxn();
+                    ByteBufferInputStream.byteBuffer2Record(bb, setData);
+                    onSetData(setData.getPath(), hdr.getZxid(), false);
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+
+        private static boolean isSystem(String path) {
+            return path.equals("/zookeeper") || path.startsWith("/zookeeper/");
+        }
+
+        private static String parentOf(String path) {
+            int lastSlash = path.lastIndexOf('/');
+            return lastSlash == 0 ? "/" : path.substring(0, lastSlash);
+        }
+
+        private void onSetData(String path, long zxid, boolean droppable) {
+            if (isSystem(path)) {
+                return;
+            }
+            Long previous = lastSetData.remove(path);
+            if (previous != null) {
+                dropped.add(previous);
+            }
+            if (droppable) {
+                lastSetData.put(path, zxid);
+            } else {
+                created.remove(path);
+            }
+        }
+
+        private void onSetAcl(String path, long zxid, boolean droppable) {
+            if (isSystem(path)) {
+                return;
+            }
+            Long previous = lastSetAcl.remove(path);
+            if (previous != null) {
+                dropped.add(previous);
+            }
+            if (droppable) {
+                lastSetAcl.put(path, zxid);
+            } else {
+                created.remove(path);
+            }
+        }
+
+        private void onCreate(String path, int parentCVersion, long owner,
+                long zxid, boolean droppable) {
+            if (isSystem(path)) {
+                return;
+            }
+            String parent = parentOf(path);
+            // the parent now has a child
+            created.remove(parent);
+            // this create sets the cversion and pzxid of the parent, as
+            // the dropped pairs would have, unless it only increments
+            // the cversion
+            List<long[]> pairs = pendingPairs.remove(parent);
+            if (pairs != null && parentCVersion >= 0) {
+                for (long[] pair : pairs) {
+                    dropped.add(pair[0]);
+                    dropped.add(pair[1]);
+                }
+            }
+            if (droppable) {
+                created.put(path, zxid);
+            }
+            if (owner != 0) {
+                ephemeralOwners.put(path, owner);
+                Set<String> paths = ephemerals.get(owner);
+                if (paths == null) {
+                    paths = new HashSet<String>();
+                    ephemerals.put(owner, paths);
+                }
+                paths.add(path);
+            }
+        }
+
+        private void onDelete(String path, long zxid, boolean droppable) {
+            if (isSystem(path)) {
+                return;
+            }
+            onSetData(path, zxid, true);
+            lastSetData.remove(path);
+            onSetAcl(path, zxid, true);
+            lastSetAcl.remove(path);
+            Long owner = ephemeralOwners.remove(path);
+            if (owner != null) {
+                Set<String> paths = ephemerals.get(owner);
+                if (paths != null) {
+                    paths.remove(path);
+                }
+            }
+            // a deleted parent no longer needs the pairs under it dropped
+            // by a later create
+            List<long[]> pairs = pendingPairs.remove(path);
+            if (pairs != null) {
+                for (long[] pair : pairs) {
+                    dropped.add(pair[0]);
+                    dropped.add(pair[1]);
+                }
+            }
+            Long createZxid = created.remove(path);
+            if (createZxid != null && droppable) {
+                String parent = parentOf(path);
+                List<long[]> parentPairs = pendingPairs.get(parent);
+                if (parentPairs == null) {
+                    parentPairs = new ArrayList<long[]>();
+                    pendingPairs.put(parent, parentPairs);
+                }
+                parentPairs.add(new long[] { createZxid, zxid });
+            }
+        }
+
+        /**
+         * Called after the last txn. The last txn is kept so that the
+         * restored tree ends at its zxid.
+         */
+        void finish() {
+            dropped.remove(lastZxid);
+        }
+    }
+
+    static void printUsage() {
+        System.out.println("TxnLogCompactor dataDir dataLogDir outputDir [zxid]");
+        System.out.println("\tzxid -- the zxid of the snapshot, e.g."
+                + " 0x100000012, defaults to the last logged txn");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || args.length > 4) {
+            printUsage();
+        }
+        TxnLogCompactor compactor = new TxnLogCompactor(new File(args[0]),
+                new File(args[1]));
+        long zxid = args.length == 4 ? Long.decode(args[3]) : Long.MAX_VALUE;
+        long lastZxid = compactor.compact(zxid, new File(args[2]));
+        System.out.println("Compacted " + compactor.getInputTxns() + " txns into "
+                + compactor.getOutputTxns() + " up to 0x"
+                + Long.toHexString(lastZxid));
+        System.out.println("Size: " + compactor.getInputBytes() + " -> "
+                + compactor.getOutputBytes() + " bytes");
+    }
+}
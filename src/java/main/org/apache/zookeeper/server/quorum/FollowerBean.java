@@ -47,4 +47,16 @@ public String getLastQueuedZxid() {
     public int getPendingRevalidationCount() {
         return follower.getPendingRevalidationsCount();
     }
+
+    public long getSessionTouchCount() {
+        return follower.getSessionTouchCount();
+    }
+
+    public long getSessionTouchBytes() {
+        return follower.getSessionTouchBytes();
+    }
+
+    public long getSessionTouchBytesSaved() {
+        return follower.getSessionTouchBytesSaved();
+    }
 }
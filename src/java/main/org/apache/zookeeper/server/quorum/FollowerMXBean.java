@@ -38,4 +38,19 @@ public interface FollowerMXBean extends ZooKeeperServerMXBean {
      * @return count of pending revalidations
      */
     public int getPendingRevalidationCount();
+
+    /**
+     * @return number of session touches sent to the leader
+     */
+    public long getSessionTouchCount();
+
+    /**
+     * @return bytes of session touch data sent to the leader
+     */
+    public long getSessionTouchBytes();
+
+    /**
+     * @return bytes saved by the compact session touch encoding
+     */
+    public long getSessionTouchBytesSaved();
 }
@@ -82,7 +82,8 @@ protected void setupRequestProcessors() {
     private synchronized void setupContainerManager() {
         containerManager = new ContainerManager(getZKDatabase(), prepRequestProcessor,
                 Integer.getInteger("znode.container.checkIntervalMs", (int) TimeUnit.MINUTES.toMillis(1)),
-                Integer.getInteger("znode.container.maxPerMinute", 10000)
+                Integer.getInteger("znode.container.maxPerMinute", 10000),
+                Integer.getInteger("znode.container.maxBatchSize", 100)
                 );
     }
 
@@ -120,6 +121,22 @@ public boolean touch(long sess, int to) {
         return sessionTracker.touchSession(sess, to);
     }
 
+    /**
+     * Applies the session touches of one learner ping.
+     */
+    public void touch(SessionTouchCodec.Touches touches) {
+        long start = System.nanoTime();
+        int n = touches.size();
+        for (int i = 0; i < n; i++) {
+            sessionTracker.touchSession(touches.sessionIds[i],
+                    touches.timeouts[i]);
+        }
+        if (LOG.isDebugEnabled() && n > 0) {
+            LOG.debug("Applied " + n + " session touches in "
+                    + (System.nanoTime() - start) / 1000 + "us");
+        }
+    }
+
     public boolean checkIfValidGlobalSession(long sess, int to) {
         if (self.areLocalSessionsEnabled() &&
             !upgradeableSessionTracker.isGlobalSession(sess)) {
@@ -30,8 +30,8 @@
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.BinaryOutputArchive;
@@ -88,6 +88,21 @@ public Socket getSocket() {
         LOG.info("TCP NoDelay set to: " + nodelay);
     }   
     
+    /**
+     * Send session touches to the leader in the compact encoding of
+     * {@link SessionTouchCodec}. Only enable this once every server in the
+     * ensemble runs a version that can decode it.
+     */
+    public static final String COMPACT_SESSION_TOUCHES =
+        "zookeeper.learner.compactSessionTouches";
+
+    private final boolean compactSessionTouches =
+        Boolean.getBoolean(COMPACT_SESSION_TOUCHES);
+
+    private final AtomicLong sessionTouchCount = new AtomicLong();
+    private final AtomicLong sessionTouchBytes = new AtomicLong();
+    private final AtomicLong sessionTouchBytesSaved = new AtomicLong();
+
     final ConcurrentHashMap<Long, ServerCnxn> pendingRevalidations =
         new ConcurrentHashMap<Long, ServerCnxn>();
     
@@ -598,16 +613,42 @@ protected void revalidate(QuorumPacket qp) throws IOException {
         
     protected void ping(QuorumPacket qp) throws IOException {
         // Send back the ping with our session data
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(bos);
         Map<Long, Integer> touchTable = zk.getTouchSnapshot();
-        for (Entry<Long, Integer> entry : touchTable.entrySet()) {
-            dos.writeLong(entry.getKey());
-            dos.writeInt(entry.getValue());
+        int touches = touchTable.size();
+        long start = System.nanoTime();
+        byte[] data;
+        long saved = 0;
+        if (compactSessionTouches) {
+            data = SessionTouchCodec.encodeCompact(touchTable);
+            saved = (long) touches * SessionTouchCodec.LEGACY_ENTRY_SIZE
+                - data.length;
+        } else {
+            data = SessionTouchCodec.encodeLegacy(touchTable);
+        }
+        long encodeNanos = System.nanoTime() - start;
+        sessionTouchCount.addAndGet(touches);
+        sessionTouchBytes.addAndGet(data.length);
+        sessionTouchBytesSaved.addAndGet(saved);
+        if (LOG.isDebugEnabled() && touches > 0) {
+            LOG.debug("Sending " + touches + " session touches in "
+                    + data.length + " bytes (" + saved + " bytes saved), encoded in "
+                    + encodeNanos / 1000 + "us");
         }
-        qp.setData(bos.toByteArray());
+        qp.setData(data);
         writePacket(qp, true);
     }
+
+    public long getSessionTouchCount() {
+        return sessionTouchCount.get();
+    }
+
+    public long getSessionTouchBytes() {
+        return sessionTouchBytes.get();
+    }
+
+    public long getSessionTouchBytesSaved() {
+        return sessionTouchBytesSaved.get();
+    }
     
     
     /**
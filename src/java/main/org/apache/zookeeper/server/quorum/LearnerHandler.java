@@ -542,18 +542,12 @@ public void run() {
                     break;
                 case Leader.PING:
                     // Process the touches
+                    leader.zk.touch(SessionTouchCodec.decode(qp.getData()));
+                    break;
+                case Leader.REVALIDATE:
                     ByteArrayInputStream bis = new ByteArrayInputStream(qp
                             .getData());
                     DataInputStream dis = new DataInputStream(bis);
-                    while (dis.available() > 0) {
-                        long sess = dis.readLong();
-                        int to = dis.readInt();
-                        leader.zk.touch(sess, to);
-                    }
-                    break;
-                case Leader.REVALIDATE:
-                    bis = new ByteArrayInputStream(qp.getData());
-                    dis = new DataInputStream(bis);
                     long id = dis.readLong();
                     int to = dis.readInt();
                     ByteArrayOutputStream bos = new ByteArrayOutputStream();
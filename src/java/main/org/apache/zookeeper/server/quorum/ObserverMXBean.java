@@ -34,4 +34,19 @@ public interface ObserverMXBean extends ZooKeeperServerMXBean {
      * @return socket address
      */
     public String getQuorumAddress();
+
+    /**
+     * @return number of session touches sent to the leader
+     */
+    public long getSessionTouchCount();
+
+    /**
+     * @return bytes of session touch data sent to the leader
+     */
+    public long getSessionTouchBytes();
+
+    /**
+     * @return bytes saved by the compact session touch encoding
+     */
+    public long getSessionTouchBytesSaved();
 }
@@ -44,6 +44,7 @@
 import org.apache.zookeeper.common.AtomicFileWritingIdiom.OutputStreamStatement;
 import org.apache.zookeeper.common.AtomicFileWritingIdiom.WriterStatement;
 import org.apache.zookeeper.server.ZooKeeperServer;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
 import org.apache.zookeeper.server.quorum.QuorumPeer.LearnerType;
 import org.apache.zookeeper.server.quorum.QuorumPeer.QuorumServer;
 import org.apache.zookeeper.server.quorum.flexible.QuorumHierarchical;
@@ -63,6 +64,10 @@ public class QuorumPeerConfig {
     protected InetSocketAddress secureClientPortAddress;
     protected File dataDir;
     protected File dataLogDir;
+    protected File[] txnLogMirrorDirs = FileTxnSnapLog.parseMirrorDirs(
+            System.getProperty(FileTxnSnapLog.TXN_LOG_MIRROR_DIRS, ""));
+    protected String txnLogSyncPolicy =
+            System.getProperty(FileTxnSnapLog.TXN_LOG_SYNC_POLICY, "all");
     protected String dynamicConfigFileStr = null;
     protected String configFileStr = null;
     protected int tickTime = ZooKeeperServer.DEFAULT_TICK_TIME;
@@ -226,6 +231,10 @@ public void parseProperties(Properties zkProp)
                 dataDir = vff.create(value);
             } else if (key.equals("dataLogDir")) {
                 dataLogDir = vff.create(value);
+            } else if (key.equals("txnLogMirrorDirs")) {
+                txnLogMirrorDirs = FileTxnSnapLog.parseMirrorDirs(value);
+            } else if (key.equals("txnLogSyncPolicy")) {
+                txnLogSyncPolicy = value;
             } else if (key.equals("clientPort")) {
                 clientPort = Integer.parseInt(value);
             } else if (key.equals("localSessionsEnabled")) {
@@ -643,6 +652,8 @@ public void checkValidity() throws IOException, ConfigException{
     public InetSocketAddress getSecureClientPortAddress() { return secureClientPortAddress; }
     public File getDataDir() { return dataDir; }
     public File getDataLogDir() { return dataLogDir; }
+    public File[] getTxnLogMirrorDirs() { return txnLogMirrorDirs; }
+    public String getTxnLogSyncPolicy() { return txnLogSyncPolicy; }
     public int getTickTime() { return tickTime; }
     public int getMaxClientCnxns() { return maxClientCnxns; }
     public int getMinSessionTimeout() { return minSessionTimeout; }
@@ -113,7 +113,8 @@ protected void initializeAndRun(String[] args)
         // Start and schedule the the purge task
         DatadirCleanupManager purgeMgr = new DatadirCleanupManager(config
                 .getDataDir(), config.getDataLogDir(), config
-                .getSnapRetainCount(), config.getPurgeInterval());
+                .getTxnLogMirrorDirs(), config.getSnapRetainCount(),
+                config.getPurgeInterval());
         purgeMgr.start();
 
         if (args.length == 1 && config.isDistributed()) {
@@ -155,7 +156,9 @@ public void runFromConfig(QuorumPeerConfig config) throws IOException, AdminServ
           quorumPeer = new QuorumPeer();
           quorumPeer.setTxnFactory(new FileTxnSnapLog(
                       config.getDataLogDir(),
-                      config.getDataDir()));
+                      config.getDataDir(),
+                      config.getTxnLogMirrorDirs(),
+                      config.getTxnLogSyncPolicy()));
           quorumPeer.enableLocalSessions(config.areLocalSessionsEnabled());
           quorumPeer.enableLocalSessionsUpgrading(
               config.isLocalSessionsUpgradingEnabled());
@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the session touches a learner sends to the leader with each PING.
+ * <p>
+ * The legacy encoding is a plain sequence of (long sessionId, int timeout)
+ * pairs, 12 bytes per session. The compact encoding starts with
+ * {@link #COMPACT_MARKER}, followed by the distinct timeouts and then the
+ * session ids in ascending order, each as the unsigned varint delta to the
+ * previous id plus a varint index into the timeout table. Session ids
+ * created by the same server share their high order bytes and are mostly
+ * allocated sequentially, so the deltas are small and most sessions take
+ * two to four bytes.
+ * <p>
+ * {@link #decode(byte[])} accepts both encodings, so a leader can serve
+ * learners that have not enabled the compact encoding yet.
+ */
+public final class SessionTouchCodec {
+    /**
+     * Leads a compact touch table. No server hands out this session id: it
+     * would need server id 255 and every timestamp and counter bit set.
+     */
+    static final long COMPACT_MARKER = 0xffffffffffffff01L;
+
+    /** Size of one session in the legacy encoding */
+    static final int LEGACY_ENTRY_SIZE = 12;
+
+    /**
+     * Decoded session touches, as parallel primitive arrays.
+     */
+    public static class Touches {
+        final long[] sessionIds;
+        final int[] timeouts;
+
+        Touches(long[] sessionIds, int[] timeouts) {
+            this.sessionIds = sessionIds;
+            this.timeouts = timeouts;
+        }
+
+        public int size() {
+            return sessionIds.length;
+        }
+
+        public long getSessionId(int i) {
+            return sessionIds[i];
+        }
+
+        public int getTimeout(int i) {
+            return timeouts[i];
+        }
+    }
+
+    private SessionTouchCodec() {
+    }
+
+    public static byte[] encodeLegacy(Map<Long, Integer> touchTable)
+            throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(
+                touchTable.size() * LEGACY_ENTRY_SIZE);
+        DataOutputStream dos = new DataOutputStream(bos);
+        for (Map.Entry<Long, Integer> entry : touchTable.entrySet()) {
+            dos.writeLong(entry.getKey());
+            dos.writeInt(entry.getValue());
+        }
+        dos.close();
+        return bos.toByteArray();
+    }
+
+    public static byte[] encodeCompact(Map<Long, Integer> touchTable)
+            throws IOException {
+        // a concurrent table may still grow while we copy it
+        Map<Long, Integer> touches = new HashMap<Long, Integer>(touchTable);
+        long[] sessionIds = new long[touches.size()];
+        int n = 0;
+        for (Long sessionId : touches.keySet()) {
+            sessionIds[n++] = sessionId;
+        }
+        Arrays.sort(sessionIds);
+
+        Map<Integer, Integer> timeoutIndex = new HashMap<Integer, Integer>();
+        List<Integer> timeouts = new ArrayList<Integer>();
+        int[] indexes = new int[n];
+        for (int i = 0; i < n; i++) {
+            Integer timeout = touches.get(sessionIds[i]);
+            Integer index = timeoutIndex.get(timeout);
+            if (index == null) {
+                index = timeouts.size();
+                timeoutIndex.put(timeout, index);
+                timeouts.add(timeout);
+            }
+            indexes[i] = index;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(16 + n * 4);
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeLong(COMPACT_MARKER);
+        writeVarLong(dos, n);
+        writeVarLong(dos, timeouts.size());
+        for (int timeout : timeouts) {
+            writeVarLong(dos, timeout & 0xffffffffL);
+        }
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            // ids are sorted, so the delta is non-negative when taken as an
+            // unsigned value, even across the sign boundary
+            writeVarLong(dos, sessionIds[i] - prev);
+            writeVarLong(dos, indexes[i]);
+            prev = sessionIds[i];
+        }
+        dos.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Decodes a touch table in either encoding.
+     */
+    public static Touches decode(byte[] data) throws IOException {
+        if (data == null) {
+            return new Touches(new long[0], new int[0]);
+        }
+        DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(data));
+        if (data.length < 8 || dis.readLong() != COMPACT_MARKER) {
+            return decodeLegacy(data);
+        }
+
+        int n = readVarInt(dis);
+        int numTimeouts = readVarInt(dis);
+        // every entry takes at least one byte, bound the allocations
+        if (n > data.length || numTimeouts > data.length) {
+            throw new IOException("Truncated session touch table");
+        }
+        int[] timeoutTable = new int[numTimeouts];
+        for (int i = 0; i < timeoutTable.length; i++) {
+            timeoutTable[i] = (int) readVarLong(dis);
+        }
+        long[] sessionIds = new long[n];
+        int[] timeouts = new int[n];
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            prev += readVarLong(dis);
+            sessionIds[i] = prev;
+            int index = readVarInt(dis);
+            if (index >= timeoutTable.length) {
+                throw new IOException("Invalid timeout index " + index);
+            }
+            timeouts[i] = timeoutTable[index];
+        }
+        return new Touches(sessionIds, timeouts);
+    }
+
+    private static Touches decodeLegacy(byte[] data) throws IOException {
+        int n = data.length / LEGACY_ENTRY_SIZE;
+        DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(data));
+        long[] sessionIds = new long[n];
+        int[] timeouts = new int[n];
+        for (int i = 0; i < n; i++) {
+            sessionIds[i] = dis.readLong();
+            timeouts[i] = dis.readInt();
+        }
+        return new Touches(sessionIds, timeouts);
+    }
+
+    static void writeVarLong(DataOutputStream dos, long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            dos.writeByte((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        dos.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInputStream dis) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = dis.read();
+            if (b < 0) {
+                throw new EOFException("Truncated session touch table");
+            }
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed varint in session touch table");
+    }
+
+    private static int readVarInt(DataInputStream dis) throws IOException {
+        long v = readVarLong(dis);
+        if (v < 0 || v > Integer.MAX_VALUE) {
+            throw new IOException("Invalid count " + v
+                    + " in session touch table");
+        }
+        return (int) v;
+    }
+}
@@ -19,12 +19,16 @@
 package org.apache.zookeeper.server.util;
 
 import org.apache.jute.BinaryInputArchive;
+import org.apache.jute.Index;
 import org.apache.jute.InputArchive;
 import org.apache.jute.OutputArchive;
 import org.apache.jute.Record;
 import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.DataNode;
 import org.apache.zookeeper.server.DataTree;
 import org.apache.zookeeper.server.ZooTrace;
+import org.apache.zookeeper.server.persistence.FileSnap;
 import org.apache.zookeeper.txn.CreateContainerTxn;
 import org.apache.zookeeper.txn.CreateSessionTxn;
 import org.apache.zookeeper.txn.CreateTxn;
@@ -41,7 +45,9 @@
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -133,6 +139,43 @@ public static void deserializeSnapshot(DataTree dt,InputArchive ia,
         dt.deserialize(ia, "tree");
     }
 
+    /**
+     * Reads the sessions and the data tree of a snapshot, like
+     * {@link #deserializeSnapshot}, handing them to the visitor one at a
+     * time.
+     */
+    public static void visitSnapshot(InputArchive ia,
+            FileSnap.SnapshotVisitor visitor) throws IOException {
+        int count = ia.readInt("count");
+        while (count > 0) {
+            visitor.visitSession(ia.readLong("id"), ia.readInt("timeout"));
+            count--;
+        }
+        // the layout of ReferenceCountedACLCache.serialize
+        int acls = ia.readInt("map");
+        while (acls > 0) {
+            long id = ia.readLong("long");
+            List<ACL> aclList = new ArrayList<ACL>();
+            Index j = ia.startVector("acls");
+            while (!j.done()) {
+                ACL acl = new ACL();
+                acl.deserialize(ia, "acl");
+                aclList.add(acl);
+                j.incr();
+            }
+            visitor.visitAcl(id, aclList);
+            acls--;
+        }
+        // the layout of DataTree.serialize
+        String path = ia.readString("path");
+        while (!"/".equals(path)) {
+            DataNode node = new DataNode(null, 0L, null);
+            ia.readRecord(node, "node");
+            visitor.visitNode(path, node);
+            path = ia.readString("path");
+        }
+    }
+
     public static void serializeSnapshot(DataTree dt,OutputArchive oa,
             Map<Long, Integer> sessions) throws IOException {
         HashMap<Long, Integer> sessSnap = new HashMap<Long, Integer>(sessions);
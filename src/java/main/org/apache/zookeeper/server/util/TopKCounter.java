@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Counts the most frequent of an unbounded number of keys in bounded
+ * memory, with the Space-Saving algorithm: once capacity keys are counted,
+ * a new key replaces the key with the smallest count and takes over its
+ * count. A count therefore overestimates the true count by at most its
+ * {@link Entry#getError() error}, and any key seen more often than
+ * total / capacity times is counted.
+ * <p>
+ * This class is not thread safe.
+ */
+public class TopKCounter<K> {
+    public static final class Entry<K> implements Comparable<Entry<K>> {
+        private final K key;
+        private final long seq;
+        private long count;
+        private final long error;
+
+        private Entry(K key, long seq, long count, long error) {
+            this.key = key;
+            this.seq = seq;
+            this.count = count;
+            this.error = error;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the upper bound of the overestimation of the count
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public int compareTo(Entry<K> other) {
+            if (count != other.count) {
+                return count < other.count ? -1 : 1;
+            }
+            return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+        }
+    }
+
+    private final int capacity;
+    private final Map<K, Entry<K>> entries;
+    /** the entries by ascending count */
+    private final TreeSet<Entry<K>> byCount = new TreeSet<Entry<K>>();
+    private long seq;
+    private long total;
+
+    public TopKCounter(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.entries = new HashMap<K, Entry<K>>(Math.min(capacity, 1024) * 2);
+    }
+
+    public void add(K key, long count) {
+        total += count;
+        Entry<K> e = entries.get(key);
+        if (e != null) {
+            byCount.remove(e);
+            e.count += count;
+            byCount.add(e);
+            return;
+        }
+        long error = 0;
+        if (entries.size() == capacity) {
+            Entry<K> min = byCount.pollFirst();
+            entries.remove(min.key);
+            error = min.count;
+        }
+        e = new Entry<K>(key, seq++, error + count, error);
+        entries.put(key, e);
+        byCount.add(e);
+    }
+
+    /**
+     * @return the sum of all the counts added
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return up to n entries with the highest counts, highest first
+     */
+    public List<Entry<K>> top(int n) {
+        List<Entry<K>> top = new ArrayList<Entry<K>>(Math.min(n, entries.size()));
+        Iterator<Entry<K>> itr = byCount.descendingIterator();
+        while (top.size() < n && itr.hasNext()) {
+            top.add(itr.next());
+        }
+        return top;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Perms;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AuthDecisionCacheTest extends ZKTestCase {
+    private static final Logger LOG = LoggerFactory.getLogger(AuthDecisionCacheTest.class);
+
+    private ZooKeeperServer zks;
+    private DataTree dt;
+    private MockServerCnxn cnxn;
+
+    @Before
+    public void setUp() {
+        zks = new ZooKeeperServer();
+        dt = new DataTree();
+        cnxn = new MockServerCnxn();
+    }
+
+    /**
+     * @return an interned list of ip ACLs that grant READ to 10.0.0.0 up
+     * to 10.0.0.(size - 1)
+     */
+    private List<ACL> ipAcls(int size) {
+        List<ACL> acls = new ArrayList<ACL>();
+        for (int i = 0; i < size; i++) {
+            acls.add(new ACL(Perms.READ, new Id("ip", "10.0.0." + i)));
+        }
+        return dt.convertLong(dt.convertAcls(acls));
+    }
+
+    private boolean check(List<ACL> acl, int perm) {
+        try {
+            PrepRequestProcessor.checkACL(zks, cnxn, acl, perm,
+                    cnxn.getAuthInfo());
+            return true;
+        } catch (KeeperException.NoAuthException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testDecisionsAreCached() {
+        cnxn.addAuthInfo(new Id("ip", "10.0.0.3"));
+        List<ACL> acl = ipAcls(5);
+        Assert.assertTrue(check(acl, Perms.READ));
+        Assert.assertFalse(check(acl, Perms.WRITE));
+        Assert.assertTrue(check(acl, Perms.READ));
+        Assert.assertFalse(check(acl, Perms.WRITE));
+        Assert.assertEquals(2, zks.serverStats().getAclCacheHits());
+        Assert.assertEquals(2, zks.serverStats().getAclCacheMisses());
+        Assert.assertEquals(1, cnxn.getAclDecisions().size());
+
+        // lists that are not interned are never cached
+        Assert.assertTrue(check(new ArrayList<ACL>(acl), Perms.READ));
+        Assert.assertEquals(1, cnxn.getAclDecisions().size());
+        Assert.assertEquals(4, zks.serverStats().getAclCacheHits()
+                + zks.serverStats().getAclCacheMisses());
+    }
+
+    @Test
+    public void testAddAuthInvalidates() {
+        cnxn.addAuthInfo(new Id("ip", "10.0.0.7"));
+        List<ACL> acl = ipAcls(5);
+        Assert.assertFalse(check(acl, Perms.READ));
+        Assert.assertFalse(check(acl, Perms.READ));
+
+        cnxn.addAuthInfo(new Id("ip", "10.0.0.4"));
+        Assert.assertTrue(check(acl, Perms.READ));
+
+        cnxn.removeAuthInfo(new Id("ip", "10.0.0.4"));
+        Assert.assertFalse(check(acl, Perms.READ));
+    }
+
+    @Test
+    public void testSetACLUsesNewList() throws Exception {
+        cnxn.addAuthInfo(new Id("ip", "10.0.0.3"));
+        List<ACL> acls = new ArrayList<ACL>(ipAcls(5));
+        dt.createNode("/n", new byte[0], acls, 0, -1, 1, 1);
+        Assert.assertTrue(check(dt.convertLong(dt.getNode("/n").acl), Perms.READ));
+
+        dt.setACL("/n", acls.subList(0, 2), 1);
+        Assert.assertFalse(check(dt.convertLong(dt.getNode("/n").acl), Perms.READ));
+    }
+
+    /**
+     * Compares checks against a 50 entry ACL with and without the cache.
+     */
+    @Test
+    public void testBenchmark50EntryAcl() {
+        cnxn.addAuthInfo(new Id("ip", "10.0.1.1"));
+        List<ACL> acl = ipAcls(50);
+        int iterations = 50000;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Assert.assertFalse(check(new ArrayList<ACL>(acl), Perms.READ));
+        }
+        long uncachedNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Assert.assertFalse(check(acl, Perms.READ));
+        }
+        long cachedNs = System.nanoTime() - start;
+
+        LOG.info("50 entry ACL: uncached {} ns/check, cached {} ns/check",
+                uncachedNs / iterations, cachedNs / iterations);
+        Assert.assertEquals(iterations - 1, zks.serverStats().getAclCacheHits());
+    }
+}
@@ -246,6 +246,47 @@ public Void call() throws Exception {
         Assert.assertEquals(queue.poll(5, TimeUnit.SECONDS), "/four");
     }
 
+    @Test(timeout = 30000)
+    public void testCandidateIndex()
+            throws IOException, KeeperException, InterruptedException {
+        DataTree dataTree = serverFactory.getZooKeeperServer().getZKDatabase().getDataTree();
+        zk.create("/foo", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER);
+        Assert.assertEquals(0, dataTree.getContainerCandidateCount());
+
+        zk.create("/foo/bar", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.delete("/foo/bar", -1);
+        Assert.assertEquals(Collections.singleton("/foo"), dataTree.getContainerCandidates());
+
+        zk.create("/foo/bar", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        Assert.assertEquals(0, dataTree.getContainerCandidateCount());
+
+        zk.delete("/foo/bar", -1);
+        zk.delete("/foo", -1);
+        Assert.assertEquals(0, dataTree.getContainerCandidateCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testBatchedDeletion()
+            throws IOException, KeeperException, InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            zk.create("/foo" + i, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER);
+            zk.create("/foo" + i + "/bar", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            zk.delete("/foo" + i + "/bar", -1);
+        }
+
+        ContainerManager containerManager = new ContainerManager(serverFactory.getZooKeeperServer()
+                .getZKDatabase(), serverFactory.getZooKeeperServer().firstProcessor, 1, 100, 4);
+        Assert.assertEquals(10, containerManager.getBacklogSize());
+        containerManager.checkContainers();
+
+        Thread.sleep(1000);
+
+        Assert.assertEquals(0, containerManager.getBacklogSize());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertNull("Container should have been deleted", zk.exists("/foo" + i, false));
+        }
+    }
+
     private void createNoStatVerifyResult(String newName)
             throws KeeperException, InterruptedException {
         Assert.assertNull("Node existed before created", zk.exists(newName, false));
@@ -43,8 +43,6 @@
 import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.BinaryOutputArchive;
 import org.apache.jute.Record;
-import org.apache.zookeeper.common.PathTrie;
-import java.lang.reflect.*;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -116,6 +114,28 @@ private void createEphemeralNode(long session, final DataTree dataTree,
         }
     }
     
+    @Test(timeout = 60000)
+    public void testEphemeralsIndex() throws Exception {
+        long session = 0x100L;
+        dt.createNode("/a", new byte[0], null, session, 1, 1, 1);
+        dt.createNode("/b", new byte[0], null, session, 2, 2, 1);
+        dt.createNode("/c", new byte[0], null, session + 1, 3, 3, 1);
+        Assert.assertEquals(3, dt.getEphemeralsCount());
+        Assert.assertEquals(2, dt.getSessions().size());
+        Assert.assertEquals(2, dt.getEphemerals(session).size());
+
+        dt.deleteNode("/c", 4);
+        // a session without ephemerals is dropped from the index
+        Assert.assertEquals(1, dt.getSessions().size());
+        Assert.assertTrue(dt.getEphemerals(session + 1).isEmpty());
+
+        dt.killSession(session, 5);
+        Assert.assertEquals(0, dt.getEphemeralsCount());
+        Assert.assertTrue(dt.getSessions().isEmpty());
+        Assert.assertNull(dt.getNode("/a"));
+        Assert.assertNull(dt.getNode("/b"));
+    }
+
     @Test(timeout = 60000)
     public void testRootWatchTriggered() throws Exception {
         class MyWatcher implements Watcher{
@@ -152,9 +172,9 @@ public void testIncrementCversion() throws Exception {
     }
 
     @Test(timeout = 60000)
-    public void testPathTrieClearOnDeserialize() throws Exception {
+    public void testQuotaIndexClearOnDeserialize() throws Exception {
 
-        //Create a DataTree with quota nodes so PathTrie get updated
+        //Create a DataTree with quota nodes so the quota index gets updated
         DataTree dserTree = new DataTree();
 
         dserTree.createNode("/bug", new byte[20], null, -1, 1, 1, 1);
@@ -162,7 +182,7 @@ public void testPathTrieClearOnDeserialize() throws Exception {
         dserTree.createNode(Quotas.quotaPath("/bug"), new byte[20], null, -1, 1, 1, 1);
         dserTree.createNode(Quotas.statPath("/bug"), new byte[20], null, -1, 1, 1, 1);
 
-        //deserialize a DataTree; this should clear the old /bug nodes and pathTrie
+        //deserialize a DataTree; this should clear the old /bug nodes and quotas
         DataTree tree = new DataTree();
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -174,12 +194,9 @@ public void testPathTrieClearOnDeserialize() throws Exception {
         BinaryInputArchive ia = BinaryInputArchive.getArchive(bais);
         dserTree.deserialize(ia, "test");
 
-        Field pfield = DataTree.class.getDeclaredField("pTrie");
-        pfield.setAccessible(true);
-        PathTrie pTrie = (PathTrie)pfield.get(dserTree);
-
-        //Check that the node path is removed from pTrie
-        Assert.assertEquals("/bug is still in pTrie", "", pTrie.findMaxPrefix("/bug"));       
+        //Check that the node path is removed from the quota index
+        Assert.assertNull("/bug still has a quota",
+                dserTree.getMaxPrefixWithQuota("/bug"));
     }
 
     /*
@@ -201,7 +218,8 @@ public void testSerializeDoesntLockDataNodeWhileWriting() throws Exception {
             @Override
             public void writeRecord(Record r, String tag) throws IOException {
                 DataNode node = (DataNode) r;
-                if (node.data.length == 1 && node.data[0] == 42) {
+                byte[] data = node.getData();
+                if (data.length == 1 && data[0] == 42) {
                     final Semaphore semaphore = new Semaphore(0);
                     new Thread(new Runnable() {
                         @Override
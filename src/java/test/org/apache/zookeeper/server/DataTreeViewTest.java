@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.jute.Record;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Quotas;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.DeleteTxn;
+import org.apache.zookeeper.txn.SetACLTxn;
+import org.apache.zookeeper.txn.SetDataTxn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataTreeViewTest extends ZKTestCase {
+    private DataTree dt;
+    private long zxid;
+
+    @Before
+    public void setUp() throws Exception {
+        dt = new DataTree();
+        zxid = 0;
+    }
+
+    private void apply(int type, Record txn) {
+        zxid++;
+        DataTree.ProcessTxnResult rc = dt.processTxn(
+                new TxnHeader(1, 1, zxid, zxid, type), txn);
+        Assert.assertEquals(0, rc.err);
+    }
+
+    private void create(String path, String data) {
+        apply(OpCode.create, new CreateTxn(path, data.getBytes(),
+                Ids.OPEN_ACL_UNSAFE, false, -1));
+    }
+
+    private void setData(String path, String data, int version) {
+        apply(OpCode.setData, new SetDataTxn(path, data.getBytes(), version));
+    }
+
+    private static void assertNoNode(DataTreeView view, String path) {
+        try {
+            view.statNode(path);
+            Assert.fail("Expected NoNodeException for " + path);
+        } catch (KeeperException.NoNodeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testViewIsPointInTime() throws Exception {
+        create("/a", "1");
+        create("/a/b", "b");
+        Stat before = new Stat();
+        dt.getData("/a", before, null);
+
+        DataTreeView view = dt.openView();
+        Assert.assertEquals(zxid, view.getZxid());
+        Assert.assertEquals(1, dt.getOpenViewCount());
+
+        setData("/a", "2", 1);
+        create("/a/c", "c");
+        apply(OpCode.delete, new DeleteTxn("/a/b"));
+        apply(OpCode.setACL, new SetACLTxn("/a", Ids.READ_ACL_UNSAFE, 1));
+        create("/x", "x");
+
+        Stat stat = new Stat();
+        Assert.assertEquals("1", new String(view.getData("/a", stat)));
+        Assert.assertEquals(before, stat);
+        Assert.assertEquals(Arrays.asList("b"), view.getChildren("/a"));
+        Assert.assertEquals("b", new String(view.getData("/a/b", null)));
+        Assert.assertEquals(Ids.OPEN_ACL_UNSAFE, view.getACL("/a"));
+        assertNoNode(view, "/a/c");
+        assertNoNode(view, "/x");
+        Assert.assertEquals(Arrays.asList("a", "zookeeper"),
+                view.getChildren("/"));
+
+        // the live tree has moved on
+        Assert.assertEquals("2", new String(dt.getData("/a", new Stat(), null)));
+        Assert.assertEquals(Ids.READ_ACL_UNSAFE, dt.getACL("/a", new Stat()));
+
+        // a new view sees the current state
+        DataTreeView current = dt.openView();
+        Assert.assertEquals(Arrays.asList("c"), current.getChildren("/a"));
+        Assert.assertEquals("x", new String(current.getData("/x", null)));
+        current.close();
+
+        view.close();
+        Assert.assertEquals(0, dt.getOpenViewCount());
+        try {
+            view.getData("/a", null);
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Scans a view while txns are applied; every scan has to return the
+     * same nodes and data.
+     */
+    @Test(timeout = 60000)
+    public void testScanWhileWriting() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            create("/n" + i, "0");
+        }
+        final DataTreeView view = dt.openView();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                int version = 1;
+                int child = 0;
+                while (running.get()) {
+                    for (int i = 0; i < 50; i++) {
+                        setData("/n" + i, "" + version, version);
+                    }
+                    create("/n" + (child % 50) + "/c" + child, "");
+                    version++;
+                    child++;
+                }
+            }
+        };
+        writer.start();
+        try {
+            List<String> first = scan(view, "/");
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(first, scan(view, "/"));
+            }
+            // root, the 3 nodes of /zookeeper and the 50 nodes
+            Assert.assertEquals(54 * 2, first.size());
+        } finally {
+            running.set(false);
+            writer.join();
+            view.close();
+        }
+    }
+
+    /** returns path and data of every node below path */
+    private static List<String> scan(DataTreeView view, String path)
+            throws KeeperException.NoNodeException {
+        List<String> result = new ArrayList<String>();
+        result.add(path);
+        byte[] data = view.getData(path, null);
+        result.add(data == null ? null : new String(data));
+        String prefix = path.equals("/") ? path : path + "/";
+        for (String child : view.getChildren(path)) {
+            result.addAll(scan(view, prefix + child));
+        }
+        return result;
+    }
+
+    /**
+     * The stats of a quota are those at the zxid of the view, although
+     * they are only written to the stat node when it is read.
+     */
+    @Test
+    public void testQuotaStats() throws Exception {
+        create("/q", "q");
+        create(Quotas.quotaZookeeper + "/q", "");
+        create(Quotas.quotaPath("/q"), "count=10,bytes=-1");
+        create(Quotas.statPath("/q"), "count=1,bytes=1");
+        create("/q/a", "a");
+
+        DataTreeView view = dt.openView();
+        try {
+            Assert.assertEquals("count=2,bytes=2", new String(
+                    view.getData(Quotas.statPath("/q"), null)));
+            create("/q/b", "b");
+            Assert.assertEquals("count=3,bytes=3", new String(
+                    dt.getData(Quotas.statPath("/q"), new Stat(), null)));
+            Assert.assertEquals("count=2,bytes=2", new String(
+                    view.getData(Quotas.statPath("/q"), null)));
+        } finally {
+            view.close();
+        }
+    }
+
+    /**
+     * A view that is never closed is closed once the nodes changed since
+     * take too much memory.
+     */
+    @Test
+    public void testMaxPreservedBytes() throws Exception {
+        System.setProperty(DataTreeView.MAX_PRESERVED_BYTES, "1024");
+        try {
+            create("/a", new String(new char[512]));
+            create("/c", new String(new char[1000]));
+            DataTreeView view = dt.openView();
+            setData("/a", "2", 1);
+            Assert.assertEquals(512, view.getData("/a", null).length);
+            Assert.assertEquals(1, dt.getOpenViewCount());
+            // the prior data of /c does not fit next to the one of /a
+            setData("/c", "2", 1);
+            Assert.assertEquals(0, dt.getOpenViewCount());
+            try {
+                view.getData("/a", null);
+                Assert.fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                // closed
+            }
+        } finally {
+            System.clearProperty(DataTreeView.MAX_PRESERVED_BYTES);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.common.Time;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpiryQueueTest extends ZKTestCase {
+    private static final int INTERVAL = 20;
+
+    /**
+     * Polls until the queue hands out a non empty set, or fails after
+     * timeout milliseconds.
+     */
+    private Set<String> pollExpired(ExpiryQueue<String> queue, long timeout)
+            throws InterruptedException {
+        long deadline = Time.currentElapsedTime() + timeout;
+        while (Time.currentElapsedTime() < deadline) {
+            long waitTime = queue.getWaitTime();
+            if (waitTime > 0) {
+                Thread.sleep(waitTime);
+                continue;
+            }
+            Set<String> expired = queue.poll();
+            if (!expired.isEmpty()) {
+                return expired;
+            }
+        }
+        Assert.fail("nothing expired within " + timeout + "ms");
+        return null;
+    }
+
+    @Test
+    public void testUpdateAndRemove() throws Exception {
+        ExpiryQueue<String> queue = new ExpiryQueue<String>(INTERVAL);
+        Long expiry = queue.update("a", 1000);
+        Assert.assertNotNull(expiry);
+        Assert.assertEquals(0, expiry % INTERVAL);
+        queue.update("b", 1000);
+        Assert.assertEquals(2, queue.getExpiryMap().get(expiry).size());
+
+        Assert.assertEquals(expiry, queue.remove("a"));
+        Assert.assertNull(queue.remove("a"));
+        Assert.assertEquals(1, queue.getExpiryMap().size());
+
+        Set<String> expired = pollExpired(queue, 5000);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertTrue(expired.contains("b"));
+        Assert.assertTrue(queue.getExpiryMap().isEmpty());
+    }
+
+    /**
+     * With a two bucket wheel, timeouts several intervals apart share a
+     * bucket. The later element must stay queued until its own time.
+     */
+    @Test
+    public void testWrapAround() throws Exception {
+        ExpiryQueue<String> queue = new ExpiryQueue<String>(INTERVAL, 2);
+        long soonExpiry = queue.update("soon", INTERVAL);
+        long laterExpiry = queue.update("later", 10 * INTERVAL);
+
+        Set<String> expired = pollExpired(queue, 5000);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertTrue(expired.contains("soon"));
+        Assert.assertTrue(Time.currentElapsedTime() >= soonExpiry);
+
+        expired = pollExpired(queue, 5000);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertTrue(expired.contains("later"));
+        Assert.assertTrue(Time.currentElapsedTime() >= laterExpiry);
+    }
+
+    @Test
+    public void testManyElements() throws Exception {
+        ExpiryQueue<String> queue = new ExpiryQueue<String>(INTERVAL, 4);
+        Set<String> all = new HashSet<String>();
+        for (int i = 0; i < 100; i++) {
+            String elem = "e" + i;
+            all.add(elem);
+            queue.update(elem, (i % 10) * INTERVAL);
+        }
+        Set<String> expired = new HashSet<String>();
+        while (expired.size() < all.size()) {
+            for (String elem : pollExpired(queue, 5000)) {
+                Assert.assertTrue("expired twice: " + elem, expired.add(elem));
+            }
+        }
+        Assert.assertEquals(all, expired);
+    }
+
+    /**
+     * Elapsed time is based on nanoTime and can be negative.
+     */
+    @Test
+    public void testNegativeTime() {
+        ExpiryQueue<String> queue = new ExpiryQueue<String>(INTERVAL, 4);
+        for (long time = -10 * INTERVAL; time <= 10 * INTERVAL; time += INTERVAL) {
+            int slot = queue.slot(time);
+            Assert.assertTrue("slot " + slot + " for " + time,
+                    slot >= 0 && slot < 4);
+            Assert.assertEquals(slot, queue.slot(time + 4 * INTERVAL));
+        }
+    }
+
+    /**
+     * Polled elements are no longer tracked: remove() reports them as
+     * absent and update() queues them again.
+     */
+    @Test
+    public void testPolledElementsUntracked() throws Exception {
+        ExpiryQueue<String> queue = new ExpiryQueue<String>(INTERVAL);
+        queue.update("a", INTERVAL);
+        Assert.assertTrue(pollExpired(queue, 5000).contains("a"));
+        Assert.assertNull(queue.remove("a"));
+        Assert.assertTrue(queue.getExpiryMap().isEmpty());
+
+        Assert.assertNotNull(queue.update("a", INTERVAL));
+        Assert.assertTrue(pollExpired(queue, 5000).contains("a"));
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.jute.BinaryInputArchive;
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.proto.GetDataResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapDataResponseTest extends ZKTestCase {
+    /**
+     * The response is written as a GetDataResponse and reads back from one.
+     */
+    @Test
+    public void testSerializeRoundTrip() throws Exception {
+        byte[] payload = "offheap".getBytes();
+        ByteBuffer direct = ByteBuffer.allocateDirect(payload.length);
+        direct.put(payload).flip();
+        Stat stat = new Stat();
+        stat.setVersion(7);
+        stat.setDataLength(payload.length);
+        OffHeapDataResponse rsp =
+            new OffHeapDataResponse(direct.asReadOnlyBuffer(), stat);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        rsp.serialize(BinaryOutputArchive.getArchive(baos), "response");
+        byte[] bytes = baos.toByteArray();
+
+        GetDataResponse plain = new GetDataResponse();
+        plain.deserialize(BinaryInputArchive.getArchive(
+                new ByteArrayInputStream(bytes)), "response");
+        Assert.assertArrayEquals(payload, plain.getData());
+        Assert.assertEquals(stat, plain.getStat());
+
+        OffHeapDataResponse copy = new OffHeapDataResponse();
+        copy.deserialize(BinaryInputArchive.getArchive(
+                new ByteArrayInputStream(bytes)), "response");
+        byte[] data = new byte[copy.getData().remaining()];
+        copy.getData().get(data);
+        Assert.assertArrayEquals(payload, data);
+        Assert.assertEquals(stat, copy.getStat());
+    }
+}
@@ -51,6 +51,7 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 public class PrepRequestProcessorTest extends ClientBase {
@@ -181,6 +182,62 @@ public void testMultiRollbackNoLastChange() throws Exception {
         Assert.assertNull(zks.outstandingChangesForPath.get("/foo"));
     }
 
+    /**
+     * Prepares writes and failing multis while another thread commits them,
+     * so that rollbacks race with the commit of the records they restore.
+     * No change record may be left behind.
+     */
+    @Test
+    public void testConcurrentCommitAndRollback() throws Exception {
+        int count = 2000;
+        for (int i = 0; i < count; i++) {
+            zks.getZKDatabase().dataTree.createNode("/foo" + i, new byte[0], Ids.OPEN_ACL_UNSAFE, 0, 0, 0, 0);
+        }
+
+        final LinkedBlockingQueue<Request> prepared = new LinkedBlockingQueue<Request>();
+        final FinalRequestProcessor finalProcessor = new FinalRequestProcessor(zks);
+        Thread committer = new Thread("committer") {
+            @Override
+            public void run() {
+                try {
+                    Request request;
+                    while ((request = prepared.take()) != Request.requestOfDeath) {
+                        finalProcessor.processRequest(request);
+                    }
+                } catch (InterruptedException e) {
+                    LOG.warn("Interrupted", e);
+                }
+            }
+        };
+        processor = new PrepRequestProcessor(zks, new RequestProcessor() {
+            public void processRequest(Request request) {
+                prepared.add(request);
+            }
+            public void shutdown() {
+            }
+        });
+        committer.start();
+
+        for (int i = 0; i < count; i++) {
+            processor.pRequest(createRequest(
+                    new SetDataRequest("/foo" + i, new byte[0], -1), OpCode.setData));
+            // fails on the version check and restores the record above
+            processor.pRequest(createRequest(new MultiTransactionRecord(Arrays.asList(
+                    Op.setData("/foo" + i, new byte[0], -1),
+                    Op.check("/foo" + i, Integer.MAX_VALUE))), OpCode.multi));
+        }
+        prepared.add(Request.requestOfDeath);
+        committer.join(30000);
+        Assert.assertFalse(committer.isAlive());
+
+        Assert.assertTrue(zks.outstandingChanges.isEmpty());
+        Assert.assertTrue(zks.outstandingChangesForPath.isEmpty());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(1,
+                    zks.getZKDatabase().getNode("/foo" + i).stat.getVersion());
+        }
+    }
+
     /**
      * It tests that PrepRequestProcessor will return BadArgument KeeperException
      * if the request path (if it exists) is not valid, e.g. empty string.
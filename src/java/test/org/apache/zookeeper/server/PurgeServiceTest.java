@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.common.Time;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PurgeServiceTest extends ZKTestCase {
+    private static final Logger LOG = LoggerFactory.getLogger(PurgeServiceTest.class);
+    private static final int FILE_SIZE = 1000;
+
+    private File tmpDir;
+    private File version2;
+    private PurgeService purgeService;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = ClientBase.createTmpDir();
+        version2 = new File(tmpDir, FileTxnSnapLog.version + FileTxnSnapLog.VERSION);
+        Assert.assertTrue(version2.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (purgeService != null) {
+            purgeService.shutdown();
+        }
+        ClientBase.recursiveDelete(tmpDir);
+    }
+
+    /**
+     * Creates a log and a snapshot for each of the given zxids.
+     */
+    private List<File> createFiles(long... zxids) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (long zxid : zxids) {
+            for (String prefix : new String[] { "log", "snapshot" }) {
+                File f = new File(version2, prefix + "." + Long.toHexString(zxid));
+                RandomAccessFile raf = new RandomAccessFile(f, "rw");
+                raf.setLength(FILE_SIZE);
+                raf.close();
+                files.add(f);
+            }
+        }
+        return files;
+    }
+
+    private static void assertExist(List<File> files, boolean exist) {
+        for (File f : files) {
+            Assert.assertEquals(f.toString(), exist, f.exists());
+        }
+    }
+
+    @Test
+    public void testIncrementalPurge() throws Exception {
+        purgeService = new PurgeService(tmpDir, tmpDir, 3, 0);
+        List<File> expired = createFiles(1, 2);
+        List<File> retained = createFiles(3, 4, 5);
+        purgeService.purge();
+        assertExist(expired, false);
+        assertExist(retained, true);
+        Assert.assertEquals(3, purgeService.getRetainedSnapshotCount());
+        Assert.assertEquals(3 * FILE_SIZE, purgeService.getRetainedSnapshotBytes());
+        Assert.assertEquals(3, purgeService.getRetainedLogCount());
+        Assert.assertEquals(3 * FILE_SIZE, purgeService.getRetainedLogBytes());
+        Assert.assertEquals("0x3", purgeService.getOldestRetainedZxid());
+        Assert.assertEquals(4, purgeService.getPurgedFileCount());
+        Assert.assertEquals(4 * FILE_SIZE, purgeService.getPurgedBytes());
+
+        // files created after the first purge are picked up by the next one
+        List<File> newer = createFiles(6, 7);
+        purgeService.purge();
+        assertExist(retained.subList(0, 4), false);
+        assertExist(retained.subList(4, 6), true);
+        assertExist(newer, true);
+        Assert.assertEquals("0x5", purgeService.getOldestRetainedZxid());
+        Assert.assertEquals(8, purgeService.getPurgedFileCount());
+        Assert.assertEquals(3, purgeService.getRetainedSnapshotCount());
+    }
+
+    @Test
+    public void testFewerSnapshotsThanRetainCount() throws Exception {
+        purgeService = new PurgeService(tmpDir, tmpDir, 3, 0);
+        List<File> files = createFiles(1, 2);
+        purgeService.purge();
+        assertExist(files, true);
+        Assert.assertEquals(0, purgeService.getPurgedFileCount());
+        Assert.assertEquals(2, purgeService.getRetainedSnapshotCount());
+    }
+
+    @Test
+    public void testThrottledPurge() throws Exception {
+        // 8 expired files of 1000 bytes at 10000 bytes/s take at least 0.7s
+        purgeService = new PurgeService(tmpDir, tmpDir, 3, 10 * FILE_SIZE);
+        List<File> expired = createFiles(1, 2, 3, 4);
+        createFiles(5, 6, 7);
+        long start = Time.currentElapsedTime();
+        purgeService.purge();
+        long elapsed = Time.currentElapsedTime() - start;
+        assertExist(expired, false);
+        Assert.assertTrue("purge took " + elapsed + " ms", elapsed >= 700);
+    }
+
+    @Test
+    public void testShutdownInterruptsThrottledPurge() throws Exception {
+        // one byte per second would take days to delete the expired files
+        purgeService = new PurgeService(tmpDir, tmpDir, 3, 1);
+        List<File> expired = createFiles(1, 2);
+        createFiles(3, 4, 5);
+        Thread purger = new Thread() {
+            public void run() {
+                try {
+                    purgeService.purge();
+                } catch (IOException e) {
+                    LOG.error("Purge failed", e);
+                }
+            }
+        };
+        purger.start();
+        long deadline = Time.currentElapsedTime() + 10000;
+        while (purgeService.getPurgedFileCount() == 0
+                && Time.currentElapsedTime() < deadline) {
+            Thread.sleep(10);
+        }
+        purgeService.shutdown();
+        purger.join(10000);
+        Assert.assertFalse(purger.isAlive());
+        Assert.assertEquals(1, purgeService.getPurgedFileCount());
+        Assert.assertFalse(expired.get(0).exists());
+        assertExist(expired.subList(1, 4), true);
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jute.BinaryInputArchive;
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReferenceCountedACLCacheTest extends ZKTestCase {
+    private static List<ACL> ipAcl(String ip) {
+        List<ACL> acls = new ArrayList<ACL>();
+        acls.add(new ACL(ZooDefs.Perms.ALL, new Id("ip", ip)));
+        return acls;
+    }
+
+    @Test
+    public void testInterning() {
+        ReferenceCountedACLCache cache = new ReferenceCountedACLCache();
+        Long id = cache.convertAcls(ipAcl("1.1.1.1"));
+        Assert.assertEquals(id, cache.convertAcls(ipAcl("1.1.1.1")));
+        Assert.assertFalse(id.equals(cache.convertAcls(ipAcl("1.1.1.2"))));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2, cache.getReferenceCount(id));
+        Assert.assertEquals(ipAcl("1.1.1.1"), cache.convertLong(id));
+
+        Assert.assertEquals(-1L, (long) cache.convertAcls(null));
+        Assert.assertEquals(Ids.OPEN_ACL_UNSAFE, cache.convertLong(-1L));
+    }
+
+    @Test
+    public void testPurgeUnused() {
+        ReferenceCountedACLCache cache = new ReferenceCountedACLCache();
+        Long id1 = cache.convertAcls(ipAcl("1.1.1.1"));
+        Long id2 = cache.convertAcls(ipAcl("1.1.1.2"));
+        cache.convertAcls(ipAcl("1.1.1.2"));
+        cache.removeUsage(id1);
+        cache.removeUsage(id2);
+
+        Assert.assertEquals(1, cache.purgeUnused());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(ipAcl("1.1.1.2"), cache.convertLong(id2));
+        try {
+            cache.convertLong(id1);
+            Assert.fail("purged acl is still available");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        // an unused id can be revived until it is purged
+        cache.removeUsage(id2);
+        Assert.assertEquals(id2, cache.convertAcls(ipAcl("1.1.1.2")));
+        Assert.assertEquals(0, cache.purgeUnused());
+
+        // purged ids are not reused
+        Long id3 = cache.convertAcls(ipAcl("1.1.1.1"));
+        Assert.assertTrue(id3 > id2);
+    }
+
+    @Test
+    public void testDataTreeReleasesAcls() throws Exception {
+        DataTree dt = new DataTree();
+        dt.createNode("/a", new byte[0], ipAcl("1.1.1.1"), 0, -1, 1, 1);
+        dt.createNode("/b", new byte[0], ipAcl("1.1.1.1"), 0, -1, 2, 1);
+        dt.createNode("/c", new byte[0], ipAcl("1.1.1.3"), 0, -1, 3, 1);
+        Assert.assertEquals(2, dt.getAclSize());
+
+        dt.deleteNode("/a", 4);
+        dt.setACL("/c", ipAcl("1.1.1.1"), 1);
+        Assert.assertEquals(2, dt.getAclSize());
+
+        // the snapshot drops the acl /c no longer uses
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        dt.serialize(BinaryOutputArchive.getArchive(baos), "tree");
+        Assert.assertEquals(1, dt.getAclSize());
+
+        DataTree restored = new DataTree();
+        restored.deserialize(BinaryInputArchive.getArchive(
+                new ByteArrayInputStream(baos.toByteArray())), "tree");
+        Assert.assertEquals(1, restored.getAclSize());
+        Assert.assertEquals(ipAcl("1.1.1.1"),
+                restored.getACL("/c", new Stat()));
+        restored.deleteNode("/b", 5);
+        restored.deleteNode("/c", 6);
+        restored.serialize(BinaryOutputArchive.getArchive(
+                new ByteArrayOutputStream()), "tree");
+        Assert.assertEquals(0, restored.getAclSize());
+    }
+
+    /**
+     * A node created with an unused acl while a snapshot is written must
+     * use an id that is in the acl map of the snapshot.
+     */
+    @Test
+    public void testCreateDuringSerialize() throws Exception {
+        final DataTree dt = new DataTree();
+        dt.createNode("/p", new byte[0], Ids.OPEN_ACL_UNSAFE, 0, -1, 1, 1);
+        dt.createNode("/p/a", new byte[0], ipAcl("1.1.1.1"), 0, -1, 2, 1);
+        dt.deleteNode("/p/a", 3);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BinaryOutputArchive oa = new BinaryOutputArchive(
+                new DataOutputStream(baos)) {
+            private boolean created;
+
+            @Override
+            public void writeString(String s, String tag) throws IOException {
+                // the acl map is written, the children of /p are not
+                if (!created) {
+                    created = true;
+                    try {
+                        dt.createNode("/p/b", new byte[0], ipAcl("1.1.1.1"),
+                                0, -1, 4, 1);
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                }
+                super.writeString(s, tag);
+            }
+        };
+        dt.serialize(oa, "tree");
+
+        DataTree restored = new DataTree();
+        restored.deserialize(BinaryInputArchive.getArchive(
+                new ByteArrayInputStream(baos.toByteArray())), "tree");
+        Assert.assertNotNull(restored.getNode("/p/b"));
+        Assert.assertEquals(ipAcl("1.1.1.1"),
+                restored.getACL("/p/b", new Stat()));
+    }
+}
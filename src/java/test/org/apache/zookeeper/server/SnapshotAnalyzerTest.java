@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.server.persistence.FileSnap;
+import org.apache.zookeeper.test.ClientBase;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotAnalyzerTest extends ZKTestCase {
+    private File tmpDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = ClientBase.createTmpDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ClientBase.recursiveDelete(tmpDir);
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        DataTree dt = new DataTree();
+        dt.createNode("/a", new byte[10], Ids.OPEN_ACL_UNSAFE, 0, 1, 1, 1);
+        dt.createNode("/a/b", new byte[100], Ids.OPEN_ACL_UNSAFE, 0, 1, 2, 2);
+        dt.createNode("/a/c", new byte[5], Ids.OPEN_ACL_UNSAFE, 0, 2, 3, 3);
+        dt.createNode("/a/c/x", null, Ids.OPEN_ACL_UNSAFE, 0, 1, 4, 4);
+        dt.createNode("/d", new byte[1000], Ids.READ_ACL_UNSAFE, 0, 2, 5, 5);
+        dt.createNode("/e1", null, Ids.OPEN_ACL_UNSAFE, 0x5, 3, 6, 6);
+        dt.createNode("/e2", null, Ids.OPEN_ACL_UNSAFE, 0x5, 4, 7, 7);
+        dt.createNode("/f", null, Ids.OPEN_ACL_UNSAFE, 0x6, 5, 8, 8);
+        Map<Long, Integer> sessions = new HashMap<Long, Integer>();
+        sessions.put(0x5L, 30000);
+        sessions.put(0x7L, 10000);
+        File snap = new File(tmpDir, "snapshot.8");
+        new FileSnap(tmpDir).serialize(dt, sessions, snap);
+
+        StringWriter out = new StringWriter();
+        new SnapshotAnalyzer(2).analyze(snap, out);
+        JsonNode report = new ObjectMapper().readTree(out.toString());
+        Assert.assertEquals("0x8", report.get("zxid").getTextValue());
+        // the data tree counts the root under both "" and "/"
+        Assert.assertEquals(dt.getNodeCount() - 1, report.get("nodes").getIntValue());
+        Assert.assertEquals(1115, report.get("dataBytes").getLongValue());
+
+        JsonNode byBytes = report.get("largestSubtreesByBytes");
+        Assert.assertEquals(2, byBytes.size());
+        Assert.assertEquals("/d", byBytes.get(0).get("path").getTextValue());
+        Assert.assertEquals("/a", byBytes.get(1).get("path").getTextValue());
+        Assert.assertEquals(115, byBytes.get(1).get("bytes").getLongValue());
+        JsonNode byNodes = report.get("largestSubtreesByNodes");
+        Assert.assertEquals("/a", byNodes.get(0).get("path").getTextValue());
+        Assert.assertEquals(4, byNodes.get(0).get("nodes").getLongValue());
+
+        Assert.assertEquals(2, report.get("sessions").getIntValue());
+        Assert.assertEquals(3, report.get("ephemerals").getIntValue());
+        Assert.assertEquals(2, report.get("sessionsWithEphemerals").getIntValue());
+        JsonNode bySession = report.get("ephemeralsBySession").get(0);
+        Assert.assertEquals("0x5", bySession.get("session").getTextValue());
+        Assert.assertEquals(30000, bySession.get("timeout").getIntValue());
+        Assert.assertEquals(2, bySession.get("ephemerals").getIntValue());
+        Assert.assertNull(report.get("ephemeralsBySession").get(1).get("timeout"));
+
+        Assert.assertEquals(2, report.get("acls").getIntValue());
+        JsonNode byAcl = report.get("nodesByAcl");
+        Assert.assertEquals("world:anyone:cdrwa", byAcl.get(0).get("acl").getTextValue());
+        Assert.assertEquals("world:anyone:r", byAcl.get(1).get("acl").getTextValue());
+        Assert.assertEquals(1, byAcl.get(1).get("nodes").getIntValue());
+    }
+}
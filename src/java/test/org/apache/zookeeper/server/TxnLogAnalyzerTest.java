@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.jute.Record;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.test.ClientBase;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.ErrorTxn;
+import org.apache.zookeeper.txn.MultiTxn;
+import org.apache.zookeeper.txn.SetDataTxn;
+import org.apache.zookeeper.txn.Txn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TxnLogAnalyzerTest extends ZKTestCase {
+    private File dataDir;
+    private FileTxnSnapLog snapLog;
+    private long zxid;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = ClientBase.createTmpDir();
+        snapLog = new FileTxnSnapLog(dataDir, dataDir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        snapLog.close();
+        ClientBase.recursiveDelete(dataDir);
+    }
+
+    private void append(long time, int type, Record txn) throws IOException {
+        zxid++;
+        TxnHeader hdr = new TxnHeader(1, (int) zxid, zxid, time, type);
+        snapLog.append(new Request(1, (int) zxid, type, hdr, txn, zxid));
+        if (zxid % 20 == 0) {
+            snapLog.rollLog();
+        }
+    }
+
+    private static Txn subTxn(int type, Record txn) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        txn.serialize(BinaryOutputArchive.getArchive(baos), "request");
+        return new Txn(type, baos.toByteArray());
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        for (int i = 1; i <= 50; i++) {
+            append(1000, OpCode.setData, new SetDataTxn("/app/hot",
+                    new byte[1], i));
+        }
+        append(2000, OpCode.create, new CreateTxn("/other/x", null,
+                Ids.OPEN_ACL_UNSAFE, false, 1));
+        for (int i = 51; i <= 60; i++) {
+            append(61000, OpCode.setData, new SetDataTxn("/app/hot",
+                    new byte[1], i));
+        }
+        append(62000, OpCode.multi, new MultiTxn(Arrays.asList(
+                subTxn(OpCode.create, new CreateTxn("/app/m", null,
+                        Ids.OPEN_ACL_UNSAFE, false, 1)),
+                subTxn(OpCode.setData, new SetDataTxn("/app/hot",
+                        new byte[1], 61)))));
+        append(62000, OpCode.multi, new MultiTxn(Arrays.asList(
+                subTxn(OpCode.setData, new SetDataTxn("/other/x",
+                        new byte[1], 1)),
+                subTxn(OpCode.error, new ErrorTxn(
+                        KeeperException.Code.BADVERSION.intValue())))));
+        snapLog.commit();
+
+        StringWriter out = new StringWriter();
+        new TxnLogAnalyzer(2, 1, 60000, 2).analyze(snapLog.getDataDir(), 0, out);
+        JsonNode report = new ObjectMapper().readTree(out.toString());
+        Assert.assertEquals(zxid, report.get("txns").getLongValue());
+        Assert.assertEquals(63, report.get("writes").getLongValue());
+        Assert.assertEquals("0x" + Long.toHexString(zxid),
+                report.get("lastZxid").getTextValue());
+        Assert.assertEquals(60, report.get("txnsByType").get("setData").getIntValue());
+        Assert.assertEquals(2, report.get("txnsByType").get("multi").getIntValue());
+
+        JsonNode intervals = report.get("intervals");
+        Assert.assertEquals(2, intervals.size());
+        Assert.assertEquals(0, intervals.get(0).get("start").getLongValue());
+        Assert.assertEquals(51, intervals.get(0).get("writes").getLongValue());
+        JsonNode prefix = intervals.get(0).get("prefixes").get(0);
+        Assert.assertEquals("/app", prefix.get("prefix").getTextValue());
+        Assert.assertEquals(50, prefix.get("writes").getLongValue());
+        Assert.assertEquals(60000, intervals.get(1).get("start").getLongValue());
+        Assert.assertEquals(12, intervals.get(1).get("writes").getLongValue());
+        Assert.assertEquals(1, intervals.get(1).get("prefixes").size());
+
+        JsonNode hotPath = report.get("hotPaths").get(0);
+        Assert.assertEquals("/app/hot", hotPath.get("path").getTextValue());
+        Assert.assertEquals(61, hotPath.get("writes").getLongValue());
+        Assert.assertEquals(0, hotPath.get("error").getLongValue());
+        Assert.assertEquals(2, report.get("hotPrefixes").size());
+    }
+}
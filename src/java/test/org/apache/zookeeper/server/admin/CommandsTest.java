@@ -19,13 +19,23 @@
 package org.apache.zookeeper.server.admin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.Perms;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
 import org.apache.zookeeper.server.ServerStats;
 import org.apache.zookeeper.server.ZooKeeperServer;
 import org.apache.zookeeper.test.ClientBase;
@@ -52,7 +62,9 @@ public class CommandsTest extends ClientBase {
     public void testCommand(String cmdName, Map<String, String> kwargs, Field... fields)
             throws IOException, InterruptedException {
         ZooKeeperServer zks = serverFactory.getZooKeeperServer();
-        Map<String, Object> result = Commands.runCommand(cmdName, zks, kwargs).toMap();
+        CommandResponse response = Commands.runCommand(cmdName, zks, kwargs);
+        Map<String, Object> result = response.toMap();
+        response.close();
 
         assertTrue(result.containsKey("command"));
         // This is only true because we're setting cmdName to the primary name
@@ -166,12 +178,20 @@ public void testMonitor() throws IOException, InterruptedException {
                     new Field("packets_received", Long.class),
                     new Field("packets_sent", Long.class),
                     new Field("num_alive_connections", Integer.class),
+                    new Field("acl_cache_hits", Long.class),
+                    new Field("acl_cache_misses", Long.class),
                     new Field("outstanding_requests", Long.class),
+                    new Field("throttled_requests", Long.class),
+                    new Field("throttle_queue_size", Integer.class),
                     new Field("server_state", String.class),
                     new Field("znode_count", Integer.class),
                     new Field("watch_count", Integer.class),
                     new Field("ephemerals_count", Integer.class),
+                    new Field("container_candidates", Integer.class),
+                    new Field("txn_replay_rate", Long.class),
                     new Field("approximate_data_size", Long.class),
+                    new Field("offheap_data_count", Long.class),
+                    new Field("offheap_data_bytes", Long.class),
                     new Field("open_file_descriptor_count", Long.class),
                     new Field("max_file_descriptor_count", Long.class));
     }
@@ -208,6 +228,56 @@ public void testStat() throws IOException, InterruptedException {
                     new Field("connections", Iterable.class));
     }
 
+    @Test
+    public void testExport() throws Exception {
+        // only registered if enabled
+        assertNull(Commands.getCommand("export"));
+        Commands.registerCommand(new Commands.ExportCommand());
+        ZooKeeper zk = createClient();
+        try {
+            zk.create("/export", "root".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            zk.create("/export/child", "child".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            zk.create("/export/secret", "secret".getBytes(),
+                    Arrays.asList(new ACL(Perms.ALL, new Id("ip", "10.0.0.1"))),
+                    CreateMode.PERSISTENT);
+        } finally {
+            zk.close();
+        }
+        ZooKeeperServer zks = serverFactory.getZooKeeperServer();
+        Map<String, String> kwargs = new HashMap<String, String>();
+        kwargs.put("path", "/export");
+        testCommand("export", kwargs,
+                    new Field("zxid", Long.class),
+                    new Field("nodes", Iterable.class));
+
+        CommandResponse response = Commands.runCommand("export", zks, kwargs);
+        StringWriter out = new StringWriter();
+        new JsonOutputter().output(response, new PrintWriter(out));
+        response.close();
+        assertEquals(0, zks.getZKDatabase().getDataTree().getOpenViewCount());
+        String json = out.toString();
+        int root = json.indexOf("\"path\" : \"/export\"");
+        int child = json.indexOf("\"path\" : \"/export/child\"");
+        assertTrue(json, root >= 0 && child > root);
+        // data is base64 encoded
+        assertTrue(json, json.contains("\"Y2hpbGQ=\""));
+        // nodes that are not world readable are redacted
+        assertTrue(json, json.contains("\"path\" : \"/export/secret\""));
+        assertFalse(json, json.contains("\"c2VjcmV0\""));
+        assertTrue(json, json.contains("\"redacted\" : true"));
+        assertFalse(json, json.contains("\"/zookeeper"));
+
+        kwargs.put("path", "/zookeeper/config");
+        response = Commands.runCommand("export", zks, kwargs);
+        assertEquals("/zookeeper is not exported", response.toMap().get("error"));
+
+        kwargs.put("path", "/missing");
+        response = Commands.runCommand("export", zks, kwargs);
+        assertEquals("No node /missing", response.toMap().get("error"));
+    }
+
     @Test
     public void testStatReset() throws IOException, InterruptedException {
         testCommand("stat_reset");
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.NonWritableChannelException;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncChunkOutputStreamTest extends ZKTestCase {
+    private File tmpDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = ClientBase.createTmpDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ClientBase.recursiveDelete(tmpDir);
+    }
+
+    /**
+     * The writer thread dies with an unchecked exception writing to a read
+     * only channel. The producer gets the failure instead of waiting for a
+     * free buffer forever.
+     */
+    @Test(timeout = 30000)
+    public void testWriterFailure() throws Exception {
+        File file = new File(tmpDir, "snapshot");
+        new RandomAccessFile(file, "rw").close();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        AsyncChunkOutputStream out = new AsyncChunkOutputStream(
+                raf.getChannel(), 4096, true, ChecksumAlgorithm.ADLER32,
+                file.getName());
+        byte[] data = new byte[1024];
+        try {
+            for (int i = 0; i < 100; i++) {
+                out.write(data, 0, data.length);
+            }
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof NonWritableChannelException);
+        }
+        try {
+            out.close();
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof NonWritableChannelException);
+        } finally {
+            raf.close();
+        }
+    }
+}
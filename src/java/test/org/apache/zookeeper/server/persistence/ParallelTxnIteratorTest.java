@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.persistence;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.server.persistence.FileTxnLog.FileTxnIterator;
+import org.apache.zookeeper.test.ClientBase;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelTxnIteratorTest extends ZKTestCase {
+    private static final int TXNS = 3 * ParallelTxnIterator.BATCH_SIZE;
+
+    private File tmpDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = ClientBase.createTmpDir();
+        FileTxnLog txnLog = new FileTxnLog(tmpDir);
+        for (long zxid = 1; zxid <= TXNS; zxid++) {
+            txnLog.append(new TxnHeader(1, (int) zxid, zxid, zxid, OpCode.create),
+                    new CreateTxn("/n" + zxid, new byte[10],
+                            Ids.OPEN_ACL_UNSAFE, false, -1));
+        }
+        txnLog.commit();
+        txnLog.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ClientBase.recursiveDelete(tmpDir);
+    }
+
+    /**
+     * A source failing with an unchecked exception makes next() throw
+     * after the txns read before the failure, instead of blocking.
+     */
+    @Test(timeout = 30000)
+    public void testSourceFailure() throws Exception {
+        final int failAt = ParallelTxnIterator.BATCH_SIZE + 10;
+        FileTxnIterator source = new FileTxnIterator(tmpDir, 1) {
+            int reads;
+
+            @Override
+            byte[] nextTxnBytes() throws IOException {
+                if (++reads > failAt) {
+                    throw new NullPointerException("truncated log");
+                }
+                return super.nextTxnBytes();
+            }
+        };
+        ParallelTxnIterator itr = new ParallelTxnIterator(source, 2);
+        long zxid = 0;
+        try {
+            do {
+                Assert.assertEquals(++zxid, itr.getHeader().getZxid());
+            } while (itr.next());
+            Assert.fail("Expected the failure of the source");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof NullPointerException);
+        } finally {
+            itr.close();
+        }
+        Assert.assertTrue(zxid > ParallelTxnIterator.BATCH_SIZE);
+    }
+}
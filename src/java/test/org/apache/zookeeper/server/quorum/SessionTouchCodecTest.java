@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.server.SessionTrackerImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SessionTouchCodecTest extends ZKTestCase {
+
+    private static Map<Long, Integer> toMap(SessionTouchCodec.Touches touches) {
+        Map<Long, Integer> map = new HashMap<Long, Integer>();
+        for (int i = 0; i < touches.size(); i++) {
+            map.put(touches.getSessionId(i), touches.getTimeout(i));
+        }
+        return map;
+    }
+
+    private static Map<Long, Integer> sessions(long serverId, int count) {
+        Map<Long, Integer> touchTable = new HashMap<Long, Integer>();
+        long base = SessionTrackerImpl.initializeNextSession(serverId);
+        for (int i = 0; i < count; i++) {
+            touchTable.put(base + i * 3, i % 2 == 0 ? 30000 : 4000);
+        }
+        return touchTable;
+    }
+
+    @Test
+    public void testLegacyRoundTrip() throws Exception {
+        Map<Long, Integer> touchTable = sessions(1, 100);
+        byte[] data = SessionTouchCodec.encodeLegacy(touchTable);
+        Assert.assertEquals(100 * SessionTouchCodec.LEGACY_ENTRY_SIZE,
+                data.length);
+        Assert.assertEquals(touchTable, toMap(SessionTouchCodec.decode(data)));
+    }
+
+    @Test
+    public void testCompactRoundTrip() throws Exception {
+        Map<Long, Integer> touchTable = sessions(1, 10000);
+        // sessions created by other servers, including ids with the sign bit set
+        touchTable.putAll(sessions(200, 100));
+        touchTable.put(Long.MIN_VALUE, 1);
+        touchTable.put(Long.MAX_VALUE, Integer.MAX_VALUE);
+        touchTable.put(0L, 0);
+
+        byte[] data = SessionTouchCodec.encodeCompact(touchTable);
+        Assert.assertEquals(touchTable, toMap(SessionTouchCodec.decode(data)));
+        // mostly two byte deltas and one byte timeout indexes
+        Assert.assertTrue("compact encoding took " + data.length + " bytes",
+                data.length < touchTable.size() * 4);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Map<Long, Integer> empty = new HashMap<Long, Integer>();
+        Assert.assertEquals(0, SessionTouchCodec.decode(null).size());
+        Assert.assertEquals(0, SessionTouchCodec.decode(
+                SessionTouchCodec.encodeLegacy(empty)).size());
+        Assert.assertEquals(0, SessionTouchCodec.decode(
+                SessionTouchCodec.encodeCompact(empty)).size());
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testTruncated() throws Exception {
+        byte[] data = SessionTouchCodec.encodeCompact(sessions(1, 10));
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        SessionTouchCodec.decode(truncated);
+    }
+}
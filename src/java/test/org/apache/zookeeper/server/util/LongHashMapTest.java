@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LongHashMapTest extends ZKTestCase {
+    private static final Logger LOG = LoggerFactory.getLogger(LongHashMapTest.class);
+
+    @Test
+    public void testBasicOperations() {
+        LongHashMap<String> map = new LongHashMap<String>();
+        Assert.assertNull(map.put(0L, "zero"));
+        Assert.assertNull(map.put(-1L, "minus one"));
+        Assert.assertEquals("zero", map.put(0L, "0"));
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("0", map.get(0L));
+        Assert.assertTrue(map.containsKey(-1L));
+        Assert.assertFalse(map.containsKey(1L));
+        Assert.assertEquals("minus one", map.remove(-1L));
+        Assert.assertNull(map.remove(-1L));
+        Assert.assertEquals(1, map.keys().length);
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.get(0L));
+    }
+
+    /**
+     * Compares random operations with a HashMap, with keys shaped like
+     * session ids so that they collide in the low bits.
+     */
+    @Test
+    public void testAgainstHashMap() {
+        Random r = new Random(42);
+        LongHashMap<Long> map = new LongHashMap<Long>();
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        long base = 0x0100000000000000L;
+        for (int i = 0; i < 200000; i++) {
+            long key = base + r.nextInt(5000) * 1024L;
+            switch (r.nextInt(3)) {
+            case 0:
+                Assert.assertEquals(expected.put(key, (long) i),
+                        map.put(key, (long) i));
+                break;
+            case 1:
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+                break;
+            default:
+                Assert.assertEquals(expected.get(key), map.get(key));
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        Set<Long> keys = new HashSet<Long>();
+        for (long key : map.keys()) {
+            keys.add(key);
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+        Assert.assertEquals(expected.keySet(), keys);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Logs the heap used by an index of one ephemeral path per session,
+     * as the DataTree kept it before and as it keeps it now.
+     */
+    @Test
+    public void testHeapUsage() throws Exception {
+        final int sessions = 200000;
+        String[] paths = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            paths[i] = "/lock/n" + i;
+        }
+
+        long before = usedHeap();
+        Map<Long, HashSet<String>> boxed =
+            new ConcurrentHashMap<Long, HashSet<String>>();
+        for (int i = 0; i < sessions; i++) {
+            HashSet<String> set = new HashSet<String>();
+            set.add(paths[i]);
+            boxed.put(0x0100000000000000L + i, set);
+        }
+        long boxedBytes = usedHeap() - before;
+
+        before = usedHeap();
+        LongHashMap<Set<String>> primitive = new LongHashMap<Set<String>>();
+        for (int i = 0; i < sessions; i++) {
+            primitive.put(0x0100000000000000L + i,
+                    Collections.singleton(paths[i]));
+        }
+        long primitiveBytes = usedHeap() - before;
+
+        LOG.info("ephemerals index of " + sessions + " sessions: "
+                + boxedBytes / sessions + " bytes per session with boxed keys"
+                + " and HashSets, " + primitiveBytes / sessions
+                + " bytes per session with LongHashMap and singletons");
+        Assert.assertEquals(boxed.size(), primitive.size());
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.util;
+
+import java.util.List;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TopKCounterTest extends ZKTestCase {
+    @Test
+    public void testExactWithinCapacity() {
+        TopKCounter<String> counter = new TopKCounter<String>(3);
+        counter.add("a", 1);
+        counter.add("b", 5);
+        counter.add("c", 2);
+        counter.add("a", 3);
+        List<TopKCounter.Entry<String>> top = counter.top(2);
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals("b", top.get(0).getKey());
+        Assert.assertEquals(5, top.get(0).getCount());
+        Assert.assertEquals("a", top.get(1).getKey());
+        Assert.assertEquals(4, top.get(1).getCount());
+        Assert.assertEquals(0, top.get(1).getError());
+        Assert.assertEquals(11, counter.getTotal());
+    }
+
+    /**
+     * A few heavy keys among many rare ones are found and counted within
+     * the error bound.
+     */
+    @Test
+    public void testHeavyHitters() {
+        TopKCounter<Integer> counter = new TopKCounter<Integer>(20);
+        int rare = 1000;
+        for (int i = 0; i < 10000; i++) {
+            if (i % 4 == 0) {
+                counter.add(-1, 1);
+            } else if (i % 4 == 1) {
+                counter.add(-2, 1);
+            } else {
+                counter.add(rare++, 1);
+            }
+        }
+        Assert.assertEquals(20, counter.size());
+        List<TopKCounter.Entry<Integer>> top = counter.top(2);
+        for (TopKCounter.Entry<Integer> e : top) {
+            Assert.assertTrue(e.getKey() < 0);
+            Assert.assertTrue(e.getCount() >= 2500);
+            Assert.assertTrue(e.getCount() - e.getError() <= 2500);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.zookeeper.AsyncZooKeeper;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooKeeperFuture;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncZooKeeperTest extends ClientBase {
+    private ZooKeeper zk;
+    private ExecutorService executor;
+    private AsyncZooKeeper async;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        zk = createClient();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "completion");
+            }
+        });
+        async = new AsyncZooKeeper(zk, executor);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        zk.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testCrud() throws Exception {
+        Assert.assertEquals("/foo", async.create("/foo", "a".getBytes(),
+                Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT).getResult());
+        Assert.assertNotNull(async.exists("/foo", false).getResult());
+        Assert.assertNull(async.exists("/bar", false).getResult());
+
+        Stat stat = async.setData("/foo", "b".getBytes(), -1).getResult();
+        Assert.assertEquals(1, stat.getVersion());
+
+        Stat readStat = new Stat();
+        byte[] data = async.getData("/foo", false, readStat).getResult();
+        Assert.assertEquals("b", new String(data));
+        Assert.assertEquals(stat, readStat);
+
+        async.create("/foo/child", null, Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT).getResult();
+        Assert.assertEquals(Arrays.asList("child"),
+                async.getChildren("/foo", false, null).getResult());
+
+        async.sync("/foo").getResult();
+        async.delete("/foo/child", -1).getResult();
+        Assert.assertEquals(0,
+                async.getChildren("/foo", false, null).getResult().size());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        try {
+            async.delete("/missing", -1).getResult();
+            Assert.fail("Expected NoNodeException");
+        } catch (KeeperException.NoNodeException e) {
+            Assert.assertEquals("/missing", e.getPath());
+        }
+    }
+
+    @Test
+    public void testMultiFailure() throws Exception {
+        ZooKeeperFuture<List<OpResult>> f = async.multi(Arrays.asList(
+                Op.create("/multi", null, Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT),
+                Op.delete("/missing", -1)));
+        try {
+            f.getResult();
+            Assert.fail("Expected NoNodeException");
+        } catch (KeeperException.NoNodeException e) {
+            Assert.assertEquals(2, e.getResults().size());
+        }
+        Assert.assertNull(zk.exists("/multi", false));
+    }
+
+    @Test
+    public void testListenerRunsOnExecutor() throws Exception {
+        final ZooKeeperFuture<String> f = async.create("/listener", null,
+                Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AtomicReference<String> threadName = new AtomicReference<String>();
+        final AtomicBoolean notDone = new AtomicBoolean();
+        Runnable listener = new Runnable() {
+            public void run() {
+                threadName.set(Thread.currentThread().getName());
+                if (!f.isDone()) {
+                    notDone.set(true);
+                }
+                latch.countDown();
+            }
+        };
+        f.addListener(listener);
+        f.getResult();
+        // listeners added after completion still run on the executor
+        f.addListener(listener);
+        Assert.assertTrue(latch.await(CONNECTION_TIMEOUT,
+                TimeUnit.MILLISECONDS));
+        Assert.assertEquals("completion", threadName.get());
+        Assert.assertFalse("listener ran before completion", notDone.get());
+    }
+}
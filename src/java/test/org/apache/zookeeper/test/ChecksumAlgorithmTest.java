@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.persistence.ChecksumAlgorithm;
+import org.apache.zookeeper.server.persistence.FileSnap;
+import org.apache.zookeeper.server.persistence.FileTxnLog;
+import org.apache.zookeeper.server.persistence.TxnLog.TxnIterator;
+import org.apache.zookeeper.server.persistence.Util;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes and reads txn logs and snapshots with each checksum algorithm,
+ * logging the append, replay and snapshot load throughput of each.
+ */
+public class ChecksumAlgorithmTest extends ZKTestCase {
+    private static final Logger LOG = LoggerFactory.getLogger(ChecksumAlgorithmTest.class);
+
+    private static final int TXNS = 20000;
+
+    private File tmpDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = ClientBase.createTmpDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(ChecksumAlgorithm.CHECKSUM_ALGORITHM);
+        System.clearProperty(FileSnap.SNAPSHOT_CHUNK_SIZE);
+        ClientBase.recursiveDelete(tmpDir);
+    }
+
+    private static long throughput(long count, long nanos) {
+        return count * 1000000000L / Math.max(nanos, 1);
+    }
+
+    private static int readVersion(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readInt();
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void appendTxns(File dir, long firstZxid, int count)
+            throws IOException {
+        FileTxnLog txnLog = new FileTxnLog(dir);
+        byte[] data = new byte[100];
+        for (long zxid = firstZxid; zxid < firstZxid + count; zxid++) {
+            txnLog.append(new TxnHeader(1, (int) zxid, zxid, zxid, OpCode.create),
+                    new CreateTxn("/n" + zxid, data, Ids.OPEN_ACL_UNSAFE, false, 1));
+        }
+        txnLog.commit();
+        txnLog.close();
+    }
+
+    private static int replayTxns(File dir) throws IOException {
+        TxnIterator itr = new FileTxnLog(dir).read(1);
+        int count = 0;
+        try {
+            while (itr.getHeader() != null) {
+                Assert.assertEquals(++count, itr.getHeader().getZxid());
+                if (!itr.next()) {
+                    break;
+                }
+            }
+        } finally {
+            itr.close();
+        }
+        return count;
+    }
+
+    private static File logFile(File dir, long zxid) {
+        return new File(dir, Util.makeLogName(zxid));
+    }
+
+    @Test
+    public void testTxnLogThroughput() throws Exception {
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            if (!algorithm.isAvailable()) {
+                LOG.info("Skipping {}, not supported by this JVM", algorithm.getName());
+                continue;
+            }
+            System.setProperty(ChecksumAlgorithm.CHECKSUM_ALGORITHM, algorithm.getName());
+            File dir = new File(tmpDir, "log-" + algorithm.getName());
+            Assert.assertTrue(dir.mkdir());
+
+            long start = System.nanoTime();
+            appendTxns(dir, 1, TXNS);
+            long appendNanos = System.nanoTime() - start;
+            Assert.assertEquals(algorithm == ChecksumAlgorithm.ADLER32
+                    ? FileTxnLog.VERSION : FileTxnLog.CHECKSUM_VERSION,
+                    readVersion(logFile(dir, 1)));
+
+            start = System.nanoTime();
+            Assert.assertEquals(TXNS, replayTxns(dir));
+            long replayNanos = System.nanoTime() - start;
+            LOG.info("{}: append {} txns/s, replay {} txns/s", new Object[] {
+                    algorithm.getName(), throughput(TXNS, appendNanos),
+                    throughput(TXNS, replayNanos) });
+        }
+    }
+
+    @Test
+    public void testSnapshotThroughput() throws Exception {
+        DataTree dt = new DataTree();
+        for (int i = 0; i < TXNS; i++) {
+            dt.createNode("/n" + i, new byte[100], Ids.OPEN_ACL_UNSAFE, -1, 1,
+                    i + 1, 1);
+        }
+        Map<Long, Integer> sessions = new HashMap<Long, Integer>();
+        for (String chunkSize : new String[] { "0", "65536" }) {
+            System.setProperty(FileSnap.SNAPSHOT_CHUNK_SIZE, chunkSize);
+            for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+                if (!algorithm.isAvailable()) {
+                    continue;
+                }
+                System.setProperty(ChecksumAlgorithm.CHECKSUM_ALGORITHM,
+                        algorithm.getName());
+                File snap = new File(tmpDir, "snapshot." + algorithm.getId()
+                        + chunkSize);
+                new FileSnap(tmpDir).serialize(dt, sessions, snap);
+                Assert.assertTrue(Util.isValidSnapshot(snap));
+
+                DataTree loaded = new DataTree();
+                long start = System.nanoTime();
+                new FileSnap(tmpDir).deserialize(loaded,
+                        new HashMap<Long, Integer>(), snap);
+                long loadNanos = System.nanoTime() - start;
+                Assert.assertEquals(dt.getNodeCount(), loaded.getNodeCount());
+                LOG.info("{} chunk size {}: load {} MB/s", new Object[] {
+                        algorithm.getName(), chunkSize,
+                        throughput(snap.length(), loadNanos) / (1024 * 1024) });
+            }
+        }
+    }
+
+    /**
+     * Logs written with different algorithms are replayed together, each
+     * with the algorithm recorded in its header.
+     */
+    @Test
+    public void testMixedAlgorithms() throws Exception {
+        appendTxns(tmpDir, 1, 100);
+        System.setProperty(ChecksumAlgorithm.CHECKSUM_ALGORITHM, "crc32");
+        appendTxns(tmpDir, 101, 100);
+        Assert.assertEquals(FileTxnLog.VERSION, readVersion(logFile(tmpDir, 1)));
+        Assert.assertEquals(FileTxnLog.CHECKSUM_VERSION,
+                readVersion(logFile(tmpDir, 101)));
+        Assert.assertEquals(200, replayTxns(tmpDir));
+    }
+
+    @Test
+    public void testCorruptTxnDetected() throws Exception {
+        System.setProperty(ChecksumAlgorithm.CHECKSUM_ALGORITHM, "crc32");
+        appendTxns(tmpDir, 1, 100);
+        RandomAccessFile raf = new RandomAccessFile(logFile(tmpDir, 1), "rw");
+        try {
+            raf.seek(5000);
+            int b = raf.read();
+            raf.seek(5000);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+        try {
+            replayTxns(tmpDir);
+            Assert.fail("corrupt txn was read");
+        } catch (IOException e) {
+            Assert.assertEquals("CRC check failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testInvalidAlgorithm() throws Exception {
+        System.setProperty(ChecksumAlgorithm.CHECKSUM_ALGORITHM, "md5");
+        try {
+            new FileTxnLog(tmpDir);
+            Assert.fail("unknown checksum algorithm was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ChecksumAlgorithm.fromId(42);
+            Assert.fail("unknown checksum id was accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.ClientCnxnSocketNIO;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Verifies that packets written with a single gathering write keep their
+ * xid order and all complete.
+ */
+public class ClientSendBatchTest extends ClientBase {
+    private static final int NUM_REQUESTS = 1000;
+
+    @Override
+    public void setUp() throws Exception {
+        System.setProperty(ClientCnxnSocketNIO.SEND_BATCH_SIZE, "16");
+        super.setUp();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        System.clearProperty(ClientCnxnSocketNIO.SEND_BATCH_SIZE);
+    }
+
+    @Test
+    public void testBatchedCreatesCompleteInOrder() throws Exception {
+        ZooKeeper zk = createClient();
+        try {
+            final CountDownLatch latch = new CountDownLatch(NUM_REQUESTS);
+            final List<String> completed =
+                Collections.synchronizedList(new ArrayList<String>());
+            final List<Integer> errors =
+                Collections.synchronizedList(new ArrayList<Integer>());
+            StringCallback cb = new StringCallback() {
+                public void processResult(int rc, String path, Object ctx,
+                        String name) {
+                    if (rc != Code.OK.intValue()) {
+                        errors.add(rc);
+                    }
+                    completed.add(path);
+                    latch.countDown();
+                }
+            };
+
+            zk.create("/batch", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            for (int i = 0; i < NUM_REQUESTS; i++) {
+                zk.create("/batch/" + i, new byte[100], Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT, cb, null);
+            }
+
+            Assert.assertTrue("Timed out waiting for batched creates",
+                    latch.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+            Assert.assertTrue("Unexpected errors " + errors, errors.isEmpty());
+            for (int i = 0; i < NUM_REQUESTS; i++) {
+                Assert.assertEquals("/batch/" + i, completed.get(i));
+            }
+            Assert.assertEquals(NUM_REQUESTS,
+                    zk.getChildren("/batch", false).size());
+        } finally {
+            zk.close();
+        }
+    }
+}
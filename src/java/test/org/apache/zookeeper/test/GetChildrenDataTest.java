@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.TestableZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.data.ChildData;
+import org.apache.zookeeper.proto.GetChildrenDataRequest;
+import org.apache.zookeeper.proto.GetChildrenDataResponse;
+import org.apache.zookeeper.proto.ReplyHeader;
+import org.apache.zookeeper.proto.RequestHeader;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GetChildrenDataTest extends ClientBase {
+    private TestableZooKeeper zk;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        zk = createClient();
+        // /tree/{a,b,c}/{x,y}
+        zk.create("/tree", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        for (String child : new String[] { "c", "a", "b" }) {
+            zk.create("/tree/" + child, child.getBytes(), Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            for (String grandChild : new String[] { "y", "x" }) {
+                String path = "/tree/" + child + "/" + grandChild;
+                zk.create(path, path.getBytes(), Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT);
+            }
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        zk.close();
+        super.tearDown();
+    }
+
+    private static List<String> paths(List<ChildData> nodes) {
+        List<String> paths = new ArrayList<String>();
+        for (ChildData node : nodes) {
+            paths.add(node.getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void testChildren() throws Exception {
+        List<ChildData> children = zk.getChildrenData("/tree", 1);
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), paths(children));
+        Assert.assertEquals("b", new String(children.get(1).getData()));
+        Assert.assertEquals(2, children.get(1).getStat().getNumChildren());
+    }
+
+    @Test
+    public void testSubtree() throws Exception {
+        List<ChildData> nodes = zk.getChildrenData("/tree", 5);
+        Assert.assertEquals(Arrays.asList("a", "a/x", "a/y", "b", "b/x",
+                "b/y", "c", "c/x", "c/y"), paths(nodes));
+        Assert.assertEquals("/tree/c/y", new String(nodes.get(8).getData()));
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+        List<String> all = new ArrayList<String>();
+        String cursor = "";
+        int pages = 0;
+        do {
+            RequestHeader h = new RequestHeader();
+            h.setType(OpCode.getChildrenData);
+            GetChildrenDataResponse rsp = new GetChildrenDataResponse();
+            ReplyHeader r = zk.submitRequest(h,
+                    new GetChildrenDataRequest("/tree", 2, cursor, 1), rsp,
+                    null);
+            Assert.assertEquals(0, r.getErr());
+            // a budget of one byte still makes progress one node at a time
+            Assert.assertEquals(1, rsp.getChildren().size());
+            all.addAll(paths(rsp.getChildren()));
+            cursor = rsp.getCursor();
+            pages++;
+        } while (!cursor.isEmpty() && pages < 100);
+        Assert.assertEquals(paths(zk.getChildrenData("/tree", 2)), all);
+    }
+
+    @Test
+    public void testNoNode() throws Exception {
+        try {
+            zk.getChildrenData("/missing", 1);
+            Assert.fail("Expected NoNodeException");
+        } catch (KeeperException.NoNodeException e) {
+            Assert.assertEquals("/missing", e.getPath());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jute.Record;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.Request;
+import org.apache.zookeeper.server.persistence.FileTxnLog;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog.PlayBackListener;
+import org.apache.zookeeper.server.persistence.IncrementalBackup;
+import org.apache.zookeeper.server.persistence.Util;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncrementalBackupTest extends ZKTestCase {
+    private File dataDir;
+    private File backupDir;
+    private File restoreDir;
+    private FileTxnSnapLog snapLog;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = ClientBase.createTmpDir();
+        backupDir = ClientBase.createTmpDir();
+        restoreDir = ClientBase.createTmpDir();
+        snapLog = new FileTxnSnapLog(dataDir, dataDir);
+        snapLog.save(new DataTree(),
+                new ConcurrentHashMap<Long, Integer>());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        snapLog.close();
+        ClientBase.recursiveDelete(dataDir);
+        ClientBase.recursiveDelete(backupDir);
+        ClientBase.recursiveDelete(restoreDir);
+    }
+
+    private void write(long from, long to) throws IOException {
+        for (long zxid = from; zxid <= to; zxid++) {
+            TxnHeader hdr = new TxnHeader(1, (int) zxid, zxid, zxid,
+                    OpCode.create);
+            Record txn = new CreateTxn("/n" + Long.toHexString(zxid),
+                    new byte[10], Ids.OPEN_ACL_UNSAFE, false, -1);
+            snapLog.append(new Request(1, (int) zxid, OpCode.create, hdr, txn,
+                    zxid));
+            if (zxid % 200 == 0) {
+                snapLog.rollLog();
+            }
+        }
+        snapLog.commit();
+    }
+
+    private static DataTree load(File dir) throws IOException {
+        FileTxnSnapLog restored = new FileTxnSnapLog(dir, dir);
+        try {
+            DataTree dt = new DataTree();
+            restored.restore(dt, new HashMap<Long, Integer>(),
+                    new PlayBackListener() {
+                        @Override
+                        public void onTxnLoaded(TxnHeader hdr, Record rec) {
+                        }
+                    });
+            return dt;
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    public void testIncrementalBackupAndRestore() throws Exception {
+        IncrementalBackup backup =
+            new IncrementalBackup(dataDir, dataDir, backupDir);
+        write(1, 500);
+        Assert.assertEquals(500, backup.backup());
+        write(501, 800);
+        Assert.assertEquals(300, backup.backup());
+        Assert.assertEquals(0, backup.backup());
+        Assert.assertEquals(800, backup.getLastZxid());
+
+        // one unpadded segment per backup next to the base snapshot
+        File version2 = new File(backupDir, "version-2");
+        Assert.assertArrayEquals(new File[] {
+                new File(version2, Util.makeLogName(1)),
+                new File(version2, Util.makeLogName(501)) },
+                FileTxnLog.getLogFiles(version2.listFiles(), 0));
+        Assert.assertTrue(new File(version2, Util.makeLogName(1)).length()
+                < 500 * 100);
+
+        Assert.assertEquals(800, backup.compact());
+        Assert.assertEquals(-1, backup.compact());
+        Assert.assertTrue(new File(version2,
+                Util.makeSnapshotName(800)).exists());
+
+        // an older point in time is restored from the base snapshot
+        Assert.assertEquals(650,
+                IncrementalBackup.restore(backupDir, 650, restoreDir));
+        DataTree dt = load(restoreDir);
+        Assert.assertEquals(650, dt.lastProcessedZxid);
+        Assert.assertNotNull(dt.getNode("/n" + Long.toHexString(650)));
+        Assert.assertNull(dt.getNode("/n" + Long.toHexString(651)));
+
+        try {
+            IncrementalBackup.restore(backupDir, 700, restoreDir);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // the directory is not empty
+        }
+    }
+
+    @Test
+    public void testRestoreFromCompactedSnapshot() throws Exception {
+        IncrementalBackup backup =
+            new IncrementalBackup(dataDir, dataDir, backupDir);
+        write(1, 300);
+        backup.backup();
+        backup.compact();
+        write(301, 400);
+        backup.backup();
+
+        Assert.assertEquals(400,
+                IncrementalBackup.restore(backupDir, 1000, restoreDir));
+        File version2 = new File(restoreDir, "version-2");
+        Assert.assertTrue(new File(version2,
+                Util.makeSnapshotName(300)).exists());
+        Assert.assertEquals(400, load(restoreDir).lastProcessedZxid);
+    }
+
+    /**
+     * A server log that no longer contains the last backed up txn breaks
+     * the backup.
+     */
+    @Test
+    public void testTruncatedServerLog() throws Exception {
+        IncrementalBackup backup =
+            new IncrementalBackup(dataDir, dataDir, backupDir);
+        write(1, 300);
+        backup.backup();
+        snapLog.close();
+        new FileTxnLog(snapLog.getDataDir()).truncate(250);
+        snapLog = new FileTxnSnapLog(dataDir, dataDir);
+        write(0x100000001L, 0x100000010L);
+        try {
+            backup.backup();
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+        }
+        Assert.assertEquals(300, backup.getLastZxid());
+    }
+}
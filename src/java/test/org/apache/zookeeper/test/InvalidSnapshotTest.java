@@ -20,7 +20,9 @@
 
 import static org.apache.zookeeper.test.ClientBase.CONNECTION_TIMEOUT;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.PrintStream;
 import java.util.concurrent.CountDownLatch;
 
 import org.apache.zookeeper.PortAssignment;
@@ -70,6 +72,40 @@ public void testSnapshotFormatter() throws Exception {
         SnapshotFormatter.main(args);
     }
     
+    /**
+     * Verify the analysis modes of the formatters by running them on known
+     * files.
+     */
+    @Test
+    public void testAnalyzers() throws Exception {
+        File snapDir = new File(new File(testData, "invalidsnap"), "version-2");
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream snapOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream logOut = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(snapOut, true));
+            SnapshotFormatter.main(new String[] { "-analyze",
+                    new File(snapDir, "snapshot.272").getCanonicalPath(), "5" });
+            System.setOut(new PrintStream(logOut, true));
+            LogFormatter.main(new String[] { "-analyze",
+                    new File(snapDir, "log.274").getCanonicalPath() });
+        } finally {
+            System.setOut(stdout);
+        }
+
+        String snapReport = snapOut.toString();
+        LOG.info(snapReport);
+        Assert.assertTrue(snapReport.contains("\"zxid\" : \"0x272\""));
+        Assert.assertTrue(snapReport.contains("\"nodes\" : 628"));
+        Assert.assertTrue(snapReport.contains("\"path\" : \"/0\""));
+
+        String logReport = logOut.toString();
+        LOG.info(logReport);
+        Assert.assertTrue(logReport.contains("\"logDir\" : \""
+                + snapDir.getCanonicalPath() + "\""));
+        Assert.assertTrue(logReport.contains("\"writes\" : "));
+    }
+
     /**
      * Verify the SnapshotFormatter by running it on a known file with one null data.
      */
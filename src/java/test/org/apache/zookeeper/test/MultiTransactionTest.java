@@ -800,4 +800,76 @@ public void processResult(int rc, String path, Object ctx) {
             done.countDown();
         }
     }
+
+    /**
+     * Many ops of one multi change the same parent record; the parent must
+     * end up with the combined child count and cversion.
+     */
+    @Test(timeout = 90000)
+    public void testLargeMulti() throws Exception {
+        final int count = 500;
+        zk.create("/large", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        Stat before = zk.exists("/large", false);
+
+        List<Op> creates = new ArrayList<Op>(count);
+        List<Op> sets = new ArrayList<Op>(count);
+        List<Op> deletes = new ArrayList<Op>(count);
+        for (int i = 0; i < count; i++) {
+            String path = "/large/n" + i;
+            creates.add(Op.create(path, null, Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT));
+            sets.add(Op.setData(path, ("" + i).getBytes(), -1));
+            sets.add(Op.setData(path, ("" + i).getBytes(), 1));
+            deletes.add(Op.delete(path, 2));
+        }
+
+        long start = System.nanoTime();
+        Assert.assertEquals(count, multi(zk, creates).size());
+        Assert.assertEquals(2 * count, multi(zk, sets).size());
+        Stat stat = new Stat();
+        Assert.assertEquals("7", new String(zk.getData("/large/n7", false, stat)));
+        Assert.assertEquals(2, stat.getVersion());
+        Stat parent = zk.exists("/large", false);
+        Assert.assertEquals(count, parent.getNumChildren());
+        Assert.assertEquals(before.getCversion() + count, parent.getCversion());
+
+        Assert.assertEquals(count, multi(zk, deletes).size());
+        LOG.info("3 multis of " + count + " ops took "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        parent = zk.exists("/large", false);
+        Assert.assertEquals(0, parent.getNumChildren());
+        Assert.assertEquals(before.getCversion() + 2 * count,
+                parent.getCversion());
+    }
+
+    /**
+     * A multi failing on its last op must roll back the changes of all the
+     * earlier ops to the shared parent record.
+     */
+    @Test(timeout = 90000)
+    public void testLargeMultiRollback() throws Exception {
+        final int count = 500;
+        zk.create("/large", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        Stat before = zk.exists("/large", false);
+
+        List<Op> ops = new ArrayList<Op>(count + 1);
+        for (int i = 0; i < count; i++) {
+            ops.add(Op.create("/large/n" + i, null, Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT));
+        }
+        ops.add(Op.delete("/large/missing", -1));
+        try {
+            multi(zk, ops);
+            Assert.fail("Expected NoNodeException");
+        } catch (KeeperException.NoNodeException e) {
+            // expected
+        }
+
+        Assert.assertEquals(before, zk.exists("/large", false));
+        // the next txn must see the parent as it is in the tree
+        zk.create("/large/n0", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        Stat parent = zk.exists("/large", false);
+        Assert.assertEquals(1, parent.getNumChildren());
+        Assert.assertEquals(before.getCversion() + 1, parent.getCversion());
+    }
 }
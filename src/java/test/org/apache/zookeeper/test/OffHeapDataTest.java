@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.jute.BinaryInputArchive;
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.common.Time;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.PayloadStore;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class OffHeapDataTest extends ClientBase {
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapDataTest.class);
+
+    private static final int THRESHOLD = 1024;
+
+    @Override
+    public void setUp() throws Exception {
+        System.setProperty(PayloadStore.OFF_HEAP_THRESHOLD,
+                Integer.toString(THRESHOLD));
+        super.setUp();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        System.clearProperty(PayloadStore.OFF_HEAP_THRESHOLD);
+        System.clearProperty(PayloadStore.OFF_HEAP_COLD_MINUTES);
+    }
+
+    private PayloadStore serverStore() {
+        return getServer(serverFactory).getZKDatabase().getDataTree()
+            .getPayloadStore();
+    }
+
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testLargeDataOffHeap() throws Exception {
+        ZooKeeper zk = createClient();
+        try {
+            byte[] big = randomData(64 * 1024);
+            zk.create("/big", big, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            zk.create("/small", "small".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            Assert.assertEquals(1, serverStore().getOffHeapCount());
+            Assert.assertEquals(big.length, serverStore().getOffHeapBytes());
+
+            Stat stat = new Stat();
+            Assert.assertArrayEquals(big, zk.getData("/big", false, stat));
+            Assert.assertEquals(big.length, stat.getDataLength());
+            Assert.assertEquals("small", new String(zk.getData("/small", false, null)));
+            // responses are not interleaved with others on the connection
+            for (int i = 0; i < 10; i++) {
+                Assert.assertArrayEquals(big, zk.getData("/big", false, null));
+                Assert.assertNotNull(zk.exists("/small", false));
+            }
+
+            zk.setData("/big", "shrunk".getBytes(), -1);
+            Assert.assertEquals(0, serverStore().getOffHeapCount());
+            Assert.assertEquals(0, serverStore().getOffHeapBytes());
+            Assert.assertEquals("shrunk", new String(zk.getData("/big", false, null)));
+
+            zk.setData("/small", big, -1);
+            Assert.assertEquals(1, serverStore().getOffHeapCount());
+            zk.delete("/small", -1);
+            Assert.assertEquals(0, serverStore().getOffHeapCount());
+            Assert.assertEquals(0, serverStore().getOffHeapBytes());
+        } finally {
+            zk.close();
+        }
+    }
+
+    @Test
+    public void testDataSurvivesRestart() throws Exception {
+        ZooKeeper zk = createClient();
+        byte[] big = randomData(8 * 1024);
+        try {
+            zk.create("/big", big, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        } finally {
+            zk.close();
+        }
+        stopServer();
+        startServer();
+        Assert.assertEquals(1, serverStore().getOffHeapCount());
+        zk = createClient();
+        try {
+            Assert.assertArrayEquals(big, zk.getData("/big", false, null));
+        } finally {
+            zk.close();
+        }
+    }
+
+    @Test
+    public void testColdDataMovedOnSnapshot() throws Exception {
+        System.setProperty(PayloadStore.OFF_HEAP_THRESHOLD, "0");
+        System.setProperty(PayloadStore.OFF_HEAP_COLD_MINUTES, "1");
+        DataTree dt = new DataTree();
+        long old = Time.currentWallTime() - 2 * 60 * 1000;
+        byte[] cold = randomData(1000);
+        dt.createNode("/cold", cold, Ids.OPEN_ACL_UNSAFE, -1, 1, 1, old);
+        dt.createNode("/hot", randomData(512), Ids.OPEN_ACL_UNSAFE, -1, 1, 2,
+                Time.currentWallTime());
+        dt.createNode("/tiny", "tiny".getBytes(), Ids.OPEN_ACL_UNSAFE, -1, 1, 3,
+                old);
+        Assert.assertEquals(0, dt.getPayloadStore().getOffHeapCount());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        dt.serialize(BinaryOutputArchive.getArchive(baos), "tree");
+        Assert.assertEquals(1, dt.getPayloadStore().getOffHeapCount());
+        Assert.assertEquals(cold.length, dt.getPayloadStore().getOffHeapBytes());
+        Assert.assertArrayEquals(cold, dt.getData("/cold", new Stat(), null));
+
+        DataTree loaded = new DataTree();
+        loaded.deserialize(BinaryInputArchive.getArchive(
+                new ByteArrayInputStream(baos.toByteArray())), "tree");
+        Assert.assertEquals(1, loaded.getPayloadStore().getOffHeapCount());
+        Assert.assertArrayEquals(cold, loaded.getData("/cold", new Stat(), null));
+        Assert.assertEquals("tiny", new String(loaded.getData("/tiny", new Stat(), null)));
+    }
+
+    /**
+     * Logs the heap held by large payloads and the latency of reading them
+     * with and without off-heap storage.
+     */
+    @Test
+    public void testHeapAndLatency() throws Exception {
+        final int nodes = 200;
+        final int size = 16 * 1024;
+        for (int threshold : new int[] { 0, THRESHOLD }) {
+            System.setProperty(PayloadStore.OFF_HEAP_THRESHOLD,
+                    Integer.toString(threshold));
+            stopServer();
+            startServer();
+            ZooKeeper zk = createClient();
+            try {
+                Runtime rt = Runtime.getRuntime();
+                System.gc();
+                long heapBefore = rt.totalMemory() - rt.freeMemory();
+                byte[] data = randomData(size);
+                for (int i = 0; i < nodes; i++) {
+                    zk.create("/n" + i, data, Ids.OPEN_ACL_UNSAFE,
+                            CreateMode.PERSISTENT);
+                }
+                System.gc();
+                long heapAfter = rt.totalMemory() - rt.freeMemory();
+                long start = System.nanoTime();
+                for (int i = 0; i < nodes; i++) {
+                    Assert.assertTrue(Arrays.equals(data,
+                            zk.getData("/n" + i, false, null)));
+                }
+                long micros = (System.nanoTime() - start) / 1000 / nodes;
+                LOG.info("threshold " + threshold + ": heap grew by "
+                        + (heapAfter - heapBefore) / 1024 + " KB for "
+                        + nodes * size / 1024 + " KB of data, getData took "
+                        + micros + " us, off-heap payloads "
+                        + serverStore().getOffHeapCount());
+                for (int i = 0; i < nodes; i++) {
+                    zk.delete("/n" + i, -1);
+                }
+            } finally {
+                zk.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.ClientCnxn;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelWatchDeliveryTest extends ClientBase {
+    private static final int NUM_PATHS = 20;
+
+    @Override
+    public void setUp() throws Exception {
+        System.setProperty(ClientCnxn.WATCH_DELIVERY_THREADS, "4");
+        super.setUp();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        System.clearProperty(ClientCnxn.WATCH_DELIVERY_THREADS);
+    }
+
+    /**
+     * A watcher blocked in process() must not hold up a watcher pinned to
+     * a different delivery thread, and each watcher must still see its own
+     * events in order.
+     */
+    @Test
+    public void testSlowWatcherDoesNotBlockOthers() throws Exception {
+        ZooKeeper zk = createClient();
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch slowEntered = new CountDownLatch(1);
+            Watcher slow = new Watcher() {
+                public void process(WatchedEvent event) {
+                    slowEntered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+
+            final List<String> seen =
+                Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch allSeen = new CountDownLatch(NUM_PATHS);
+            Watcher fast = new Watcher() {
+                public void process(WatchedEvent event) {
+                    if (event.getType() == EventType.NodeCreated) {
+                        seen.add(event.getPath());
+                        allSeen.countDown();
+                    }
+                }
+            };
+            // keep the two watchers on different delivery threads
+            while ((System.identityHashCode(fast) & Integer.MAX_VALUE) % 4
+                    == (System.identityHashCode(slow) & Integer.MAX_VALUE) % 4) {
+                final Watcher delegate = fast;
+                fast = new Watcher() {
+                    public void process(WatchedEvent event) {
+                        delegate.process(event);
+                    }
+                };
+            }
+
+            zk.exists("/slow", slow);
+            for (int i = 0; i < NUM_PATHS; i++) {
+                zk.exists("/fast" + i, fast);
+            }
+            zk.create("/slow", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            Assert.assertTrue(slowEntered.await(CONNECTION_TIMEOUT,
+                    TimeUnit.MILLISECONDS));
+            for (int i = 0; i < NUM_PATHS; i++) {
+                zk.create("/fast" + i, null, Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT);
+            }
+
+            Assert.assertTrue("fast watcher was blocked by slow watcher",
+                    allSeen.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+            for (int i = 0; i < NUM_PATHS; i++) {
+                Assert.assertEquals("/fast" + i, seen.get(i));
+            }
+            release.countDown();
+            Assert.assertTrue(
+                    zk.getWatchDeliveryStats().getDeliveredEvents() >= NUM_PATHS);
+        } finally {
+            zk.close();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Quotas;
+import org.apache.zookeeper.StatsTrack;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooKeeperMain;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.PrepRequestProcessor;
+import org.apache.zookeeper.server.QuotaIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QuotaEnforcementTest extends ClientBase {
+    private ZooKeeper zk;
+
+    @Override
+    public void setUp() throws Exception {
+        System.setProperty(PrepRequestProcessor.ENFORCE_QUOTA, "true");
+        super.setUp();
+        zk = createClient();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        zk.close();
+        super.tearDown();
+        System.clearProperty(PrepRequestProcessor.ENFORCE_QUOTA);
+    }
+
+    private StatsTrack readStats(String path) throws Exception {
+        return new StatsTrack(new String(
+                zk.getData(Quotas.statPath(path), false, new Stat())));
+    }
+
+    @Test
+    public void testUsageIsTrackedInMemory() throws Exception {
+        zk.create("/q", "ab".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        ZooKeeperMain.createQuota(zk, "/q", -1L, -1);
+        zk.create("/q/c", "abcd".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.setData("/q", "abc".getBytes(), -1);
+
+        DataTree dt = getServer(serverFactory).getZKDatabase().getDataTree();
+        QuotaIndex.Quota quota = dt.getQuota("/q");
+        Assert.assertEquals(2, quota.getCount());
+        Assert.assertEquals(7, quota.getBytes());
+
+        // the stat node is brought up to date when it is read
+        StatsTrack st = readStats("/q");
+        Assert.assertEquals(2, st.getCount());
+        Assert.assertEquals(7L, st.getBytes());
+
+        zk.delete("/q/c", -1);
+        st = readStats("/q");
+        Assert.assertEquals(1, st.getCount());
+        Assert.assertEquals(3L, st.getBytes());
+
+        zk.delete(Quotas.quotaPath("/q"), -1);
+        Assert.assertNull(dt.getMaxPrefixWithQuota("/q"));
+    }
+
+    @Test
+    public void testLimitsAreEnforced() throws Exception {
+        zk.create("/q", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        ZooKeeperMain.createQuota(zk, "/q", 10L, 2);
+        zk.create("/q/a", "12345".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        try {
+            zk.create("/q/b", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            Assert.fail("Expected QuotaExceededException");
+        } catch (KeeperException.QuotaExceededException e) {
+            Assert.assertEquals("/q/b", e.getPath());
+        }
+
+        zk.setData("/q/a", "1234567890".getBytes(), -1);
+        try {
+            zk.setData("/q/a", "12345678901".getBytes(), -1);
+            Assert.fail("Expected QuotaExceededException");
+        } catch (KeeperException.QuotaExceededException e) {
+            Assert.assertEquals("/q/a", e.getPath());
+        }
+        // shrinking is always allowed
+        zk.setData("/q/a", "1".getBytes(), -1);
+
+        // raising the limit takes effect right away
+        StatsTrack limits = new StatsTrack();
+        limits.setCount(3);
+        limits.setBytes(10L);
+        zk.setData(Quotas.quotaPath("/q"), limits.toString().getBytes(), -1);
+        zk.create("/q/b", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        Assert.assertEquals(3, readStats("/q").getCount());
+    }
+
+    /**
+     * Writes that are still in flight count against the limits, so a
+     * pipelined burst cannot overshoot them.
+     */
+    @Test
+    public void testPipelinedWrites() throws Exception {
+        zk.create("/q", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        ZooKeeperMain.createQuota(zk, "/q", -1L, 5);
+        int count = 20;
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+        StringCallback cb = new StringCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    String name) {
+                if (rc == KeeperException.Code.OK.intValue()) {
+                    created.incrementAndGet();
+                } else if (rc == KeeperException.Code.QUOTAEXCEEDED.intValue()) {
+                    rejected.incrementAndGet();
+                }
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < count; i++) {
+            zk.create("/q/c" + i, null, Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT, cb, null);
+        }
+        Assert.assertTrue(done.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(4, created.get());
+        Assert.assertEquals(count - 4, rejected.get());
+        Assert.assertEquals(5, readStats("/q").getCount());
+    }
+
+    /**
+     * The ops of a multi count against the limits of the ops after them,
+     * and a rejected multi gives its usage back.
+     */
+    @Test
+    public void testMultiWrites() throws Exception {
+        zk.create("/q", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        ZooKeeperMain.createQuota(zk, "/q", 10L, 3);
+        try {
+            zk.multi(Arrays.asList(
+                    Op.create("/q/a", null, Ids.OPEN_ACL_UNSAFE,
+                            CreateMode.PERSISTENT),
+                    Op.create("/q/b", null, Ids.OPEN_ACL_UNSAFE,
+                            CreateMode.PERSISTENT),
+                    Op.create("/q/c", null, Ids.OPEN_ACL_UNSAFE,
+                            CreateMode.PERSISTENT)));
+            Assert.fail("Expected QuotaExceededException");
+        } catch (KeeperException.QuotaExceededException e) {
+            Assert.assertEquals(KeeperException.Code.QUOTAEXCEEDED.intValue(),
+                    ((OpResult.ErrorResult) e.getResults().get(2)).getErr());
+        }
+        try {
+            zk.multi(Arrays.asList(
+                    Op.create("/q/a", "123456".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                            CreateMode.PERSISTENT),
+                    Op.setData("/q/a", "1234567890".getBytes(), -1),
+                    Op.create("/q/b", "1".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                            CreateMode.PERSISTENT)));
+            Assert.fail("Expected QuotaExceededException");
+        } catch (KeeperException.QuotaExceededException e) {
+            Assert.assertEquals(KeeperException.Code.QUOTAEXCEEDED.intValue(),
+                    ((OpResult.ErrorResult) e.getResults().get(2)).getErr());
+        }
+
+        // nothing was left charged by the rejected multis
+        zk.multi(Arrays.asList(
+                Op.create("/q/a", "1234567890".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT),
+                Op.create("/q/b", null, Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT)));
+        StatsTrack st = readStats("/q");
+        Assert.assertEquals(3, st.getCount());
+        Assert.assertEquals(10L, st.getBytes());
+    }
+
+    @Test
+    public void testUsageSurvivesRestart() throws Exception {
+        zk.create("/q", "ab".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        ZooKeeperMain.createQuota(zk, "/q", 100L, 10);
+        zk.create("/q/c", "abcd".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.close();
+
+        stopServer();
+        startServer();
+        zk = createClient();
+        StatsTrack st = readStats("/q");
+        Assert.assertEquals(2, st.getCount());
+        Assert.assertEquals(6L, st.getBytes());
+        QuotaIndex.Quota quota = getServer(serverFactory).getZKDatabase()
+            .getDataTree().getQuota("/q");
+        Assert.assertEquals(10, quota.getCountLimit());
+        Assert.assertEquals(100, quota.getBytesLimit());
+    }
+}
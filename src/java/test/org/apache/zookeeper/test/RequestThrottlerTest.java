@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.RequestThrottler;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestThrottlerTest extends ClientBase {
+    private static final int WRITE_RATE = 10;
+
+    @Override
+    public void setUp() throws Exception {
+        System.setProperty(RequestThrottler.SESSION_WRITE_RATE,
+                Integer.toString(WRITE_RATE));
+        super.setUp();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        System.clearProperty(RequestThrottler.SESSION_WRITE_RATE);
+    }
+
+    /**
+     * A session issuing a burst of writes is held to its rate, gets every
+     * request executed in order, and does not hold up another session.
+     */
+    @Test
+    public void testSessionWriteRate() throws Exception {
+        ZooKeeper storm = createClient();
+        ZooKeeper other = createClient();
+        try {
+            int count = 4 * WRITE_RATE;
+            final List<String> created =
+                Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch done = new CountDownLatch(count);
+            StringCallback cb = new StringCallback() {
+                public void processResult(int rc, String path, Object ctx,
+                        String name) {
+                    if (rc == KeeperException.Code.OK.intValue()) {
+                        created.add(name);
+                    }
+                    done.countDown();
+                }
+            };
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                storm.create("/storm" + i, null, Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT, cb, null);
+            }
+
+            // the other session still has its own budget
+            long otherStart = System.currentTimeMillis();
+            other.create("/other", null, Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            Assert.assertTrue(System.currentTimeMillis() - otherStart
+                    < count * 1000 / WRITE_RATE / 2);
+
+            // the connection stops reading while its requests are queued,
+            // responses do not resume it
+            ZooKeeperServer zks = getServer(serverFactory);
+            int maxQueued = 0;
+            long deadline = start + CONNECTION_TIMEOUT;
+            while (!done.await(10, TimeUnit.MILLISECONDS)) {
+                maxQueued = Math.max(maxQueued, zks.getThrottleQueueSize());
+                Assert.assertTrue(System.currentTimeMillis() < deadline);
+            }
+            Assert.assertTrue("queued " + maxQueued, maxQueued <= 1);
+            long elapsed = System.currentTimeMillis() - start;
+            // the first WRITE_RATE requests pass as a burst
+            Assert.assertTrue("took " + elapsed + "ms",
+                    elapsed >= (count - WRITE_RATE) * 1000 / WRITE_RATE - 500);
+            for (int i = 0; i < count; i++) {
+                Assert.assertEquals("/storm" + i, created.get(i));
+            }
+
+            Assert.assertTrue(zks.getThrottledRequests() > 0);
+            Assert.assertEquals(0, zks.getThrottleQueueSize());
+        } finally {
+            other.close();
+            storm.close();
+        }
+    }
+
+    /**
+     * Closing a session with throttled requests does not overtake them:
+     * every queued request is executed before the session goes away.
+     */
+    @Test
+    public void testCloseWithQueuedRequests() throws Exception {
+        ZooKeeper zk = createClient();
+        int count = 2 * WRITE_RATE;
+        final List<String> created =
+            Collections.synchronizedList(new ArrayList<String>());
+        StringCallback cb = new StringCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    String name) {
+                if (rc == KeeperException.Code.OK.intValue()) {
+                    created.add(name);
+                }
+            }
+        };
+        for (int i = 0; i < count; i++) {
+            zk.create("/queued" + i, null, Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT, cb, null);
+        }
+        zk.close();
+
+        Assert.assertEquals(count, created.size());
+        ZooKeeper other = createClient();
+        try {
+            for (int i = 0; i < count; i++) {
+                Assert.assertNotNull(other.exists("/queued" + i, false));
+            }
+        } finally {
+            other.close();
+        }
+        Assert.assertEquals(0,
+                getServer(serverFactory).getThrottleQueueSize());
+    }
+
+    /**
+     * Reads are not charged against the write budget.
+     */
+    @Test
+    public void testReadsUnlimited() throws Exception {
+        ZooKeeper zk = createClient();
+        try {
+            for (int i = 0; i < 10 * WRITE_RATE; i++) {
+                zk.exists("/", false);
+            }
+            Assert.assertEquals(0,
+                    getServer(serverFactory).getThrottledRequests());
+        } finally {
+            zk.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.persistence.FileSnap;
+import org.apache.zookeeper.server.persistence.Util;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotChunkTest extends ZKTestCase {
+    private static final int NODES = 5000;
+
+    private File tmpDir;
+    private DataTree dt;
+    private Map<Long, Integer> sessions;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = ClientBase.createTmpDir();
+        dt = new DataTree();
+        dt.createNode("/chunk", new byte[0], Ids.OPEN_ACL_UNSAFE, -1, 1, 1, 1);
+        for (int i = 0; i < NODES; i++) {
+            dt.createNode("/chunk/n" + i, ("data" + i).getBytes(),
+                    Ids.OPEN_ACL_UNSAFE, i % 10 == 0 ? 0x1234L : -1, 1, i + 2, 1);
+        }
+        sessions = new HashMap<Long, Integer>();
+        sessions.put(0x1234L, 30000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(FileSnap.SNAPSHOT_CHUNK_SIZE);
+        ClientBase.recursiveDelete(tmpDir);
+    }
+
+    private File writeSnapshot() throws IOException {
+        File snap = new File(tmpDir, Util.makeSnapshotName(NODES + 1));
+        new FileSnap(tmpDir).serialize(dt, sessions, snap);
+        Assert.assertTrue(Util.isValidSnapshot(snap));
+        return snap;
+    }
+
+    private static int readVersion(File snap) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(snap));
+        try {
+            in.readInt();
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void assertLoads(File snap) throws Exception {
+        DataTree loaded = new DataTree();
+        Map<Long, Integer> loadedSessions = new HashMap<Long, Integer>();
+        new FileSnap(tmpDir).deserialize(loaded, loadedSessions, snap);
+        Assert.assertEquals(dt.getNodeCount(), loaded.getNodeCount());
+        Assert.assertEquals("data" + (NODES - 1), new String(loaded.getData(
+                "/chunk/n" + (NODES - 1), new Stat(), null)));
+        Assert.assertEquals(NODES / 10, loaded.getEphemerals(0x1234L).size());
+        Assert.assertEquals(sessions, loadedSessions);
+    }
+
+    @Test
+    public void testUnchunkedRoundTrip() throws Exception {
+        File snap = writeSnapshot();
+        Assert.assertEquals(2, readVersion(snap));
+        assertLoads(snap);
+    }
+
+    @Test
+    public void testChunkedRoundTrip() throws Exception {
+        System.setProperty(FileSnap.SNAPSHOT_CHUNK_SIZE, "4096");
+        File snap = writeSnapshot();
+        Assert.assertEquals(3, readVersion(snap));
+        assertLoads(snap);
+
+        // the most recent snapshot is found and loaded as usual
+        DataTree loaded = new DataTree();
+        Assert.assertEquals(NODES + 1, new FileSnap(tmpDir).deserialize(
+                loaded, new HashMap<Long, Integer>()));
+        Assert.assertEquals(dt.getNodeCount(), loaded.getNodeCount());
+    }
+
+    @Test
+    public void testCorruptChunk() throws Exception {
+        System.setProperty(FileSnap.SNAPSHOT_CHUNK_SIZE, "4096");
+        File snap = writeSnapshot();
+        RandomAccessFile raf = new RandomAccessFile(snap, "rw");
+        try {
+            // flip a byte in the data of the third chunk
+            long pos = 24 + 2 * (4096 + 12) + 12 + 100;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+        try {
+            new FileSnap(tmpDir).deserialize(new DataTree(),
+                    new HashMap<Long, Integer>(), snap);
+            Assert.fail("corrupt snapshot was loaded");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(),
+                    e.getMessage().contains("Checksum mismatch in chunk 2"));
+        }
+    }
+
+    @Test
+    public void testTruncatedChunkedSnapshot() throws Exception {
+        System.setProperty(FileSnap.SNAPSHOT_CHUNK_SIZE, "4096");
+        File snap = writeSnapshot();
+        RandomAccessFile raf = new RandomAccessFile(snap, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+        Assert.assertFalse(Util.isValidSnapshot(snap));
+        try {
+            new FileSnap(tmpDir).deserialize(new DataTree(),
+                    new HashMap<Long, Integer>(), snap);
+            Assert.fail("truncated snapshot was loaded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.jute.Record;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.Request;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog.PlayBackListener;
+import org.apache.zookeeper.server.persistence.TxnLogCompactor;
+import org.apache.zookeeper.server.persistence.Util;
+import org.apache.zookeeper.txn.CreateSessionTxn;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.DeleteTxn;
+import org.apache.zookeeper.txn.ErrorTxn;
+import org.apache.zookeeper.txn.MultiTxn;
+import org.apache.zookeeper.txn.SetACLTxn;
+import org.apache.zookeeper.txn.SetDataTxn;
+import org.apache.zookeeper.txn.Txn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TxnLogCompactorTest extends ZKTestCase {
+    private static final long SESSION = 0x2L;
+
+    private File dataDir;
+    private File outputDir;
+    private FileTxnSnapLog snapLog;
+    private long zxid;
+    /** the cversion of each parent, as the leader would log it */
+    private final Map<String, Integer> cversions = new HashMap<String, Integer>();
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = ClientBase.createTmpDir();
+        outputDir = ClientBase.createTmpDir();
+        snapLog = new FileTxnSnapLog(dataDir, dataDir);
+        snapLog.save(new DataTree(),
+                new ConcurrentHashMap<Long, Integer>());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        snapLog.close();
+        ClientBase.recursiveDelete(dataDir);
+        ClientBase.recursiveDelete(outputDir);
+    }
+
+    private void append(long clientId, int type, Record txn)
+            throws IOException {
+        zxid++;
+        TxnHeader hdr = new TxnHeader(clientId, (int) zxid, zxid, zxid, type);
+        snapLog.append(new Request(clientId, (int) zxid, type, hdr, txn, zxid));
+        if (zxid % 50 == 0) {
+            snapLog.rollLog();
+        }
+    }
+
+    private CreateTxn createTxn(String path, boolean ephemeral) {
+        String parent = path.substring(0, Math.max(1, path.lastIndexOf('/')));
+        Integer cversion = cversions.get(parent);
+        cversion = cversion == null ? 1 : cversion + 1;
+        cversions.put(parent, cversion);
+        return new CreateTxn(path, path.getBytes(), Ids.OPEN_ACL_UNSAFE,
+                ephemeral, cversion);
+    }
+
+    private void create(String path) throws IOException {
+        append(1, OpCode.create, createTxn(path, false));
+    }
+
+    private static Txn subTxn(int type, Record txn) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        txn.serialize(BinaryOutputArchive.getArchive(baos), "request");
+        return new Txn(type, baos.toByteArray());
+    }
+
+    private static DataTree load(File dir, Map<Long, Integer> sessions)
+            throws IOException {
+        FileTxnSnapLog restored = new FileTxnSnapLog(dir, dir);
+        try {
+            DataTree dt = new DataTree();
+            restored.restore(dt, sessions, new PlayBackListener() {
+                @Override
+                public void onTxnLoaded(TxnHeader hdr, Record rec) {
+                }
+            });
+            return dt;
+        } finally {
+            restored.close();
+        }
+    }
+
+    private static void assertSameTree(DataTree expected, DataTree actual,
+            String path) throws KeeperException.NoNodeException {
+        Stat expectedStat = new Stat();
+        Stat actualStat = new Stat();
+        Assert.assertArrayEquals(path,
+                expected.getData(path, expectedStat, null),
+                actual.getData(path, actualStat, null));
+        Assert.assertEquals(path, expectedStat, actualStat);
+        Assert.assertEquals(path, expected.getACL(path, new Stat()),
+                actual.getACL(path, new Stat()));
+        List<String> children = expected.getChildren(path, null, null);
+        Collections.sort(children);
+        List<String> actualChildren = actual.getChildren(path, null, null);
+        Collections.sort(actualChildren);
+        Assert.assertEquals(path, children, actualChildren);
+        for (String child : children) {
+            assertSameTree(expected, actual,
+                    (path.equals("/") ? "" : path) + "/" + child);
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        create("/app");
+        create("/app/config");
+        for (int i = 1; i <= 20; i++) {
+            append(1, OpCode.setData, new SetDataTxn("/app/config",
+                    ("v" + i).getBytes(), i));
+        }
+        long snapZxid = zxid;
+
+        // superseded updates
+        for (int i = 21; i <= 100; i++) {
+            append(1, OpCode.setData, new SetDataTxn("/app/config",
+                    ("v" + i).getBytes(), i));
+        }
+        append(1, OpCode.setACL, new SetACLTxn("/app", Ids.READ_ACL_UNSAFE, 1));
+        append(1, OpCode.setACL, new SetACLTxn("/app", Ids.OPEN_ACL_UNSAFE, 2));
+        // short lived nodes, dropped once a later create sets the cversion
+        // of the parent
+        for (int i = 0; i < 20; i++) {
+            create("/app/tmp" + i);
+            append(1, OpCode.setData, new SetDataTxn("/app/tmp" + i,
+                    new byte[100], 1));
+            append(1, OpCode.delete, new DeleteTxn("/app/tmp" + i));
+        }
+        create("/app/done");
+        // an ephemeral removed when its session closes
+        append(SESSION, OpCode.createSession, new CreateSessionTxn(30000));
+        append(SESSION, OpCode.create, createTxn("/app/lock", true));
+        append(SESSION, OpCode.closeSession, null);
+        // a session without other txns
+        append(0x3L, OpCode.createSession, new CreateSessionTxn(30000));
+        append(0x3L, OpCode.closeSession, null);
+        append(1, OpCode.error, new ErrorTxn(
+                KeeperException.Code.NODEEXISTS.intValue()));
+        append(1, OpCode.multi, new MultiTxn(Arrays.asList(
+                subTxn(OpCode.create, createTxn("/app/multi", false)),
+                subTxn(OpCode.setData, new SetDataTxn("/app/config",
+                        "multi".getBytes(), 101)))));
+        // still alive after the last txn
+        append(0x4L, OpCode.createSession, new CreateSessionTxn(30000));
+        append(0x4L, OpCode.create, createTxn("/app/owned", true));
+        append(1, OpCode.setData, new SetDataTxn("/app/config",
+                "last".getBytes(), 102));
+        snapLog.commit();
+        long lastZxid = zxid;
+
+        TxnLogCompactor compactor = new TxnLogCompactor(dataDir, dataDir);
+        Assert.assertEquals(lastZxid, compactor.compact(snapZxid, outputDir));
+        Assert.assertEquals(lastZxid, compactor.getInputTxns());
+        Assert.assertTrue("" + compactor.getOutputTxns(),
+                compactor.getOutputTxns() < 15);
+        Assert.assertTrue(compactor.getOutputBytes()
+                < compactor.getInputBytes());
+        File version2 = new File(outputDir, "version-2");
+        Assert.assertTrue(new File(version2,
+                Util.makeSnapshotName(snapZxid)).exists());
+
+        Map<Long, Integer> expectedSessions = new HashMap<Long, Integer>();
+        DataTree expected = load(dataDir, expectedSessions);
+        Map<Long, Integer> actualSessions = new HashMap<Long, Integer>();
+        DataTree actual = load(outputDir, actualSessions);
+        Assert.assertEquals(lastZxid, actual.lastProcessedZxid);
+        Assert.assertEquals(expectedSessions, actualSessions);
+        Assert.assertEquals(expected.getEphemerals(0x4L),
+                actual.getEphemerals(0x4L));
+        assertSameTree(expected, actual, "/");
+        Assert.assertEquals("last",
+                new String(actual.getData("/app/config", new Stat(), null)));
+
+        try {
+            new TxnLogCompactor(dataDir, dataDir).compact(snapZxid, outputDir);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // the output directory is not empty
+        }
+    }
+
+    @Test
+    public void testFoldIntoSnapshot() throws Exception {
+        create("/app");
+        for (int i = 1; i <= 100; i++) {
+            append(1, OpCode.setData, new SetDataTxn("/app", new byte[i], i));
+        }
+        snapLog.commit();
+
+        TxnLogCompactor compactor = new TxnLogCompactor(dataDir, dataDir);
+        Assert.assertEquals(zxid, compactor.compact(Long.MAX_VALUE, outputDir));
+        Assert.assertEquals(0, compactor.getOutputTxns());
+        DataTree actual = load(outputDir, new HashMap<Long, Integer>());
+        Assert.assertEquals(zxid, actual.lastProcessedZxid);
+        assertSameTree(load(dataDir, new HashMap<Long, Integer>()), actual, "/");
+    }
+}
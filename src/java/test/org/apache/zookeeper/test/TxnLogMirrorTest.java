@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.jute.Record;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.Request;
+import org.apache.zookeeper.server.ServerConfig;
+import org.apache.zookeeper.server.persistence.FileTxnLog;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog.PlayBackListener;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TxnLogMirrorTest extends ZKTestCase {
+    private static final int TXNS = 1000;
+
+    private File dataDir;
+    private File[] mirrors;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = ClientBase.createTmpDir();
+        mirrors = new File[] { ClientBase.createTmpDir(),
+                ClientBase.createTmpDir() };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(FileTxnSnapLog.TXN_LOG_MIRROR_DIRS);
+        ClientBase.recursiveDelete(dataDir);
+        for (File mirror : mirrors) {
+            ClientBase.recursiveDelete(mirror);
+        }
+    }
+
+    private FileTxnSnapLog open(String syncPolicy) throws IOException {
+        return new FileTxnSnapLog(dataDir, dataDir, mirrors, syncPolicy);
+    }
+
+    private static void write(FileTxnSnapLog snapLog, long from, long to)
+            throws IOException {
+        for (long zxid = from; zxid <= to; zxid++) {
+            TxnHeader hdr = new TxnHeader(1, (int) zxid, zxid, zxid,
+                    OpCode.create);
+            Record txn = new CreateTxn("/n" + zxid, new byte[10],
+                    Ids.OPEN_ACL_UNSAFE, false, -1);
+            snapLog.append(new Request(1, (int) zxid, OpCode.create, hdr, txn,
+                    zxid));
+            if (zxid % 100 == 0) {
+                snapLog.commit();
+            }
+            if (zxid % 400 == 0) {
+                snapLog.rollLog();
+            }
+        }
+        snapLog.commit();
+    }
+
+    private static long restore(FileTxnSnapLog snapLog) throws IOException {
+        return snapLog.restore(new DataTree(), new HashMap<Long, Integer>(),
+                new PlayBackListener() {
+                    @Override
+                    public void onTxnLoaded(TxnHeader hdr, Record rec) {
+                    }
+                });
+    }
+
+    private static String[] logFiles(File dir) {
+        String[] names = dir.list();
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Test
+    public void testMirroredLogs() throws Exception {
+        FileTxnSnapLog snapLog = open("all");
+        File[] mirrorDirs = snapLog.getMirrorDirs();
+        Assert.assertEquals(2, mirrorDirs.length);
+        write(snapLog, 1, TXNS);
+        snapLog.close();
+
+        Assert.assertEquals(3, logFiles(snapLog.getDataDir()).length);
+        for (File mirrorDir : mirrorDirs) {
+            Assert.assertArrayEquals(logFiles(snapLog.getDataDir()),
+                    logFiles(mirrorDir));
+            Assert.assertEquals(TXNS, new FileTxnLog(mirrorDir).getLastLoggedZxid());
+        }
+    }
+
+    @Test
+    public void testSyncPolicy() throws Exception {
+        FileTxnSnapLog snapLog = open("1");
+        write(snapLog, 1, TXNS);
+        snapLog.close();
+        for (File mirrorDir : snapLog.getMirrorDirs()) {
+            Assert.assertEquals(TXNS, new FileTxnLog(mirrorDir).getLastLoggedZxid());
+        }
+
+        try {
+            open("4");
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // only 3 directories
+        }
+    }
+
+    /**
+     * A directory that lost the tail of the log is repaired from the most
+     * complete copy when the database is restored.
+     */
+    @Test
+    public void testRepairOnRestore() throws Exception {
+        FileTxnSnapLog snapLog = open("all");
+        write(snapLog, 1, TXNS);
+        snapLog.close();
+
+        // the data log dir lost everything after zxid 500, the first mirror
+        // everything after 900
+        new FileTxnLog(snapLog.getDataDir()).truncate(500);
+        File[] mirrorDirs = snapLog.getMirrorDirs();
+        new FileTxnLog(mirrorDirs[0]).truncate(900);
+        Assert.assertEquals(500, new FileTxnLog(snapLog.getDataDir()).getLastLoggedZxid());
+
+        snapLog = open("all");
+        Assert.assertEquals(TXNS, restore(snapLog));
+        Assert.assertEquals(TXNS, new FileTxnLog(snapLog.getDataDir()).getLastLoggedZxid());
+        Assert.assertEquals(TXNS, new FileTxnLog(mirrorDirs[0]).getLastLoggedZxid());
+
+        // new txns go to all the directories again
+        write(snapLog, TXNS + 1, TXNS + 10);
+        snapLog.close();
+        for (File mirrorDir : mirrorDirs) {
+            Assert.assertEquals(TXNS + 10,
+                    new FileTxnLog(mirrorDir).getLastLoggedZxid());
+        }
+    }
+
+    /**
+     * The mirrors are only configured for the server; tools opening the
+     * logs leave them alone.
+     */
+    @Test
+    public void testMirrorsOnlyForServer() throws Exception {
+        System.setProperty(FileTxnSnapLog.TXN_LOG_MIRROR_DIRS,
+                mirrors[0] + "," + mirrors[1]);
+        ServerConfig config = new ServerConfig();
+        Assert.assertArrayEquals(mirrors, config.getTxnLogMirrorDirs());
+
+        FileTxnSnapLog snapLog = new FileTxnSnapLog(dataDir, dataDir);
+        Assert.assertEquals(0, snapLog.getMirrorDirs().length);
+        write(snapLog, 1, TXNS);
+        snapLog.close();
+        for (File mirror : mirrors) {
+            Assert.assertEquals(0, mirror.list().length);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jute.Record;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.persistence.FileTxnLog;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog.PlayBackListener;
+import org.apache.zookeeper.server.persistence.Util;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.SetDataTxn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays the same txn logs with and without parallel decoding.
+ */
+public class TxnLogReplayTest extends ZKTestCase {
+    private static final Logger LOG = LoggerFactory.getLogger(TxnLogReplayTest.class);
+
+    private static final int NODES = 20000;
+    private static final int TXNS_PER_LOG = 10000;
+
+    private File tmpDir;
+    private FileTxnSnapLog snapLog;
+    private long loaded;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = ClientBase.createTmpDir();
+        snapLog = new FileTxnSnapLog(tmpDir, tmpDir);
+        writeLogs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(FileTxnSnapLog.TXN_LOG_REPLAY_THREADS);
+        snapLog.close();
+        ClientBase.recursiveDelete(tmpDir);
+    }
+
+    /**
+     * Writes a create of every node and a setData of every other node,
+     * spread over several log files.
+     */
+    private void writeLogs() throws IOException {
+        FileTxnLog txnLog = new FileTxnLog(snapLog.getDataDir());
+        byte[] data = new byte[100];
+        long zxid = 0;
+        append(txnLog, ++zxid, OpCode.create,
+                new CreateTxn("/replay", data, Ids.OPEN_ACL_UNSAFE, false, -1));
+        for (int i = 0; i < NODES; i++) {
+            data[0] = (byte) i;
+            append(txnLog, ++zxid, OpCode.create, new CreateTxn("/replay/n" + i,
+                    data, Ids.OPEN_ACL_UNSAFE, false, -1));
+            if (i % 2 == 0) {
+                append(txnLog, ++zxid, OpCode.setData,
+                        new SetDataTxn("/replay/n" + (i / 2), data, 1));
+            }
+            if (zxid % TXNS_PER_LOG == 0) {
+                txnLog.commit();
+                txnLog.rollLog();
+            }
+        }
+        txnLog.commit();
+        txnLog.close();
+    }
+
+    private static void append(FileTxnLog txnLog, long zxid, int type,
+            Record txn) throws IOException {
+        txnLog.append(new TxnHeader(1, (int) zxid, zxid, zxid, type), txn);
+    }
+
+    private DataTree replay(int threads) throws IOException {
+        System.setProperty(FileTxnSnapLog.TXN_LOG_REPLAY_THREADS, "" + threads);
+        loaded = 0;
+        DataTree dt = new DataTree();
+        long start = System.nanoTime();
+        long zxid = snapLog.restore(dt, new HashMap<Long, Integer>(),
+                new PlayBackListener() {
+                    @Override
+                    public void onTxnLoaded(TxnHeader hdr, Record rec) {
+                        Assert.assertEquals(++loaded, hdr.getZxid());
+                    }
+                });
+        LOG.info("Replayed {} txns with {} threads in {} ms", new Object[] {
+                loaded, threads, (System.nanoTime() - start) / 1000000 });
+        Assert.assertEquals(loaded, zxid);
+        Assert.assertTrue(snapLog.getLastReplayRate() > 0);
+        return dt;
+    }
+
+    private static void assertSameTree(DataTree expected, DataTree actual)
+            throws Exception {
+        Assert.assertEquals(expected.lastProcessedZxid, actual.lastProcessedZxid);
+        Assert.assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        for (String child : expected.getNode("/replay").getChildren()) {
+            String path = "/replay/" + child;
+            Assert.assertArrayEquals(path,
+                    expected.getData(path, new Stat(), null),
+                    actual.getData(path, new Stat(), null));
+            Assert.assertEquals(path, expected.getNode(path).stat,
+                    actual.getNode(path).stat);
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testParallelReplay() throws Exception {
+        DataTree sequential = replay(1);
+        Assert.assertEquals(NODES + NODES / 2 + 1, sequential.lastProcessedZxid);
+        Assert.assertTrue(snapLog.getDataDir().list().length > 1);
+        assertSameTree(sequential, replay(4));
+    }
+
+    /**
+     * A corrupted txn must stop both replays at the same point.
+     */
+    @Test(timeout = 120000)
+    public void testCorruptLog() throws Exception {
+        File first = null;
+        for (File f : snapLog.getDataDir().listFiles()) {
+            if (f.getName().startsWith("log.") && (first == null
+                    || Util.getZxidFromName(f.getName(), "log")
+                        < Util.getZxidFromName(first.getName(), "log"))) {
+                first = f;
+            }
+        }
+        RandomAccessFile raf = new RandomAccessFile(first, "rw");
+        try {
+            raf.seek(100000);
+            int b = raf.read();
+            raf.seek(100000);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+        String sequential;
+        try {
+            sequential = "zxid " + replay(1).lastProcessedZxid;
+        } catch (IOException e) {
+            sequential = e.getMessage();
+        }
+        sequential += " after " + loaded + " txns";
+        String parallel;
+        try {
+            parallel = "zxid " + replay(4).lastProcessedZxid;
+        } catch (IOException e) {
+            parallel = e.getMessage();
+        }
+        parallel += " after " + loaded + " txns";
+        LOG.info("Replay of corrupt log: {}", sequential);
+        Assert.assertEquals(sequential, parallel);
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.ZooKeeperReadCache;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZooKeeperReadCacheTest extends ClientBase {
+    private ZooKeeper zk;
+    private ZooKeeper writer;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        zk = createClient();
+        writer = createClient();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        writer.close();
+        zk.close();
+        super.tearDown();
+    }
+
+    /**
+     * Waits until the cache has processed the notification for a change
+     * made by the writer, i.e. the next read is a miss.
+     */
+    private void waitForMiss(ZooKeeperReadCache cache, String path)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            long misses = cache.getMisses();
+            cache.exists(path);
+            if (cache.getMisses() > misses) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        Assert.fail("cache entry for " + path + " was not invalidated");
+    }
+
+    @Test
+    public void testDataInvalidation() throws Exception {
+        ZooKeeperReadCache cache = new ZooKeeperReadCache(zk, 100);
+        writer.create("/cached", "v1".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+
+        Assert.assertEquals("v1", new String(cache.getData("/cached", null)));
+        Stat stat = new Stat();
+        Assert.assertEquals("v1", new String(cache.getData("/cached", stat)));
+        Assert.assertEquals(0, stat.getVersion());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getHits());
+
+        writer.setData("/cached", "v2".getBytes(), -1);
+        waitForMiss(cache, "/cached");
+        Assert.assertEquals("v2", new String(cache.getData("/cached", stat)));
+        Assert.assertEquals(1, stat.getVersion());
+
+        writer.delete("/cached", -1);
+        waitForMiss(cache, "/cached");
+        Assert.assertNull(cache.exists("/cached"));
+        try {
+            cache.getData("/cached", null);
+            Assert.fail("Expected NoNodeException");
+        } catch (KeeperException.NoNodeException e) {
+            // expected
+        }
+
+        writer.create("/cached", "v3".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        waitForMiss(cache, "/cached");
+        Assert.assertEquals("v3", new String(cache.getData("/cached", null)));
+    }
+
+    @Test
+    public void testChildrenInvalidation() throws Exception {
+        ZooKeeperReadCache cache = new ZooKeeperReadCache(zk, 100);
+        writer.create("/parent", null, Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        Assert.assertEquals(0, cache.getChildren("/parent").size());
+        Assert.assertEquals(0, cache.getChildren("/parent").size());
+        Assert.assertEquals(1, cache.getHits());
+
+        writer.create("/parent/child", null, Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        long deadline = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (cache.getChildren("/parent").isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, cache.getChildren("/parent").size());
+    }
+
+    @Test
+    public void testLruEviction() throws Exception {
+        ZooKeeperReadCache cache = new ZooKeeperReadCache(zk, 2);
+        for (int i = 0; i < 3; i++) {
+            writer.create("/n" + i, null, Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+        }
+        cache.exists("/n0");
+        cache.exists("/n1");
+        cache.exists("/n0");
+        cache.exists("/n2");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+
+        long misses = cache.getMisses();
+        cache.exists("/n0");
+        Assert.assertEquals(misses, cache.getMisses());
+        cache.exists("/n1");
+        Assert.assertEquals(misses + 1, cache.getMisses());
+    }
+}